@@ -41,18 +41,28 @@ CREATE TABLE products (
     description TEXT COMMENT '商品描述',
     price DECIMAL(10, 2) NOT NULL COMMENT '價格',
     stock_quantity INT NOT NULL DEFAULT 0 COMMENT '庫存數量',
+    sold_count INT NOT NULL DEFAULT 0 COMMENT '累計銷量（下單和取消訂單時同步更新，銷量排行以此為準）',
     category_id BIGINT COMMENT '分類ID',
     image_url VARCHAR(500) COMMENT '商品圖片URL',
     sku VARCHAR(50) UNIQUE COMMENT '商品編號',
     status ENUM('ACTIVE', 'INACTIVE', 'OUT_OF_STOCK') DEFAULT 'ACTIVE' COMMENT '商品狀態',
     created_by BIGINT COMMENT '創建者ID',
+    flash_sale BOOLEAN NOT NULL DEFAULT FALSE COMMENT '搶購模式（庫存由內存賬本管理，成交後批量回寫）',
+    version BIGINT NOT NULL DEFAULT 0 COMMENT '樂觀鎖版本號（條件扣減庫存時同時遞增）',
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
     FOREIGN KEY (category_id) REFERENCES categories(id) ON DELETE SET NULL,
     FOREIGN KEY (created_by) REFERENCES users(id) ON DELETE SET NULL,
     INDEX idx_category_id (category_id),
     INDEX idx_status (status),
-    INDEX idx_sku (sku)
+    INDEX idx_sku (sku),
+    -- 商品列表鍵集分頁（按價格、上架時間、銷量排序）
+    INDEX idx_products_price_id (price, id),
+    INDEX idx_products_created_id (created_at, id),
+    INDEX idx_products_sold_id (sold_count, id),
+    INDEX idx_products_category_price_id (category_id, price, id),
+    INDEX idx_products_category_created_id (category_id, created_at, id),
+    INDEX idx_products_category_sold_id (category_id, sold_count, id)
 ) COMMENT='商品表';
 
 -- 購物車表
@@ -68,6 +78,18 @@ CREATE TABLE cart_items (
     INDEX idx_user_id (user_id)
 ) COMMENT='購物車項目表';
 
+-- 購物車變更日誌表（修改購物車時先插入，寫入 cart_items 時刪除；異常終止後載入購物車時重做）
+CREATE TABLE cart_journal (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id BIGINT NOT NULL COMMENT '用戶ID',
+    product_id BIGINT COMMENT '商品ID（清空購物車時為空）',
+    operation VARCHAR(10) NOT NULL COMMENT '修改類型：ADD、SET、DELETE、CLEAR',
+    quantity INT NOT NULL COMMENT '增量或新數量',
+    total INT NOT NULL COMMENT '修改後購物車中的數量',
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    INDEX idx_cart_journal_user (user_id, id)
+) COMMENT='購物車變更日誌表';
+
 -- 訂單表
 CREATE TABLE orders (
     id BIGINT AUTO_INCREMENT PRIMARY KEY,
@@ -119,6 +141,60 @@ CREATE TABLE user_activity_logs (
     INDEX idx_created_at (created_at)
 ) COMMENT='用戶活動日誌表';
 
+-- 訂單事件發件箱表（與訂單同一事務寫入，由轉發任務認領後投遞活動日誌、每日統計和郵件）
+CREATE TABLE outbox_events (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    event_type VARCHAR(30) NOT NULL COMMENT '事件類型',
+    order_id BIGINT NOT NULL COMMENT '訂單ID',
+    user_id BIGINT NOT NULL COMMENT '用戶ID',
+    order_number VARCHAR(50) NOT NULL COMMENT '訂單編號',
+    order_amount DECIMAL(10,2) COMMENT '訂單金額',
+    occurred_at TIMESTAMP NOT NULL COMMENT '事件發生時間',
+    handled INT NOT NULL DEFAULT 0 COMMENT '已完成的處理器位元',
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING' COMMENT '投遞狀態',
+    attempts INT NOT NULL DEFAULT 0 COMMENT '投遞次數',
+    next_attempt_at TIMESTAMP NOT NULL COMMENT '下次投遞時間',
+    last_error VARCHAR(1000) COMMENT '最近一次錯誤',
+    processed_at TIMESTAMP NULL COMMENT '完成時間',
+    claim_token VARCHAR(36) COMMENT '認領標記',
+    claimed_until TIMESTAMP NULL COMMENT '認領租約到期時間',
+    INDEX idx_outbox_status_next (status, next_attempt_at)
+) COMMENT='訂單事件發件箱表';
+
+-- 每日訂單統計表（由發件箱轉發任務累加）
+CREATE TABLE daily_order_stats (
+    stat_date DATE PRIMARY KEY COMMENT '統計日期',
+    placed_count INT NOT NULL DEFAULT 0 COMMENT '下單數',
+    paid_count INT NOT NULL DEFAULT 0 COMMENT '付款數',
+    shipped_count INT NOT NULL DEFAULT 0 COMMENT '發貨數',
+    delivered_count INT NOT NULL DEFAULT 0 COMMENT '收貨數',
+    cancelled_count INT NOT NULL DEFAULT 0 COMMENT '取消數',
+    placed_amount DECIMAL(14,2) NOT NULL DEFAULT 0 COMMENT '下單金額（取消按取消日扣除）'
+) COMMENT='每日訂單統計表';
+
+-- 搶購成交日誌表（與訂單同一事務寫入，回寫庫存時刪除；啟動時補寫剩餘記錄）
+CREATE TABLE flash_sale_journal (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    product_id BIGINT NOT NULL COMMENT '商品ID',
+    quantity INT NOT NULL COMMENT '成交數量（取消訂單為負數）',
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    INDEX idx_flash_sale_journal_product (product_id)
+) COMMENT='搶購成交日誌表';
+
+-- 商品通知訂閱表（到貨、降價通知，通知發出後刪除）
+CREATE TABLE product_subscriptions (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id BIGINT NOT NULL COMMENT '用戶ID',
+    product_id BIGINT NOT NULL COMMENT '商品ID',
+    type VARCHAR(20) NOT NULL COMMENT '訂閱類型（BACK_IN_STOCK、PRICE_DROP）',
+    subscribed_price DECIMAL(10, 2) COMMENT '訂閱時的價格，低於此價格時發出降價通知',
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+    UNIQUE KEY unique_subscription (user_id, product_id, type),
+    -- 按商品分批讀取訂閱者
+    INDEX idx_subscription_product (product_id, type, id)
+) COMMENT='商品通知訂閱表';
+
 -- 插入初始數據
 -- 插入管理員用戶（密碼：admin123）
 INSERT INTO users (username, email, password, first_name, last_name, role) 
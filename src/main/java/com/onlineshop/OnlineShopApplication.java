@@ -3,15 +3,18 @@ package com.onlineshop;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * 線上購物系統主應用程序
  * 啟動類，負責初始化Spring Boot應用
  *
- * @EnableAsync 啟用異步方法執行支持，用於郵件發送等耗時操作
+ * @EnableAsync 啟用異步方法執行支持，用於郵件發送等耗時操作，線程池見 AsyncConfig
+ * @EnableScheduling 啟用定時任務，用於刷新銷量排行等內存快照
  */
 @SpringBootApplication
 @EnableAsync
+@EnableScheduling
 public class OnlineShopApplication {
     
     public static void main(String[] args) {
@@ -0,0 +1,77 @@
+package com.onlineshop.config;
+
+import org.springframework.aop.interceptor.AsyncUncaughtExceptionHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.AsyncConfigurer;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 異步任務線程池配置
+ * 每類工作一個有界線程池，互不影響：郵件發送（SMTP 慢或中斷時只堆積到隊列上限）、
+ * 圖片處理（CPU 密集）、統計和索引重建等後台計算、發件箱投遞（等待郵件時不佔用定時任務線程）。
+ * 參數在 async.&lt;名稱&gt;.* 下配置：core-size、max-size、queue-capacity、rejection-policy
+ */
+@Configuration
+public class AsyncConfig implements AsyncConfigurer {
+
+    public static final String MAIL_EXECUTOR = "mailExecutor";
+
+    public static final String IMAGE_EXECUTOR = "imageExecutor";
+
+    public static final String ANALYTICS_EXECUTOR = "analyticsExecutor";
+
+    public static final String OUTBOX_EXECUTOR = "outboxExecutor";
+
+    @Autowired
+    private Environment environment;
+
+    @Bean(MAIL_EXECUTOR)
+    public MonitoredExecutor mailExecutor() {
+        return create("mail", 4, 4, 200, MonitoredExecutor.RejectionPolicy.ABORT);
+    }
+
+    @Bean(IMAGE_EXECUTOR)
+    public MonitoredExecutor imageExecutor() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return create("image", processors, processors, 100, MonitoredExecutor.RejectionPolicy.ABORT);
+    }
+
+    @Bean(ANALYTICS_EXECUTOR)
+    public MonitoredExecutor analyticsExecutor() {
+        return create("analytics", 1, 2, 100, MonitoredExecutor.RejectionPolicy.DISCARD_OLDEST);
+    }
+
+    @Bean(OUTBOX_EXECUTOR)
+    public MonitoredExecutor outboxExecutor() {
+        return create("outbox", 1, 1, 1, MonitoredExecutor.RejectionPolicy.ABORT);
+    }
+
+    /**
+     * 未指定線程池的 @Async 方法使用後台計算線程池，不再落到無界隊列的默認線程池
+     */
+    @Override
+    public Executor getAsyncExecutor() {
+        return analyticsExecutor();
+    }
+
+    @Override
+    public AsyncUncaughtExceptionHandler getAsyncUncaughtExceptionHandler() {
+        return (error, method, params) ->
+            System.err.println("異步任務 " + method.getName() + " 執行失敗: " + error.getMessage());
+    }
+
+    private MonitoredExecutor create(String name, int coreSize, int maxSize, int queueCapacity,
+                                     MonitoredExecutor.RejectionPolicy rejectionPolicy) {
+        String prefix = "async." + name + ".";
+        return new MonitoredExecutor(name + "-executor",
+                environment.getProperty(prefix + "core-size", Integer.class, coreSize),
+                environment.getProperty(prefix + "max-size", Integer.class, maxSize),
+                environment.getProperty(prefix + "queue-capacity", Integer.class, queueCapacity),
+                environment.getProperty(prefix + "rejection-policy", MonitoredExecutor.RejectionPolicy.class,
+                        rejectionPolicy));
+    }
+}
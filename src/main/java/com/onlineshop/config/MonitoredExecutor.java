@@ -0,0 +1,145 @@
+package com.onlineshop.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * 有界線程池
+ * 隊列容量固定，隊列和線程都滿時按拒絕策略處理新任務，不會無限堆積佔用內存；
+ * 記錄任務的排隊時間、執行時間和被拒絕次數，供管理後台查看
+ */
+public class MonitoredExecutor extends ThreadPoolTaskExecutor {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+
+    private final int queueCapacity;
+
+    private final RejectionPolicy rejectionPolicy;
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong totalRunNanos = new AtomicLong();
+
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+    public MonitoredExecutor(String name, int coreSize, int maxSize, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.rejectionPolicy = rejectionPolicy;
+        setThreadNamePrefix(name + "-");
+        setCorePoolSize(coreSize);
+        setMaxPoolSize(Math.max(coreSize, maxSize));
+        setQueueCapacity(queueCapacity);
+        setTaskDecorator(this::measure);
+        setRejectedExecutionHandler(countRejections(rejectionPolicy.newHandler()));
+        // 關閉時等待已提交的任務執行完
+        setWaitForTasksToCompleteOnShutdown(true);
+        setAwaitTerminationSeconds(30);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /**
+     * 當前統計快照
+     */
+    public ExecutorStats getStats() {
+        ThreadPoolExecutor executor = getThreadPoolExecutor();
+        long done = completed.get();
+        return new ExecutorStats(name, rejectionPolicy, executor.getPoolSize(), executor.getMaximumPoolSize(),
+                executor.getActiveCount(), executor.getQueue().size(), queueCapacity, done, rejected.get(),
+                done == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / done),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()),
+                done == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalRunNanos.get() / done));
+    }
+
+    /**
+     * 提交時記下時間，開始執行時計算排隊時間，結束時計算執行時間
+     */
+    private Runnable measure(Runnable task) {
+        long submittedAt = System.nanoTime();
+        return () -> {
+            long startedAt = System.nanoTime();
+            long waited = startedAt - submittedAt;
+            totalWaitNanos.addAndGet(waited);
+            maxWaitNanos.accumulate(waited);
+            try {
+                task.run();
+            } finally {
+                totalRunNanos.addAndGet(System.nanoTime() - startedAt);
+                completed.incrementAndGet();
+            }
+        };
+    }
+
+    private RejectedExecutionHandler countRejections(RejectedExecutionHandler handler) {
+        return (task, executor) -> {
+            rejected.incrementAndGet();
+            if (rejectionPolicy == RejectionPolicy.DISCARD || rejectionPolicy == RejectionPolicy.DISCARD_OLDEST) {
+                System.err.println("線程池 " + name + " 已滿，丟棄一個任務");
+            }
+            handler.rejectedExecution(task, executor);
+        };
+    }
+
+    /**
+     * 隊列已滿時的處理方式
+     */
+    public enum RejectionPolicy {
+        /** 拋出 TaskRejectedException，由提交方決定稍後重試 */
+        ABORT,
+        /** 由提交任務的線程自己執行，減慢提交速度 */
+        CALLER_RUNS,
+        /** 丟棄新任務 */
+        DISCARD,
+        /** 丟棄隊列中最舊的任務，適合可以合併的重算任務 */
+        DISCARD_OLDEST;
+
+        RejectedExecutionHandler newHandler() {
+            switch (this) {
+                case CALLER_RUNS: return new ThreadPoolExecutor.CallerRunsPolicy();
+                case DISCARD: return new ThreadPoolExecutor.DiscardPolicy();
+                case DISCARD_OLDEST: return new ThreadPoolExecutor.DiscardOldestPolicy();
+                default: return new ThreadPoolExecutor.AbortPolicy();
+            }
+        }
+    }
+
+    /**
+     * 線程池統計快照
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class ExecutorStats {
+        private final String name;
+        private final RejectionPolicy rejectionPolicy;
+        private final int poolSize;
+        private final int maxPoolSize;
+        private final int activeCount;
+        private final int queueSize;
+        private final int queueCapacity;
+        private final long completedCount;
+        private final long rejectedCount;
+        private final long averageWaitMillis;
+        private final long maxWaitMillis;
+        private final long averageRunMillis;
+    }
+}
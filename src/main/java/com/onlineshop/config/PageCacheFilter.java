@@ -0,0 +1,171 @@
+package com.onlineshop.config;
+
+import com.onlineshop.service.PageCacheService;
+import com.onlineshop.service.PageValidatorService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.support.SessionFlashMapManager;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 頁面緩存過濾器
+ * 排在 Spring Security 之前，匿名訪客的公共 GET 頁面命中緩存時直接返回，
+ * 不經過安全過濾鏈、數據庫和模板引擎。
+ * 商品詳情和列表頁帶有 ETag 和 Last-Modified，條件請求先取驗證器（目錄未改變時不查詢數據庫），頁面未改變時直接返回 304
+ */
+public class PageCacheFilter extends OncePerRequestFilter {
+
+    private static final String FLASH_MAPS_ATTRIBUTE = SessionFlashMapManager.class.getName() + ".FLASH_MAPS";
+
+    private final PageCacheService pageCacheService;
+
+    private final PageValidatorService pageValidatorService;
+
+    public PageCacheFilter(PageCacheService pageCacheService, PageValidatorService pageValidatorService) {
+        this.pageCacheService = pageCacheService;
+        this.pageValidatorService = pageValidatorService;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!"GET".equals(request.getMethod())) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return !(path.equals("/") || path.equals("/home")
+                || path.equals("/products") || path.startsWith("/products/"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        if (!isAnonymous(request)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        // 條件請求只取驗證器，頁面未改變時不讀緩存也不渲染
+        boolean conditional = request.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+                || request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null;
+        if (conditional && applyValidators(request, response)) {
+            return;
+        }
+
+        String cacheKey = request.getQueryString() == null
+                ? request.getRequestURI()
+                : request.getRequestURI() + "?" + request.getQueryString();
+
+        PageCacheService.CachedPage cached = pageCacheService.getPage(cacheKey);
+        if (cached != null && matchesValidators(cached, response)) {
+            // 緩存的頁面帶有渲染時的驗證頭，緩存條目在商品變更時已被清除
+            writeCachedPage(cached, response);
+            return;
+        }
+        if (!conditional) {
+            applyValidators(request, response);
+        }
+
+        long renderStartedAt = pageCacheService.beginRender();
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        filterChain.doFilter(request, wrapper);
+
+        Set<String> surrogateKeys = pageCacheService.getRequestTags(request);
+        if (surrogateKeys != null && isCacheable(request, wrapper)) {
+            pageCacheService.putPage(cacheKey, wrapper.getContentAsByteArray(), copyHeaders(wrapper), surrogateKeys,
+                    renderStartedAt);
+        }
+        wrapper.copyBodyToResponse();
+    }
+
+    /**
+     * 沒有會話，或會話中既沒有登錄信息也沒有待顯示的 flash 消息
+     */
+    private boolean isAnonymous(HttpServletRequest request) {
+        HttpSession session = request.getSession(false);
+        if (session == null) {
+            return true;
+        }
+        Object flashMaps = session.getAttribute(FLASH_MAPS_ATTRIBUTE);
+        return session.getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY) == null
+                && (flashMaps == null || (flashMaps instanceof List && ((List<?>) flashMaps).isEmpty()));
+    }
+
+    /**
+     * 設置頁面的 ETag 和 Last-Modified，請求的驗證器匹配時設置 304 並返回 true。
+     * 頁面允許瀏覽器保存但每次使用前重新驗證；登錄後頁面內容不同，按 Cookie 區分
+     */
+    private boolean applyValidators(HttpServletRequest request, HttpServletResponse response) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        PageValidatorService.Validators validators = pageValidatorService.getValidators(path);
+        if (validators == null) {
+            return false;
+        }
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.COOKIE);
+        return new ServletWebRequest(request, response)
+                .checkNotModified(validators.getEtag(), validators.getLastModified());
+    }
+
+    /**
+     * 條件請求已按本次查詢的版本設置 ETag 時，緩存頁面必須是同一版本渲染的，
+     * 否則當作未命中重新渲染，避免新的驗證頭配上舊的頁面內容
+     */
+    private boolean matchesValidators(PageCacheService.CachedPage cached, HttpServletResponse response) {
+        String etag = response.getHeader(HttpHeaders.ETAG);
+        if (etag == null) {
+            return true;
+        }
+        List<String> cachedEtags = cached.getHeaders().get(HttpHeaders.ETAG);
+        return cachedEtags != null && cachedEtags.contains(etag);
+    }
+
+    /**
+     * 只緩存正常渲染、沒有創建會話的響應
+     */
+    private boolean isCacheable(HttpServletRequest request, ContentCachingResponseWrapper response) {
+        return response.getStatus() == HttpServletResponse.SC_OK
+                && response.getHeader(HttpHeaders.SET_COOKIE) == null
+                && request.getSession(false) == null;
+    }
+
+    private Map<String, List<String>> copyHeaders(HttpServletResponse response) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (String name : response.getHeaderNames()) {
+            headers.put(name, new ArrayList<>(response.getHeaders(name)));
+        }
+        if (response.getContentType() != null) {
+            headers.put(HttpHeaders.CONTENT_TYPE, List.of(response.getContentType()));
+        }
+        return headers;
+    }
+
+    private void writeCachedPage(PageCacheService.CachedPage cached, HttpServletResponse response) throws IOException {
+        for (Map.Entry<String, List<String>> header : cached.getHeaders().entrySet()) {
+            if (response.containsHeader(header.getKey())) {
+                // 條件請求已按本次查詢的版本設置驗證頭
+                continue;
+            }
+            for (String value : header.getValue()) {
+                response.addHeader(header.getKey(), value);
+            }
+        }
+        response.setHeader("X-Page-Cache", "HIT");
+        response.setContentLength(cached.getBody().length);
+        response.getOutputStream().write(cached.getBody());
+    }
+}
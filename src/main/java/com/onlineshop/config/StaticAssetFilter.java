@@ -0,0 +1,94 @@
+package com.onlineshop.config;
+
+import com.onlineshop.service.StaticAssetService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 指紋靜態資源過濾器
+ * 排在 Spring Security 之前直接發送 /assets/ 下的指紋資源，不經過安全過濾鏈和 DispatcherServlet；
+ * 指紋 URL 的內容永不改變，以一年不可變緩存發送，瀏覽器接受時發送預先壓縮的 gzip 版本
+ */
+public class StaticAssetFilter extends OncePerRequestFilter {
+
+    private static final String CACHE_CONTROL =
+            CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable().getHeaderValue();
+
+    private final StaticAssetService staticAssetService;
+
+    public StaticAssetFilter(StaticAssetService staticAssetService) {
+        this.staticAssetService = staticAssetService;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !("GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod()));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        StaticAssetService.Asset asset = staticAssetService.getAsset(path);
+        if (asset == null) {
+            // 舊版本的指紋 URL 或不存在的文件
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String etag = "\"" + asset.getEtag() + "\"";
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        if (asset.getGzipContent() != null) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (etag.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        byte[] body = asset.getContent();
+        if (asset.getGzipContent() != null && acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            body = asset.getGzipContent();
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        // 全局強制的 UTF-8 編碼不適用於字體等二進制內容，文本類型的字符集寫在 Content-Type 中
+        response.setCharacterEncoding((String) null);
+        response.setContentType(asset.getContentType());
+        response.setContentLength(body.length);
+        if (!"HEAD".equals(request.getMethod())) {
+            response.getOutputStream().write(body);
+        }
+    }
+
+    /**
+     * Accept-Encoding 是否包含 gzip 且沒有以 q=0 排除
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase("gzip")) {
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim().replace(" ", "");
+                    if (parameter.matches("q=0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+}
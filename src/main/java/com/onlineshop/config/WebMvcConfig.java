@@ -1,19 +1,25 @@
 package com.onlineshop.config;
 
+import com.onlineshop.service.PageCacheService;
+import com.onlineshop.service.PageValidatorService;
+import com.onlineshop.service.StaticAssetService;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 /**
  * Web MVC 配置
- * 配置靜態資源處理
+ * 配置靜態資源處理、指紋靜態資源過濾器和頁面緩存過濾器
  */
 @Configuration
 public class WebMvcConfig implements WebMvcConfigurer {
 
     /**
      * 配置靜態資源處理器
-     * 確保所有靜態資源都能正確訪問
+     * 確保所有靜態資源都能正確訪問；模板引用的是 /assets/ 下的指紋 URL，這裡的路徑供直接訪問
      */
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
@@ -44,4 +50,31 @@ public class WebMvcConfig implements WebMvcConfigurer {
                 .addResourceLocations("classpath:/static/")
                 .setCachePeriod(3600);
     }
-}
\ No newline at end of file
+    
+    /**
+     * 註冊指紋靜態資源過濾器
+     * 排在頁面緩存和 Spring Security 過濾鏈之前，靜態資源請求不經過安全過濾器
+     */
+    @Bean
+    public FilterRegistrationBean<StaticAssetFilter> staticAssetFilter(StaticAssetService staticAssetService) {
+        FilterRegistrationBean<StaticAssetFilter> registration =
+                new FilterRegistrationBean<>(new StaticAssetFilter(staticAssetService));
+        registration.addUrlPatterns(StaticAssetService.PREFIX + "/*");
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 2);
+        return registration;
+    }
+    
+    /**
+     * 註冊頁面緩存過濾器
+     * 順序排在 Spring Security 過濾鏈之前，緩存命中時不經過安全過濾器
+     */
+    @Bean
+    public FilterRegistrationBean<PageCacheFilter> pageCacheFilter(PageCacheService pageCacheService,
+                                                                   PageValidatorService pageValidatorService) {
+        FilterRegistrationBean<PageCacheFilter> registration =
+                new FilterRegistrationBean<>(new PageCacheFilter(pageCacheService, pageValidatorService));
+        registration.addUrlPatterns("/*");
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 1);
+        return registration;
+    }
+}
@@ -1,8 +1,13 @@
 package com.onlineshop.controller;
 
+import com.onlineshop.config.MonitoredExecutor;
 import com.onlineshop.model.*;
 import com.onlineshop.repository.*;
 import com.onlineshop.service.OrderService;
+import com.onlineshop.service.OutboxService;
+import com.onlineshop.service.PageCacheService;
+import com.onlineshop.service.ProductDetailCache;
+import com.onlineshop.service.ProductImageService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -11,6 +16,7 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -35,6 +41,24 @@ public class AdminController {
     @Autowired
     private OrderService orderService;
     
+    @Autowired
+    private ProductDetailCache productDetailCache;
+    
+    @Autowired
+    private PageCacheService pageCacheService;
+    
+    @Autowired
+    private ProductImageService productImageService;
+    
+    @Autowired
+    private DailyOrderStatsRepository dailyOrderStatsRepository;
+    
+    @Autowired
+    private OutboxService outboxService;
+    
+    @Autowired
+    private List<MonitoredExecutor> executors;
+    
     /**
      * 管理員儀表板
      */
@@ -51,6 +75,12 @@ public class AdminController {
         model.addAttribute("pendingOrders", pendingOrders);
         model.addAttribute("processingOrders", processingOrders);
         
+        // 今日訂單統計（發件箱事件累加）和待投遞事件
+        model.addAttribute("todayStats", dailyOrderStatsRepository.findById(LocalDate.now())
+            .orElseGet(() -> new DailyOrderStats(LocalDate.now())));
+        model.addAttribute("outboxPending", outboxService.getPendingCount());
+        model.addAttribute("outboxFailed", outboxService.getFailedCount());
+        
         // 最近的訂單
         List<Order> recentOrders = orderRepository.findTop10ByOrderByCreatedAtDesc();
         model.addAttribute("recentOrders", recentOrders);
@@ -59,6 +89,17 @@ public class AdminController {
         List<UserActivityLog> recentActivities = activityLogRepository.findTop20ByOrderByCreatedAtDesc();
         model.addAttribute("recentActivities", recentActivities);
         
+        // 緩存統計
+        model.addAttribute("productCacheStats", productDetailCache.getStats());
+        model.addAttribute("pageCacheSize", pageCacheService.size());
+        model.addAttribute("pageCacheHits", pageCacheService.getHitCount());
+        model.addAttribute("pageCacheMisses", pageCacheService.getMissCount());
+        model.addAttribute("pageCachePurges", pageCacheService.getPurgeCount());
+        model.addAttribute("imageCacheStats", productImageService.getCacheStats());
+        
+        // 後台線程池：隊列長度、排隊和執行時間
+        model.addAttribute("executorStats", executors.stream().map(MonitoredExecutor::getStats).toList());
+        
         return "admin/dashboard";
     }
     
@@ -1,9 +1,13 @@
 package com.onlineshop.controller;
 
+import com.onlineshop.dto.CatalogPage;
+import com.onlineshop.dto.ProductSummary;
 import com.onlineshop.model.Product;
-import com.onlineshop.model.Category;
+import com.onlineshop.service.CatalogService;
+import com.onlineshop.service.CategoryTreeService;
+import com.onlineshop.service.PageCacheService;
+import com.onlineshop.service.ProductFacetIndex;
 import com.onlineshop.service.ProductService;
-import com.onlineshop.repository.CategoryRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -11,8 +15,6 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestParam;
 
-import java.math.BigDecimal;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -26,22 +28,30 @@ public class HomeController {
     private ProductService productService;
     
     @Autowired
-    private CategoryRepository categoryRepository;
+    private CatalogService catalogService;
+    
+    @Autowired
+    private PageCacheService pageCacheService;
+    
+    @Autowired
+    private CategoryTreeService categoryTreeService;
     
     /**
      * 首頁
      */
     @GetMapping("/")
     public String home(Model model) {
-        //獲取熱銷商品
-        List<Product> topProducts = productService.getTopSellingProducts();
+        // 熱銷商品卡片渲染一次後緩存，商品或排行變化時清除
+        String topProductsHtml = pageCacheService.renderFragment("top-products", "fragments/catalog", "top-products",
+            (variables, surrogateKeys) -> {
+                List<ProductSummary> topProducts = productService.getTopSellingProducts();
+                variables.put("topProducts", topProducts);
+                surrogateKeys.add(PageCacheService.RANKING_KEY);
+                surrogateKeys.add(PageCacheService.PRODUCT_LIST_KEY);
+                topProducts.forEach(p -> surrogateKeys.add(PageCacheService.productKey(p.getId())));
+            });
         
-        // 如果數據庫沒有數據，顯示空列表
-        if (topProducts == null) {
-            topProducts = new ArrayList<>();
-        }
-        
-        model.addAttribute("topProducts", topProducts);
+        model.addAttribute("topProductsHtml", topProductsHtml);
         return "home";
     }
     
@@ -55,35 +65,54 @@ public class HomeController {
     
     /**
      * 商品列表頁
+     * 使用鍵集分頁，cursor 為上一頁返回的不透明游標；分類、價格區間、庫存狀態可任意組合篩選
      */
     @GetMapping("/products")
     public String products(@RequestParam(required = false) String search,
                           @RequestParam(required = false) Long categoryId,
+                          @RequestParam(required = false) String priceRange,
+                          @RequestParam(required = false) String stock,
+                          @RequestParam(required = false) String sort,
+                          @RequestParam(required = false) String cursor,
+                          @RequestParam(required = false) Integer size,
                           Model model) {
-        List<Product> products;
+        CatalogPage<ProductSummary> page;
         
         if (search != null && !search.trim().isEmpty()) {
             // 搜索商品
-            products = productService.searchProducts(search);
+            page = catalogService.search(search, cursor, size);
             model.addAttribute("searchQuery", search);
-        } else if (categoryId != null) {
-            // 按分類篩選
-            products = productService.getProductsByCategory(categoryId);
-            model.addAttribute("selectedCategoryId", categoryId);
         } else {
-            // 所有商品
-            products = productService.getAllProducts();
+            // 按分類、價格區間、庫存狀態組合篩選
+            ProductFacetIndex.PriceRange selectedPriceRange = ProductFacetIndex.PriceRange.fromParameter(priceRange);
+            ProductFacetIndex.StockStatus selectedStock = ProductFacetIndex.StockStatus.fromParameter(stock);
+            page = catalogService.browse(categoryId, selectedPriceRange, selectedStock,
+                    CatalogService.SortOption.fromParameter(sort), cursor, size);
+            model.addAttribute("selectedCategoryId", categoryId);
+            model.addAttribute("selectedPriceRange", selectedPriceRange == null ? null : selectedPriceRange.getParameter());
+            model.addAttribute("selectedStock", selectedStock == null ? null : selectedStock.getParameter());
         }
         
-        // 不再使用測試數據 - 如果沒有商品就顯示空列表
-        if (products == null) {
-            products = new ArrayList<>();
+        // 頁面代理鍵：列表本身和頁面上的每個商品
+        pageCacheService.tag(PageCacheService.PRODUCT_LIST_KEY);
+        page.getContent().forEach(p -> pageCacheService.tag(PageCacheService.productKey(p.getId())));
+        if (CatalogService.SortOption.POPULAR.getParameter().equals(page.getSort())) {
+            pageCacheService.tag(PageCacheService.RANKING_KEY);
         }
         
-        // 添加分類列表
-        List<Category> categories = categoryRepository.findAll();
-        model.addAttribute("categories", categories);
-        model.addAttribute("products", products);
+        // 分類選項渲染一次後緩存
+        String categoryOptionsHtml = pageCacheService.renderFragment("category-options:" + categoryId,
+            "fragments/catalog", "category-options",
+            (variables, surrogateKeys) -> {
+                variables.put("categories", categoryTreeService.getTree().getNodes());
+                variables.put("selectedCategoryId", categoryId);
+                surrogateKeys.add(PageCacheService.CATEGORIES_KEY);
+            });
+        
+        model.addAttribute("categoryOptionsHtml", categoryOptionsHtml);
+        model.addAttribute("page", page);
+        model.addAttribute("products", page.getContent());
+        model.addAttribute("sortOptions", CatalogService.SortOption.values());
         return "products";
     }
     
@@ -93,8 +122,12 @@ public class HomeController {
     @GetMapping("/products/{id}")
     public String productDetail(@PathVariable Long id, Model model) {
         try {
-            Product product = productService.getProductById(id);
+            Product product = productService.getProductForDisplay(id);
             model.addAttribute("product", product);
+            pageCacheService.tag(PageCacheService.productKey(product.getId()));
+            if (product.getCategory() != null) {
+                pageCacheService.tag(PageCacheService.categoryKey(product.getCategory().getId()));
+            }
         } catch (Exception e) {
             // 商品不存在，返回錯誤頁面
             return "redirect:/products?error=notfound";
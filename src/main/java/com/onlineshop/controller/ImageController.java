@@ -1,107 +1,166 @@
 package com.onlineshop.controller;
 
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
+import com.onlineshop.service.ImageCache;
+import com.onlineshop.service.ProductImageProcessor;
+import com.onlineshop.service.ProductImageService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpRange;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.context.request.ServletWebRequest;
 
-import java.io.File;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
  * 圖片控制器
- * 負責從本地文件系統提供產品圖片
+ * 負責從本地文件系統提供產品圖片：以內容哈希作強 ETag 支持條件請求（304）和單一範圍請求（206），
+ * 熱門圖片從堆外內存緩存發送，其餘圖片交給 Tomcat 用 sendfile 由內核直接從文件複製到套接字；
+ * 內容尋址的圖片 URL 內容不變，允許瀏覽器和 CDN 緩存一年且不再重新驗證；請求的縮略圖等變體尚未生成時返回原圖
  */
 @Controller
 @RequestMapping("/images/products")
 public class ImageController {
 
-    @Value("${upload.path:src/main/resources/static/images/products}")
-    private String uploadPath;
+    /** Tomcat 支持 sendfile 時設置的請求屬性，以及要求連接器發送文件的請求屬性 */
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    @Autowired
+    private ProductImageService productImageService;
 
     /**
      * 獲取產品圖片
      * @param filename 圖片檔案名稱
-     * @return 圖片資源
      */
     @GetMapping("/{filename:.+}")
-    public ResponseEntity<Resource> getProductImage(@PathVariable String filename) {
-        try {
-            // 構建圖片文件路徑
-            Path imagePath = Paths.get(uploadPath).resolve(filename);
-            File imageFile = imagePath.toFile();
-            
-            System.out.println("=== ImageController Debug ===");
-            System.out.println("Requested filename: " + filename);
-            System.out.println("Upload path: " + uploadPath);
-            System.out.println("Full image path: " + imagePath.toAbsolutePath());
-            System.out.println("File exists: " + imageFile.exists());
-            System.out.println("File readable: " + imageFile.canRead());
-            System.out.println("File size: " + (imageFile.exists() ? imageFile.length() : 0) + " bytes");
-            
-            if (!imageFile.exists() || !imageFile.canRead()) {
-                System.err.println("Image not found or not readable: " + imagePath);
-                return ResponseEntity.notFound().build();
+    public void getProductImage(@PathVariable String filename, HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
+        ProductImageService.ImageFile image = productImageService.getImage(filename);
+        boolean pendingVariant = false;
+        if (image == null) {
+            // 縮略圖等變體尚未生成時返回原圖，不讓瀏覽器緩存
+            String original = ProductImageProcessor.originalOf(filename);
+            if (original != null) {
+                image = productImageService.getImage(original);
+                pendingVariant = true;
+            }
+        }
+        if (image == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        CacheControl cacheControl;
+        if (pendingVariant) {
+            cacheControl = CacheControl.noCache();
+        } else if (image.isImmutable()) {
+            cacheControl = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+        } else {
+            cacheControl = CacheControl.maxAge(1, TimeUnit.HOURS).cachePublic();
+        }
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        // 設置 ETag 和 Last-Modified，If-None-Match 或 If-Modified-Since 匹配時返回 304
+        if (new ServletWebRequest(request, response).checkNotModified(image.getEtag(), image.getLastModified())) {
+            return;
+        }
+
+        long start = 0;
+        long length = image.getSize();
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.equals("\"" + image.getEtag() + "\""))) {
+            List<HttpRange> ranges = parseRanges(range);
+            // 多個範圍時返回完整圖片
+            if (ranges.size() == 1) {
+                HttpRange requested = ranges.get(0);
+                long end;
+                try {
+                    start = requested.getRangeStart(image.getSize());
+                    end = requested.getRangeEnd(image.getSize());
+                } catch (IllegalArgumentException e) {
+                    start = image.getSize();
+                    end = -1;
+                }
+                if (start >= image.getSize() || end < start) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + image.getSize());
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                length = end - start + 1;
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + image.getSize());
             }
+        }
 
-            // 創建文件系統資源
-            Resource resource = new FileSystemResource(imageFile);
+        // 全局強制的 UTF-8 編碼不適用於二進制內容
+        response.setCharacterEncoding((String) null);
+        response.setContentType(image.getContentType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
+        response.setContentLengthLong(length);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
 
-            // 確定檔案的MIME 類型
-            String contentType = determineContentType(filename);
-            System.out.println("Content type: " + contentType);
+        try (ImageCache.Content cached = productImageService.getCachedContent(image)) {
+            if (cached != null) {
+                ByteBuffer buffer = cached.getBuffer();
+                buffer.position((int) start).limit((int) (start + length));
+                WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                return;
+            }
+        }
 
-            // 設置緩存控制
-            CacheControl cacheControl = CacheControl.maxAge(1, TimeUnit.HOURS)
-                    .cachePublic();
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // 控制器返回後由連接器用 sendfile 發送，不經過 JVM 緩衝區
+            request.setAttribute(SENDFILE_FILENAME, image.getPath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            return;
+        }
 
-            System.out.println("Successfully serving image: " + filename);
-            
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .cacheControl(cacheControl)
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"")
-                    .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
-                    .body(resource);    
-        } catch (Exception e) {
-            // 記錄錯誤但不拋出異常，返回 404
-            System.err.println("Error loading image: " + filename);
-            e.printStackTrace();
-            return ResponseEntity.notFound().build();
+        try (FileChannel channel = FileChannel.open(image.getPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, remaining, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
         }
     }
 
     /**
-     * 根據檔案副檔名確定 MIME 類型
-     * @param filename 檔案名稱
-     * @return MIME 類型
+     * 解析 Range 請求頭，格式錯誤時忽略並返回完整圖片
      */
-    private String determineContentType(String filename) {
-        String extension = filename.substring(filename.lastIndexOf(".") + 1).toLowerCase();
-        
-        switch (extension) {
-            case "jpg":
-            case "jpeg":
-                return "image/jpeg";
-            case "png":
-                return "image/png";
-            case "gif":
-                return "image/gif";
-            case "webp":
-                return "image/webp";
-            case "svg":
-                return "image/svg+xml";
-            default:
-                return "application/octet-stream";
+    private static List<HttpRange> parseRanges(String range) {
+        try {
+            return HttpRange.parseRanges(range);
+        } catch (IllegalArgumentException e) {
+            return List.of();
         }
     }
-}
\ No newline at end of file
+}
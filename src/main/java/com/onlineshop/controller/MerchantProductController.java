@@ -1,13 +1,20 @@
 package com.onlineshop.controller;
 
+import com.onlineshop.dto.InventorySyncResult;
+import com.onlineshop.dto.ProductImportResult;
+import com.onlineshop.dto.ProductSummary;
 import com.onlineshop.model.Product;
 import com.onlineshop.model.Category;
 import com.onlineshop.model.User;
+import com.onlineshop.service.CategoryTreeService;
+import com.onlineshop.service.FlashSaleService;
+import com.onlineshop.service.ImageStore;
+import com.onlineshop.service.InventorySyncService;
+import com.onlineshop.service.ProductImageProcessor;
+import com.onlineshop.service.ProductImportService;
 import com.onlineshop.service.ProductService;
 import com.onlineshop.service.UserService;
-import com.onlineshop.repository.CategoryRepository;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.security.core.Authentication;
@@ -19,12 +26,8 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.io.InputStream;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * 商家商品管理控制器
@@ -41,13 +44,25 @@ public class MerchantProductController {
     private UserService userService;
     
     @Autowired
-    private CategoryRepository categoryRepository;
+    private CategoryTreeService categoryTreeService;
+    
+    @Autowired
+    private ProductImportService productImportService;
+    
+    @Autowired
+    private InventorySyncService inventorySyncService;
+    
+    @Autowired
+    private FlashSaleService flashSaleService;
     
     @Autowired
     private ResourceLoader resourceLoader;
     
-    @Value("${upload.path:src/main/resources/static/images/products}")
-    private String uploadPath;
+    @Autowired
+    private ProductImageProcessor productImageProcessor;
+    
+    @Autowired
+    private ImageStore imageStore;
     
     /**
      * 獲取當前登錄用戶
@@ -64,15 +79,17 @@ public class MerchantProductController {
     public String listProducts(Model model, Authentication authentication) {
         try {
             User currentUser = getCurrentUser(authentication);
-            List<Product> products = productService.getProductsByMerchant(currentUser.getId());
+            List<ProductSummary> products = productService.getProductsByMerchant(currentUser.getId());
             
             model.addAttribute("products", products);
             model.addAttribute("currentUser", currentUser);
+            model.addAttribute("flashSaleAvailable", flashSaleService.getAvailableByProduct());
             
             return "merchant/product-list";
         } catch (Exception e) {
             model.addAttribute("errorMessage", "無法載入商品列表: " + e.getMessage());
             model.addAttribute("products", java.util.Collections.emptyList());
+            model.addAttribute("flashSaleAvailable", java.util.Collections.emptyMap());
             return "merchant/product-list";
         }
     }
@@ -83,7 +100,7 @@ public class MerchantProductController {
     @GetMapping("/new")
     public String showCreateForm(Model model) {
         model.addAttribute("product", new Product());
-        model.addAttribute("categories", categoryRepository.findAll());
+        model.addAttribute("categories", categoryTreeService.getTree().getNodes());
         return "merchant/product-form";
     }
     
@@ -115,6 +132,73 @@ public class MerchantProductController {
         }
     }
     
+    /**
+     * 顯示批量匯入頁面
+     */
+    @GetMapping("/import")
+    public String showImportForm() {
+        return "merchant/product-import";
+    }
+    
+    /**
+     * 批量匯入商品（CSV 或 NDJSON）
+     */
+    @PostMapping("/import")
+    public String importProducts(
+            @RequestParam("file") MultipartFile file,
+            Authentication authentication,
+            Model model) {
+        if (file.isEmpty()) {
+            model.addAttribute("errorMessage", "請選擇要匯入的文件");
+            return "merchant/product-import";
+        }
+        try {
+            User currentUser = getCurrentUser(authentication);
+            try (InputStream input = file.getInputStream()) {
+                ProductImportResult result = productImportService.importProducts(
+                        input, file.getOriginalFilename(), currentUser.getId());
+                model.addAttribute("result", result);
+            }
+        } catch (Exception e) {
+            model.addAttribute("errorMessage", "匯入失敗: " + e.getMessage());
+        }
+        return "merchant/product-import";
+    }
+    
+    /**
+     * 顯示庫存同步頁面
+     */
+    @GetMapping("/inventory-sync")
+    public String showInventorySyncForm() {
+        return "merchant/inventory-sync";
+    }
+    
+    /**
+     * 按上傳的庫存快照同步庫存（CSV 或 NDJSON）
+     */
+    @PostMapping("/inventory-sync")
+    public String syncInventory(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(defaultValue = "false") boolean fullSnapshot,
+            Authentication authentication,
+            Model model) {
+        if (file.isEmpty()) {
+            model.addAttribute("errorMessage", "請選擇庫存文件");
+            return "merchant/inventory-sync";
+        }
+        try {
+            User currentUser = getCurrentUser(authentication);
+            try (InputStream input = file.getInputStream()) {
+                InventorySyncResult result = inventorySyncService.sync(
+                        input, file.getOriginalFilename(), currentUser.getId(), fullSnapshot);
+                model.addAttribute("result", result);
+            }
+        } catch (Exception e) {
+            model.addAttribute("errorMessage", "同步失敗: " + e.getMessage());
+        }
+        return "merchant/inventory-sync";
+    }
+    
     /**
      * 顯示編輯商品表單
      */
@@ -135,7 +219,7 @@ public class MerchantProductController {
             
             Product product = productService.getProductById(id);
             model.addAttribute("product", product);
-            model.addAttribute("categories", categoryRepository.findAll());
+            model.addAttribute("categories", categoryTreeService.getTree().getNodes());
             
             return "merchant/product-form";
         } catch (Exception e) {
@@ -252,7 +336,33 @@ public class MerchantProductController {
     }
     
     /**
-     * Save uploaded product image to static/images/products directory
+     * 開啟或關閉搶購模式
+     */
+    @PostMapping("/{id}/toggle-flash-sale")
+    public String toggleFlashSale(
+            @PathVariable Long id,
+            Authentication authentication,
+            RedirectAttributes redirectAttributes) {
+        try {
+            User currentUser = getCurrentUser(authentication);
+            // 驗證商品所有權
+            if (!productService.isProductOwnedByUser(id, currentUser.getId())) {
+                redirectAttributes.addFlashAttribute("errorMessage", "您沒有權限操作此商品");
+                return "redirect:/merchant/products";
+            }
+            
+            boolean enabled = !flashSaleService.isFlashSale(id);
+            productService.setFlashSale(id, enabled);
+            redirectAttributes.addFlashAttribute("successMessage", enabled ? "已開啟搶購模式！" : "已結束搶購模式！");
+        } catch (Exception e) {
+            redirectAttributes.addFlashAttribute("errorMessage", "操作失敗: " + e.getMessage());
+        }
+        
+        return "redirect:/merchant/products";
+    }
+    
+    /**
+     * Save uploaded product image to the content-addressed image store
      * @param file The uploaded image file
      * @return The relative URL path to access the image
      */
@@ -285,54 +395,14 @@ public class MerchantProductController {
             throw new IllegalArgumentException("無效的檔案名稱");
         }
         
-        String extension = "";
-        int dotIndex = originalFilename.lastIndexOf('.');
-        if (dotIndex > 0) {
-            extension = originalFilename.substring(dotIndex);
-        }
-        System.out.println("File extension: " + extension);
-        
-        // Generate unique filename
-        String filename = UUID.randomUUID().toString() + extension;
-        System.out.println("Generated filename: " + filename);
-        
-        // Determine upload directory
-        System.out.println("Upload path from config: " + uploadPath);
-        Path uploadDir = Paths.get(uploadPath).toAbsolutePath();
-        System.out.println("Absolute upload directory: " + uploadDir);
-        System.out.println("Directory exists: " + Files.exists(uploadDir));
-        System.out.println("Directory is writable: " + Files.isWritable(uploadDir.getParent()));
-        
-        // Create directory if it doesn't exist
-        if (!Files.exists(uploadDir)) {
-            System.out.println("Creating directory: " + uploadDir);
-            Files.createDirectories(uploadDir);
-            System.out.println("Directory created successfully");
-        }
-        
-        // Save file
-        Path filePath = uploadDir.resolve(filename);
-        System.out.println("Full file path: " + filePath);
-        try {
-            Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-            System.out.println("File copied successfully");
-        } catch (IOException e) {
-            System.err.println("Failed to copy file: " + e.getMessage());
-            e.printStackTrace();
-            throw e;
-        }
-        
-        // Verify file was created
-        boolean fileExists = Files.exists(filePath);
-        long fileSize = fileExists ? Files.size(filePath) : 0;
-        System.out.println("File exists after save: " + fileExists);
-        System.out.println("File size after save: " + fileSize + " bytes");
-        
-        // 只返回文件名，不包含路徑前綴
-        // 模板會添加 /images/products/ 前綴
+        // 按內容哈希保存到分片目錄，相同圖片只存一份；文件名即圖片鍵，模板會添加 /images/products/ 前綴
+        String filename = imageStore.store(file.getInputStream(), originalFilename);
         System.out.println("Image filename: " + filename);
         System.out.println("=== saveProductImage 完成 ===");
         
+        // 在圖片線程池中生成縮略圖和響應式變體
+        productImageProcessor.submit(filename);
+        
         // Return 只文件名
         return filename;
     }
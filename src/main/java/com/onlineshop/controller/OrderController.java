@@ -1,9 +1,11 @@
 package com.onlineshop.controller;
 
-import com.onlineshop.model.CartItem;
+import com.onlineshop.dto.CartLine;
 import com.onlineshop.model.Order;
 import com.onlineshop.model.User;
 import com.onlineshop.service.CartService;
+import com.onlineshop.service.CheckoutSequencer;
+import com.onlineshop.service.FlashSaleService;
 import com.onlineshop.service.OrderService;
 import com.onlineshop.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,7 +17,10 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * 訂單控制器
@@ -34,6 +39,12 @@ public class OrderController {
     @Autowired
     private CartService cartService;
     
+    @Autowired
+    private FlashSaleService flashSaleService;
+    
+    @Autowired
+    private CheckoutSequencer checkoutSequencer;
+    
     /**
      * 查看我的訂單
      */
@@ -71,7 +82,7 @@ public class OrderController {
         User user = userService.getUserById(userId);
         
         // 獲取購物車項目
-        List<CartItem> cartItems = cartService.getCartItems(userId);
+        List<CartLine> cartItems = cartService.getCartItems(userId);
         
         // 檢查購物車是否為空
         if (cartItems.isEmpty()) {
@@ -79,15 +90,33 @@ public class OrderController {
             return "redirect:/cart";
         }
         
+        // 為搶購商品保留庫存，保留期內下單不會被搶光
+        Map<Long, Integer> quantities = new HashMap<>();
+        for (CartLine line : cartItems) {
+            quantities.merge(line.getProduct().getId(), line.getQuantity(), Integer::sum);
+        }
+        List<Long> soldOut = flashSaleService.hold(userId, quantities);
+        if (!soldOut.isEmpty()) {
+            String names = cartItems.stream()
+                .filter(line -> soldOut.contains(line.getProduct().getId()))
+                .map(line -> line.getProduct().getName())
+                .distinct()
+                .collect(Collectors.joining("、"));
+            redirectAttributes.addFlashAttribute("errorMessage", "搶購商品 " + names + " 庫存不足，請調整數量");
+            return "redirect:/cart";
+        }
+        boolean hasFlashSale = quantities.keySet().stream().anyMatch(flashSaleService::isFlashSale);
+        
         // 計算總金額
         BigDecimal cartTotal = cartItems.stream()
-            .map(CartItem::getTotalPrice)
+            .map(CartLine::getTotalPrice)
             .reduce(BigDecimal.ZERO, BigDecimal::add);
         
         model.addAttribute("user", user);
         model.addAttribute("cartItems", cartItems);
         model.addAttribute("cartTotal", cartTotal);
         model.addAttribute("itemCount", cartItems.size());
+        model.addAttribute("flashSaleHoldMinutes", hasFlashSale ? flashSaleService.getHoldMinutes() : null);
         return "checkout";
     }
     
@@ -106,7 +135,8 @@ public class OrderController {
             // 將電話號碼添加到配送地址中
             String fullAddress = shippingAddress + "\n聯絡電話: " + phoneNumber;
             
-            Order order = orderService.createOrder(userId, fullAddress, paymentMethod, notes);
+            // 含熱門商品的訂單排隊批量寫入，其他訂單直接創建
+            Order order = checkoutSequencer.placeOrder(userId, fullAddress, paymentMethod, notes);
             
             redirectAttributes.addFlashAttribute("successMessage", 
                 "訂單創建成功！訂單編號：" + order.getOrderNumber() + "。確認收貨郵件已發送至您的信箱。");
@@ -114,7 +144,7 @@ public class OrderController {
             redirectAttributes.addFlashAttribute("orderId", order.getId());
             
             return "redirect:/orders/confirmation";
-        } catch (IllegalArgumentException e) {
+        } catch (IllegalArgumentException | IllegalStateException e) {
             redirectAttributes.addFlashAttribute("errorMessage", e.getMessage());
             return "redirect:/orders/checkout";
         }
@@ -0,0 +1,57 @@
+package com.onlineshop.controller;
+
+import com.onlineshop.model.ProductSubscription;
+import com.onlineshop.model.User;
+import com.onlineshop.service.ProductNotificationService;
+import com.onlineshop.service.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+
+/**
+ * 商品通知訂閱控制器
+ * 處理到貨通知和降價通知的訂閱請求
+ */
+@Controller
+@RequestMapping("/subscriptions")
+public class SubscriptionController {
+    
+    @Autowired
+    private ProductNotificationService productNotificationService;
+    
+    @Autowired
+    private UserService userService;
+    
+    /**
+     * 訂閱商品通知
+     */
+    @PostMapping
+    public String subscribe(@RequestParam Long productId,
+                            @RequestParam ProductSubscription.Type type,
+                            RedirectAttributes redirectAttributes) {
+        try {
+            Long userId = getCurrentUserId();
+            productNotificationService.subscribe(userId, productId, type);
+            redirectAttributes.addFlashAttribute("successMessage",
+                type == ProductSubscription.Type.BACK_IN_STOCK ? "已訂閱到貨通知，商品到貨時將以郵件通知您" 
+                                                               : "已訂閱降價通知，商品降價時將以郵件通知您");
+        } catch (IllegalArgumentException e) {
+            redirectAttributes.addFlashAttribute("errorMessage", e.getMessage());
+        }
+        
+        return "redirect:/products/" + productId;
+    }
+    
+    /**
+     * 獲取當前用戶ID
+     */
+    private Long getCurrentUserId() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        String username = auth.getName();
+        User user = userService.getUserByUsername(username);
+        return user.getId();
+    }
+}
@@ -0,0 +1,26 @@
+package com.onlineshop.dto;
+
+import com.onlineshop.model.Product;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+
+/**
+ * 購物車中的一行（商品來自商品詳情緩存，只讀）
+ */
+@Getter
+@AllArgsConstructor
+public class CartLine {
+
+    private final Product product;
+
+    private final Integer quantity;
+
+    /**
+     * 計算項目總價
+     */
+    public BigDecimal getTotalPrice() {
+        return product.getPrice().multiply(new BigDecimal(quantity));
+    }
+}
@@ -0,0 +1,21 @@
+package com.onlineshop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 商品列表的分面計數
+ */
+@Getter
+@AllArgsConstructor
+public class CatalogFacets {
+
+    /** 當前分類的子分類（未選分類時為頂級分類） */
+    private final List<FacetOption> categoryOptions;
+
+    private final List<FacetOption> priceOptions;
+
+    private final List<FacetOption> stockOptions;
+}
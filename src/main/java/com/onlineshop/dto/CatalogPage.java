@@ -0,0 +1,45 @@
+package com.onlineshop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 商品列表分頁結果
+ * 游標為不透明字符串，由 CatalogService 編碼和解析
+ */
+@Getter
+@AllArgsConstructor
+public class CatalogPage<T> {
+
+    /** 當前頁內容 */
+    private final List<T> content;
+
+    /** 下一頁游標，沒有下一頁時為 null */
+    private final String nextCursor;
+
+    /** 上一頁游標，沒有上一頁時為 null */
+    private final String previousCursor;
+
+    /** 符合條件的商品總數（可能來自緩存） */
+    private final long totalCount;
+
+    /** 排序方式 */
+    private final String sort;
+
+    /** 分面計數，搜索結果等沒有分面時為 null */
+    private final CatalogFacets facets;
+
+    public CatalogPage(List<T> content, String nextCursor, String previousCursor, long totalCount, String sort) {
+        this(content, nextCursor, previousCursor, totalCount, sort, null);
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    public boolean hasPrevious() {
+        return previousCursor != null;
+    }
+}
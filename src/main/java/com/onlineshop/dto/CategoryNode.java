@@ -0,0 +1,46 @@
+package com.onlineshop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 分類樹節點（不可變）
+ * 由 CategoryTreeService 一次性構建，渲染導航時不會觸發數據庫查詢或延遲加載
+ */
+@Getter
+@AllArgsConstructor
+public class CategoryNode {
+
+    private final Long id;
+
+    private final String name;
+
+    /** 父分類ID，頂級分類為 null */
+    private final Long parentId;
+
+    /** 層級深度，頂級分類為 0 */
+    private final int depth;
+
+    /** 從頂級分類到本分類的ID路徑（含本分類） */
+    private final List<Long> path;
+
+    /** 從頂級分類到本分類的名稱路徑，例如「電子產品 / 手機」 */
+    private final String pathName;
+
+    /** 直接屬於本分類的商品數 */
+    private final long productCount;
+
+    /** 本分類及所有子分類的商品數 */
+    private final long subtreeProductCount;
+
+    /** 本分類及所有子分類的ID */
+    private final List<Long> subtreeIds;
+
+    private final List<CategoryNode> children;
+
+    public boolean isLeaf() {
+        return children.isEmpty();
+    }
+}
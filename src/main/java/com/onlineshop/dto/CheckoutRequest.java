@@ -0,0 +1,20 @@
+package com.onlineshop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 排隊等待批量寫入的下單請求
+ */
+@Getter
+@AllArgsConstructor
+public class CheckoutRequest {
+
+    private final Long userId;
+
+    private final String shippingAddress;
+
+    private final String paymentMethod;
+
+    private final String notes;
+}
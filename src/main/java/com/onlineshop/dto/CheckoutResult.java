@@ -0,0 +1,29 @@
+package com.onlineshop.dto;
+
+import com.onlineshop.model.Order;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 批量下單中單個請求的結果：成功時為訂單，庫存不足等業務錯誤時為錯誤訊息
+ */
+@Getter
+@AllArgsConstructor
+public class CheckoutResult {
+
+    private final Order order;
+
+    private final String errorMessage;
+
+    public static CheckoutResult success(Order order) {
+        return new CheckoutResult(order, null);
+    }
+
+    public static CheckoutResult rejected(String errorMessage) {
+        return new CheckoutResult(null, errorMessage);
+    }
+
+    public boolean isSuccess() {
+        return order != null;
+    }
+}
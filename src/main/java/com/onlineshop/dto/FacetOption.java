@@ -0,0 +1,22 @@
+package com.onlineshop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 分面選項：參數值、顯示名稱、套用後的商品數
+ */
+@Getter
+@AllArgsConstructor
+public class FacetOption {
+
+    /** 請求參數值 */
+    private final String value;
+
+    private final String label;
+
+    /** 套用此選項（及其他已選分面）後的商品數 */
+    private final long count;
+
+    private final boolean selected;
+}
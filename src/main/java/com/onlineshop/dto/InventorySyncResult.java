@@ -0,0 +1,35 @@
+package com.onlineshop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 庫存同步結果
+ */
+@Getter
+@AllArgsConstructor
+public class InventorySyncResult {
+
+    /** 讀取的數據行數（不含表頭和空行） */
+    private final int totalRows;
+
+    /** 庫存與數據庫相同、無需寫入的商品數 */
+    private final int unchangedCount;
+
+    private final int updatedCount;
+
+    /** 全量快照中未出現、被置為 0 的商品數（已計入 updatedCount） */
+    private final int zeroedCount;
+
+    /** 讀取後被其他操作（如下單）修改、本次未覆蓋的商品數 */
+    private final int conflictCount;
+
+    private final int errorCount;
+
+    /** 錯誤明細（最多保留前若干條） */
+    private final List<RowError> errors;
+
+    private final long elapsedMillis;
+}
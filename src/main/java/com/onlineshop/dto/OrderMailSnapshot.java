@@ -0,0 +1,113 @@
+package com.onlineshop.dto;
+
+import com.onlineshop.model.Order;
+import com.onlineshop.model.OrderItem;
+import com.onlineshop.model.User;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 訂單郵件的只讀快照
+ * 在訂單、用戶和訂單項目已載入時一次取出郵件用到的欄位並格式化為文本，渲染模板時不訪問 JPA 實體
+ */
+@Getter
+@AllArgsConstructor
+public class OrderMailSnapshot {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final Type type;
+
+    private final Long orderId;
+
+    private final String orderNumber;
+
+    private final String recipientEmail;
+
+    private final String customerName;
+
+    private final String orderDate;
+
+    private final String totalAmount;
+
+    private final String shippingAddress;
+
+    private final String orderStatus;
+
+    private final String paymentStatus;
+
+    private final String confirmationToken;
+
+    private final List<Line> items;
+
+    /**
+     * 從已載入用戶和訂單項目的訂單生成快照
+     */
+    public static OrderMailSnapshot from(Order order, Type type) {
+        User user = order.getUser();
+        List<Line> items = new ArrayList<>(order.getOrderItems().size());
+        for (OrderItem item : order.getOrderItems()) {
+            items.add(new Line(item.getProductName(), String.valueOf(item.getQuantity()),
+                    item.getSubtotal().toPlainString()));
+        }
+        return new OrderMailSnapshot(type, order.getId(), order.getOrderNumber(), user.getEmail(),
+                user.getFirstName() + " " + user.getLastName(),
+                order.getCreatedAt() == null ? "" : order.getCreatedAt().format(DATE_FORMAT),
+                order.getTotalAmount().toPlainString(), order.getShippingAddress(),
+                orderStatusText(order.getStatus()), paymentStatusText(order.getPaymentStatus()),
+                order.getConfirmationToken(), items);
+    }
+
+    private static String orderStatusText(Order.OrderStatus status) {
+        switch (status) {
+            case PENDING: return "待處理";
+            case PROCESSING: return "處理中";
+            case SHIPPED: return "已發貨";
+            case DELIVERED: return "已送達";
+            case CANCELLED: return "已取消";
+            default: return status.name();
+        }
+    }
+
+    private static String paymentStatusText(Order.PaymentStatus status) {
+        switch (status) {
+            case PENDING: return "待支付";
+            case PAID: return "已支付";
+            case FAILED: return "支付失敗";
+            default: return status.name();
+        }
+    }
+
+    /**
+     * 郵件種類：模板文件名和主題
+     */
+    @Getter
+    public enum Type {
+        CONFIRMATION("order-confirmation", "訂單確認"),
+        SHIPPED("order-shipped", "訂單已發貨"),
+        CANCELLED("order-cancelled", "訂單已取消");
+
+        private final String template;
+        private final String subject;
+
+        Type(String template, String subject) {
+            this.template = template;
+            this.subject = subject;
+        }
+    }
+
+    /**
+     * 一個訂單項目
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Line {
+        private final String productName;
+        private final String quantity;
+        private final String subtotal;
+    }
+}
@@ -0,0 +1,26 @@
+package com.onlineshop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 商品批量匯入結果
+ */
+@Getter
+@AllArgsConstructor
+public class ProductImportResult {
+
+    /** 讀取的數據行數（不含表頭和空行） */
+    private final int totalRows;
+
+    private final int importedCount;
+
+    private final int errorCount;
+
+    /** 錯誤明細（最多保留前若干條） */
+    private final List<RowError> errors;
+
+    private final long elapsedMillis;
+}
@@ -0,0 +1,62 @@
+package com.onlineshop.dto;
+
+import com.onlineshop.model.Product;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 商品列表和卡片的只讀視圖
+ * 只包含列表模板用到的欄位，描述在查詢中截斷，不載入分類和建立者實體
+ */
+@Getter
+@AllArgsConstructor
+public class ProductSummary {
+
+    /** 摘要最多保留的描述字數，超出部分由模板顯示省略號 */
+    public static final int SUMMARY_LENGTH = 101;
+
+    /** 投影查詢的 SELECT 子句，p 為商品、c 為左連接的分類 */
+    public static final String SELECT = "SELECT new com.onlineshop.dto.ProductSummary(p.id, p.name, "
+            + "SUBSTRING(p.description, 1, " + SUMMARY_LENGTH + "), p.price, p.stockQuantity, p.imageUrl, "
+            + "p.sku, p.status, c.name, p.soldCount, p.createdAt) ";
+
+    private final Long id;
+
+    private final String name;
+
+    /** 描述的前若干字 */
+    private final String summary;
+
+    private final BigDecimal price;
+
+    private final Integer stockQuantity;
+
+    private final String imageUrl;
+
+    private final String sku;
+
+    private final Product.ProductStatus status;
+
+    private final String categoryName;
+
+    private final Integer soldCount;
+
+    private final LocalDateTime createdAt;
+
+    /**
+     * 從已載入的實體轉換（索引未就緒時的數據庫查詢路徑）
+     */
+    public static ProductSummary from(Product product) {
+        String description = product.getDescription();
+        if (description != null && description.length() > SUMMARY_LENGTH) {
+            description = description.substring(0, SUMMARY_LENGTH);
+        }
+        return new ProductSummary(product.getId(), product.getName(), description, product.getPrice(),
+                product.getStockQuantity(), product.getImageUrl(), product.getSku(), product.getStatus(),
+                product.getCategory() == null ? null : product.getCategory().getName(),
+                product.getSoldCount(), product.getCreatedAt());
+    }
+}
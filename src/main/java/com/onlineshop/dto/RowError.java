@@ -0,0 +1,17 @@
+package com.onlineshop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 上傳文件的單行錯誤（商品匯入、庫存同步共用）
+ */
+@Getter
+@AllArgsConstructor
+public class RowError {
+
+    /** 文件中的行號（從 1 開始，含表頭） */
+    private final long line;
+
+    private final String message;
+}
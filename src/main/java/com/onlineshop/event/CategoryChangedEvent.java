@@ -0,0 +1,18 @@
+package com.onlineshop.event;
+
+/**
+ * 分類變更事件
+ * 由 CategoryEntityListener 在分類新增、修改、刪除時發布
+ */
+public class CategoryChangedEvent {
+
+    private final Long categoryId;
+
+    public CategoryChangedEvent(Long categoryId) {
+        this.categoryId = categoryId;
+    }
+
+    public Long getCategoryId() {
+        return categoryId;
+    }
+}
@@ -0,0 +1,27 @@
+package com.onlineshop.event;
+
+import com.onlineshop.model.Category;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+/**
+ * 分類實體監聽器
+ * 分類通過 CategoryRepository 寫入後發布 CategoryChangedEvent
+ */
+@Component
+public class CategoryEntityListener {
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onCategoryChanged(Category category) {
+        eventPublisher.publishEvent(new CategoryChangedEvent(category.getId()));
+    }
+}
@@ -0,0 +1,46 @@
+package com.onlineshop.event;
+
+import com.onlineshop.model.Product;
+
+/**
+ * 商品變更事件
+ * 由 ProductService 在商品新增、修改、刪除時發布，供搜索索引等內存結構增量更新
+ */
+public class ProductChangedEvent {
+
+    private final Long productId;
+
+    private final ChangeType changeType;
+
+    private final Product product;
+
+    public ProductChangedEvent(Long productId, ChangeType changeType, Product product) {
+        this.productId = productId;
+        this.changeType = changeType;
+        this.product = product;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public ChangeType getChangeType() {
+        return changeType;
+    }
+
+    /**
+     * 變更後的商品（刪除時為刪除前的快照）
+     */
+    public Product getProduct() {
+        return product;
+    }
+
+    /**
+     * 變更類型枚舉
+     */
+    public enum ChangeType {
+        CREATED,   // 新增
+        UPDATED,   // 修改
+        DELETED    // 刪除
+    }
+}
@@ -0,0 +1,26 @@
+package com.onlineshop.event;
+
+/**
+ * 商品批量匯入完成事件
+ * 匯入直接以 JDBC 批量寫入，不逐個發布 ProductChangedEvent，
+ * 內存索引和緩存收到此事件後整體重建
+ */
+public class ProductsImportedEvent {
+
+    private final Long merchantId;
+
+    private final int importedCount;
+
+    public ProductsImportedEvent(Long merchantId, int importedCount) {
+        this.merchantId = merchantId;
+        this.importedCount = importedCount;
+    }
+
+    public Long getMerchantId() {
+        return merchantId;
+    }
+
+    public int getImportedCount() {
+        return importedCount;
+    }
+}
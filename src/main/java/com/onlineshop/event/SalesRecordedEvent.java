@@ -0,0 +1,31 @@
+package com.onlineshop.event;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * 銷量變更事件
+ * 下單時數量為正，取消訂單時數量為負；發生時間為訂單創建時間，以便時間窗口扣回正確的時段
+ */
+public class SalesRecordedEvent {
+
+    private final Map<Long, Integer> quantitiesByProduct;
+
+    private final LocalDateTime orderCreatedAt;
+
+    public SalesRecordedEvent(Map<Long, Integer> quantitiesByProduct, LocalDateTime orderCreatedAt) {
+        this.quantitiesByProduct = Map.copyOf(quantitiesByProduct);
+        this.orderCreatedAt = orderCreatedAt;
+    }
+
+    /**
+     * 商品ID -> 銷量變化
+     */
+    public Map<Long, Integer> getQuantitiesByProduct() {
+        return quantitiesByProduct;
+    }
+
+    public LocalDateTime getOrderCreatedAt() {
+        return orderCreatedAt;
+    }
+}
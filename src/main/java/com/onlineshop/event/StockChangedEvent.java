@@ -0,0 +1,21 @@
+package com.onlineshop.event;
+
+import java.util.Collection;
+
+/**
+ * 批量庫存變更事件
+ * 庫存同步直接以 JDBC 批量更新，不逐個發布 ProductChangedEvent，
+ * 內存索引和緩存收到此事件後只重新載入或失效變更過的商品
+ */
+public class StockChangedEvent {
+
+    private final Collection<Long> productIds;
+
+    public StockChangedEvent(Collection<Long> productIds) {
+        this.productIds = productIds;
+    }
+
+    public Collection<Long> getProductIds() {
+        return productIds;
+    }
+}
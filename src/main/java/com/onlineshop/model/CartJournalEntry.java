@@ -0,0 +1,56 @@
+package com.onlineshop.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.LocalDateTime;
+
+/**
+ * 購物車變更日誌實體類
+ * 每次修改購物車時先插入一條記錄再返回，定時寫入 cart_items 時在同一事務中刪除已寫入的記錄；
+ * 應用異常終止後，用戶的購物車下次載入時按剩餘的記錄重做這些修改
+ */
+@Entity
+@Table(name = "cart_journal", indexes = {
+    @Index(name = "idx_cart_journal_user", columnList = "user_id, id")
+})
+@Data
+@NoArgsConstructor
+public class CartJournalEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    /** 清空購物車時為空 */
+    @Column(name = "product_id")
+    private Long productId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 10)
+    private Operation operation;
+
+    /** ADD 為增量，SET 為新數量 */
+    @Column(nullable = false)
+    private Integer quantity;
+
+    /** 修改後購物車中的數量 */
+    @Column(nullable = false)
+    private Integer total;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    /**
+     * 購物車修改類型
+     */
+    public enum Operation {
+        ADD,      // 累加數量
+        SET,      // 設置數量
+        DELETE,   // 移除商品
+        CLEAR     // 清空購物車
+    }
+}
@@ -1,5 +1,6 @@
 package com.onlineshop.model;
 
+import com.onlineshop.event.CategoryEntityListener;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -13,6 +14,7 @@ import java.util.List;
  */
 @Entity
 @Table(name = "categories")
+@EntityListeners(CategoryEntityListener.class)
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
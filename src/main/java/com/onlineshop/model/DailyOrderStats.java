@@ -0,0 +1,73 @@
+package com.onlineshop.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * 每日訂單統計實體類
+ * 由發件箱轉發任務按訂單事件累加，儀表板直接讀取，不再逐次統計訂單表
+ */
+@Entity
+@Table(name = "daily_order_stats")
+@Data
+@NoArgsConstructor
+public class DailyOrderStats {
+    
+    @Id
+    @Column(name = "stat_date")
+    private LocalDate statDate;
+    
+    @Column(name = "placed_count", nullable = false)
+    private Integer placedCount = 0;
+    
+    @Column(name = "paid_count", nullable = false)
+    private Integer paidCount = 0;
+    
+    @Column(name = "shipped_count", nullable = false)
+    private Integer shippedCount = 0;
+    
+    @Column(name = "delivered_count", nullable = false)
+    private Integer deliveredCount = 0;
+    
+    @Column(name = "cancelled_count", nullable = false)
+    private Integer cancelledCount = 0;
+    
+    /** 當日下單金額，取消的訂單按取消日扣除 */
+    @Column(name = "placed_amount", nullable = false, precision = 14, scale = 2)
+    private BigDecimal placedAmount = BigDecimal.ZERO;
+    
+    public DailyOrderStats(LocalDate statDate) {
+        this.statDate = statDate;
+    }
+    
+    /**
+     * 累加一個訂單事件
+     */
+    public void record(OutboxEvent.EventType eventType, BigDecimal amount) {
+        BigDecimal value = amount == null ? BigDecimal.ZERO : amount;
+        switch (eventType) {
+            case ORDER_PLACED:
+                placedCount++;
+                placedAmount = placedAmount.add(value);
+                break;
+            case ORDER_PAID:
+                paidCount++;
+                break;
+            case ORDER_SHIPPED:
+                shippedCount++;
+                break;
+            case ORDER_DELIVERED:
+                deliveredCount++;
+                break;
+            case ORDER_CANCELLED:
+                cancelledCount++;
+                placedAmount = placedAmount.subtract(value);
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.onlineshop.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.LocalDateTime;
+
+/**
+ * 搶購成交日誌實體類
+ * 搶購商品的成交和取消在訂單事務中寫入，回寫庫存時在同一事務中刪除；
+ * 應用異常終止後，啟動時按剩餘的記錄補寫庫存，再建立賬本
+ */
+@Entity
+@Table(name = "flash_sale_journal", indexes = {
+    @Index(name = "idx_flash_sale_journal_product", columnList = "product_id")
+})
+@Data
+@NoArgsConstructor
+public class FlashSaleJournalEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+
+    /** 成交數量，取消訂單時為負數 */
+    @Column(nullable = false)
+    private Integer quantity;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
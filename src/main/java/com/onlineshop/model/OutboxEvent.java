@@ -0,0 +1,170 @@
+package com.onlineshop.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 訂單事件發件箱實體類
+ * 與訂單在同一事務中寫入，由後台轉發任務投遞給各處理器；
+ * handled 以位元記錄已完成的處理器，重試時跳過已完成的部分；
+ * 轉發任務投遞前在事務中寫入認領標記和租約到期時間，租約內其他實例不會取到同一事件
+ */
+@Entity
+@Table(name = "outbox_events", indexes = {
+    @Index(name = "idx_outbox_status_next", columnList = "status, next_attempt_at")
+})
+@Data
+@NoArgsConstructor
+public class OutboxEvent {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(name = "event_type", nullable = false, length = 30)
+    private EventType eventType;
+    
+    @Column(name = "order_id", nullable = false)
+    private Long orderId;
+    
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    
+    @Column(name = "order_number", nullable = false, length = 50)
+    private String orderNumber;
+    
+    @Column(name = "order_amount", precision = 10, scale = 2)
+    private BigDecimal orderAmount;
+    
+    /** 事件發生時間，每日統計按此歸檔 */
+    @Column(name = "occurred_at", nullable = false)
+    private LocalDateTime occurredAt;
+    
+    /** 已完成的處理器位元 */
+    @Column(nullable = false)
+    private Integer handled = 0;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status = Status.PENDING;
+    
+    @Column(nullable = false)
+    private Integer attempts = 0;
+    
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+    
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+    
+    @Column(name = "processed_at")
+    private LocalDateTime processedAt;
+    
+    /** 認領本批事件的標記，投遞完成後清除 */
+    @Column(name = "claim_token", length = 36)
+    private String claimToken;
+    
+    /** 認領租約到期時間，到期後其他實例可以重新認領 */
+    @Column(name = "claimed_until")
+    private LocalDateTime claimedUntil;
+    
+    public OutboxEvent(EventType eventType, Order order) {
+        this.eventType = eventType;
+        this.orderId = order.getId();
+        this.userId = order.getUser().getId();
+        this.orderNumber = order.getOrderNumber();
+        this.orderAmount = order.getTotalAmount();
+        this.occurredAt = LocalDateTime.now();
+        this.nextAttemptAt = occurredAt;
+    }
+    
+    /**
+     * 處理器是否已完成
+     */
+    public boolean isHandled(Handler handler) {
+        return (handled & handler.getBit()) != 0;
+    }
+    
+    /**
+     * 是否需要且尚未由處理器完成
+     */
+    public boolean needs(Handler handler) {
+        return (eventType.getHandlers() & handler.getBit()) != 0 && !isHandled(handler);
+    }
+    
+    public void markHandled(Handler handler) {
+        handled = handled | handler.getBit();
+    }
+    
+    /**
+     * 事件需要的處理器是否都已完成
+     */
+    public boolean isComplete() {
+        return (handled & eventType.getHandlers()) == eventType.getHandlers();
+    }
+    
+    /**
+     * 事件處理器
+     */
+    public enum Handler {
+        ACTIVITY_LOG(1),   // 用戶活動日誌
+        COUNTERS(2),       // 每日訂單統計
+        EMAIL(4);          // 郵件通知
+        
+        private final int bit;
+        
+        Handler(int bit) {
+            this.bit = bit;
+        }
+        
+        public int getBit() {
+            return bit;
+        }
+    }
+    
+    /**
+     * 事件類型枚舉
+     */
+    public enum EventType {
+        ORDER_PLACED("下單訂單編號: ", Handler.ACTIVITY_LOG, Handler.COUNTERS, Handler.EMAIL),
+        ORDER_PAID("支付成功: ", Handler.ACTIVITY_LOG, Handler.COUNTERS),
+        ORDER_SHIPPED("訂單已發貨: ", Handler.ACTIVITY_LOG, Handler.COUNTERS, Handler.EMAIL),
+        ORDER_DELIVERED("確認收貨: ", Handler.ACTIVITY_LOG, Handler.COUNTERS),
+        ORDER_CANCELLED("取消訂單: ", Handler.ACTIVITY_LOG, Handler.COUNTERS, Handler.EMAIL);
+        
+        /** 活動日誌內容前綴 */
+        private final String activityLabel;
+        
+        private final int handlers;
+        
+        EventType(String activityLabel, Handler... handlers) {
+            this.activityLabel = activityLabel;
+            int bits = 0;
+            for (Handler handler : handlers) {
+                bits |= handler.getBit();
+            }
+            this.handlers = bits;
+        }
+        
+        public String getActivityLabel() {
+            return activityLabel;
+        }
+        
+        public int getHandlers() {
+            return handlers;
+        }
+    }
+    
+    /**
+     * 投遞狀態枚舉
+     */
+    public enum Status {
+        PENDING,   // 等待投遞或重試
+        DONE,      // 全部處理器已完成
+        FAILED     // 重試次數用盡
+    }
+}
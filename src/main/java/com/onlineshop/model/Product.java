@@ -11,7 +11,14 @@ import java.time.LocalDateTime;
  * 商品實體類
  */
 @Entity
-@Table(name = "products")
+@Table(name = "products", indexes = {
+    @Index(name = "idx_products_price_id", columnList = "price, id"),
+    @Index(name = "idx_products_created_id", columnList = "created_at, id"),
+    @Index(name = "idx_products_sold_id", columnList = "sold_count, id"),
+    @Index(name = "idx_products_category_price_id", columnList = "category_id, price, id"),
+    @Index(name = "idx_products_category_created_id", columnList = "category_id, created_at, id"),
+    @Index(name = "idx_products_category_sold_id", columnList = "category_id, sold_count, id")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -33,6 +40,9 @@ public class Product {
     @Column(name = "stock_quantity", nullable = false)
     private Integer stockQuantity = 0;
     
+    @Column(name = "sold_count", nullable = false, columnDefinition = "INT DEFAULT 0")
+    private Integer soldCount = 0;
+    
     @ManyToOne
     @JoinColumn(name = "category_id")
     private Category category;
@@ -51,6 +61,15 @@ public class Product {
     @JoinColumn(name = "created_by")
     private User createdBy;
     
+    /** 搶購模式：庫存由內存賬本管理，成交後批量回寫 */
+    @Column(name = "flash_sale", nullable = false, columnDefinition = "BOOLEAN DEFAULT FALSE")
+    private Boolean flashSale = false;
+    
+    /** 樂觀鎖版本號，條件扣減庫存的 SQL 也會遞增 */
+    @Version
+    @Column(nullable = false, columnDefinition = "BIGINT DEFAULT 0")
+    private Long version = 0L;
+    
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
     
@@ -99,6 +118,13 @@ public class Product {
         }
     }
     
+    /**
+     * 記錄銷量（下單時增加，取消訂單時傳入負數）
+     */
+    public void recordSales(int quantity) {
+        this.soldCount = Math.max(0, this.soldCount + quantity);
+    }
+    
     /**
      * 商品狀態枚舉
      */
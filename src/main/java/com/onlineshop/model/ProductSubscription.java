@@ -0,0 +1,63 @@
+package com.onlineshop.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 商品通知訂閱實體類
+ * 用戶訂閱商品的到貨或降價通知，通知發出後刪除，需要時重新訂閱
+ */
+@Entity
+@Table(name = "product_subscriptions",
+       uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "product_id", "type"}),
+       indexes = @Index(name = "idx_subscription_product", columnList = "product_id, type, id"))
+@Data
+@NoArgsConstructor
+public class ProductSubscription {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+    
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Type type;
+    
+    /** 訂閱時的價格，降價通知在價格低於此值時發出 */
+    @Column(name = "subscribed_price", precision = 10, scale = 2)
+    private BigDecimal subscribedPrice;
+    
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+    
+    public ProductSubscription(User user, Long productId, Type type, BigDecimal subscribedPrice) {
+        this.user = user;
+        this.productId = productId;
+        this.type = type;
+        this.subscribedPrice = subscribedPrice;
+    }
+    
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+    
+    /**
+     * 訂閱類型枚舉
+     */
+    public enum Type {
+        BACK_IN_STOCK,  // 到貨通知
+        PRICE_DROP      // 降價通知
+    }
+}
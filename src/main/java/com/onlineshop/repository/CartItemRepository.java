@@ -28,6 +28,18 @@ public interface CartItemRepository extends JpaRepository<CartItem, Long> {
      */
     Optional<CartItem> findByUserAndProduct(User user, Product product);
     
+    /**
+     * 查詢用戶購物車的商品和數量（productId, quantity），按加入順序
+     */
+    @Query("SELECT ci.product.id, ci.quantity FROM CartItem ci WHERE ci.user.id = :userId ORDER BY ci.id")
+    List<Object[]> findCartRowsByUserId(@Param("userId") Long userId);
+    
+    /**
+     * 一次查詢多個用戶的購物車項目和商品（批量下單），按加入順序
+     */
+    @Query("SELECT ci FROM CartItem ci JOIN FETCH ci.product WHERE ci.user.id IN :userIds ORDER BY ci.id")
+    List<CartItem> findWithProductByUserIdIn(@Param("userIds") java.util.Collection<Long> userIds);
+    
     /**
      * 計算用戶購物車總項目數
      */
@@ -48,6 +60,14 @@ public interface CartItemRepository extends JpaRepository<CartItem, Long> {
     @Query("DELETE FROM CartItem ci WHERE ci.user = :user")
     void deleteByUser(@Param("user") User user);
     
+    /**
+     * 刪除多個用戶的所有購物車項目（批量下單）
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM CartItem ci WHERE ci.user.id IN :userIds")
+    void deleteByUserIdIn(@Param("userIds") java.util.Collection<Long> userIds);
+    
     /**
      * 刪除用戶的特定購物車項目
      */
@@ -35,4 +35,10 @@ public interface CategoryRepository extends JpaRepository<Category, Long> {
            "LOWER(c.name) LIKE LOWER(CONCAT('%', :keyword, '%')) OR " +
            "LOWER(c.description) LIKE LOWER(CONCAT('%', :keyword, '%'))")
     List<Category> searchCategories(@Param("keyword") String keyword);
+    
+    /**
+     * 查詢構建分類樹所需的欄位（id, name, parentId）
+     */
+    @Query("SELECT c.id, c.name, p.id FROM Category c LEFT JOIN c.parent p ORDER BY c.id")
+    List<Object[]> findAllForTree();
 }
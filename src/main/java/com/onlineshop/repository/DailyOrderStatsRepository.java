@@ -0,0 +1,13 @@
+package com.onlineshop.repository;
+
+import com.onlineshop.model.DailyOrderStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import java.time.LocalDate;
+
+/**
+ * 每日訂單統計數據訪問接口
+ */
+@Repository
+public interface DailyOrderStatsRepository extends JpaRepository<DailyOrderStats, LocalDate> {
+}
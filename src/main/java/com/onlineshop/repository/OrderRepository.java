@@ -7,6 +7,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -84,6 +85,14 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
            "ORDER BY totalSold DESC")
     List<Object[]> getTopSellingProducts(@Param("startDate") LocalDateTime startDate, @Param("endDate") LocalDateTime endDate);
     
+    /**
+     * Find sold quantities (product id, order time, quantity) since a given time, excluding cancelled orders
+     */
+    @Query("SELECT oi.product.id, o.createdAt, oi.quantity FROM OrderItem oi JOIN oi.order o " +
+           "WHERE o.createdAt >= :since " +
+           "AND o.status <> com.onlineshop.model.Order$OrderStatus.CANCELLED")
+    List<Object[]> findSoldQuantitiesSince(@Param("since") LocalDateTime since);
+    
     /**
      * Find orders by payment status
      */
@@ -108,4 +117,10 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
      * Find order by confirmation token
      */
     Optional<Order> findByConfirmationToken(String confirmationToken);
+    
+    /**
+     * 批量載入訂單及其用戶和訂單項目（後台發送郵件時使用，事務外也可訪問）
+     */
+    @Query("SELECT DISTINCT o FROM Order o JOIN FETCH o.user LEFT JOIN FETCH o.orderItems WHERE o.id IN :ids")
+    List<Order> findWithUserAndItemsByIdIn(@Param("ids") Collection<Long> ids);
 }
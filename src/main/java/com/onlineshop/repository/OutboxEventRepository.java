@@ -0,0 +1,45 @@
+package com.onlineshop.repository;
+
+import com.onlineshop.model.OutboxEvent;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 訂單事件發件箱數據訪問接口
+ */
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+    
+    /**
+     * 查詢到期且未被認領（或租約已過期）的事件編號，按寫入順序
+     */
+    @Query("SELECT e.id FROM OutboxEvent e WHERE e.status = 'PENDING' AND e.nextAttemptAt <= :now "
+            + "AND (e.claimedUntil IS NULL OR e.claimedUntil < :now) ORDER BY e.id")
+    List<Long> findDueIds(@Param("now") LocalDateTime now, Limit limit);
+    
+    /**
+     * 認領事件：條件在行鎖下重新判斷，並發認領同一事件時只有一方更新成功
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE OutboxEvent e SET e.claimToken = :token, e.claimedUntil = :until WHERE e.id IN :ids "
+            + "AND e.status = 'PENDING' AND (e.claimedUntil IS NULL OR e.claimedUntil < :now)")
+    int claim(@Param("ids") Collection<Long> ids, @Param("token") String token,
+              @Param("until") LocalDateTime until, @Param("now") LocalDateTime now);
+    
+    /**
+     * 查詢一次認領取得的事件，按寫入順序
+     */
+    List<OutboxEvent> findByClaimTokenOrderById(String claimToken);
+    
+    /**
+     * 按狀態統計事件數
+     */
+    long countByStatus(OutboxEvent.Status status);
+}
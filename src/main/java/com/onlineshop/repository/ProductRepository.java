@@ -1,12 +1,19 @@
 package com.onlineshop.repository;
 
+import com.onlineshop.dto.ProductSummary;
 import com.onlineshop.model.Product;
 import com.onlineshop.model.Category;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,6 +28,54 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
      */
     List<Product> findByCategory(Category category);
     
+    /**
+     * 鍵集分頁查詢所有商品
+     */
+    Window<Product> findBy(ScrollPosition position, Sort sort, Limit limit);
+    
+    /**
+     * 鍵集分頁查詢指定分類的商品
+     */
+    Window<Product> findByCategoryId(Long categoryId, ScrollPosition position, Sort sort, Limit limit);
+    
+    /**
+     * 統計指定分類的商品數
+     */
+    long countByCategoryId(Long categoryId);
+    
+    /**
+     * 鍵集分頁查詢多個分類（例如整棵子分類樹）的商品
+     */
+    Window<Product> findByCategoryIdIn(Collection<Long> categoryIds, ScrollPosition position, Sort sort, Limit limit);
+    
+    /**
+     * 統計每個分類的商品數（categoryId, count）
+     */
+    @Query("SELECT p.category.id, COUNT(p) FROM Product p WHERE p.category IS NOT NULL GROUP BY p.category.id")
+    List<Object[]> countProductsByCategory();
+    
+    /**
+     * 根據歷史訂單重新計算商品的累計銷量（不含已取消訂單），只寫入與訂單不一致的行。
+     * 一次性回填用：日常銷量由下單和取消訂單的庫存 SQL 同步維護
+     */
+    @Modifying
+    @Query(value = "UPDATE products p SET sold_count = (" +
+                   "SELECT COALESCE(SUM(oi.quantity), 0) FROM order_items oi " +
+                   "JOIN orders o ON o.id = oi.order_id " +
+                   "WHERE oi.product_id = p.id AND o.status <> 'CANCELLED') " +
+                   "WHERE p.sold_count <> (" +
+                   "SELECT COALESCE(SUM(oi.quantity), 0) FROM order_items oi " +
+                   "JOIN orders o ON o.id = oi.order_id " +
+                   "WHERE oi.product_id = p.id AND o.status <> 'CANCELLED')",
+           nativeQuery = true)
+    int recalculateSoldCounts();
+    
+    /**
+     * 累計銷量最高的商品ID（走 sold_count, id 索引）
+     */
+    @Query("SELECT p.id FROM Product p WHERE p.soldCount > 0 ORDER BY p.soldCount DESC, p.id ASC")
+    List<Long> findTopSoldProductIds(Limit limit);
+    
     /**
      * 根據狀態查找商品
      */
@@ -31,6 +86,24 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
      */
     Optional<Product> findBySku(String sku);
     
+    /**
+     * 查找已存在的SKU
+     */
+    @Query("SELECT p.sku FROM Product p WHERE p.sku IN :skus")
+    List<String> findExistingSkus(@Param("skus") Collection<String> skus);
+    
+    /**
+     * 商品詳情頁的版本：商品版本號、修改時間和分類修改時間（按主鍵查詢，不載入實體）
+     */
+    @Query("SELECT p.version, p.updatedAt, c.updatedAt FROM Product p LEFT JOIN p.category c WHERE p.id = :id")
+    List<Object[]> findPageVersion(@Param("id") Long id);
+    
+    /**
+     * 所有商品引用的圖片文件名（清理圖片存儲用）
+     */
+    @Query("SELECT DISTINCT p.imageUrl FROM Product p WHERE p.imageUrl IS NOT NULL")
+    List<String> findAllImageUrls();
+    
     /**
      * 查找價格範圍內的商品
      */
@@ -46,17 +119,58 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     List<Product> searchProducts(@Param("keyword") String keyword);
     
     /**
-     * 查找庫存不足的商品
+     * 根據關鍵字搜索商品（列表視圖）
      */
-    @Query("SELECT p FROM Product p WHERE p.stockQuantity < :threshold AND p.status = 'ACTIVE'")
-    List<Product> findLowStockProducts(@Param("threshold") int threshold);
+    @Query(ProductSummary.SELECT + "FROM Product p LEFT JOIN p.category c WHERE " +
+           "LOWER(p.name) LIKE LOWER(CONCAT('%', :keyword, '%')) OR " +
+           "LOWER(p.description) LIKE LOWER(CONCAT('%', :keyword, '%')) OR " +
+           "LOWER(p.sku) LIKE LOWER(CONCAT('%', :keyword, '%'))")
+    List<ProductSummary> searchSummaries(@Param("keyword") String keyword);
+    
+    /**
+     * 根據ID列表查詢商品列表視圖（不保證順序）
+     */
+    @Query(ProductSummary.SELECT + "FROM Product p LEFT JOIN p.category c WHERE p.id IN :ids")
+    List<ProductSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+    
+    /**
+     * 最新上架商品的列表視圖
+     */
+    @Query(ProductSummary.SELECT + "FROM Product p LEFT JOIN p.category c ORDER BY p.createdAt DESC, p.id DESC")
+    List<ProductSummary> findNewestSummaries(Limit limit);
+    
+    /**
+     * 商家所有商品的列表視圖
+     */
+    @Query(ProductSummary.SELECT + "FROM Product p LEFT JOIN p.category c " +
+           "WHERE p.createdBy.id = :userId ORDER BY p.createdAt DESC")
+    List<ProductSummary> findSummariesByCreatedById(@Param("userId") Long userId);
+    
+    /**
+     * 查詢建立搜索索引所需的欄位（id, name, description, sku）
+     */
+    @Query("SELECT p.id, p.name, p.description, p.sku FROM Product p")
+    List<Object[]> findAllForSearchIndex();
     
     /**
-     * 查找熱銷商品（按銷售數量排序）
+     * 查詢建立分面索引所需的欄位（id, categoryId, price, stockQuantity, createdAt, soldCount）
      */
-    @Query("SELECT p FROM Product p LEFT JOIN OrderItem oi ON p.id = oi.product.id " +
-           "GROUP BY p.id ORDER BY SUM(oi.quantity) DESC")
-    List<Product> findTopSellingProducts();
+    @Query("SELECT p.id, c.id, p.price, p.stockQuantity, p.createdAt, p.soldCount FROM Product p " +
+           "LEFT JOIN p.category c")
+    List<Object[]> findAllForFacetIndex();
+    
+    /**
+     * 查詢指定商品的分面索引欄位
+     */
+    @Query("SELECT p.id, c.id, p.price, p.stockQuantity, p.createdAt, p.soldCount FROM Product p " +
+           "LEFT JOIN p.category c WHERE p.id IN :ids")
+    List<Object[]> findFacetRowsByIdIn(@Param("ids") Collection<Long> ids);
+    
+    /**
+     * 查找庫存不足的商品
+     */
+    @Query("SELECT p FROM Product p WHERE p.stockQuantity < :threshold AND p.status = 'ACTIVE'")
+    List<Product> findLowStockProducts(@Param("threshold") int threshold);
     
     /**
      * 根據創建者查找商品
@@ -64,6 +178,18 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     @Query("SELECT p FROM Product p WHERE p.createdBy.id = :userId ORDER BY p.createdAt DESC")
     List<Product> findByCreatedById(@Param("userId") Long userId);
     
+    /**
+     * 查詢商家所有商品的庫存（id, sku, stockQuantity），用於庫存同步比對
+     */
+    @Query("SELECT p.id, p.sku, p.stockQuantity FROM Product p WHERE p.createdBy.id = :userId")
+    List<Object[]> findStockRowsByCreatedById(@Param("userId") Long userId);
+    
+    /**
+     * 查詢處於搶購模式的商品ID
+     */
+    @Query("SELECT p.id FROM Product p WHERE p.flashSale = true")
+    List<Long> findFlashSaleProductIds();
+    
     /**
      * 檢查商品是否屬於指定用戶
      */
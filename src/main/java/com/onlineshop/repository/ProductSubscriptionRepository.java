@@ -0,0 +1,61 @@
+package com.onlineshop.repository;
+
+import com.onlineshop.model.ProductSubscription;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 商品通知訂閱數據訪問接口
+ */
+@Repository
+public interface ProductSubscriptionRepository extends JpaRepository<ProductSubscription, Long> {
+    
+    boolean existsByUserIdAndProductIdAndType(Long userId, Long productId, ProductSubscription.Type type);
+    
+    /**
+     * 有訂閱的商品ID
+     */
+    @Query("SELECT DISTINCT s.productId FROM ProductSubscription s")
+    List<Long> findSubscribedProductIds();
+    
+    /**
+     * 在指定商品中篩選有訂閱的商品
+     */
+    @Query("SELECT DISTINCT s.productId FROM ProductSubscription s WHERE s.productId IN :productIds")
+    List<Long> findSubscribedProductIdsIn(@Param("productIds") Collection<Long> productIds);
+    
+    /**
+     * 按ID分頁讀取到貨通知的收件人（訂閱ID, 郵箱），從 afterId 之後開始
+     */
+    @Query("SELECT s.id, u.email FROM ProductSubscription s JOIN s.user u "
+         + "WHERE s.productId = :productId AND s.type = com.onlineshop.model.ProductSubscription$Type.BACK_IN_STOCK "
+         + "AND s.id > :afterId ORDER BY s.id")
+    List<Object[]> findBackInStockRecipients(@Param("productId") Long productId,
+                                             @Param("afterId") Long afterId, Limit limit);
+    
+    /**
+     * 按ID分頁讀取訂閱價高於當前價格的降價通知收件人（訂閱ID, 郵箱）
+     */
+    @Query("SELECT s.id, u.email FROM ProductSubscription s JOIN s.user u "
+         + "WHERE s.productId = :productId AND s.type = com.onlineshop.model.ProductSubscription$Type.PRICE_DROP "
+         + "AND s.subscribedPrice > :price AND s.id > :afterId ORDER BY s.id")
+    List<Object[]> findPriceDropRecipients(@Param("productId") Long productId, @Param("price") BigDecimal price,
+                                           @Param("afterId") Long afterId, Limit limit);
+    
+    /**
+     * 刪除已刪除商品的訂閱
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM ProductSubscription s WHERE s.productId = :productId")
+    int deleteByProductId(@Param("productId") Long productId);
+}
@@ -1,152 +1,808 @@
 package com.onlineshop.service;
 
-import com.onlineshop.model.CartItem;
-import com.onlineshop.model.User;
+import com.onlineshop.dto.CartLine;
+import com.onlineshop.event.ProductChangedEvent;
+import com.onlineshop.model.CartJournalEntry;
 import com.onlineshop.model.Product;
 import com.onlineshop.repository.CartItemRepository;
-import com.onlineshop.repository.ProductRepository;
-import com.onlineshop.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
 import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 /**
  * 購物車服務類
+ * 活躍用戶的購物車保存在內存中，讀取、金額和件數直接從內存計算，商品信息取自商品詳情緩存。
+ * 修改只記錄待寫入的變更，由定時任務合併後批量寫入 cart_items（寫後回寫），
+ * 每個商品一條插入或累加語句，庫存校驗在同一條語句中完成；
+ * 寫入失敗時變更保留到下一輪，應用關閉前寫入剩餘變更，下單前先寫入該用戶的購物車；
+ * 每個購物車有自己的寫入鎖，下單只等待寫入同一用戶變更的那一批。
+ * 每次修改在返回前先插入一條變更日誌（cart_journal，只插入不更新），寫入 cart_items 時在同一事務中刪除已寫入的日誌；
+ * 進程被強制終止（kill -9、斷電）後，用戶的購物車下次載入時按剩餘日誌重做修改，已確認的修改不會丟失。
+ * 內存狀態只屬於當前實例，多實例部署時需要按用戶粘滯路由
  */
 @Service
-@Transactional
 public class CartService {
-    
+
+    /**
+     * MySQL 單語句寫入：商品庫存足夠時插入，已存在則累加數量；庫存不足或商品不存在時不影響任何行。
+     * 參數：userId, 數量, addedAt, productId, 寫入後購物車中的數量（用於庫存校驗）
+     */
+    private static final String MYSQL_ADD_SQL = "INSERT INTO cart_items (user_id, product_id, quantity, added_at) "
+            + "SELECT ?, p.id, ?, ? FROM products p WHERE p.id = ? AND p.stock_quantity >= ? "
+            + "ON DUPLICATE KEY UPDATE quantity = cart_items.quantity + VALUES(quantity)";
+
+    /** MySQL 單語句寫入，已存在時覆蓋數量，參數同上 */
+    private static final String MYSQL_SET_SQL = "INSERT INTO cart_items (user_id, product_id, quantity, added_at) "
+            + "SELECT ?, p.id, ?, ? FROM products p WHERE p.id = ? AND p.stock_quantity >= ? "
+            + "ON DUPLICATE KEY UPDATE quantity = VALUES(quantity)";
+
+    /** H2 等價寫法（MERGE），參數順序與 MySQL 相同 */
+    private static final String MERGE_SOURCE = "MERGE INTO cart_items c USING (SELECT CAST(? AS BIGINT) AS user_id, "
+            + "p.id AS product_id, CAST(? AS INT) AS quantity, CAST(? AS TIMESTAMP) AS added_at "
+            + "FROM products p WHERE p.id = ? AND p.stock_quantity >= ?) s "
+            + "ON (c.user_id = s.user_id AND c.product_id = s.product_id) ";
+
+    private static final String MERGE_ADD_SQL = MERGE_SOURCE
+            + "WHEN MATCHED THEN UPDATE SET c.quantity = c.quantity + s.quantity "
+            + "WHEN NOT MATCHED THEN INSERT (user_id, product_id, quantity, added_at) "
+            + "VALUES (s.user_id, s.product_id, s.quantity, s.added_at)";
+
+    private static final String MERGE_SET_SQL = MERGE_SOURCE
+            + "WHEN MATCHED THEN UPDATE SET c.quantity = s.quantity "
+            + "WHEN NOT MATCHED THEN INSERT (user_id, product_id, quantity, added_at) "
+            + "VALUES (s.user_id, s.product_id, s.quantity, s.added_at)";
+
+    private static final String DELETE_SQL = "DELETE FROM cart_items WHERE user_id = ? AND product_id = ?";
+
+    private static final String CLEAR_SQL = "DELETE FROM cart_items WHERE user_id = ?";
+
+    private static final String JOURNAL_SQL = "INSERT INTO cart_journal "
+            + "(user_id, product_id, operation, quantity, total, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String DELETE_JOURNAL_SQL = "DELETE FROM cart_journal WHERE user_id = ? AND id <= ?";
+
     @Autowired
     private CartItemRepository cartItemRepository;
-    
+
+    @Autowired
+    private ProductService productService;
+
     @Autowired
-    private ProductRepository productRepository;
-    
+    private JdbcTemplate jdbcTemplate;
+
     @Autowired
-    private UserRepository userRepository;
-    
+    private TransactionTemplate transactionTemplate;
+
+    /** 購物車閒置多久後從內存移除（沒有待寫入變更時） */
+    @Value("${cart.idle-eviction-minutes:30}")
+    private long idleEvictionMinutes;
+
+    /** 用戶ID -> 內存購物車 */
+    private final Map<Long, UserCart> carts = new ConcurrentHashMap<>();
+
+    /** 有待寫入變更的用戶 */
+    private final Set<Long> dirtyUsers = ConcurrentHashMap.newKeySet();
+
+    /** 寫入語句，啟動時按數據庫類型選擇 */
+    private String addSql;
+
+    private String setSql;
+
+    /**
+     * 按數據庫類型選擇單語句寫入的寫法
+     */
+    @PostConstruct
+    public void selectDialect() {
+        String product = jdbcTemplate.execute(
+                (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+        boolean h2 = product != null && product.toUpperCase().contains("H2");
+        addSql = h2 ? MERGE_ADD_SQL : MYSQL_ADD_SQL;
+        setSql = h2 ? MERGE_SET_SQL : MYSQL_SET_SQL;
+    }
+
     /**
      * 添加商品到購物車
      */
-    public CartItem addToCart(Long userId, Long productId, Integer quantity) {
-        User user = getUserById(userId);
+    public CartLine addToCart(Long userId, Long productId, Integer quantity) {
+        requirePositive(quantity);
         Product product = getProductById(productId);
-        
-        // 檢查庫存
-        if (!product.hasSufficientStock(quantity)) {
-            throw new IllegalArgumentException("庫存不足");
-        }
-        
-        // 檢查是否已在購物車中
-        CartItem existingItem = cartItemRepository.findByUserAndProduct(user, product).orElse(null);
-        
-        if (existingItem != null) {
-            // 更新數量
-            existingItem.setQuantity(existingItem.getQuantity() + quantity);
-            return cartItemRepository.save(existingItem);
-        } else {
-            // 創建新項目
-            CartItem newItem = new CartItem();
-            newItem.setUser(user);
-            newItem.setProduct(product);
-            newItem.setQuantity(quantity);
-            return cartItemRepository.save(newItem);
-        }
-    }
-    
+
+        // 檢查庫存（按加入後的總數量），檢查和累加在購物車鎖內一次完成
+        int updated = withCart(userId, cart -> {
+            int total = cart.items.getOrDefault(productId, 0) + quantity;
+            if (!product.hasSufficientStock(total)) {
+                throw new IllegalArgumentException("庫存不足");
+            }
+            journal(cart, CartJournalEntry.Operation.ADD, productId, quantity, total);
+            cart.add(productId, quantity);
+            return total;
+        });
+        dirtyUsers.add(userId);
+        return new CartLine(product, updated);
+    }
+
     /**
      * 更新購物車項目數量
      */
-    public CartItem updateCartItemQuantity(Long userId, Long productId, Integer quantity) {
-        User user = getUserById(userId);
+    public CartLine updateCartItemQuantity(Long userId, Long productId, Integer quantity) {
+        requirePositive(quantity);
         Product product = getProductById(productId);
-        
+
         // 檢查庫存
         if (!product.hasSufficientStock(quantity)) {
             throw new IllegalArgumentException("庫存不足");
         }
-        
-        CartItem cartItem = cartItemRepository.findByUserAndProduct(user, product)
-            .orElseThrow(() -> new IllegalArgumentException("購物車項目不存在"));
-        
-        cartItem.setQuantity(quantity);
-        return cartItemRepository.save(cartItem);
+
+        withCart(userId, cart -> {
+            if (!cart.items.containsKey(productId)) {
+                throw new IllegalArgumentException("購物車項目不存在");
+            }
+            journal(cart, CartJournalEntry.Operation.SET, productId, quantity, quantity);
+            cart.set(productId, quantity);
+            return null;
+        });
+        dirtyUsers.add(userId);
+        return new CartLine(product, quantity);
     }
-    
+
     /**
      * 從購物車移除商品
      */
     public void removeFromCart(Long userId, Long productId) {
-        User user = getUserById(userId);
-        Product product = getProductById(productId);
-        
-        cartItemRepository.deleteByUserAndProduct(user, product);
+        withCart(userId, cart -> {
+            if (cart.items.containsKey(productId)) {
+                journal(cart, CartJournalEntry.Operation.DELETE, productId, 0, 0);
+                cart.remove(productId);
+            }
+            return null;
+        });
+        dirtyUsers.add(userId);
     }
-    
+
     /**
      * 清空購物車
      */
     public void clearCart(Long userId) {
-        User user = getUserById(userId);
-        cartItemRepository.deleteByUser(user);
+        withCart(userId, cart -> {
+            journal(cart, CartJournalEntry.Operation.CLEAR, null, 0, 0);
+            cart.clear();
+            return null;
+        });
+        dirtyUsers.add(userId);
     }
-    
+
     /**
      * 獲取用戶購物車內容
      */
-    public List<CartItem> getCartItems(Long userId) {
-        User user = getUserById(userId);
-        return cartItemRepository.findByUser(user);
+    public List<CartLine> getCartItems(Long userId) {
+        Map<Long, Integer> items = withCart(userId, cart -> new LinkedHashMap<>(cart.items));
+        List<CartLine> lines = new ArrayList<>(items.size());
+        for (Map.Entry<Long, Integer> entry : items.entrySet()) {
+            Product product;
+            try {
+                product = getProductById(entry.getKey());
+            } catch (IllegalArgumentException e) {
+                // 商品已刪除
+                removeFromCart(userId, entry.getKey());
+                continue;
+            }
+            lines.add(new CartLine(product, entry.getValue()));
+        }
+        return lines;
     }
-    
+
     /**
      * 計算購物車總金額
      */
     public BigDecimal calculateCartTotal(Long userId) {
-        User user = getUserById(userId);
-        BigDecimal total = cartItemRepository.calculateCartTotal(user);
-        return total != null ? total : BigDecimal.ZERO;
+        return getCartItems(userId).stream()
+            .map(CartLine::getTotalPrice)
+            .reduce(BigDecimal.ZERO, BigDecimal::add);
     }
-    
+
     /**
      * 計算購物車項目數量
      */
     public Integer getCartItemCount(Long userId) {
-        User user = getUserById(userId);
-        Integer count = cartItemRepository.countItemsByUser(user);
-        return count != null ? count : 0;
+        return withCart(userId, cart -> cart.items.values().stream().mapToInt(Integer::intValue).sum());
     }
-    
+
     /**
      * 檢查購物車中是否有足夠庫存
      */
     public boolean validateCartStock(Long userId) {
-        List<CartItem> cartItems = getCartItems(userId);
-        
-        for (CartItem item : cartItems) {
-            if (!item.getProduct().hasSufficientStock(item.getQuantity())) {
+        for (CartLine line : getCartItems(userId)) {
+            if (!line.getProduct().hasSufficientStock(line.getQuantity())) {
                 return false;
             }
         }
         return true;
     }
-    
+
+    /**
+     * 立即寫入用戶的待寫入變更（下單前調用，在調用方事務中執行）
+     * 購物車的寫入鎖保持到調用方事務結束，見 lockForCheckout
+     */
+    public void flushCart(Long userId) {
+        UserCart cart = lockCart(userId);
+        try {
+            PendingChanges changes = cart.takePending();
+            if (changes == null) {
+                return;
+            }
+            boolean rejected;
+            try {
+                // 寫入和刪除日誌在同一事務中（下單時即下單事務）
+                rejected = !transactionTemplate.execute(status -> write(List.of(changes))).isEmpty();
+            } catch (DataAccessException e) {
+                cart.restore(changes);
+                dirtyUsers.add(userId);
+                throw e;
+            }
+            if (rejected) {
+                cart.restore(changes);
+                dirtyUsers.add(userId);
+                throw new IllegalArgumentException("購物車中有商品庫存不足，請調整數量");
+            }
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                // 下單失敗回滾時寫入也被撤銷，放回變更等待下一輪
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status != STATUS_COMMITTED) {
+                            cart.restore(changes);
+                            dirtyUsers.add(userId);
+                        }
+                    }
+                });
+            }
+        } finally {
+            if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+                cart.flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 鎖定用戶購物車的寫入直到當前事務結束（批量下單時調用）
+     * 期間定時寫入跳過這些用戶，下單讀取購物車之後加入的商品不會先寫入數據庫再被下單一起刪除；
+     * 只鎖定這些用戶的購物車，按用戶ID順序加鎖
+     */
+    public void lockForCheckout(Collection<Long> userIds) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("鎖定購物車需要在事務中調用");
+        }
+        userIds.stream().sorted().forEach(this::lockCart);
+    }
+
+    /**
+     * 下單清空數據庫中的購物車後，丟棄內存中的購物車，下次訪問時重新載入
+     * 在事務中調用時延遲到提交之後，避免提交前重新載入到舊數據；
+     * 下單期間加入了新的變更時不丟棄，只保留這些變更，見 evictAfterCheckout
+     */
+    public void evictCart(Long userId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evictAfterCheckout(userId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evictAfterCheckout(userId);
+            }
+        });
+    }
+
+    /**
+     * 定時批量寫入所有待寫入的變更，並移除閒置的購物車
+     * 整批在一個事務中寫入；失敗時逐個用戶重試，仍失敗的變更保留到下一輪
+     */
+    @Scheduled(fixedDelayString = "${cart.flush-interval-ms:1000}")
+    public void flushPendingCarts() {
+        List<UserCart> locked = new ArrayList<>();
+        List<Long> checkingOut = new ArrayList<>();
+        try {
+            flushDirtyCarts(locked, checkingOut);
+        } finally {
+            locked.forEach(cart -> cart.flushLock.unlock());
+            // 正在下單的用戶留到下單事務結束後的下一輪
+            dirtyUsers.addAll(checkingOut);
+        }
+        evictIdleCarts();
+    }
+
+    /**
+     * 取出各購物車的變更時鎖定其寫入，直到這一批提交；正在下單的購物車不等待，直接跳過
+     */
+    private void flushDirtyCarts(List<UserCart> locked, List<Long> checkingOut) {
+        List<PendingChanges> batch = new ArrayList<>();
+        for (Iterator<Long> iterator = dirtyUsers.iterator(); iterator.hasNext(); ) {
+            Long userId = iterator.next();
+            iterator.remove();
+            UserCart cart = carts.get(userId);
+            if (cart == null) {
+                continue;
+            }
+            if (!cart.flushLock.tryLock()) {
+                checkingOut.add(userId);
+                continue;
+            }
+            locked.add(cart);
+            PendingChanges changes = cart.takePending();
+            if (changes != null) {
+                batch.add(changes);
+            }
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<Long> rejectedUsers = new HashSet<>();
+        try {
+            rejectedUsers.addAll(transactionTemplate.execute(status -> write(batch)));
+        } catch (DataAccessException e) {
+            for (PendingChanges changes : batch) {
+                try {
+                    rejectedUsers.addAll(transactionTemplate.execute(status -> write(List.of(changes))));
+                } catch (DataAccessException userError) {
+                    changes.cart.restore(changes);
+                    dirtyUsers.add(changes.cart.userId);
+                    System.err.println("寫入購物車失敗，用戶ID " + changes.cart.userId + ": "
+                            + userError.getMostSpecificCause().getMessage());
+                }
+            }
+        }
+        // 寫入時庫存已不足的商品未寫入，內存與數據庫不一致；
+        // 待期間產生的新變更寫入後丟棄內存中的購物車，下次訪問時按數據庫重新載入
+        for (PendingChanges changes : batch) {
+            UserCart cart = changes.cart;
+            synchronized (cart) {
+                if (rejectedUsers.contains(cart.userId)) {
+                    cart.resync = true;
+                }
+                if (cart.resync && cart.pending.isEmpty() && !cart.clearPending) {
+                    evictNow(cart.userId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 應用正常關閉前寫入剩餘變更；強制終止時由變更日誌在下次載入購物車時恢復
+     */
+    @PreDestroy
+    public void flushOnShutdown() {
+        flushPendingCarts();
+    }
+
+    /**
+     * 商品刪除後從所有內存購物車中移除
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        if (event.getChangeType() != ProductChangedEvent.ChangeType.DELETED) {
+            return;
+        }
+        for (UserCart cart : carts.values()) {
+            synchronized (cart) {
+                cart.items.remove(event.getProductId());
+                cart.pending.remove(event.getProductId());
+            }
+        }
+    }
+
+    /**
+     * 內存中的購物車數
+     */
+    public int getActiveCartCount() {
+        return carts.size();
+    }
+
+    /**
+     * 將變更寫入數據庫：先清空被清空的購物車，再刪除，然後每個商品一條寫入語句，
+     * 最後刪除已寫入的變更日誌（在調用方事務中執行）
+     *
+     * @return 因庫存不足或商品不存在而未寫入的用戶ID
+     */
+    private Set<Long> write(List<PendingChanges> batch) {
+        List<Long> cleared = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>();
+        List<PendingWrite> adds = new ArrayList<>();
+        List<PendingWrite> sets = new ArrayList<>();
+        for (PendingChanges changes : batch) {
+            if (changes.cleared) {
+                cleared.add(changes.cart.userId);
+            }
+            for (Map.Entry<Long, CartOp> entry : changes.ops.entrySet()) {
+                CartOp op = entry.getValue();
+                PendingWrite write = new PendingWrite(changes.cart.userId, entry.getKey(), op);
+                switch (op.kind) {
+                    case DELETE: deletes.add(new Object[]{changes.cart.userId, entry.getKey()}); break;
+                    case ADD: adds.add(write); break;
+                    default: sets.add(write);
+                }
+            }
+        }
+
+        if (!cleared.isEmpty()) {
+            jdbcTemplate.batchUpdate(CLEAR_SQL, cleared, cleared.size(), (ps, userId) -> ps.setLong(1, userId));
+        }
+        if (!deletes.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_SQL, deletes);
+        }
+        Set<Long> rejected = new HashSet<>();
+        upsert(addSql, adds, rejected);
+        upsert(setSql, sets, rejected);
+
+        List<PendingChanges> journaled = batch.stream().filter(changes -> changes.journaledUpTo > 0).toList();
+        if (!journaled.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_JOURNAL_SQL, journaled, journaled.size(), (ps, changes) -> {
+                ps.setLong(1, changes.cart.userId);
+                ps.setLong(2, changes.journaledUpTo);
+            });
+        }
+        return rejected;
+    }
+
+    private void upsert(String sql, List<PendingWrite> writes, Set<Long> rejected) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int[][] counts = jdbcTemplate.batchUpdate(sql, writes, writes.size(), (ps, write) -> {
+            ps.setLong(1, write.userId);
+            ps.setInt(2, write.op.quantity);
+            ps.setTimestamp(3, now);
+            ps.setLong(4, write.productId);
+            ps.setInt(5, write.op.total);
+        });
+        for (int i = 0; i < writes.size(); i++) {
+            if (counts[0][i] == 0) {
+                rejected.add(writes.get(i).userId);
+            }
+        }
+    }
+
+    private void evictNow(Long userId) {
+        UserCart cart = carts.remove(userId);
+        if (cart != null) {
+            synchronized (cart) {
+                cart.evicted = true;
+            }
+        }
+    }
+
+    /**
+     * 在購物車鎖內重新檢查待寫入的變更：沒有時丟棄購物車；
+     * 有時（下單讀取購物車之後加入的商品）以清空後的購物車為基準保留，由下一輪寫入
+     */
+    private void evictAfterCheckout(Long userId) {
+        UserCart cart = carts.get(userId);
+        if (cart == null) {
+            return;
+        }
+        synchronized (cart) {
+            if (cart.pending.isEmpty() && !cart.clearPending) {
+                cart.evicted = true;
+                carts.remove(userId, cart);
+                return;
+            }
+            cart.rebaseAfterCheckout();
+        }
+        dirtyUsers.add(userId);
+    }
+
+    private void evictIdleCarts() {
+        long threshold = System.currentTimeMillis() - idleEvictionMinutes * 60_000;
+        for (UserCart cart : carts.values()) {
+            synchronized (cart) {
+                if (cart.lastAccess < threshold && cart.pending.isEmpty() && !cart.clearPending) {
+                    cart.evicted = true;
+                    carts.remove(cart.userId, cart);
+                }
+            }
+        }
+    }
+
+    /**
+     * 獲取用戶購物車的寫入鎖；在事務中調用時事務結束後釋放，否則由調用方釋放。
+     * 購物車不在內存中時先載入，下單期間加入的商品也受此鎖保護
+     */
+    private UserCart lockCart(Long userId) {
+        UserCart cart;
+        while (true) {
+            cart = carts.computeIfAbsent(userId, this::load);
+            cart.flushLock.lock();
+            synchronized (cart) {
+                if (!cart.evicted) {
+                    break;
+                }
+            }
+            // 剛被移除，重新載入
+            cart.flushLock.unlock();
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            ReentrantLock flushLock = cart.flushLock;
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    flushLock.unlock();
+                }
+            });
+        }
+        return cart;
+    }
+
+    /**
+     * 在用戶購物車的鎖內執行操作；購物車不在內存中時先從數據庫載入
+     */
+    private <T> T withCart(Long userId, Function<UserCart, T> action) {
+        while (true) {
+            UserCart cart = carts.computeIfAbsent(userId, this::load);
+            synchronized (cart) {
+                if (cart.evicted) {
+                    // 剛被移除，重新載入
+                    continue;
+                }
+                cart.lastAccess = System.currentTimeMillis();
+                return action.apply(cart);
+            }
+        }
+    }
+
     /**
-     * 根據ID獲取用戶
+     * 從數據庫載入購物車，再按順序重做尚未寫入的變更日誌（上次異常終止前已確認的修改）
      */
-    private User getUserById(Long userId) {
-        return userRepository.findById(userId)
-            .orElseThrow(() -> new IllegalArgumentException("用戶不存在"));
+    private UserCart load(Long userId) {
+        UserCart cart = new UserCart(userId);
+        for (Object[] row : cartItemRepository.findCartRowsByUserId(userId)) {
+            cart.items.put((Long) row[0], (Integer) row[1]);
+        }
+        jdbcTemplate.query("SELECT id, operation, product_id, quantity FROM cart_journal WHERE user_id = ? ORDER BY id",
+                rs -> {
+                    long productId = rs.getLong(3);
+                    int quantity = rs.getInt(4);
+                    switch (CartJournalEntry.Operation.valueOf(rs.getString(2))) {
+                        case ADD: cart.add(productId, quantity); break;
+                        case SET: cart.set(productId, quantity); break;
+                        case DELETE: cart.remove(productId); break;
+                        default: cart.clear();
+                    }
+                    cart.journaledUpTo = rs.getLong(1);
+                }, userId);
+        if (cart.journaledUpTo > 0) {
+            System.out.println("恢復未寫入的購物車修改，用戶ID " + userId);
+            dirtyUsers.add(userId);
+        }
+        return cart;
+    }
+
+    /**
+     * 插入一條變更日誌，插入成功後才修改內存購物車（在購物車鎖內調用）
+     */
+    private void journal(UserCart cart, CartJournalEntry.Operation operation, Long productId, int quantity, int total) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(JOURNAL_SQL, new String[] {"id"});
+            ps.setLong(1, cart.userId);
+            if (productId == null) {
+                ps.setNull(2, Types.BIGINT);
+            } else {
+                ps.setLong(2, productId);
+            }
+            ps.setString(3, operation.name());
+            ps.setInt(4, quantity);
+            ps.setInt(5, total);
+            ps.setTimestamp(6, now);
+            return ps;
+        }, keyHolder);
+        cart.journaledUpTo = keyHolder.getKey().longValue();
     }
-    
+
+    private static void requirePositive(Integer quantity) {
+        if (quantity == null || quantity <= 0) {
+            throw new IllegalArgumentException("數量必須大於 0");
+        }
+    }
+
     /**
-     * 根據ID獲取商品
+     * 根據ID獲取商品（經商品詳情緩存）
      */
     private Product getProductById(Long productId) {
-        return productRepository.findById(productId)
-            .orElseThrow(() -> new IllegalArgumentException("商品不存在"));
+        return productService.getProductForDisplay(productId);
+    }
+
+    /**
+     * 一個用戶的內存購物車，所有訪問都在對象鎖內；寫入數據庫另有寫入鎖，不阻塞購物車的讀取和修改
+     */
+    private static class UserCart {
+        private final Long userId;
+        /** 商品ID -> 數量，按加入順序 */
+        private final LinkedHashMap<Long, Integer> items = new LinkedHashMap<>();
+        /** 待寫入的變更：商品ID -> 合併後的操作 */
+        private final Map<Long, CartOp> pending = new HashMap<>();
+        /** 寫入鎖：取出變更到寫入提交期間持有，下單時持有到下單事務結束 */
+        private final ReentrantLock flushLock = new ReentrantLock();
+        /** 是否需要先清空數據庫中的購物車；為 true 時 items 中的商品都在 pending 中 */
+        private boolean clearPending = false;
+        private boolean evicted = false;
+        /** 有寫入因庫存不足被拒絕，變更寫完後需要從數據庫重新載入 */
+        private boolean resync = false;
+        /** 已反映在內存中的最後一條變更日誌ID */
+        private long journaledUpTo = 0;
+        private long lastAccess = System.currentTimeMillis();
+
+        private UserCart(Long userId) {
+            this.userId = userId;
+        }
+
+        private void add(Long productId, int quantity) {
+            int total = items.getOrDefault(productId, 0) + quantity;
+            items.put(productId, total);
+            pending.merge(productId, new CartOp(CartOp.Kind.ADD, quantity, total), CartOp::then);
+        }
+
+        private void set(Long productId, int quantity) {
+            items.put(productId, quantity);
+            pending.put(productId, new CartOp(CartOp.Kind.SET, quantity, quantity));
+        }
+
+        private void remove(Long productId) {
+            if (items.remove(productId) != null) {
+                pending.put(productId, new CartOp(CartOp.Kind.DELETE, 0, 0));
+            }
+        }
+
+        private void clear() {
+            items.clear();
+            pending.clear();
+            clearPending = true;
+        }
+
+        /**
+         * 下單已刪除數據庫中的購物車：已下單的商品從內存移除，只保留待寫入的變更，
+         * 累加操作改為以空購物車為基準
+         */
+        private void rebaseAfterCheckout() {
+            items.clear();
+            pending.replaceAll((productId, op) ->
+                    op.kind == CartOp.Kind.ADD ? new CartOp(CartOp.Kind.ADD, op.quantity, op.quantity) : op);
+            pending.forEach((productId, op) -> {
+                if (op.kind != CartOp.Kind.DELETE) {
+                    items.put(productId, op.total);
+                }
+            });
+        }
+
+        /**
+         * 取出並重置待寫入的變更，沒有變更時返回 null
+         */
+        private synchronized PendingChanges takePending() {
+            if (pending.isEmpty() && !clearPending) {
+                return null;
+            }
+            PendingChanges changes = new PendingChanges(this, new HashMap<>(pending), clearPending, journaledUpTo);
+            pending.clear();
+            clearPending = false;
+            return changes;
+        }
+
+        /**
+         * 寫入失敗後放回變更，與期間新產生的變更合併
+         */
+        private synchronized void restore(PendingChanges changes) {
+            if (evicted) {
+                // 已下單清空，舊變更不再寫入
+                return;
+            }
+            for (Map.Entry<Long, CartOp> entry : changes.ops.entrySet()) {
+                CartOp newer = pending.get(entry.getKey());
+                pending.put(entry.getKey(), newer == null ? entry.getValue() : entry.getValue().then(newer));
+            }
+            if (changes.cleared) {
+                clearPending = true;
+                // 清空後仍在購物車中的商品都要重新寫入
+                items.forEach((productId, quantity) ->
+                        pending.putIfAbsent(productId, new CartOp(CartOp.Kind.SET, quantity, quantity)));
+            }
+        }
+    }
+
+    /**
+     * 從一個購物車取出的一批變更
+     */
+    private static class PendingChanges {
+        private final UserCart cart;
+        private final Map<Long, CartOp> ops;
+        private final boolean cleared;
+        /** 這批變更包含的最後一條日誌ID，寫入後刪除到此為止的日誌 */
+        private final long journaledUpTo;
+
+        private PendingChanges(UserCart cart, Map<Long, CartOp> ops, boolean cleared, long journaledUpTo) {
+            this.cart = cart;
+            this.ops = ops;
+            this.cleared = cleared;
+            this.journaledUpTo = journaledUpTo;
+        }
+    }
+
+    /**
+     * 一個商品的待寫入操作
+     * ADD 在數據庫中累加數量，多個實例或頁籤同時加入同一商品時不會互相覆蓋；SET 和 DELETE 覆蓋數據庫中的值
+     */
+    private static class CartOp {
+        private enum Kind { ADD, SET, DELETE }
+
+        private final Kind kind;
+        /** ADD 為增量，SET 為新數量 */
+        private final int quantity;
+        /** 寫入後購物車中的數量，寫入時要求庫存不少於此值 */
+        private final int total;
+
+        private CartOp(Kind kind, int quantity, int total) {
+            this.kind = kind;
+            this.quantity = quantity;
+            this.total = total;
+        }
+
+        /**
+         * 合併：先執行本操作，再執行 next
+         */
+        private CartOp then(CartOp next) {
+            if (next.kind != Kind.ADD) {
+                return next;
+            }
+            switch (kind) {
+                case ADD: return new CartOp(Kind.ADD, quantity + next.quantity, next.total);
+                case SET: return new CartOp(Kind.SET, quantity + next.quantity, next.total);
+                default: return new CartOp(Kind.SET, next.quantity, next.total);
+            }
+        }
+    }
+
+    /**
+     * 一條寫入語句的參數
+     */
+    private static class PendingWrite {
+        private final Long userId;
+        private final Long productId;
+        private final CartOp op;
+
+        private PendingWrite(Long userId, Long productId, CartOp op) {
+            this.userId = userId;
+            this.productId = productId;
+            this.op = op;
+        }
     }
 }
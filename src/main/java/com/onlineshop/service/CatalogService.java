@@ -0,0 +1,349 @@
+package com.onlineshop.service;
+
+import com.onlineshop.dto.CatalogFacets;
+import com.onlineshop.dto.CatalogPage;
+import com.onlineshop.dto.CategoryNode;
+import com.onlineshop.dto.FacetOption;
+import com.onlineshop.dto.ProductSummary;
+import com.onlineshop.model.Product;
+import com.onlineshop.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 商品目錄服務
+ * 使用鍵集（seek）分頁瀏覽商品，每頁只讀取固定數量的行，總數取自分類樹快照
+ */
+@Service
+@Transactional(readOnly = true)
+public class CatalogService {
+
+    /** 默認每頁商品數 */
+    public static final int DEFAULT_PAGE_SIZE = 24;
+
+    /** 每頁商品數上限 */
+    public static final int MAX_PAGE_SIZE = 96;
+
+    /** 搜索結果最多可翻閱的商品數 */
+    private static final int MAX_SEARCH_RESULTS = 1000;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductSearchService productSearchService;
+
+    @Autowired
+    private CategoryTreeService categoryTreeService;
+
+    @Autowired
+    private ProductFacetService productFacetService;
+
+    /** 啟動時根據歷史訂單回填累計銷量，只在升級到 sold_count 欄位後的首次啟動開啟 */
+    @Value("${catalog.sold-count-backfill:false}")
+    private boolean soldCountBackfill;
+
+    /**
+     * 一次性回填商品累計銷量，供按熱度排序使用；之後由下單和取消訂單同步維護
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void reconcileSoldCounts() {
+        if (!soldCountBackfill) {
+            return;
+        }
+        int updated = productRepository.recalculateSoldCounts();
+        System.out.println("已回填 " + updated + " 個商品的累計銷量，請關閉 catalog.sold-count-backfill");
+    }
+
+    /**
+     * 瀏覽商品（可按分類篩選，包含子分類的商品）
+     */
+    public CatalogPage<ProductSummary> browse(Long categoryId, SortOption sort, String cursor, Integer size) {
+        return browse(categoryId, null, null, sort, cursor, size);
+    }
+
+    /**
+     * 按分類、價格區間、庫存狀態組合篩選商品，並返回各分面的計數
+     * 分面索引建立前退回數據庫鍵集分頁（此時忽略價格和庫存條件）
+     */
+    public CatalogPage<ProductSummary> browse(Long categoryId, ProductFacetIndex.PriceRange priceRange,
+                                       ProductFacetIndex.StockStatus stockStatus,
+                                       SortOption sort, String cursor, Integer size) {
+        int pageSize = normalizePageSize(size);
+        KeysetScrollPosition position = decodeKeysetCursor(cursor, sort);
+        CategoryTreeService.CategoryTree tree = categoryTreeService.getTree();
+        CategoryNode category = tree.getNode(categoryId);
+
+        if (productFacetService.isReady()) {
+            Collection<Long> categoryIds = categoryId == null ? null
+                    : (category == null ? List.of(categoryId) : category.getSubtreeIds());
+            Map<String, ?> anchor = position.getKeys();
+            ProductFacetIndex.FacetResult result = productFacetService.query(new ProductFacetIndex.FacetQuery(
+                    categoryIds, priceRange, stockStatus, sort,
+                    anchor.get(sort.property), (Long) anchor.get("id"), position.scrollsBackward(), pageSize));
+            List<ProductSummary> content = productService.getSummariesByIdsInOrder(result.getIds());
+            return toPage(content, result.hasMore(), position, sort, result.getTotalCount(),
+                    buildFacets(result, tree, category, priceRange, stockStatus));
+        }
+
+        Window<Product> window;
+        if (categoryId == null) {
+            window = productRepository.findBy(position, sort.toSort(), Limit.of(pageSize));
+        } else if (category == null || category.isLeaf()) {
+            window = productRepository.findByCategoryId(categoryId, position, sort.toSort(), Limit.of(pageSize));
+        } else {
+            window = productRepository.findByCategoryIdIn(category.getSubtreeIds(), position, sort.toSort(),
+                    Limit.of(pageSize));
+        }
+        long totalCount = categoryId == null
+                ? tree.getTotalProductCount()
+                : (category == null ? 0 : category.getSubtreeProductCount());
+        // 索引建立前的過渡路徑，仍載入實體後轉換
+        List<ProductSummary> content = window.getContent().stream().map(ProductSummary::from).toList();
+        return toPage(content, window.hasNext(), position, sort, totalCount, null);
+    }
+
+    /**
+     * 分頁搜索商品，按相關度排序
+     * 搜索結果ID來自內存索引，每頁只從數據庫讀取當前頁的商品
+     */
+    public CatalogPage<ProductSummary> search(String keyword, String cursor, Integer size) {
+        int pageSize = normalizePageSize(size);
+        int offset = decodeOffsetCursor(cursor);
+
+        if (!productSearchService.isReady()) {
+            List<ProductSummary> all = productService.searchProducts(keyword);
+            return slice(all, offset, pageSize);
+        }
+
+        List<Long> rankedIds = productSearchService.search(keyword, MAX_SEARCH_RESULTS);
+        int from = Math.min(offset, rankedIds.size());
+        int to = Math.min(from + pageSize, rankedIds.size());
+        List<ProductSummary> content = productService.getSummariesByIdsInOrder(rankedIds.subList(from, to));
+
+        return new CatalogPage<>(content,
+                to < rankedIds.size() ? encodeOffsetCursor(to) : null,
+                from > 0 ? encodeOffsetCursor(Math.max(0, from - pageSize)) : null,
+                rankedIds.size(), "relevance");
+    }
+
+    /**
+     * 根據當前頁內容生成前後頁游標
+     *
+     * @param hasMore 查詢方向上是否還有更多（向後翻頁時表示前面還有更多）
+     */
+    private CatalogPage<ProductSummary> toPage(List<ProductSummary> content, boolean hasMore, KeysetScrollPosition position,
+                                        SortOption sort, long totalCount, CatalogFacets facets) {
+        String nextCursor = null;
+        String previousCursor = null;
+        if (!content.isEmpty()) {
+            ProductSummary first = content.get(0);
+            ProductSummary last = content.get(content.size() - 1);
+            if (position.scrollsBackward()) {
+                nextCursor = encodeKeysetCursor(ScrollPosition.forward(sort.keysOf(last)), sort);
+                previousCursor = hasMore ? encodeKeysetCursor(ScrollPosition.backward(sort.keysOf(first)), sort) : null;
+            } else {
+                nextCursor = hasMore ? encodeKeysetCursor(ScrollPosition.forward(sort.keysOf(last)), sort) : null;
+                previousCursor = position.isInitial() ? null
+                        : encodeKeysetCursor(ScrollPosition.backward(sort.keysOf(first)), sort);
+            }
+        }
+        return new CatalogPage<>(content, nextCursor, previousCursor, totalCount, sort.getParameter(), facets);
+    }
+
+    /**
+     * 將分面索引的計數轉換為頁面選項，分類計數按子分類樹匯總
+     */
+    private CatalogFacets buildFacets(ProductFacetIndex.FacetResult result, CategoryTreeService.CategoryTree tree,
+                                      CategoryNode selectedCategory, ProductFacetIndex.PriceRange priceRange,
+                                      ProductFacetIndex.StockStatus stockStatus) {
+        List<FacetOption> categoryOptions = new ArrayList<>();
+        List<CategoryNode> nodes = selectedCategory == null ? tree.getRoots() : selectedCategory.getChildren();
+        for (CategoryNode node : nodes) {
+            long count = 0;
+            for (Long id : node.getSubtreeIds()) {
+                count += result.getCategoryCounts().getOrDefault(id, 0L);
+            }
+            categoryOptions.add(new FacetOption(String.valueOf(node.getId()), node.getName(), count, false));
+        }
+
+        List<FacetOption> priceOptions = new ArrayList<>();
+        for (ProductFacetIndex.PriceRange range : ProductFacetIndex.PriceRange.values()) {
+            priceOptions.add(new FacetOption(range.getParameter(), range.getLabel(),
+                    result.getPriceCounts().get(range), range == priceRange));
+        }
+
+        List<FacetOption> stockOptions = new ArrayList<>();
+        for (ProductFacetIndex.StockStatus status : ProductFacetIndex.StockStatus.values()) {
+            stockOptions.add(new FacetOption(status.getParameter(), status.getLabel(),
+                    result.getStockCounts().get(status), status == stockStatus));
+        }
+        return new CatalogFacets(categoryOptions, priceOptions, stockOptions);
+    }
+
+    private CatalogPage<ProductSummary> slice(List<ProductSummary> all, int offset, int pageSize) {
+        int from = Math.min(offset, all.size());
+        int to = Math.min(from + pageSize, all.size());
+        return new CatalogPage<>(all.subList(from, to),
+                to < all.size() ? encodeOffsetCursor(to) : null,
+                from > 0 ? encodeOffsetCursor(Math.max(0, from - pageSize)) : null,
+                all.size(), "relevance");
+    }
+
+    private int normalizePageSize(Integer size) {
+        if (size == null || size <= 0) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(size, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * 編碼鍵集游標：方向|排序|排序鍵值|id
+     */
+    private String encodeKeysetCursor(KeysetScrollPosition position, SortOption sort) {
+        Map<String, ?> keys = position.getKeys();
+        String raw = (position.scrollsBackward() ? "B" : "F") + "|" + sort.name()
+                + "|" + keys.get(sort.property) + "|" + keys.get("id");
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析鍵集游標，無效或排序不匹配時從第一頁開始
+     */
+    private KeysetScrollPosition decodeKeysetCursor(String cursor, SortOption sort) {
+        if (cursor == null || cursor.isEmpty()) {
+            return ScrollPosition.keyset();
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 4);
+            if (parts.length != 4 || !sort.name().equals(parts[1])) {
+                return ScrollPosition.keyset();
+            }
+            Map<String, Object> keys = new LinkedHashMap<>();
+            keys.put(sort.property, sort.parseKey(parts[2]));
+            keys.put("id", Long.valueOf(parts[3]));
+            return "B".equals(parts[0]) ? ScrollPosition.backward(keys) : ScrollPosition.forward(keys);
+        } catch (IllegalArgumentException | java.time.format.DateTimeParseException e) {
+            return ScrollPosition.keyset();
+        }
+    }
+
+    private String encodeOffsetCursor(int offset) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(("S|" + offset).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int decodeOffsetCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            return raw.startsWith("S|") ? Math.max(0, Integer.parseInt(raw.substring(2))) : 0;
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 商品列表排序方式，每種排序都以 id 作為唯一的次排序鍵
+     */
+    public enum SortOption {
+        NEWEST("createdAt", Sort.Direction.DESC, "最新上架"),
+        PRICE_ASC("price", Sort.Direction.ASC, "價格由低到高"),
+        PRICE_DESC("price", Sort.Direction.DESC, "價格由高到低"),
+        POPULAR("soldCount", Sort.Direction.DESC, "銷量最高");
+
+        private final String property;
+        private final Sort.Direction direction;
+        private final String label;
+
+        SortOption(String property, Sort.Direction direction, String label) {
+            this.property = property;
+            this.direction = direction;
+            this.label = label;
+        }
+
+        /**
+         * 請求參數值
+         */
+        public String getParameter() {
+            return name().toLowerCase();
+        }
+
+        /**
+         * 顯示名稱
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        public Sort toSort() {
+            return Sort.by(direction, property, "id");
+        }
+
+        public boolean isDescending() {
+            return direction.isDescending();
+        }
+
+        /**
+         * 商品在此排序下的鍵集（排序鍵值和 id）
+         */
+        private Map<String, Object> keysOf(ProductSummary product) {
+            Map<String, Object> keys = new LinkedHashMap<>();
+            switch (this) {
+                case NEWEST: keys.put(property, product.getCreatedAt()); break;
+                case POPULAR: keys.put(property, product.getSoldCount()); break;
+                default: keys.put(property, product.getPrice());
+            }
+            keys.put("id", product.getId());
+            return keys;
+        }
+
+        /**
+         * 從請求參數解析排序方式，無法識別時使用最新上架
+         */
+        public static SortOption fromParameter(String value) {
+            if (value != null) {
+                for (SortOption option : values()) {
+                    if (option.name().equalsIgnoreCase(value)) {
+                        return option;
+                    }
+                }
+            }
+            return NEWEST;
+        }
+
+        private Object parseKey(String value) {
+            switch (this) {
+                case NEWEST: return LocalDateTime.parse(value);
+                case POPULAR: return Integer.valueOf(value);
+                default: return new BigDecimal(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.onlineshop.service;
+
+import com.onlineshop.dto.CategoryNode;
+import com.onlineshop.event.CategoryChangedEvent;
+import com.onlineshop.event.ProductChangedEvent;
+import com.onlineshop.event.ProductsImportedEvent;
+import com.onlineshop.repository.CategoryRepository;
+import com.onlineshop.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 分類樹服務
+ * 一次查詢載入全部分類和每個分類的商品數，構建不可變的分類樹快照；
+ * 分類或商品變更後重新構建並整體替換，讀取方始終看到一致的快照
+ */
+@Service
+public class CategoryTreeService {
+
+    @Autowired
+    private CategoryRepository categoryRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private PageCacheService pageCacheService;
+
+    private volatile CategoryTree tree;
+
+    /** 商品變更後標記，由定時任務合併重建 */
+    private volatile boolean dirty = false;
+
+    /**
+     * 應用啟動後構建分類樹
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        rebuild();
+    }
+
+    /**
+     * 分類變更後立即重建
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCategoryChanged(CategoryChangedEvent event) {
+        rebuild();
+    }
+
+    /**
+     * 商品變更只影響商品數，標記後批量重建
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        dirty = true;
+    }
+
+    /**
+     * 批量匯入改變了分類商品數
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductsImported(ProductsImportedEvent event) {
+        dirty = true;
+    }
+
+    @Scheduled(fixedDelayString = "${category-tree.refresh-interval-ms:2000}")
+    public void refreshIfDirty() {
+        if (dirty) {
+            rebuild();
+        }
+    }
+
+    /**
+     * 獲取當前分類樹快照
+     */
+    public CategoryTree getTree() {
+        CategoryTree current = tree;
+        return current != null ? current : rebuild();
+    }
+
+    /**
+     * 重新載入分類和商品數並替換快照
+     */
+    public synchronized CategoryTree rebuild() {
+        dirty = false;
+        List<Object[]> categoryRows = categoryRepository.findAllForTree();
+        Map<Long, Long> counts = new HashMap<>();
+        for (Object[] row : productRepository.countProductsByCategory()) {
+            counts.put((Long) row[0], ((Number) row[1]).longValue());
+        }
+        long totalProductCount = productRepository.count();
+
+        CategoryTree previous = tree;
+        CategoryTree fresh = CategoryTree.build(categoryRows, counts, totalProductCount);
+        tree = fresh;
+        if (previous != null && !previous.sameSource(fresh)) {
+            pageCacheService.purge(PageCacheService.CATEGORIES_KEY);
+        }
+        return fresh;
+    }
+
+    /**
+     * 不可變的分類樹快照
+     */
+    public static class CategoryTree {
+
+        private final List<CategoryNode> roots;
+
+        /** 按先序遍歷排列的全部節點，適合渲染縮排的下拉選項 */
+        private final List<CategoryNode> nodes;
+
+        private final Map<Long, CategoryNode> nodesById;
+
+        /** 小寫名稱和名稱路徑 -> 節點，同名分類只能通過路徑查找 */
+        private final Map<String, CategoryNode> nodesByName;
+
+        private final long totalProductCount;
+
+        /** 構建快照的原始數據，用於判斷快照是否有變化 */
+        private final List<List<Object>> sourceRows;
+
+        private final Map<Long, Long> sourceCounts;
+
+        private CategoryTree(List<CategoryNode> roots, List<CategoryNode> nodes, Map<Long, CategoryNode> nodesById,
+                             long totalProductCount, List<List<Object>> sourceRows, Map<Long, Long> sourceCounts) {
+            this.roots = roots;
+            this.nodes = nodes;
+            this.nodesById = nodesById;
+            this.nodesByName = indexByName(nodes);
+            this.totalProductCount = totalProductCount;
+            this.sourceRows = sourceRows;
+            this.sourceCounts = sourceCounts;
+        }
+
+        /**
+         * 由分類行（id, name, parentId）和分類商品數構建分類樹
+         */
+        static CategoryTree build(List<Object[]> categoryRows, Map<Long, Long> counts, long totalProductCount) {
+            Map<Long, String> names = new LinkedHashMap<>();
+            Map<Long, List<Long>> childIds = new HashMap<>();
+            List<Long> rootIds = new ArrayList<>();
+            List<List<Object>> sourceRows = new ArrayList<>();
+            for (Object[] row : categoryRows) {
+                names.put((Long) row[0], (String) row[1]);
+                sourceRows.add(Collections.unmodifiableList(Arrays.asList(row)));
+            }
+            for (Object[] row : categoryRows) {
+                Long id = (Long) row[0];
+                Long parentId = (Long) row[2];
+                if (parentId == null || !names.containsKey(parentId)) {
+                    rootIds.add(id);
+                } else {
+                    childIds.computeIfAbsent(parentId, k -> new ArrayList<>()).add(id);
+                }
+            }
+
+            Map<Long, CategoryNode> nodesById = new HashMap<>();
+            List<CategoryNode> roots = new ArrayList<>();
+            Set<Long> visited = new HashSet<>();
+            for (Long rootId : rootIds) {
+                roots.add(buildNode(rootId, null, 0, Collections.emptyList(), "",
+                        names, childIds, counts, nodesById, visited));
+            }
+
+            List<CategoryNode> nodes = new ArrayList<>(nodesById.size());
+            for (CategoryNode root : roots) {
+                flatten(root, nodes);
+            }
+            return new CategoryTree(Collections.unmodifiableList(roots), Collections.unmodifiableList(nodes),
+                    Collections.unmodifiableMap(nodesById), totalProductCount,
+                    Collections.unmodifiableList(sourceRows), Collections.unmodifiableMap(counts));
+        }
+
+        private static CategoryNode buildNode(Long id, Long parentId, int depth, List<Long> parentPath,
+                                              String parentPathName, Map<Long, String> names,
+                                              Map<Long, List<Long>> childIds, Map<Long, Long> counts,
+                                              Map<Long, CategoryNode> nodesById, Set<Long> visited) {
+            visited.add(id);
+            String name = names.get(id);
+            List<Long> path = new ArrayList<>(parentPath);
+            path.add(id);
+            String pathName = parentPathName.isEmpty() ? name : parentPathName + " / " + name;
+
+            List<CategoryNode> children = new ArrayList<>();
+            List<Long> subtreeIds = new ArrayList<>();
+            subtreeIds.add(id);
+            long productCount = counts.getOrDefault(id, 0L);
+            long subtreeProductCount = productCount;
+            for (Long childId : childIds.getOrDefault(id, Collections.emptyList())) {
+                if (visited.contains(childId)) {
+                    // 數據中出現循環引用時忽略
+                    continue;
+                }
+                CategoryNode child = buildNode(childId, id, depth + 1, path, pathName,
+                        names, childIds, counts, nodesById, visited);
+                children.add(child);
+                subtreeIds.addAll(child.getSubtreeIds());
+                subtreeProductCount += child.getSubtreeProductCount();
+            }
+
+            CategoryNode node = new CategoryNode(id, name, parentId, depth,
+                    Collections.unmodifiableList(path), pathName, productCount, subtreeProductCount,
+                    Collections.unmodifiableList(subtreeIds), Collections.unmodifiableList(children));
+            nodesById.put(id, node);
+            return node;
+        }
+
+        private static Map<String, CategoryNode> indexByName(List<CategoryNode> nodes) {
+            Map<String, CategoryNode> byName = new HashMap<>();
+            Set<String> ambiguous = new HashSet<>();
+            for (CategoryNode node : nodes) {
+                String name = node.getName() == null ? "" : node.getName().trim().toLowerCase();
+                if (byName.putIfAbsent(name, node) != null) {
+                    ambiguous.add(name);
+                }
+            }
+            ambiguous.forEach(byName::remove);
+            for (CategoryNode node : nodes) {
+                byName.put(node.getPathName().trim().toLowerCase(), node);
+            }
+            return byName;
+        }
+
+        private static void flatten(CategoryNode node, List<CategoryNode> nodes) {
+            nodes.add(node);
+            for (CategoryNode child : node.getChildren()) {
+                flatten(child, nodes);
+            }
+        }
+
+        public List<CategoryNode> getRoots() {
+            return roots;
+        }
+
+        public List<CategoryNode> getNodes() {
+            return nodes;
+        }
+
+        /**
+         * 獲取分類節點，不存在時返回 null
+         */
+        public CategoryNode getNode(Long categoryId) {
+            return categoryId == null ? null : nodesById.get(categoryId);
+        }
+
+        /**
+         * 按名稱或名稱路徑（如「電子產品 / 手機」）查找分類，不區分大小寫；
+         * 不存在或名稱不唯一時返回 null
+         */
+        public CategoryNode findByName(String nameOrPath) {
+            return nameOrPath == null ? null : nodesByName.get(nameOrPath.trim().toLowerCase());
+        }
+
+        /**
+         * 全部商品數（含未分類商品）
+         */
+        public long getTotalProductCount() {
+            return totalProductCount;
+        }
+
+        private boolean sameSource(CategoryTree other) {
+            return totalProductCount == other.totalProductCount
+                    && Objects.equals(sourceRows, other.sourceRows)
+                    && Objects.equals(sourceCounts, other.sourceCounts);
+        }
+    }
+}
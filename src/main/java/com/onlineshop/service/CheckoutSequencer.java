@@ -0,0 +1,258 @@
+package com.onlineshop.service;
+
+import com.onlineshop.dto.CartLine;
+import com.onlineshop.dto.CheckoutRequest;
+import com.onlineshop.dto.CheckoutResult;
+import com.onlineshop.model.Order;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 熱門商品下單排序器
+ * 購物車含有熱門商品（搶購中，或上一秒下單次數達到門檻）的訂單按商品分片排隊，
+ * 每個分片由一個寫入線程依次取出一批請求，在一個事務中批量創建（group commit），
+ * 同一商品的訂單不再各自開事務爭搶行鎖；其他訂單照常由調用線程直接創建。
+ * 等待逾時的請求若尚未被寫入線程取出則作廢，不會在調用方收到錯誤後仍被寫入；
+ * 已取出的請求繼續等待其結果
+ */
+@Service
+public class CheckoutSequencer {
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private FlashSaleService flashSaleService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${checkout.sequencer.shards:4}")
+    private int shardCount;
+
+    @Value("${checkout.sequencer.max-batch:100}")
+    private int maxBatch;
+
+    /** 每秒下單次數達到此值的商品視為熱門，0 表示所有訂單都排隊 */
+    @Value("${checkout.sequencer.hot-threshold:20}")
+    private int hotThreshold;
+
+    @Value("${checkout.sequencer.timeout-ms:10000}")
+    private long timeoutMillis;
+
+    /** 當前一秒內各商品的下單次數 */
+    private final Map<Long, AtomicInteger> recentCheckouts = new ConcurrentHashMap<>();
+
+    /** 上一秒達到門檻的商品 */
+    private volatile Set<Long> hotProducts = Set.of();
+
+    private final List<Shard> shards = new ArrayList<>();
+
+    private volatile boolean running = true;
+
+    /**
+     * 啟動各分片的寫入線程
+     */
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < Math.max(1, shardCount); i++) {
+            Shard shard = new Shard();
+            shard.writer = new Thread(() -> drain(shard), "checkout-writer-" + i);
+            shard.writer.setDaemon(true);
+            shard.writer.start();
+            shards.add(shard);
+        }
+    }
+
+    /**
+     * 停止寫入線程，尚未處理的請求以失敗結束
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Shard shard : shards) {
+            shard.writer.interrupt();
+            PendingCheckout pending;
+            while ((pending = shard.queue.poll()) != null) {
+                pending.future.completeExceptionally(new IllegalStateException("系統正在關閉，請稍後再試"));
+            }
+        }
+    }
+
+    /**
+     * 提交訂單：含熱門商品時排隊等待批量寫入，否則直接創建
+     */
+    public Order placeOrder(Long userId, String shippingAddress, String paymentMethod, String notes) {
+        Long hotProductId = recordCheckout(userId);
+        if (hotProductId == null) {
+            return orderService.createOrder(userId, shippingAddress, paymentMethod, notes);
+        }
+
+        // 批量寫入時從數據庫讀取購物車，先寫入內存中的變更；庫存不足時回滾並拋出異常
+        transactionTemplate.executeWithoutResult(status -> cartService.flushCart(userId));
+
+        PendingCheckout pending = new PendingCheckout(
+                new CheckoutRequest(userId, shippingAddress, paymentMethod, notes));
+        Shard shard = shards.get(Math.floorMod(Long.hashCode(hotProductId), shards.size()));
+        if (!running || !shard.queue.offer(pending)) {
+            throw new IllegalStateException("系統正在關閉，請稍後再試");
+        }
+        try {
+            return await(pending);
+        } catch (TimeoutException e) {
+            if (pending.claim()) {
+                // 寫入線程還沒取出，作廢後不會再寫入，重試不會重複下單
+                throw new IllegalArgumentException("下單處理逾時，訂單未建立，請稍後重試");
+            }
+        }
+        // 已在寫入中，等待這一批提交或回滾
+        try {
+            return await(pending);
+        } catch (TimeoutException e) {
+            throw new IllegalArgumentException("下單處理逾時，請稍後到我的訂單確認結果");
+        }
+    }
+
+    private Order await(PendingCheckout pending) throws TimeoutException {
+        try {
+            return pending.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("下單被中斷");
+        }
+    }
+
+    /**
+     * 每秒更新熱門商品
+     */
+    @Scheduled(fixedRate = 1000)
+    public void rollWindow() {
+        Set<Long> hot = new HashSet<>();
+        recentCheckouts.forEach((productId, count) -> {
+            if (count.get() >= hotThreshold) {
+                hot.add(productId);
+            }
+        });
+        recentCheckouts.clear();
+        hotProducts = hot;
+    }
+
+    /**
+     * 記錄購物車中的商品下單一次，返回決定分片的熱門商品ID（ID 最小者），沒有熱門商品時返回 null
+     */
+    private Long recordCheckout(Long userId) {
+        Long hotProductId = null;
+        for (CartLine line : cartService.getCartItems(userId)) {
+            Long productId = line.getProduct().getId();
+            recentCheckouts.computeIfAbsent(productId, id -> new AtomicInteger()).incrementAndGet();
+            boolean hot = hotThreshold <= 0 || hotProducts.contains(productId)
+                    || flashSaleService.isFlashSale(productId);
+            if (hot && (hotProductId == null || productId < hotProductId)) {
+                hotProductId = productId;
+            }
+        }
+        return hotProductId;
+    }
+
+    /**
+     * 寫入線程：阻塞等待第一個請求，再取出隊列中已有的請求湊成一批
+     */
+    private void drain(Shard shard) {
+        List<PendingCheckout> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                batch.add(shard.queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            shard.queue.drainTo(batch, maxBatch - 1);
+            // 跳過調用方已逾時作廢的請求
+            batch.removeIf(pending -> !pending.claim());
+            if (!batch.isEmpty()) {
+                process(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * 整批寫入；意外錯誤導致整批回滾時逐個重試，只讓出錯的請求失敗
+     */
+    private void process(List<PendingCheckout> batch) {
+        List<CheckoutRequest> requests = new ArrayList<>(batch.size());
+        batch.forEach(pending -> requests.add(pending.request));
+        try {
+            List<CheckoutResult> results = orderService.createOrders(requests);
+            for (int i = 0; i < batch.size(); i++) {
+                CheckoutResult result = results.get(i);
+                if (result.isSuccess()) {
+                    batch.get(i).future.complete(result.getOrder());
+                } else {
+                    batch.get(i).future.completeExceptionally(new IllegalArgumentException(result.getErrorMessage()));
+                }
+            }
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                System.err.println("批量下單失敗: " + e.getMessage());
+                batch.get(0).future.completeExceptionally(e);
+                return;
+            }
+            for (PendingCheckout pending : batch) {
+                process(List.of(pending));
+            }
+        }
+    }
+
+    /**
+     * 一個分片的隊列和寫入線程
+     */
+    private static class Shard {
+        private final LinkedBlockingQueue<PendingCheckout> queue = new LinkedBlockingQueue<>();
+        private Thread writer;
+    }
+
+    /**
+     * 等待寫入的請求及其結果
+     */
+    private static class PendingCheckout {
+        private final CheckoutRequest request;
+        private final CompletableFuture<Order> future = new CompletableFuture<>();
+        /** 寫入線程取出或調用方逾時作廢，先到者得 */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private PendingCheckout(CheckoutRequest request) {
+            this.request = request;
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
@@ -1,21 +1,30 @@
 package com.onlineshop.service;
 
-import com.onlineshop.model.Order;
-import com.onlineshop.model.OrderItem;
-import com.onlineshop.model.User;
+import com.onlineshop.config.AsyncConfig;
+import com.onlineshop.dto.OrderMailSnapshot;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.SimpleMailMessage;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import jakarta.annotation.PostConstruct;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * 郵件服務類
- * 支持異步發送郵件，避免阻塞主線程
+ * 訂單郵件由發件箱轉發任務批量交給郵件投遞服務，其他郵件在郵件線程池中異步發送，均不阻塞請求線程；
+ * 郵件經 SMTP 連接池發送，不再每封郵件新建連接；訂單郵件正文由啟動時預編譯的模板（resources/mail-templates）渲染
  */
 @Service
 public class EmailService {
@@ -23,6 +32,9 @@ public class EmailService {
     @Autowired(required = false)
     private JavaMailSender mailSender;
     
+    @Autowired
+    private MailDeliveryService mailDeliveryService;
+    
     @Value("${spring.mail.username:}")
     private String fromEmail;
     
@@ -35,108 +47,142 @@ public class EmailService {
     @Value("${spring.mail.enabled:true}")
     private boolean mailEnabled;
     
+    /** 啟動時檢查一次的郵件配置結果 */
+    private boolean mailAvailable;
+    
+    /** 各種訂單郵件的預編譯模板 */
+    private final Map<OrderMailSnapshot.Type, MailTemplate<OrderMailSnapshot>> templates =
+        new EnumMap<>(OrderMailSnapshot.Type.class);
+    
     /**
-     * 異步發送訂單確認郵件（帶確認收貨連結）
-     * 使用 @Async 註解使郵件發送在後台執行，不阻塞主線程
+     * 啟動時檢查郵件服務配置並編譯郵件模板，模板有錯誤時啟動失敗
      */
-    @Async
-    public void sendOrderConfirmationEmail(User user, Order order) {
-        // 檢查郵件服務是否可用
-        if (!isMailServiceAvailable()) {
-            System.out.println("郵件服務未配置或不可用，跳過發送郵件");
-            System.out.println("訂單確認連結: " + baseUrl + "/orders/confirm/" + order.getConfirmationToken());
-            return;
+    @PostConstruct
+    public void init() throws IOException {
+        mailAvailable = isMailServiceAvailable();
+        
+        MailTemplate.Binding<OrderMailSnapshot.Line> lineBinding = new MailTemplate.Binding<OrderMailSnapshot.Line>()
+            .value("productName", OrderMailSnapshot.Line::getProductName)
+            .value("quantity", OrderMailSnapshot.Line::getQuantity)
+            .value("subtotal", OrderMailSnapshot.Line::getSubtotal);
+        MailTemplate.Binding<OrderMailSnapshot> binding = new MailTemplate.Binding<OrderMailSnapshot>()
+            .value("orderNumber", OrderMailSnapshot::getOrderNumber)
+            .value("customerName", OrderMailSnapshot::getCustomerName)
+            .value("orderDate", OrderMailSnapshot::getOrderDate)
+            .value("totalAmount", OrderMailSnapshot::getTotalAmount)
+            .multiline("shippingAddress", OrderMailSnapshot::getShippingAddress)
+            .value("orderStatus", OrderMailSnapshot::getOrderStatus)
+            .value("paymentStatus", OrderMailSnapshot::getPaymentStatus)
+            .value("confirmationToken", OrderMailSnapshot::getConfirmationToken)
+            .section("items", OrderMailSnapshot::getItems, lineBinding);
+        // 配置常量在編譯時代入靜態文本
+        Map<String, String> constants = Map.of("baseUrl", baseUrl);
+        
+        for (OrderMailSnapshot.Type type : OrderMailSnapshot.Type.values()) {
+            ClassPathResource resource = new ClassPathResource("mail-templates/" + type.getTemplate() + ".html");
+            String source = resource.getContentAsString(StandardCharsets.UTF_8);
+            templates.put(type, MailTemplate.compile(source, constants, binding));
+        }
+    }
+    
+    /**
+     * 批量發送訂單郵件（確認、發貨、取消）
+     * 由發件箱轉發任務調用，郵件經連接池並行發送，最多等待 timeoutMillis；
+     * 返回發送失敗的郵件及原因，以便重試
+     */
+    public Map<OrderMailSnapshot, Exception> sendOrderEmails(List<OrderMailSnapshot> mails, long timeoutMillis) {
+        Map<OrderMailSnapshot, Exception> failures = new HashMap<>();
+        if (!mailAvailable) {
+            for (OrderMailSnapshot mail : mails) {
+                if (mail.getType() == OrderMailSnapshot.Type.CONFIRMATION) {
+                    System.out.println("郵件服務不可用，訂單確認連結: " + baseUrl + "/orders/confirm/" + mail.getConfirmationToken());
+                }
+            }
+            return failures;
         }
         
-        try {
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-            
-            helper.setFrom(fromEmail);
-            helper.setTo(user.getEmail());
-            helper.setSubject("訂單確認 - " + order.getOrderNumber());
-            String confirmationUrl = baseUrl + "/orders/confirm/" + order.getConfirmationToken();
-            
-            StringBuilder emailContent = new StringBuilder();
-            emailContent.append("<html><body style='font-family: Arial, sans-serif;'>");
-            emailContent.append("<div style='max-width: 600px; margin: 0 auto; padding: 20px; border: 1px solid #ddd; border-radius: 5px;'>");
-            emailContent.append("<h2 style='color: #333;'>訂單確認</h2>");
-            emailContent.append("<p>親愛的 ").append(user.getFirstName()).append(" ").append(user.getLastName()).append(",</p>");
-            emailContent.append("<p>感謝您的訂購！以下是您的訂單詳情：</p>");
-            
-            emailContent.append("<div style='background-color: #f5f5f5; padding: 15px; margin: 20px 0; border-radius: 5px;'>");
-            emailContent.append("<p><strong>訂單編號:</strong> ").append(order.getOrderNumber()).append("</p>");
-            emailContent.append("<p><strong>訂單日期:</strong> ").append(order.getCreatedAt()).append("</p>");
-            emailContent.append("<p><strong>總金額:</strong> $").append(order.getTotalAmount()).append("</p>");
-            emailContent.append("</div>");
-            
-            emailContent.append("<h3 style='color: #333;'>訂單項目:</h3>");
-            emailContent.append("<table style='width: 100%; border-collapse: collapse;'>");
-            emailContent.append("<thead><tr style='background-color: #f0f0f0;'>");
-            emailContent.append("<th style='padding: 10px; text-align: left; border: 1px solid #ddd;'>商品名稱</th>");
-            emailContent.append("<th style='padding: 10px; text-align: center; border: 1px solid #ddd;'>數量</th>");
-            emailContent.append("<th style='padding: 10px; text-align: right; border: 1px solid #ddd;'>小計</th>");
-            emailContent.append("</tr></thead><tbody>");
-            
-            for (OrderItem item : order.getOrderItems()) {
-                emailContent.append("<tr>");
-                emailContent.append("<td style='padding: 10px; border: 1px solid #ddd;'>").append(item.getProductName()).append("</td>");
-                emailContent.append("<td style='padding: 10px; text-align: center; border: 1px solid #ddd;'>").append(item.getQuantity()).append("</td>");
-                emailContent.append("<td style='padding: 10px; text-align: right; border: 1px solid #ddd;'>$").append(item.getSubtotal()).append("</td>");
-                emailContent.append("</tr>");
+        List<OrderMailSnapshot> built = new ArrayList<>();
+        List<MimeMessage> messages = new ArrayList<>();
+        for (OrderMailSnapshot mail : mails) {
+            try {
+                messages.add(createOrderEmail(mail));
+                built.add(mail);
+            } catch (MessagingException e) {
+                failures.put(mail, e);
             }
-            
-            emailContent.append("</tbody></table>");
-            
-            emailContent.append("<div style='background-color: #f5f5f5; padding: 15px; margin: 20px 0; border-radius: 5px;'>");
-            emailContent.append("<p><strong>配送地址:</strong><br>").append(order.getShippingAddress().replace("\n", "<br>")).append("</p>");
-            emailContent.append("<p><strong>訂單狀態:</strong> ").append(getOrderStatusText(order.getStatus())).append("</p>");
-            emailContent.append("<p><strong>支付狀態:</strong> ").append(getPaymentStatusText(order.getPaymentStatus())).append("</p>");
-            emailContent.append("</div>");
-            
-            emailContent.append("<div style='margin: 30px 0; padding: 20px; background-color: #e8f4f8; border-left: 4px solid #2196F3; border-radius: 5px;'>");
-            emailContent.append("<h3 style='color: #2196F3; margin-top: 0;'>確認收貨</h3>");
-            emailContent.append("<p>當您收到商品後，請點擊下面的按鈕確認收貨。確認後，訂單將自動標記為已付款和已送達。</p>");
-            emailContent.append("<div style='text-align: center; margin: 20px 0;'>");
-            emailContent.append("<a href='").append(confirmationUrl).append("' ");
-            emailContent.append("style='display: inline-block; padding: 12px 30px; background-color: #4CAF50; color: white; ");
-            emailContent.append("text-decoration: none; border-radius: 5px; font-weight: bold;'>");
-            emailContent.append("確認收貨</a>");
-            emailContent.append("</div>");
-            emailContent.append("<p style='font-size: 12px; color: #666;'>如果按鈕無法點擊，請複製以下連結到瀏覽器：<br>");
-            emailContent.append("<a href='").append(confirmationUrl).append("' style='color: #2196F3;'>").append(confirmationUrl).append("</a></p>");
-            emailContent.append("</div>");
-            
-            emailContent.append("<p style='color: #666; font-size: 14px;'>如有任何問題，請聯繫客服。</p>");
-            emailContent.append("<p style='color: #666; font-size: 14px;'>感謝您的惠顧！</p>");
-            emailContent.append("<hr style='border: none; border-top: 1px solid #ddd; margin: 20px 0;'>");
-            emailContent.append("<p style='color: #999; font-size: 12px; text-align: center;'>此郵件由系統自動發送，請勿直接回覆。</p>");
-            emailContent.append("</div></body></html>");
-            
-            helper.setText(emailContent.toString(), true);
-            
-            mailSender.send(message);
-            System.out.println("訂單確認郵件已發送至: " + user.getEmail());
-        } catch (MessagingException e) {
-            System.err.println("發送郵件失敗: " + e.getMessage());
-            // 輸出確認連結到控制台，方便測試
-            System.out.println("確認收貨連結: " + baseUrl + "/orders/confirm/" + order.getConfirmationToken());
-            e.printStackTrace();
-        } catch (Exception e) {
-            System.err.println("發送郵件時發生未知錯誤: " + e.getMessage());
-            System.out.println("確認收貨連結: " + baseUrl + "/orders/confirm/" + order.getConfirmationToken());
         }
+        List<Exception> results = mailDeliveryService.sendAll(messages, timeoutMillis);
+        for (int i = 0; i < built.size(); i++) {
+            if (results.get(i) != null) {
+                failures.put(built.get(i), results.get(i));
+            }
+        }
+        System.out.println("訂單郵件已發送 " + (mails.size() - failures.size()) + " 封，失敗 " + failures.size() + " 封");
+        return failures;
+    }
+    
+    /**
+     * 同一封 HTML 郵件分別發給多個收件人（通知類郵件），經連接池並行發送，最多等待 timeoutMillis；
+     * 返回與 recipients 一一對應的結果，成功為 null。郵件服務不可用時不發送，全部返回發送失敗，
+     * 調用方保留訂閱以便重試
+     */
+    public List<Exception> sendBulkEmail(List<String> recipients, String subject, String html, long timeoutMillis) {
+        List<Exception> results = new ArrayList<>(recipients.size());
+        if (!mailAvailable) {
+            System.out.println("郵件服務不可用，" + recipients.size() + " 封通知郵件未發送: " + subject);
+            MessagingException unavailable = new MessagingException("郵件服務不可用");
+            recipients.forEach(recipient -> results.add(unavailable));
+            return results;
+        }
+        
+        List<MimeMessage> messages = new ArrayList<>(recipients.size());
+        List<Integer> indexes = new ArrayList<>(recipients.size());
+        for (int i = 0; i < recipients.size(); i++) {
+            results.add(null);
+            try {
+                MimeMessage message = mailDeliveryService.createMimeMessage();
+                MimeMessageHelper helper = new MimeMessageHelper(message, "UTF-8");
+                helper.setFrom(fromEmail);
+                helper.setTo(recipients.get(i));
+                helper.setSubject(subject);
+                helper.setText(html, true);
+                messages.add(message);
+                indexes.add(i);
+            } catch (MessagingException e) {
+                results.set(i, e);
+            }
+        }
+        List<Exception> sent = mailDeliveryService.sendAll(messages, timeoutMillis);
+        for (int i = 0; i < indexes.size(); i++) {
+            results.set(indexes.get(i), sent.get(i));
+        }
+        return results;
+    }
+    
+    /**
+     * 渲染訂單郵件正文
+     */
+    public String renderOrderEmail(OrderMailSnapshot mail) {
+        return templates.get(mail.getType()).render(mail);
+    }
+    
+    /**
+     * 生成訂單郵件
+     */
+    private MimeMessage createOrderEmail(OrderMailSnapshot mail) throws MessagingException {
+        MimeMessage message = mailDeliveryService.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
+        helper.setFrom(fromEmail);
+        helper.setTo(mail.getRecipientEmail());
+        helper.setSubject(mail.getType().getSubject() + " - " + mail.getOrderNumber());
+        helper.setText(renderOrderEmail(mail), true);
+        return message;
     }
     
     /**
      * 檢查郵件服務是否可用
      */
     private boolean isMailServiceAvailable() {
-        System.out.println("=== 檢查郵件服務配置 ===");
-        System.out.println("mailSender: " + (mailSender != null ? "已配置" : "未配置"));
-        System.out.println("fromEmail: " + fromEmail);
-        System.out.println("mailEnabled: " + mailEnabled);
-        
         if (mailSender == null) {
             System.out.println("郵件服務不可用: mailSender 為 null");
             return false;
@@ -154,50 +200,25 @@ public class EmailService {
     }
     
     /**
-     * 異步發送簡單文本郵件
+     * 異步發送簡單文本郵件（郵件線程池，隊列已滿時拋出 TaskRejectedException）
      */
-    @Async
+    @Async(AsyncConfig.MAIL_EXECUTOR)
     public void sendSimpleEmail(String to, String subject, String text) {
-        if (!isMailServiceAvailable()) {
+        if (!mailAvailable) {
             System.out.println("郵件服務未配置，跳過發送");
             return;
         }
         
         try {
-            SimpleMailMessage message = new SimpleMailMessage();
-            message.setFrom(fromEmail);
-            message.setTo(to);
-            message.setSubject(subject);
-            message.setText(text);
-            mailSender.send(message);
+            MimeMessage message = mailDeliveryService.createMimeMessage();
+            MimeMessageHelper helper = new MimeMessageHelper(message, "UTF-8");
+            helper.setFrom(fromEmail);
+            helper.setTo(to);
+            helper.setSubject(subject);
+            helper.setText(text);
+            mailDeliveryService.send(List.of(message));
         } catch (Exception e) {
             System.err.println("發送郵件失敗: " + e.getMessage());
         }
     }
-    
-    /**
-     * 獲取訂單狀態文本
-     */
-    private String getOrderStatusText(Order.OrderStatus status) {
-        switch (status) {
-            case PENDING: return "待處理";
-            case PROCESSING: return "處理中";
-            case SHIPPED: return "已發貨";
-            case DELIVERED: return "已送達";
-            case CANCELLED: return "已取消";
-            default: return status.name();
-        }
-    }
-    
-    /**
-     * 獲取支付狀態文本
-     */
-    private String getPaymentStatusText(Order.PaymentStatus status) {
-        switch (status) {
-            case PENDING: return "待支付";
-            case PAID: return "已支付";
-            case FAILED: return "支付失敗";
-            default: return status.name();
-        }
-    }
-}
\ No newline at end of file
+}
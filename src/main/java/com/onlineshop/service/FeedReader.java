@@ -0,0 +1,240 @@
+package com.onlineshop.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 上傳文件逐行讀取（商品匯入、庫存同步共用）
+ * 支持帶表頭的 CSV 和 NDJSON，讀取錯誤以 IllegalStateException 拋出
+ */
+final class FeedReader {
+
+    private FeedReader() {
+    }
+
+    /**
+     * 按文件名選擇格式：.json / .ndjson / .jsonl 按 NDJSON 解析，其他按 CSV 解析
+     */
+    static Iterator<FeedRow> open(BufferedReader reader, String filename, ObjectMapper objectMapper)
+            throws IOException {
+        return isNdjson(filename) ? new NdjsonRows(reader, objectMapper) : new CsvRows(reader);
+    }
+
+    private static boolean isNdjson(String filename) {
+        if (filename == null) {
+            return false;
+        }
+        String lower = filename.toLowerCase();
+        return lower.endsWith(".ndjson") || lower.endsWith(".jsonl") || lower.endsWith(".json");
+    }
+
+    /**
+     * 一行輸入：小寫欄位名 -> 值（空白值視為未提供）
+     */
+    static class FeedRow {
+        private final long line;
+        private final Map<String, String> values;
+        /** 無法解析時的錯誤信息 */
+        private final String error;
+
+        private FeedRow(long line, Map<String, String> values, String error) {
+            this.line = line;
+            this.values = values;
+            this.error = error;
+        }
+
+        long getLine() {
+            return line;
+        }
+
+        String getError() {
+            return error;
+        }
+
+        /**
+         * 按順序取第一個有值的欄位
+         */
+        String get(String... columns) {
+            for (String column : columns) {
+                String value = values.get(column);
+                if (value != null && !value.isBlank()) {
+                    return value.trim();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * CSV 逐行讀取，第一行為表頭，支持雙引號包裹的欄位（含逗號、換行和 "" 轉義）
+     */
+    private static class CsvRows implements Iterator<FeedRow> {
+        private final BufferedReader reader;
+        private final List<String> header;
+        private long line = 0;
+        private FeedRow next;
+
+        private CsvRows(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            List<String> columns = readRecord();
+            this.header = new ArrayList<>();
+            if (columns != null) {
+                for (String column : columns) {
+                    // 去除 Excel 導出的 UTF-8 BOM
+                    header.add(column.replace("\uFEFF", "").trim().toLowerCase());
+                }
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public FeedRow next() {
+            FeedRow current = next;
+            advance();
+            return current;
+        }
+
+        private void advance() {
+            try {
+                next = null;
+                List<String> fields;
+                while ((fields = readRecord()) != null) {
+                    if (fields.size() == 1 && fields.get(0).isBlank()) {
+                        continue;
+                    }
+                    Map<String, String> values = new HashMap<>();
+                    for (int i = 0; i < header.size() && i < fields.size(); i++) {
+                        values.put(header.get(i), fields.get(i));
+                    }
+                    next = new FeedRow(line, values, null);
+                    return;
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("讀取文件失敗: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * 讀取一條記錄，文件結束時返回 null
+         */
+        private List<String> readRecord() throws IOException {
+            String text = reader.readLine();
+            if (text == null) {
+                return null;
+            }
+            line++;
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            int i = 0;
+            while (true) {
+                if (i >= text.length()) {
+                    if (!quoted) {
+                        break;
+                    }
+                    // 引號內的換行屬於欄位內容
+                    text = reader.readLine();
+                    if (text == null) {
+                        throw new IllegalStateException("第 " + line + " 行引號未閉合");
+                    }
+                    line++;
+                    field.append('\n');
+                    i = 0;
+                    continue;
+                }
+                char c = text.charAt(i++);
+                if (quoted) {
+                    if (c == '"') {
+                        if (i < text.length() && text.charAt(i) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+
+    /**
+     * NDJSON 逐行讀取，每行一個 JSON 對象
+     */
+    private static class NdjsonRows implements Iterator<FeedRow> {
+        private final BufferedReader reader;
+        private final ObjectMapper objectMapper;
+        private long line = 0;
+        private FeedRow next;
+
+        private NdjsonRows(BufferedReader reader, ObjectMapper objectMapper) {
+            this.reader = reader;
+            this.objectMapper = objectMapper;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public FeedRow next() {
+            FeedRow current = next;
+            advance();
+            return current;
+        }
+
+        private void advance() {
+            next = null;
+            try {
+                String text;
+                while ((text = reader.readLine()) != null) {
+                    line++;
+                    if (text.isBlank()) {
+                        continue;
+                    }
+                    Map<String, String> values = new LinkedHashMap<>();
+                    JsonNode node;
+                    try {
+                        node = objectMapper.readTree(text);
+                    } catch (IOException e) {
+                        // 單行 JSON 錯誤只影響這一行
+                        next = new FeedRow(line, values, "JSON 格式錯誤");
+                        return;
+                    }
+                    node.fields().forEachRemaining(entry -> values.put(entry.getKey().toLowerCase(),
+                            entry.getValue().isNull() ? null : entry.getValue().asText()));
+                    next = new FeedRow(line, values, node.isObject() ? null : "每行必須是一個 JSON 對象");
+                    return;
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("讀取文件失敗: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.onlineshop.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 單個搶購商品的內存庫存賬本
+ * 可售庫存分散在多個分段計數器中，各線程從隨機分段開始以 CAS 扣減，不爭用同一個計數器；
+ * 已成交但尚未回寫數據庫的數量以成交日誌記錄的形式累計在 committed 中，由定時任務批量寫入並刪除對應的日誌。
+ * 恆等式：可售 + 保留中 + 處理中的訂單 + committed = baseline（最近一次與數據庫對齊時的庫存）
+ */
+final class FlashSaleLedger {
+
+    private final Long productId;
+
+    private final AtomicIntegerArray stripes;
+
+    /** 已成交未回寫的成交日誌記錄，取消訂單的數量為負數 */
+    private final ConcurrentLinkedQueue<JournalEntry> committed = new ConcurrentLinkedQueue<>();
+
+    /** 已扣減但事務尚未結束的數量 */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** 數據庫中的庫存，只在持有回寫鎖時修改 */
+    private int baseline;
+
+    /** 商品已退出搶購模式，回寫完剩餘數量後移除 */
+    private volatile boolean retired = false;
+
+    FlashSaleLedger(Long productId, int stock, int stripeCount) {
+        this.productId = productId;
+        this.stripes = new AtomicIntegerArray(stripeCount);
+        this.baseline = stock;
+        add(stock);
+    }
+
+    Long getProductId() {
+        return productId;
+    }
+
+    /**
+     * 扣減可售庫存，不足時不扣減
+     */
+    boolean tryTake(int quantity) {
+        int length = stripes.length();
+        int start = ThreadLocalRandom.current().nextInt(length);
+        int taken = 0;
+        for (int i = 0; i < length && taken < quantity; i++) {
+            int index = (start + i) % length;
+            while (true) {
+                int current = stripes.get(index);
+                if (current <= 0) {
+                    break;
+                }
+                int take = Math.min(current, quantity - taken);
+                if (stripes.compareAndSet(index, current, current - take)) {
+                    taken += take;
+                    break;
+                }
+            }
+        }
+        if (taken < quantity) {
+            // 各分段合計不足，歸還已取的部分
+            add(taken);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 歸還可售庫存
+     */
+    void add(int quantity) {
+        if (quantity == 0) {
+            return;
+        }
+        int length = stripes.length();
+        if (quantity > 0 && quantity >= length) {
+            // 大量補貨時平均分配到各分段
+            int share = quantity / length;
+            for (int i = 0; i < length; i++) {
+                stripes.addAndGet(i, i < quantity % length ? share + 1 : share);
+            }
+        } else if (quantity > 0) {
+            stripes.addAndGet(ThreadLocalRandom.current().nextInt(length), quantity);
+        } else {
+            // 減少庫存：盡量扣減，可售已不足時忽略剩餘部分
+            tryTake(Math.min(-quantity, getAvailable()));
+        }
+    }
+
+    /**
+     * 當前可售庫存（各分段合計，並發時為近似值）
+     */
+    int getAvailable() {
+        int sum = 0;
+        for (int i = 0; i < stripes.length(); i++) {
+            sum += stripes.get(i);
+        }
+        return sum;
+    }
+
+    void beginOrder(int quantity) {
+        inFlight.addAndGet(quantity);
+    }
+
+    /**
+     * 訂單事務結束：提交時計入待回寫數量，回滾時歸還可售庫存
+     * @param journalId 訂單事務中寫入的成交日誌ID
+     */
+    void endOrder(int quantity, boolean committedOrder, Long journalId) {
+        if (committedOrder) {
+            committed.add(new JournalEntry(journalId, quantity));
+        } else {
+            add(quantity);
+        }
+        inFlight.addAndGet(-quantity);
+    }
+
+    /**
+     * 取消已成交的訂單
+     * @param journalId 取消事務中寫入的成交日誌ID
+     */
+    void cancel(int quantity, Long journalId) {
+        committed.add(new JournalEntry(journalId, -quantity));
+        add(quantity);
+    }
+
+    /**
+     * 取出待回寫的日誌記錄，寫入失敗時以 restoreCommitted 放回
+     */
+    List<JournalEntry> drainCommitted() {
+        List<JournalEntry> entries = new ArrayList<>();
+        JournalEntry entry;
+        while ((entry = committed.poll()) != null) {
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    void restoreCommitted(List<JournalEntry> entries) {
+        committed.addAll(entries);
+    }
+
+    boolean isIdle() {
+        return committed.isEmpty() && inFlight.get() == 0;
+    }
+
+    int getBaseline() {
+        return baseline;
+    }
+
+    void setBaseline(int baseline) {
+        this.baseline = baseline;
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+
+    void retire() {
+        retired = true;
+    }
+
+    /**
+     * 一條成交日誌記錄
+     */
+    static final class JournalEntry {
+        private final Long id;
+        private final int quantity;
+
+        JournalEntry(Long id, int quantity) {
+            this.id = id;
+            this.quantity = quantity;
+        }
+
+        Long getId() {
+            return id;
+        }
+
+        int getQuantity() {
+            return quantity;
+        }
+    }
+}
@@ -0,0 +1,591 @@
+package com.onlineshop.service;
+
+import com.onlineshop.event.ProductChangedEvent;
+import com.onlineshop.event.StockChangedEvent;
+import com.onlineshop.repository.ProductRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 搶購庫存服務
+ * 商品開啟搶購模式後，庫存由內存中的分段賬本管理：進入結賬頁時為用戶保留限時庫存，
+ * 下單時扣減賬本而不是鎖定商品行，保留過期或取消訂單時歸還。
+ * 已成交的數量由定時任務合併成每個商品一條 UPDATE 批量寫回數據庫。
+ * 成交和取消在訂單事務中寫入成交日誌（flash_sale_journal，只插入不更新商品行），
+ * 回寫時在同一事務中刪除對應的日誌；應用異常終止後，啟動時先按剩餘日誌補寫庫存再建立賬本，
+ * 不會以偏高的庫存重新開賣。賬本只存在於單個應用實例的內存中，正常關閉時會先回寫
+ */
+@Service
+public class FlashSaleService {
+
+    /**
+     * 按淨成交數量扣減庫存並累計銷量（取消多於成交時為負數，即恢復庫存）
+     * 參數：數量, 數量, 數量, 數量, 更新時間, 商品ID
+     */
+    private static final String RECONCILE_SQL = "UPDATE products SET "
+            + "status = CASE WHEN stock_quantity - ? <= 0 AND status = 'ACTIVE' THEN 'OUT_OF_STOCK' "
+            + "WHEN stock_quantity - ? > 0 AND status = 'OUT_OF_STOCK' THEN 'ACTIVE' ELSE status END, "
+            + "stock_quantity = GREATEST(stock_quantity - ?, 0), sold_count = GREATEST(sold_count + ?, 0), "
+            + "version = version + 1, updated_at = ? WHERE id = ?";
+
+    /** 參數：商品ID, 數量（取消為負數）, 時間 */
+    private static final String JOURNAL_SQL =
+            "INSERT INTO flash_sale_journal (product_id, quantity, created_at) VALUES (?, ?, ?)";
+
+    private static final String DELETE_JOURNAL_SQL = "DELETE FROM flash_sale_journal WHERE id = ?";
+
+    /** 每個賬本的分段數 */
+    private static final int STRIPES = Math.max(4,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2));
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${flash-sale.hold-ttl-seconds:300}")
+    private long holdTtlSeconds;
+
+    /** 商品ID -> 搶購中的賬本 */
+    private final Map<Long, FlashSaleLedger> ledgers = new ConcurrentHashMap<>();
+
+    /** 已退出搶購、還有成交數量未回寫的賬本 */
+    private final List<FlashSaleLedger> retiredLedgers = new CopyOnWriteArrayList<>();
+
+    /** 用戶ID -> 結賬保留 */
+    private final Map<Long, UserHold> holds = new ConcurrentHashMap<>();
+
+    /** 回寫和與數據庫對齊互斥，保證 baseline 與數據庫一致 */
+    private final Object reconcileLock = new Object();
+
+    /**
+     * 應用啟動後先補寫上次異常終止時未回寫的成交，再為搶購中的商品建立賬本
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        recoverJournal();
+        for (Long productId : productRepository.findFlashSaleProductIds()) {
+            open(productId);
+        }
+    }
+
+    /**
+     * 商品是否處於搶購模式
+     */
+    public boolean isFlashSale(Long productId) {
+        return ledgers.containsKey(productId);
+    }
+
+    /**
+     * 搶購中商品的可售庫存（不含已保留和未回寫的成交）
+     */
+    public Map<Long, Integer> getAvailableByProduct() {
+        Map<Long, Integer> available = new HashMap<>();
+        ledgers.forEach((productId, ledger) -> available.put(productId, ledger.getAvailable()));
+        return available;
+    }
+
+    /**
+     * 從訂單數量中拆出搶購商品
+     *
+     * @param quantities 商品ID -> 數量，搶購商品會從中移除
+     * @return 搶購商品ID -> 數量
+     */
+    public Map<Long, Integer> splitFlashSaleLines(Map<Long, Integer> quantities) {
+        Map<Long, Integer> flashSaleLines = new HashMap<>();
+        Iterator<Map.Entry<Long, Integer>> iterator = quantities.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Integer> line = iterator.next();
+            if (ledgers.containsKey(line.getKey())) {
+                flashSaleLines.put(line.getKey(), line.getValue());
+                iterator.remove();
+            }
+        }
+        return flashSaleLines;
+    }
+
+    /**
+     * 結賬開始時保留搶購商品的庫存，保留數量與購物車一致，重複調用會延長保留時間
+     *
+     * @param quantities 購物車中的商品ID -> 數量，非搶購商品忽略
+     * @return 可售庫存不足、未能保留所需數量的商品ID
+     */
+    public List<Long> hold(Long userId, Map<Long, Integer> quantities) {
+        while (true) {
+            UserHold hold = holds.computeIfAbsent(userId, id -> new UserHold());
+            synchronized (hold) {
+                if (hold.removed) {
+                    continue;
+                }
+                List<Long> rejected = new ArrayList<>();
+                for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+                    FlashSaleLedger ledger = ledgers.get(line.getKey());
+                    if (ledger == null) {
+                        continue;
+                    }
+                    HeldLine held = hold.lines.get(line.getKey());
+                    if (held != null && held.ledger != ledger) {
+                        // 商品重新開啟過搶購，舊賬本的保留作廢
+                        hold.lines.remove(line.getKey());
+                        held = null;
+                    }
+                    int current = held == null ? 0 : held.quantity;
+                    int wanted = line.getValue();
+                    if (wanted > current && !ledger.tryTake(wanted - current)) {
+                        rejected.add(line.getKey());
+                        continue;
+                    }
+                    if (wanted < current) {
+                        ledger.add(current - wanted);
+                    }
+                    hold.lines.put(line.getKey(), new HeldLine(ledger, wanted));
+                }
+
+                // 已從購物車移除的商品歸還保留
+                Iterator<Map.Entry<Long, HeldLine>> iterator = hold.lines.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Long, HeldLine> entry = iterator.next();
+                    if (!quantities.containsKey(entry.getKey())) {
+                        entry.getValue().ledger.add(entry.getValue().quantity);
+                        iterator.remove();
+                    }
+                }
+
+                hold.expiresAt = System.currentTimeMillis() + holdTtlSeconds * 1000;
+                if (hold.lines.isEmpty()) {
+                    hold.removed = true;
+                    holds.remove(userId, hold);
+                }
+                return rejected;
+            }
+        }
+    }
+
+    /**
+     * 下單扣減搶購商品：先用掉該用戶的保留，不足部分從可售庫存扣減，全部成功才生效。
+     * 在事務中調用時，提交後計入待回寫數量，回滾時歸還可售庫存；成功後釋放該用戶剩餘的保留
+     *
+     * @param quantities 搶購商品ID -> 數量
+     * @return 庫存不足的商品ID，非空時沒有扣減任何商品
+     */
+    public List<Long> commit(Long userId, Map<Long, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            return List.of();
+        }
+        UserHold hold = holds.get(userId);
+        if (hold == null) {
+            return commit(null, userId, quantities);
+        }
+        synchronized (hold) {
+            return commit(hold.removed ? null : hold, userId, quantities);
+        }
+    }
+
+    private List<Long> commit(UserHold hold, Long userId, Map<Long, Integer> quantities) {
+        List<Long> rejected = new ArrayList<>();
+        Map<FlashSaleLedger, Integer> taken = new LinkedHashMap<>();
+        Map<FlashSaleLedger, Integer> ordered = new LinkedHashMap<>();
+        for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+            FlashSaleLedger ledger = ledgers.get(line.getKey());
+            if (ledger == null) {
+                rejected.add(line.getKey());
+                continue;
+            }
+            HeldLine held = hold == null ? null : hold.lines.get(line.getKey());
+            int fromHold = held != null && held.ledger == ledger ? Math.min(held.quantity, line.getValue()) : 0;
+            int needed = line.getValue() - fromHold;
+            if (needed > 0 && !ledger.tryTake(needed)) {
+                rejected.add(line.getKey());
+                continue;
+            }
+            taken.put(ledger, needed);
+            ordered.put(ledger, line.getValue());
+        }
+
+        if (!rejected.isEmpty()) {
+            taken.forEach(FlashSaleLedger::add);
+            return rejected;
+        }
+
+        if (hold != null) {
+            // 訂單已包含保留的數量，多保留的部分歸還
+            for (Map.Entry<Long, HeldLine> entry : hold.lines.entrySet()) {
+                HeldLine held = entry.getValue();
+                Integer quantity = quantities.get(entry.getKey());
+                int used = quantity != null && ledgers.get(entry.getKey()) == held.ledger
+                        ? Math.min(held.quantity, quantity) : 0;
+                held.ledger.add(held.quantity - used);
+            }
+            hold.lines.clear();
+            hold.removed = true;
+            holds.remove(userId, hold);
+        }
+
+        ordered.forEach(FlashSaleLedger::beginOrder);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            Map<FlashSaleLedger, Long> journalIds;
+            try {
+                journalIds = journal(ordered, 1);
+            } catch (RuntimeException e) {
+                ordered.forEach((ledger, quantity) -> ledger.endOrder(quantity, false, null));
+                throw e;
+            }
+            ordered.forEach((ledger, quantity) -> ledger.endOrder(quantity, true, journalIds.get(ledger)));
+            return rejected;
+        }
+        Map<FlashSaleLedger, Long> journalIds = new HashMap<>();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                ordered.forEach((ledger, quantity) ->
+                        ledger.endOrder(quantity, status == STATUS_COMMITTED, journalIds.get(ledger)));
+            }
+        });
+        // 成交日誌與訂單一起提交；寫入失敗時訂單回滾，扣減的庫存在回滾後歸還
+        journalIds.putAll(journal(ordered, 1));
+        return rejected;
+    }
+
+    /**
+     * 取消訂單時歸還搶購商品的庫存，在事務中調用時提交後才生效
+     *
+     * @param quantities 搶購商品ID -> 數量
+     */
+    public void cancel(Map<Long, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            return;
+        }
+        Map<FlashSaleLedger, Integer> lines = new LinkedHashMap<>();
+        quantities.forEach((productId, quantity) -> {
+            FlashSaleLedger ledger = ledgers.get(productId);
+            if (ledger != null) {
+                lines.put(ledger, quantity);
+            }
+        });
+        if (lines.isEmpty()) {
+            return;
+        }
+        Map<FlashSaleLedger, Long> journalIds = journal(lines, -1);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            lines.forEach((ledger, quantity) -> ledger.cancel(quantity, journalIds.get(ledger)));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                lines.forEach((ledger, quantity) -> ledger.cancel(quantity, journalIds.get(ledger)));
+            }
+        });
+    }
+
+    /**
+     * 定時釋放過期的結賬保留
+     */
+    @Scheduled(fixedDelayString = "${flash-sale.hold-sweep-interval-ms:5000}")
+    public void expireHolds() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, UserHold> entry : holds.entrySet()) {
+            UserHold hold = entry.getValue();
+            synchronized (hold) {
+                if (hold.removed || hold.expiresAt > now) {
+                    continue;
+                }
+                hold.lines.values().forEach(held -> held.ledger.add(held.quantity));
+                hold.lines.clear();
+                hold.removed = true;
+                holds.remove(entry.getKey(), hold);
+            }
+        }
+    }
+
+    /**
+     * 定時把已成交的數量批量寫回數據庫，每個商品一條語句，與刪除對應的成交日誌在一個事務中
+     */
+    @Scheduled(fixedDelayString = "${flash-sale.reconcile-interval-ms:500}")
+    public void reconcile() {
+        List<Long> changed = new ArrayList<>();
+        synchronized (reconcileLock) {
+            List<FlashSaleLedger> all = new ArrayList<>(retiredLedgers);
+            all.addAll(ledgers.values());
+            all.sort(Comparator.comparing(FlashSaleLedger::getProductId));
+
+            Map<FlashSaleLedger, List<FlashSaleLedger.JournalEntry>> drained = new LinkedHashMap<>();
+            Map<Long, Integer> deltas = new LinkedHashMap<>();
+            List<Long> journalIds = new ArrayList<>();
+            for (FlashSaleLedger ledger : all) {
+                List<FlashSaleLedger.JournalEntry> entries = ledger.drainCommitted();
+                if (entries.isEmpty()) {
+                    continue;
+                }
+                drained.put(ledger, entries);
+                for (FlashSaleLedger.JournalEntry entry : entries) {
+                    deltas.merge(ledger.getProductId(), entry.getQuantity(), Integer::sum);
+                    journalIds.add(entry.getId());
+                }
+            }
+
+            if (!drained.isEmpty()) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> applyJournal(deltas, journalIds));
+                    drained.forEach((ledger, entries) -> {
+                        int delta = entries.stream().mapToInt(FlashSaleLedger.JournalEntry::getQuantity).sum();
+                        ledger.setBaseline(Math.max(0, ledger.getBaseline() - delta));
+                        changed.add(ledger.getProductId());
+                    });
+                } catch (RuntimeException e) {
+                    // 寫入失敗時放回，下一輪重試
+                    drained.forEach(FlashSaleLedger::restoreCommitted);
+                    System.err.println("搶購成交回寫失敗: " + e.getMessage());
+                }
+            }
+            retiredLedgers.removeIf(FlashSaleLedger::isIdle);
+        }
+        if (!changed.isEmpty()) {
+            eventPublisher.publishEvent(new StockChangedEvent(changed));
+        }
+    }
+
+    /**
+     * 補寫成交日誌中剩餘的數量（上次異常終止前未回寫的成交），只在建立賬本前調用
+     *
+     * @return 補寫的商品數
+     */
+    int recoverJournal() {
+        synchronized (reconcileLock) {
+            Map<Long, Integer> deltas = new LinkedHashMap<>();
+            List<Long> journalIds = new ArrayList<>();
+            jdbcTemplate.query("SELECT id, product_id, quantity FROM flash_sale_journal ORDER BY product_id, id",
+                    rs -> {
+                        journalIds.add(rs.getLong(1));
+                        deltas.merge(rs.getLong(2), rs.getInt(3), Integer::sum);
+                    });
+            if (journalIds.isEmpty()) {
+                return 0;
+            }
+            transactionTemplate.executeWithoutResult(status -> applyJournal(deltas, journalIds));
+            System.out.println("補寫未回寫的搶購成交: " + deltas.size() + " 個商品，" + journalIds.size() + " 條記錄");
+            eventPublisher.publishEvent(new StockChangedEvent(new ArrayList<>(deltas.keySet())));
+            return deltas.size();
+        }
+    }
+
+    /**
+     * 應用關閉前寫回剩餘的成交數量
+     */
+    @PreDestroy
+    public void reconcileOnShutdown() {
+        reconcile();
+    }
+
+    /**
+     * 商品開啟或關閉搶購、修改庫存或刪除後更新賬本
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        Long productId = event.getProductId();
+        if (event.getChangeType() == ProductChangedEvent.ChangeType.DELETED) {
+            close(productId);
+            return;
+        }
+        if (Boolean.TRUE.equals(event.getProduct().getFlashSale())) {
+            if (ledgers.containsKey(productId)) {
+                refresh(productId);
+            } else {
+                open(productId);
+            }
+        } else {
+            close(productId);
+        }
+    }
+
+    /**
+     * 庫存同步修改了搶購商品的庫存時與數據庫對齊
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(StockChangedEvent event) {
+        for (Long productId : new TreeSet<>(event.getProductIds())) {
+            if (ledgers.containsKey(productId)) {
+                refresh(productId);
+            }
+        }
+    }
+
+    /**
+     * 結賬保留的分鐘數
+     */
+    public long getHoldMinutes() {
+        return Math.max(1, holdTtlSeconds / 60);
+    }
+
+    /**
+     * 搶購中的商品ID
+     */
+    public Set<Long> getFlashSaleProductIds() {
+        return new TreeSet<>(ledgers.keySet());
+    }
+
+    private void open(Long productId) {
+        synchronized (reconcileLock) {
+            if (ledgers.containsKey(productId)) {
+                return;
+            }
+            Integer stock = readStock(productId);
+            if (stock == null) {
+                return;
+            }
+            // 之前的賬本還有未回寫的成交時，數據庫庫存偏高
+            stock -= jdbcTemplate.queryForObject("SELECT COALESCE(SUM(quantity), 0) FROM flash_sale_journal "
+                    + "WHERE product_id = ?", Integer.class, productId);
+            ledgers.put(productId, new FlashSaleLedger(productId, Math.max(stock, 0), STRIPES));
+            System.out.println("商品 " + productId + " 開啟搶購，可售庫存 " + stock);
+        }
+    }
+
+    /**
+     * 退出搶購：保留作廢（數據庫庫存從未扣減過），未回寫的成交由下一輪回寫
+     */
+    private void close(Long productId) {
+        synchronized (reconcileLock) {
+            FlashSaleLedger ledger = ledgers.remove(productId);
+            if (ledger != null) {
+                ledger.retire();
+                retiredLedgers.add(ledger);
+                System.out.println("商品 " + productId + " 結束搶購");
+            }
+        }
+    }
+
+    /**
+     * 數據庫庫存被其他途徑修改（商家編輯、庫存同步）時，把差額計入可售庫存
+     */
+    private void refresh(Long productId) {
+        synchronized (reconcileLock) {
+            FlashSaleLedger ledger = ledgers.get(productId);
+            if (ledger == null) {
+                return;
+            }
+            Integer stock = readStock(productId);
+            if (stock == null) {
+                close(productId);
+                return;
+            }
+            int diff = stock - ledger.getBaseline();
+            if (diff != 0) {
+                ledger.setBaseline(stock);
+                ledger.add(diff);
+            }
+        }
+    }
+
+    /**
+     * 寫入成交日誌，每個賬本一條
+     *
+     * @param sign 成交為 1，取消為 -1
+     * @return 賬本 -> 日誌ID
+     */
+    private Map<FlashSaleLedger, Long> journal(Map<FlashSaleLedger, Integer> lines, int sign) {
+        Map<FlashSaleLedger, Long> ids = new HashMap<>();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        lines.forEach((ledger, quantity) -> {
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+            jdbcTemplate.update(connection -> {
+                PreparedStatement ps = connection.prepareStatement(JOURNAL_SQL, new String[] {"id"});
+                ps.setLong(1, ledger.getProductId());
+                ps.setInt(2, sign * quantity);
+                ps.setTimestamp(3, now);
+                return ps;
+            }, keyHolder);
+            ids.put(ledger, keyHolder.getKey().longValue());
+        });
+        return ids;
+    }
+
+    /**
+     * 按淨成交數量更新商品庫存和銷量，並刪除已計入的成交日誌（在調用方事務中執行）
+     */
+    private void applyJournal(Map<Long, Integer> deltas, List<Long> journalIds) {
+        List<Map.Entry<Long, Integer>> lines = new ArrayList<>();
+        deltas.forEach((productId, delta) -> {
+            if (delta != 0) {
+                lines.add(Map.entry(productId, delta));
+            }
+        });
+        if (!lines.isEmpty()) {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            jdbcTemplate.batchUpdate(RECONCILE_SQL, lines, lines.size(), (ps, line) -> {
+                ps.setInt(1, line.getValue());
+                ps.setInt(2, line.getValue());
+                ps.setInt(3, line.getValue());
+                ps.setInt(4, line.getValue());
+                ps.setTimestamp(5, now);
+                ps.setLong(6, line.getKey());
+            });
+        }
+        jdbcTemplate.batchUpdate(DELETE_JOURNAL_SQL, journalIds, journalIds.size(),
+                (ps, journalId) -> ps.setLong(1, journalId));
+    }
+
+    private Integer readStock(Long productId) {
+        List<Integer> rows = jdbcTemplate.queryForList(
+                "SELECT stock_quantity FROM products WHERE id = ?", Integer.class, productId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * 一個用戶的結賬保留，讀寫時以自身加鎖
+     */
+    private static class UserHold {
+        private final Map<Long, HeldLine> lines = new HashMap<>();
+        private long expiresAt;
+        /** 已從 holds 移除，持有舊引用的線程需重新獲取 */
+        private boolean removed = false;
+    }
+
+    /**
+     * 保留的數量及其所屬賬本
+     */
+    private static class HeldLine {
+        private final FlashSaleLedger ledger;
+        private final int quantity;
+
+        private HeldLine(FlashSaleLedger ledger, int quantity) {
+            this.ledger = ledger;
+            this.quantity = quantity;
+        }
+    }
+}
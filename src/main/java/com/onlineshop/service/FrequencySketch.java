@@ -0,0 +1,99 @@
+package com.onlineshop.service;
+
+/**
+ * 訪問頻率估算（Count-Min Sketch，4 位計數器）
+ * 用於 TinyLFU 准入策略：以很小的固定內存估算每個鍵最近的訪問次數，
+ * 累計記錄次數達到樣本上限後所有計數減半，使頻率隨時間衰減
+ */
+public class FrequencySketch {
+
+    /** 每個鍵在 4 行中各佔一個計數器 */
+    private static final int DEPTH = 4;
+
+    /** 4 位計數器的上限 */
+    private static final int MAX_COUNT = 15;
+
+    private static final long[] SEEDS = {
+            0x97cb3127L, 0xc2b2ae3dL, 0x9e3779b9L, 0x85ebca6bL
+    };
+
+    /** 每個 long 存放 16 個 4 位計數器 */
+    private final long[][] table;
+
+    private final int mask;
+
+    private final int sampleSize;
+
+    private int additions = 0;
+
+    /**
+     * @param expectedEntries 緩存容量，決定計數器數量和衰減週期
+     */
+    public FrequencySketch(int expectedEntries) {
+        int counters = Integer.highestOneBit(Math.max(1024, expectedEntries) * 2 - 1);
+        this.table = new long[DEPTH][Math.max(1, counters / 16)];
+        this.mask = counters - 1;
+        this.sampleSize = Math.max(10, expectedEntries * 10);
+    }
+
+    /**
+     * 估算鍵的訪問次數（0 - 15）
+     */
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            int count = (int) ((table[row][index >>> 4] >>> ((index & 15) << 2)) & 0xfL);
+            min = Math.min(min, count);
+        }
+        return min;
+    }
+
+    /**
+     * 記錄一次訪問
+     */
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            int shift = (index & 15) << 2;
+            long word = table[row][index >>> 4];
+            if (((word >>> shift) & 0xfL) < MAX_COUNT) {
+                table[row][index >>> 4] = word + (1L << shift);
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * 所有計數器減半
+     */
+    private void reset() {
+        for (long[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (row[i] >>> 1) & 0x7777777777777777L;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 17;
+        hash *= 0xed5ad4bb;
+        hash ^= hash >>> 11;
+        hash *= 0xac4c1b51;
+        hash ^= hash >>> 15;
+        return hash;
+    }
+}
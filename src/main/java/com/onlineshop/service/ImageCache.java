@@ -0,0 +1,365 @@
+package com.onlineshop.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 熱門圖片的堆外內存緩存
+ * 以內容哈希為鍵，把整個圖片文件保存在一塊固定大小的直接內存中，不佔用 Java 堆也不增加 GC 掃描量；
+ * 堆外內存只在第一次寫入時分配一次，淘汰的圖片空間直接重用，總量不會超過上限。
+ * 讀取不加鎖：條目在並發映射中，訪問頻率只在鎖空閒時記錄（高並發下相當於抽樣）；
+ * 讀取方持有引用計數，正在發送的圖片不會被淘汰，空間在最後一個讀取方關閉後才重用。
+ * 按最久未使用淘汰並用 TinyLFU 准入：新圖片的近期訪問頻率必須高於所有將被淘汰的圖片才會寫入，
+ * 大量只訪問一次的圖片不會把熱門圖片擠出緩存
+ */
+public class ImageCache {
+
+    private final int maxBytes;
+
+    private final long maxEntryBytes;
+
+    /** 內容哈希 -> 已緩存的圖片 */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /** 內容哈希 -> 已分配空間、正在讀入文件的圖片（加鎖訪問） */
+    private final Map<String, Entry> loading = new HashMap<>();
+
+    /** 空閒區間：起始位置 -> 長度（加鎖訪問） */
+    private final TreeMap<Integer, Integer> free = new TreeMap<>();
+
+    /** 保護空閒區間、准入淘汰和訪問頻率 */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final FrequencySketch sketch;
+
+    private ByteBuffer slab;
+
+    private int freeBytes;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private long evictions = 0;
+
+    private long rejections = 0;
+
+    /**
+     * @param maxBytes 緩存總字節數
+     * @param maxEntryBytes 單張圖片上限，更大的圖片直接從文件發送
+     */
+    public ImageCache(long maxBytes, long maxEntryBytes) {
+        this.maxBytes = (int) Math.min(maxBytes, Integer.MAX_VALUE);
+        this.maxEntryBytes = Math.min(maxEntryBytes, this.maxBytes);
+        this.freeBytes = this.maxBytes;
+        this.free.put(0, this.maxBytes);
+        // 按平均每張 64KB 估算條目數
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, maxBytes / 65536)));
+    }
+
+    /**
+     * 讀取圖片內容並記錄一次訪問；未命中返回 null。
+     * 返回的內容發送完後必須關閉，關閉前其空間不會被重用
+     */
+    public Content get(String key) {
+        recordAccess(key);
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.acquire()) {
+            misses.increment();
+            return null;
+        }
+        entry.accessedAt = System.nanoTime();
+        hits.increment();
+        return new Content(entry);
+    }
+
+    /**
+     * 為圖片分配緩存空間：大小在上限內，且緩存有空間或訪問頻率高於需要淘汰的圖片時，
+     * 返回可寫入 size 字節的緩衝區，寫滿後調用 commit，失敗時調用 abort；不值得緩存時返回 null
+     */
+    public ByteBuffer reserve(String key, long size) {
+        if (size > maxEntryBytes) {
+            return null;
+        }
+        int length = (int) size;
+        lock.lock();
+        try {
+            if (entries.containsKey(key) || loading.containsKey(key)) {
+                return null;
+            }
+            List<Entry> victims = victimsFor(key, length);
+            if (victims == null) {
+                rejections++;
+                return null;
+            }
+            for (Entry victim : victims) {
+                entries.remove(victim.key, victim);
+                evictions++;
+                release(victim);
+            }
+            int offset = allocate(length);
+            if (offset < 0) {
+                // 被選中的圖片剛好開始發送，空間要等發送完才能重用
+                rejections++;
+                return null;
+            }
+            Entry entry = new Entry(key, offset, length, region(offset, length).asReadOnlyBuffer());
+            loading.put(key, entry);
+            return region(offset, length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 圖片內容已寫入 reserve 返回的緩衝區，加入緩存；返回供調用方發送的內容
+     */
+    public Content commit(String key) {
+        Entry entry;
+        lock.lock();
+        try {
+            entry = loading.remove(key);
+            if (entry == null) {
+                throw new IllegalStateException("圖片未分配緩存空間: " + key);
+            }
+            entry.acquire();
+            entry.accessedAt = System.nanoTime();
+            entries.put(key, entry);
+        } finally {
+            lock.unlock();
+        }
+        return new Content(entry);
+    }
+
+    /**
+     * 放棄 reserve 分配的空間
+     */
+    public void abort(String key) {
+        lock.lock();
+        try {
+            Entry entry = loading.remove(key);
+            if (entry != null) {
+                release(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CacheStats getStats() {
+        lock.lock();
+        try {
+            return new CacheStats(entries.size(), maxBytes - freeBytes, maxBytes, hits.sum(), misses.sum(),
+                    evictions, rejections);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 鎖空閒時記錄訪問頻率，被佔用時跳過，讀取不排隊
+     */
+    private void recordAccess(String key) {
+        if (lock.tryLock()) {
+            try {
+                sketch.increment(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 騰出 size 字節連續空間需要淘汰的圖片（從最久未使用開始，跳過正在發送的圖片）；
+     * 有任一圖片訪問頻率不低於新圖片或無法騰出空間時返回 null
+     */
+    private List<Entry> victimsFor(String key, int size) {
+        List<Entry> victims = new ArrayList<>();
+        if (fits(free, size)) {
+            return victims;
+        }
+        int frequency = sketch.frequency(key);
+        TreeMap<Integer, Integer> ranges = new TreeMap<>(free);
+        List<Entry> candidates = new ArrayList<>(entries.values());
+        candidates.sort(Comparator.comparingLong(entry -> entry.accessedAt));
+        for (Entry candidate : candidates) {
+            if (candidate.isInUse()) {
+                continue;
+            }
+            if (sketch.frequency(candidate.key) >= frequency) {
+                return null;
+            }
+            victims.add(candidate);
+            addRange(ranges, candidate.offset, candidate.length);
+            if (fits(ranges, size)) {
+                return victims;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 釋放一個引用，最後一個引用釋放時空間歸還空閒區間
+     */
+    private void release(Entry entry) {
+        if (entry.refs.decrementAndGet() > 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            addRange(free, entry.offset, entry.length);
+            freeBytes += entry.length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 從空閒區間中取第一段足夠大的空間，沒有時返回 -1
+     */
+    private int allocate(int size) {
+        for (Map.Entry<Integer, Integer> range : free.entrySet()) {
+            if (range.getValue() >= size) {
+                int offset = range.getKey();
+                free.remove(offset);
+                if (range.getValue() > size) {
+                    free.put(offset + size, range.getValue() - size);
+                }
+                freeBytes -= size;
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private ByteBuffer region(int offset, int length) {
+        if (slab == null) {
+            slab = ByteBuffer.allocateDirect(maxBytes);
+        }
+        return slab.duplicate().position(offset).limit(offset + length).slice();
+    }
+
+    private static boolean fits(TreeMap<Integer, Integer> ranges, int size) {
+        for (int length : ranges.values()) {
+            if (length >= size) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 加入一段空閒區間並與相鄰區間合併
+     */
+    private static void addRange(TreeMap<Integer, Integer> ranges, int offset, int length) {
+        Map.Entry<Integer, Integer> before = ranges.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            ranges.remove(before.getKey());
+            offset = before.getKey();
+            length += before.getValue();
+        }
+        Integer after = ranges.remove(offset + length);
+        if (after != null) {
+            length += after;
+        }
+        ranges.put(offset, length);
+    }
+
+    /**
+     * 緩存中的一張圖片；引用計數包含緩存自身的一個引用，淘汰時釋放
+     */
+    private static final class Entry {
+        private final String key;
+        private final int offset;
+        private final int length;
+        /** 只讀視圖 */
+        private final ByteBuffer content;
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private volatile long accessedAt;
+
+        private Entry(String key, int offset, int length, ByteBuffer content) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+            this.content = content;
+        }
+
+        /**
+         * 增加一個讀取方引用；空間已釋放時返回 false
+         */
+        private boolean acquire() {
+            for (int refs = this.refs.get(); refs > 0; refs = this.refs.get()) {
+                if (this.refs.compareAndSet(refs, refs + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isInUse() {
+            return refs.get() > 1;
+        }
+    }
+
+    /**
+     * 讀取到的圖片內容，發送完後關閉
+     */
+    public final class Content implements AutoCloseable {
+        private final Entry entry;
+        private boolean closed = false;
+
+        private Content(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * 獨立位置的只讀視圖
+         */
+        public ByteBuffer getBuffer() {
+            return entry.content.duplicate();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(entry);
+            }
+        }
+    }
+
+    /**
+     * 緩存統計快照
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class CacheStats {
+        private final int entries;
+        private final long usedBytes;
+        private final long maxBytes;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long rejections;
+
+        /**
+         * 命中率（0 - 1）
+         */
+        public double getHitRatio() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.onlineshop.service;
+
+import com.onlineshop.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 內容尋址的圖片存儲
+ * 上傳時邊寫入臨時文件邊計算 SHA-256，以「哈希.副檔名」作為圖片鍵（保存在 Product.imageUrl），
+ * 文件存放在按哈希前兩級分片的目錄中（ab/cd/abcd….jpg），相同內容只存一份。
+ * 圖片鍵對應的內容永不改變，可用不可變的長期緩存頭發送；定時清理沒有商品引用的圖片及其變體。
+ * 舊的「UUID.副檔名」文件名仍從 upload.path 目錄讀取
+ */
+@Service
+public class ImageStore {
+
+    /** 圖片鍵：64 位十六進制哈希，變體帶變體名，最後是副檔名 */
+    private static final Pattern KEY = Pattern.compile("([0-9a-f]{64})(\\.[a-z]+)?\\.([a-z0-9]+)");
+
+    private static final Set<String> EXTENSIONS = Set.of("jpg", "png", "gif", "webp", "svg");
+
+    /** 上傳中的臨時文件目錄（相對於根目錄） */
+    private static final String TEMPORARY_DIRECTORY = "tmp";
+
+    private final Path root;
+
+    private final Path legacyDirectory;
+
+    private final long gcGraceMillis;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    private final AtomicLong storedCount = new AtomicLong();
+
+    private final AtomicLong deduplicatedCount = new AtomicLong();
+
+    public ImageStore(@Value("${image.store.path:uploads/images}") String storePath,
+                      @Value("${upload.path:src/main/resources/static/images/products}") String uploadPath,
+                      @Value("${image.store.gc-grace-hours:24}") long gcGraceHours) {
+        this.root = Paths.get(storePath).toAbsolutePath().normalize();
+        this.legacyDirectory = Paths.get(uploadPath).toAbsolutePath().normalize();
+        this.gcGraceMillis = TimeUnit.HOURS.toMillis(gcGraceHours);
+    }
+
+    /**
+     * 保存上傳的圖片，返回圖片鍵；相同內容已存在時不重複保存
+     * @param originalFilename 用於取得副檔名
+     */
+    public String store(InputStream content, String originalFilename) throws IOException {
+        String extension = extensionOf(originalFilename);
+        Path temporaryDirectory = root.resolve(TEMPORARY_DIRECTORY);
+        Files.createDirectories(temporaryDirectory);
+        Path temporary = Files.createTempFile(temporaryDirectory, "upload-", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            try (InputStream in = new DigestInputStream(content, digest);
+                 OutputStream out = Files.newOutputStream(temporary)) {
+                in.transferTo(out);
+            }
+            String key = HexFormat.of().formatHex(digest.digest()) + "." + extension;
+            Path target = resolve(key);
+            Files.createDirectories(target.getParent());
+            if (Files.exists(target)) {
+                // 更新修改時間，寬限期內清理任務不會把它當作孤立圖片刪除
+                Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+                deduplicatedCount.incrementAndGet();
+            } else {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+                storedCount.incrementAndGet();
+            }
+            return key;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * 圖片文件路徑：圖片鍵（含變體）在分片目錄中，其他文件名在舊的上傳目錄中；路徑超出目錄時返回 null
+     */
+    public Path resolve(String filename) {
+        Matcher matcher = KEY.matcher(filename);
+        if (matcher.matches()) {
+            String hash = matcher.group(1);
+            return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(filename);
+        }
+        Path path = legacyDirectory.resolve(filename).normalize();
+        return path.startsWith(legacyDirectory) && !path.equals(legacyDirectory) ? path : null;
+    }
+
+    /**
+     * 是否為內容尋址的圖片或其變體（內容不變，可永久緩存）
+     */
+    public static boolean isContentAddressed(String filename) {
+        return KEY.matcher(filename).matches();
+    }
+
+    /**
+     * 原圖圖片鍵中的內容哈希；變體和舊文件名返回 null
+     */
+    public static String contentHashOf(String filename) {
+        Matcher matcher = KEY.matcher(filename);
+        return matcher.matches() && matcher.group(2) == null ? matcher.group(1) : null;
+    }
+
+    /**
+     * 存儲中的所有原圖圖片鍵
+     */
+    public List<String> listKeys() throws IOException {
+        List<String> keys = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return keys;
+        }
+        try (Stream<Path> files = Files.walk(root, 3)) {
+            for (Iterator<Path> iterator = files.iterator(); iterator.hasNext(); ) {
+                String filename = iterator.next().getFileName().toString();
+                if (contentHashOf(filename) != null) {
+                    keys.add(filename);
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 定時清理沒有商品引用的圖片
+     */
+    @Scheduled(cron = "${image.store.gc-cron:0 30 3 * * *}")
+    public void collectGarbage() {
+        try {
+            int deleted = sweep(new HashSet<>(productRepository.findAllImageUrls()));
+            if (deleted > 0) {
+                System.out.println("已清理 " + deleted + " 個沒有商品引用的圖片文件");
+            }
+        } catch (IOException e) {
+            System.err.println("清理圖片存儲失敗: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 刪除原圖不在 referenced 中、且修改時間早於寬限期的文件（含變體和中斷上傳留下的臨時文件），返回刪除數量。
+     * 寬限期保護剛上傳、商品尚未保存的圖片
+     */
+    int sweep(Set<String> referenced) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        long cutoff = System.currentTimeMillis() - gcGraceMillis;
+        int deleted = 0;
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Iterator<Path> iterator = files.iterator(); iterator.hasNext(); ) {
+                Path path = iterator.next();
+                if (!Files.isRegularFile(path)) {
+                    continue;
+                }
+                String filename = path.getFileName().toString();
+                boolean temporary = path.getParent().equals(root.resolve(TEMPORARY_DIRECTORY))
+                        || filename.endsWith(".tmp");
+                if (!temporary) {
+                    String original = ProductImageProcessor.originalOf(filename);
+                    if (referenced.contains(original == null ? filename : original)) {
+                        continue;
+                    }
+                }
+                // 刪除前再檢查修改時間，掃描期間重新上傳的相同圖片不會被刪除
+                if (Files.getLastModifiedTime(path).toMillis() < cutoff && Files.deleteIfExists(path)) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    public long getStoredCount() {
+        return storedCount.get();
+    }
+
+    public long getDeduplicatedCount() {
+        return deduplicatedCount.get();
+    }
+
+    private static String extensionOf(String filename) {
+        int dot = filename == null ? -1 : filename.lastIndexOf('.');
+        String extension = dot < 0 ? "" : filename.substring(dot + 1).toLowerCase();
+        if (extension.equals("jpeg")) {
+            extension = "jpg";
+        }
+        if (!EXTENSIONS.contains(extension)) {
+            throw new IllegalArgumentException("不支持的圖片格式，請上傳 JPG、PNG、GIF、WebP 或 SVG 圖片");
+        }
+        return extension;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.onlineshop.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 庫存扣減服務
+ * 下單和取消訂單以條件 UPDATE 直接在數據庫中增減庫存，不先載入商品實體：
+ * 扣減語句只在庫存足夠時生效，並發下單不會超賣；一個訂單的所有商品在同一批語句中執行，
+ * 按商品ID順序加鎖，避免多個訂單互相等待。每次修改同時遞增版本號，使並發的實體寫入失敗而不是覆蓋庫存
+ */
+@Service
+public class InventoryService {
+
+    /**
+     * 狀態先按扣減前的庫存計算（MySQL 按順序賦值，後面的表達式會看到新值），扣完為 0 時標記缺貨
+     * 參數：扣減數量, 扣減數量, 扣減數量, 更新時間, 商品ID, 扣減數量
+     */
+    private static final String RESERVE_SQL = "UPDATE products SET "
+            + "status = CASE WHEN stock_quantity = ? THEN 'OUT_OF_STOCK' ELSE status END, "
+            + "stock_quantity = stock_quantity - ?, sold_count = sold_count + ?, "
+            + "version = version + 1, updated_at = ? "
+            + "WHERE id = ? AND stock_quantity >= ?";
+
+    /**
+     * 恢復庫存並扣回銷量，缺貨商品恢復銷售
+     * 參數：恢復數量, 恢復數量, 恢復數量, 更新時間, 商品ID
+     */
+    private static final String RELEASE_SQL = "UPDATE products SET "
+            + "status = CASE WHEN status = 'OUT_OF_STOCK' AND stock_quantity + ? > 0 THEN 'ACTIVE' ELSE status END, "
+            + "stock_quantity = stock_quantity + ?, sold_count = GREATEST(sold_count - ?, 0), "
+            + "version = version + 1, updated_at = ? "
+            + "WHERE id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * 扣減庫存並累計銷量
+     * 必須在調用方事務中執行：有商品庫存不足時其他商品已扣減，調用方需拋出異常回滾整個事務
+     *
+     * @param quantities 商品ID -> 數量
+     * @return 庫存不足、未扣減的商品ID
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public List<Long> reserve(Map<Long, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            return List.of();
+        }
+        List<Map.Entry<Long, Integer>> lines = sortedLines(quantities);
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int[][] counts = jdbcTemplate.batchUpdate(RESERVE_SQL, lines, lines.size(), (ps, line) -> {
+            ps.setInt(1, line.getValue());
+            ps.setInt(2, line.getValue());
+            ps.setInt(3, line.getValue());
+            ps.setTimestamp(4, now);
+            ps.setLong(5, line.getKey());
+            ps.setInt(6, line.getValue());
+        });
+        List<Long> rejected = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (counts[0][i] == 0) {
+                rejected.add(lines.get(i).getKey());
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * 按商品ID順序鎖定商品行並返回當前庫存，供批量下單在內存中分配庫存
+     * 必須在調用方事務中執行，鎖持有到事務結束
+     *
+     * @return 商品ID -> 庫存，已刪除的商品不在結果中
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Map<Long, Integer> lockStock(Collection<Long> productIds) {
+        Map<Long, Integer> stock = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return stock;
+        }
+        List<Long> ids = new ArrayList<>(new TreeSet<>(productIds));
+        String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+        jdbcTemplate.query("SELECT id, stock_quantity FROM products WHERE id IN (" + placeholders
+                + ") ORDER BY id FOR UPDATE", rs -> {
+            stock.put(rs.getLong(1), rs.getInt(2));
+        }, ids.toArray());
+        return stock;
+    }
+
+    /**
+     * 恢復庫存並扣回銷量（取消訂單）
+     *
+     * @param quantities 商品ID -> 數量
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void release(Map<Long, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Long, Integer>> lines = sortedLines(quantities);
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(RELEASE_SQL, lines, lines.size(), (ps, line) -> {
+            ps.setInt(1, line.getValue());
+            ps.setInt(2, line.getValue());
+            ps.setInt(3, line.getValue());
+            ps.setTimestamp(4, now);
+            ps.setLong(5, line.getKey());
+        });
+    }
+
+    /**
+     * 按商品ID排序，所有事務以相同順序鎖定商品行
+     */
+    private static List<Map.Entry<Long, Integer>> sortedLines(Map<Long, Integer> quantities) {
+        for (Integer quantity : quantities.values()) {
+            if (quantity == null || quantity <= 0) {
+                throw new IllegalArgumentException("數量必須大於 0");
+            }
+        }
+        return new ArrayList<>(new TreeMap<>(quantities).entrySet());
+    }
+}
@@ -0,0 +1,269 @@
+package com.onlineshop.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onlineshop.dto.InventorySyncResult;
+import com.onlineshop.dto.RowError;
+import com.onlineshop.event.StockChangedEvent;
+import com.onlineshop.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 庫存同步服務
+ * 商家上傳庫存快照（sku 或 id + stock_quantity），先一次讀出商家全部商品的當前庫存在內存中比對，
+ * 只把有變化的行以 JDBC 批量 UPDATE 寫入；狀態在同一條語句中按新庫存重新計算，
+ * 每批一個短事務，行鎖只持有一批的時間
+ */
+@Service
+public class InventorySyncService {
+
+    /** 每批更新的行數 */
+    private static final int BATCH_SIZE = 500;
+
+    /** 結果中保留的錯誤明細數 */
+    private static final int MAX_REPORTED_ERRORS = 200;
+
+    /**
+     * 以讀取時的庫存作為條件，期間被下單等操作修改過的商品不覆蓋；
+     * 庫存歸零時正常銷售改為缺貨，補貨時缺貨改回正常銷售，下架商品保持下架
+     */
+    private static final String UPDATE_SQL = "UPDATE products SET stock_quantity = ?, "
+            + "status = CASE WHEN ? <= 0 AND status = 'ACTIVE' THEN 'OUT_OF_STOCK' "
+            + "WHEN ? > 0 AND status = 'OUT_OF_STOCK' THEN 'ACTIVE' ELSE status END, "
+            + "version = version + 1, updated_at = ? WHERE id = ? AND stock_quantity = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 同步庫存
+     *
+     * @param input        文件內容（UTF-8）
+     * @param filename     原始文件名，.json / .ndjson / .jsonl 按 NDJSON 解析，其他按 CSV 解析
+     * @param merchantId   商品所屬商家，只能同步自己的商品
+     * @param fullSnapshot 是否為全量快照；全量時文件中未出現的商品庫存置為 0
+     */
+    public InventorySyncResult sync(InputStream input, String filename, Long merchantId,
+                                    boolean fullSnapshot) throws IOException {
+        long start = System.currentTimeMillis();
+        SyncContext context = new SyncContext();
+
+        Map<String, StockRow> bySku = new HashMap<>();
+        Map<Long, StockRow> byId = new HashMap<>();
+        for (Object[] row : productRepository.findStockRowsByCreatedById(merchantId)) {
+            StockRow stockRow = new StockRow((Long) row[0], (Integer) row[2]);
+            byId.put(stockRow.id, stockRow);
+            if (row[1] != null) {
+                bySku.put((String) row[1], stockRow);
+            }
+        }
+
+        Set<Long> seen = new HashSet<>();
+        boolean complete = true;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            Iterator<FeedReader.FeedRow> rows = FeedReader.open(reader, filename, objectMapper);
+            while (rows.hasNext()) {
+                FeedReader.FeedRow row = rows.next();
+                context.totalRows++;
+                try {
+                    diff(row, bySku, byId, seen, context);
+                } catch (IllegalArgumentException e) {
+                    context.addError(row.getLine(), e.getMessage());
+                }
+            }
+        } catch (IllegalStateException e) {
+            // 文件格式損壞，已讀取的行照常同步
+            context.addError(context.totalRows + 1, e.getMessage());
+            complete = false;
+        }
+
+        if (fullSnapshot) {
+            if (complete) {
+                for (StockRow stockRow : byId.values()) {
+                    if (!seen.contains(stockRow.id) && stockRow.stockQuantity != 0) {
+                        context.changes.add(new StockChange(stockRow.id, stockRow.stockQuantity, 0, true));
+                    }
+                }
+            } else {
+                context.addError(0, "文件未完整讀取，未將缺少的商品庫存置為 0");
+            }
+        }
+
+        List<Long> changedIds = apply(context);
+        if (!changedIds.isEmpty()) {
+            eventPublisher.publishEvent(new StockChangedEvent(changedIds));
+        }
+        return new InventorySyncResult(context.totalRows, context.unchanged, changedIds.size(), context.zeroed,
+                context.conflicts, context.errorCount, context.errors, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 校驗一行並與當前庫存比對，錯誤以 IllegalArgumentException 報告
+     */
+    private void diff(FeedReader.FeedRow row, Map<String, StockRow> bySku, Map<Long, StockRow> byId,
+                      Set<Long> seen, SyncContext context) {
+        if (row.getError() != null) {
+            throw new IllegalArgumentException(row.getError());
+        }
+
+        StockRow current;
+        String sku = row.get("sku");
+        String id = row.get("id", "product_id", "productid");
+        if (sku != null) {
+            current = bySku.get(sku);
+            if (current == null) {
+                throw new IllegalArgumentException("SKU 不存在或不屬於你: " + sku);
+            }
+        } else if (id != null) {
+            try {
+                current = byId.get(Long.valueOf(id));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("商品ID格式錯誤");
+            }
+            if (current == null) {
+                throw new IllegalArgumentException("商品不存在或不屬於你: " + id);
+            }
+        } else {
+            throw new IllegalArgumentException("SKU 和商品ID不能同時為空");
+        }
+
+        String stockValue = row.get("stock_quantity", "stockquantity", "stock");
+        if (stockValue == null) {
+            throw new IllegalArgumentException("庫存數量不能為空");
+        }
+        int stock;
+        try {
+            stock = Integer.parseInt(stockValue);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("庫存數量格式錯誤");
+        }
+        if (stock < 0) {
+            throw new IllegalArgumentException("庫存數量不能為負數");
+        }
+
+        if (!seen.add(current.id)) {
+            throw new IllegalArgumentException("商品在文件中重複: " + (sku != null ? sku : id));
+        }
+        if (stock == current.stockQuantity) {
+            context.unchanged++;
+        } else {
+            context.changes.add(new StockChange(current.id, current.stockQuantity, stock, false));
+        }
+    }
+
+    /**
+     * 分批寫入變更，返回實際更新的商品ID
+     */
+    private List<Long> apply(SyncContext context) {
+        List<Long> updated = new ArrayList<>();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        for (int from = 0; from < context.changes.size(); from += BATCH_SIZE) {
+            List<StockChange> batch = context.changes.subList(from,
+                    Math.min(from + BATCH_SIZE, context.changes.size()));
+            int[][] counts = transactionTemplate.execute(status ->
+                    jdbcTemplate.batchUpdate(UPDATE_SQL, batch, batch.size(), (ps, change) -> {
+                        ps.setInt(1, change.newQuantity);
+                        ps.setInt(2, change.newQuantity);
+                        ps.setInt(3, change.newQuantity);
+                        ps.setTimestamp(4, now);
+                        ps.setLong(5, change.productId);
+                        ps.setInt(6, change.expectedQuantity);
+                    }));
+            int[] batchCounts = counts[0];
+            for (int i = 0; i < batch.size(); i++) {
+                int count = i < batchCounts.length ? batchCounts[i] : Statement.SUCCESS_NO_INFO;
+                if (count == 0) {
+                    context.conflicts++;
+                } else {
+                    updated.add(batch.get(i).productId);
+                    if (batch.get(i).missing) {
+                        context.zeroed++;
+                    }
+                }
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * 一次同步的狀態
+     */
+    private static class SyncContext {
+        private final List<StockChange> changes = new ArrayList<>();
+        private final List<RowError> errors = new ArrayList<>();
+        private int totalRows = 0;
+        private int unchanged = 0;
+        private int zeroed = 0;
+        private int conflicts = 0;
+        private int errorCount = 0;
+
+        private void addError(long line, String message) {
+            errorCount++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new RowError(line, message));
+            }
+        }
+    }
+
+    /**
+     * 商品當前庫存
+     */
+    private static class StockRow {
+        private final Long id;
+        private final int stockQuantity;
+
+        private StockRow(Long id, int stockQuantity) {
+            this.id = id;
+            this.stockQuantity = stockQuantity;
+        }
+    }
+
+    /**
+     * 待寫入的庫存變更
+     */
+    private static class StockChange {
+        private final Long productId;
+        private final int expectedQuantity;
+        private final int newQuantity;
+        /** 全量快照中未出現的商品 */
+        private final boolean missing;
+
+        private StockChange(Long productId, int expectedQuantity, int newQuantity, boolean missing) {
+            this.productId = productId;
+            this.expectedQuantity = expectedQuantity;
+            this.newQuantity = newQuantity;
+            this.missing = missing;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.onlineshop.service;
+
+import com.onlineshop.config.AsyncConfig;
+import com.onlineshop.config.MonitoredExecutor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 郵件投遞服務
+ * 保持少量已認證的 SMTP 連接，多封郵件在同一連接上連續發送，不必每封郵件都重新建立 TCP 連接和認證；
+ * 批量發送時把郵件分給各連接在郵件線程池中並行發送，並按服務商限制控制每秒發送數量
+ */
+@Service
+public class MailDeliveryService {
+
+    /** 結果數組中表示已送出 */
+    private static final Object SENT = new Object();
+
+    @Autowired(required = false)
+    private JavaMailSender mailSender;
+
+    @Autowired
+    @Qualifier(AsyncConfig.MAIL_EXECUTOR)
+    private MonitoredExecutor mailExecutor;
+
+    @Value("${mail.pool.size:4}")
+    private int poolSize;
+
+    /** 閒置超過此時間的連接可能已被服務器關閉，重新連接 */
+    @Value("${mail.pool.idle-timeout-ms:60000}")
+    private long idleTimeoutMillis;
+
+    /** 服務商通常限制每個連接可發送的郵件數，達到後重新連接 */
+    @Value("${mail.pool.max-messages-per-connection:100}")
+    private int maxMessagesPerConnection;
+
+    /** 每秒最多發送的郵件數，0 表示不限 */
+    @Value("${mail.rate-limit-per-second:10}")
+    private int rateLimitPerSecond;
+
+    private final LinkedBlockingQueue<Connection> idleConnections = new LinkedBlockingQueue<>();
+
+    private Semaphore connectionPermits;
+
+    private final Object rateLock = new Object();
+
+    /** 下一封郵件最早可發送的時間 */
+    private long nextSendAt = System.nanoTime();
+
+    private final AtomicLong connectionsOpened = new AtomicLong();
+
+    private final AtomicLong sentCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        connectionPermits = new Semaphore(Math.max(1, poolSize));
+    }
+
+    /**
+     * 關閉所有閒置連接
+     */
+    @PreDestroy
+    public void close() {
+        Connection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 創建空白郵件
+     */
+    public MimeMessage createMimeMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    /**
+     * 批量發送：郵件分給各連接在郵件線程池中並行發送，最多等待 timeoutMillis。
+     * 返回與 messages 一一對應的結果，成功為 null，失敗為原因（線程池已滿、逾時或 SMTP 錯誤）
+     */
+    public List<Exception> sendAll(List<MimeMessage> messages, long timeoutMillis) {
+        AtomicReferenceArray<Object> results = new AtomicReferenceArray<>(messages.size());
+        int chunks = Math.min(Math.max(1, poolSize), messages.size());
+        List<Future<?>> futures = new ArrayList<>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            List<Integer> indexes = new ArrayList<>();
+            for (int i = chunk; i < messages.size(); i += chunks) {
+                indexes.add(i);
+            }
+            try {
+                futures.add(mailExecutor.submit(() -> deliver(messages, indexes, results)));
+            } catch (TaskRejectedException e) {
+                indexes.forEach(i -> results.set(i, e));
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // 尚未發送的郵件記為逾時；正在發送的一封可能已送達
+                future.cancel(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+            } catch (ExecutionException e) {
+                // deliver 已記錄每封郵件的結果
+            }
+        }
+
+        List<Exception> failures = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            Object result = results.get(i);
+            if (result == SENT) {
+                failures.add(null);
+            } else if (result instanceof Exception) {
+                failures.add((Exception) result);
+            } else {
+                failures.add(new MessagingException("郵件發送逾時"));
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * 在當前線程用一個連接發送，任一郵件失敗時拋出異常
+     */
+    public void send(List<MimeMessage> messages) throws MessagingException {
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            indexes.add(i);
+        }
+        AtomicReferenceArray<Object> results = new AtomicReferenceArray<>(messages.size());
+        deliver(messages, indexes, results);
+        for (int i = 0; i < messages.size(); i++) {
+            Object result = results.get(i);
+            if (result instanceof MessagingException) {
+                throw (MessagingException) result;
+            }
+            if (result != SENT) {
+                throw new MessagingException("郵件發送失敗", (Exception) result);
+            }
+        }
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * 借用一個連接依次發送指定的郵件，結果寫入 results
+     */
+    private void deliver(List<MimeMessage> messages, List<Integer> indexes, AtomicReferenceArray<Object> results) {
+        if (!(mailSender instanceof JavaMailSenderImpl)) {
+            // 非 SMTP 實現（如測試替身）時逐封交給 JavaMailSender
+            for (int i : indexes) {
+                try {
+                    mailSender.send(messages.get(i));
+                    record(results, i, SENT);
+                } catch (RuntimeException e) {
+                    record(results, i, e);
+                }
+            }
+            return;
+        }
+
+        try {
+            connectionPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            indexes.forEach(i -> record(results, i, e));
+            return;
+        }
+        Connection connection = null;
+        try {
+            for (int i : indexes) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // 已逾時，剩餘郵件留給下次重試
+                    return;
+                }
+                MimeMessage message = messages.get(i);
+                try {
+                    throttle();
+                    connection = sendOnce(connection, message);
+                    record(results, i, SENT);
+                } catch (SendFailedException e) {
+                    // 收件人被拒絕，連接仍然可用
+                    record(results, i, e);
+                } catch (MessagingException e) {
+                    // 連接可能已斷開：重新連接後再試一次
+                    closeQuietly(connection);
+                    connection = null;
+                    try {
+                        connection = sendOnce(null, message);
+                        record(results, i, SENT);
+                    } catch (MessagingException retryError) {
+                        closeQuietly(connection);
+                        connection = null;
+                        record(results, i, retryError);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } finally {
+            if (connection != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    connection.close();
+                } else {
+                    idleConnections.offer(connection);
+                }
+            }
+            connectionPermits.release();
+        }
+    }
+
+    /**
+     * 在連接上發送一封郵件；沒有可用連接時從池中取出或新建
+     */
+    private Connection sendOnce(Connection connection, MimeMessage message) throws MessagingException {
+        if (connection == null || connection.sent >= maxMessagesPerConnection) {
+            closeQuietly(connection);
+            connection = acquireConnection();
+        }
+        if (message.getSentDate() == null) {
+            message.setSentDate(new Date());
+        }
+        message.saveChanges();
+        try {
+            connection.transport.sendMessage(message, message.getAllRecipients());
+        } catch (MessagingException e) {
+            if (e instanceof SendFailedException) {
+                // 連接仍然可用，交還給調用方繼續使用
+                throw e;
+            }
+            connection.close();
+            throw e;
+        }
+        connection.sent++;
+        connection.lastUsedAt = System.nanoTime();
+        return connection;
+    }
+
+    /**
+     * 取出一個閒置未過期的連接，沒有時新建並認證
+     */
+    private Connection acquireConnection() throws MessagingException {
+        Connection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            if (System.nanoTime() - connection.lastUsedAt < TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)
+                    && connection.transport.isConnected()) {
+                return connection;
+            }
+            connection.close();
+        }
+        JavaMailSenderImpl sender = (JavaMailSenderImpl) mailSender;
+        Transport transport = sender.getSession().getTransport(
+                sender.getProtocol() == null ? "smtp" : sender.getProtocol());
+        transport.connect(sender.getHost(), sender.getPort(), sender.getUsername(), sender.getPassword());
+        connectionsOpened.incrementAndGet();
+        return new Connection(transport);
+    }
+
+    /**
+     * 按每秒限額排隊等待發送時間
+     */
+    private void throttle() throws InterruptedException {
+        if (rateLimitPerSecond <= 0) {
+            return;
+        }
+        long interval = TimeUnit.SECONDS.toNanos(1) / rateLimitPerSecond;
+        long waitNanos;
+        synchronized (rateLock) {
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextSendAt);
+            nextSendAt = slot + interval;
+            waitNanos = slot - now;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void record(AtomicReferenceArray<Object> results, int index, Object result) {
+        results.set(index, result);
+        if (result == SENT) {
+            sentCount.incrementAndGet();
+        } else {
+            failedCount.incrementAndGet();
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 一個已認證的 SMTP 連接
+     */
+    private static class Connection {
+        private final Transport transport;
+        private int sent = 0;
+        private long lastUsedAt = System.nanoTime();
+
+        private Connection(Transport transport) {
+            this.transport = transport;
+        }
+
+        private void close() {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                // 連接已斷開
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.onlineshop.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 預編譯的郵件模板
+ * 啟動時把模板解析成固定的片段序列：靜態文本（配置常量已代入）、轉義後輸出的變量、對列表重複的區塊。
+ * 變量名在編譯時綁定到取值函數，渲染時不再解析模板、不使用反射，只按順序寫入一個預估大小的 StringBuilder。
+ * 語法：{{name}} 輸出轉義後的值，{{#items}}…{{/items}} 對列表中每個元素渲染一次
+ */
+final class MailTemplate<T> {
+
+    private final List<Segment<T>> segments;
+
+    /** 靜態文本總長度，用於預估輸出大小 */
+    private final int staticLength;
+
+    private MailTemplate(List<Segment<T>> segments, int staticLength) {
+        this.segments = segments;
+        this.staticLength = staticLength;
+    }
+
+    /**
+     * 編譯模板；出現未綁定的變量或未閉合的區塊時拋出 IllegalStateException
+     */
+    static <T> MailTemplate<T> compile(String source, Map<String, String> constants, Binding<T> binding) {
+        List<Segment<T>> segments = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        int staticLength = 0;
+        int position = 0;
+        while (position < source.length()) {
+            int open = source.indexOf("{{", position);
+            if (open < 0) {
+                text.append(source, position, source.length());
+                break;
+            }
+            text.append(source, position, open);
+            int close = source.indexOf("}}", open);
+            if (close < 0) {
+                throw new IllegalStateException("郵件模板標記未閉合: " + source.substring(open));
+            }
+            String name = source.substring(open + 2, close).trim();
+            position = close + 2;
+
+            if (constants.containsKey(name)) {
+                escape(constants.get(name), false, text);
+                continue;
+            }
+            if (name.startsWith("#")) {
+                name = name.substring(1);
+                String end = "{{/" + name + "}}";
+                int endIndex = source.indexOf(end, position);
+                Section<T, ?> section = binding.sections.get(name);
+                if (endIndex < 0 || section == null) {
+                    throw new IllegalStateException("郵件模板區塊未綁定或未閉合: " + name);
+                }
+                staticLength += flush(text, segments);
+                segments.add(section.compile(source.substring(position, endIndex), constants));
+                position = endIndex + end.length();
+                continue;
+            }
+            Value<T> value = binding.values.get(name);
+            if (value == null) {
+                throw new IllegalStateException("郵件模板變量未綁定: " + name);
+            }
+            staticLength += flush(text, segments);
+            segments.add(value);
+        }
+        staticLength += flush(text, segments);
+        return new MailTemplate<>(List.copyOf(segments), staticLength);
+    }
+
+    /**
+     * 渲染成字符串
+     */
+    String render(T model) {
+        StringBuilder out = new StringBuilder(staticLength + staticLength / 4 + 256);
+        renderTo(model, out);
+        return out.toString();
+    }
+
+    void renderTo(T model, StringBuilder out) {
+        for (Segment<T> segment : segments) {
+            segment.render(model, out);
+        }
+    }
+
+    /**
+     * 把累積的靜態文本收為一個片段，返回其長度
+     */
+    private static <T> int flush(StringBuilder text, List<Segment<T>> segments) {
+        if (text.length() == 0) {
+            return 0;
+        }
+        String fixed = text.toString();
+        text.setLength(0);
+        segments.add((model, out) -> out.append(fixed));
+        return fixed.length();
+    }
+
+    /**
+     * HTML 轉義後寫入，multiline 時把換行轉為 &lt;br&gt;
+     */
+    private static void escape(String value, boolean multiline, StringBuilder out) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': out.append("&amp;"); break;
+                case '<': out.append("&lt;"); break;
+                case '>': out.append("&gt;"); break;
+                case '"': out.append("&quot;"); break;
+                case '\'': out.append("&#39;"); break;
+                case '\r': if (!multiline) out.append(c); break;
+                case '\n': out.append(multiline ? "<br>" : "\n"); break;
+                default: out.append(c);
+            }
+        }
+    }
+
+    private interface Segment<T> {
+        void render(T model, StringBuilder out);
+    }
+
+    private static final class Value<T> implements Segment<T> {
+        private final Function<T, String> getter;
+        private final boolean multiline;
+
+        private Value(Function<T, String> getter, boolean multiline) {
+            this.getter = getter;
+            this.multiline = multiline;
+        }
+
+        @Override
+        public void render(T model, StringBuilder out) {
+            escape(getter.apply(model), multiline, out);
+        }
+    }
+
+    private static final class Section<T, E> {
+        private final Function<T, List<E>> items;
+        private final Binding<E> itemBinding;
+
+        private Section(Function<T, List<E>> items, Binding<E> itemBinding) {
+            this.items = items;
+            this.itemBinding = itemBinding;
+        }
+
+        private Segment<T> compile(String body, Map<String, String> constants) {
+            MailTemplate<E> template = MailTemplate.compile(body, constants, itemBinding);
+            return (model, out) -> {
+                List<E> list = items.apply(model);
+                for (int i = 0; i < list.size(); i++) {
+                    template.renderTo(list.get(i), out);
+                }
+            };
+        }
+    }
+
+    /**
+     * 模板變量和區塊到取值函數的綁定
+     */
+    static final class Binding<T> {
+        private final Map<String, Value<T>> values = new HashMap<>();
+        private final Map<String, Section<T, ?>> sections = new HashMap<>();
+
+        Binding<T> value(String name, Function<T, String> getter) {
+            values.put(name, new Value<>(getter, false));
+            return this;
+        }
+
+        /**
+         * 多行文本，換行輸出為 &lt;br&gt;
+         */
+        Binding<T> multiline(String name, Function<T, String> getter) {
+            values.put(name, new Value<>(getter, true));
+            return this;
+        }
+
+        <E> Binding<T> section(String name, Function<T, List<E>> items, Binding<E> itemBinding) {
+            sections.put(name, new Section<>(items, itemBinding));
+            return this;
+        }
+    }
+}
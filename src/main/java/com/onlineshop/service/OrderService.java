@@ -1,13 +1,24 @@
 package com.onlineshop.service;
 
+import com.onlineshop.dto.CheckoutRequest;
+import com.onlineshop.dto.CheckoutResult;
+import com.onlineshop.event.SalesRecordedEvent;
 import com.onlineshop.model.*;
 import com.onlineshop.repository.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * 訂單服務類
@@ -23,16 +34,22 @@ public class OrderService {
     private UserRepository userRepository;
     
     @Autowired
-    private ProductRepository productRepository;
+    private CartItemRepository cartItemRepository;
     
     @Autowired
-    private CartItemRepository cartItemRepository;
+    private CartService cartService;
+    
+    @Autowired
+    private InventoryService inventoryService;
     
     @Autowired
-    private UserActivityLogRepository userActivityLogRepository;
+    private FlashSaleService flashSaleService;
     
     @Autowired
-    private EmailService emailService;
+    private OutboxService outboxService;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
     
     /**
      * 創建訂單
@@ -40,7 +57,8 @@ public class OrderService {
     public Order createOrder(Long userId, String shippingAddress, String paymentMethod, String notes) {
         User user = getUserById(userId);
         
-        // 獲取購物車項目
+        // 先寫入內存中尚未回寫的購物車變更，再獲取購物車項目
+        cartService.flushCart(userId);
         List<CartItem> cartItems = cartItemRepository.findByUser(user);
         if (cartItems.isEmpty()) {
             throw new IllegalArgumentException("購物車為空");
@@ -53,7 +71,114 @@ public class OrderService {
             }
         }
         
-        // 創建訂單
+        Order order = buildOrder(user, cartItems, shippingAddress, paymentMethod, notes);
+        Map<Long, Integer> quantities = quantitiesOf(cartItems);
+        
+        // 搶購商品從內存賬本扣減，其他商品條件扣減數據庫庫存並累計銷量；
+        // 並發下單使庫存不足時回滾整個訂單，已扣減的搶購庫存在回滾後歸還
+        Map<Long, Integer> flashSaleQuantities = flashSaleService.splitFlashSaleLines(quantities);
+        List<Long> rejected = new ArrayList<>(flashSaleService.commit(userId, flashSaleQuantities));
+        if (rejected.isEmpty()) {
+            rejected.addAll(inventoryService.reserve(quantities));
+        }
+        if (!rejected.isEmpty()) {
+            throw new IllegalArgumentException(outOfStockMessage(cartItems, rejected));
+        }
+        
+        Order savedOrder = saveOrder(order);
+        
+        // 清空購物車，提交後丟棄內存中的購物車
+        cartItemRepository.deleteByUser(user);
+        cartService.evictCart(userId);
+        return savedOrder;
+    }
+    
+    /**
+     * 批量創建訂單（熱門商品的下單排序器調用），整批在一個事務中提交
+     * 一次查詢所有購物車，按商品ID順序鎖定商品行後在內存中按請求順序分配庫存，
+     * 庫存不足的請求不寫入任何數據，其餘訂單的扣減合併為每個商品一條語句。
+     * 調用前各用戶的購物車變更需已寫入數據庫
+     *
+     * @return 與請求一一對應的結果
+     */
+    public List<CheckoutResult> createOrders(List<CheckoutRequest> requests) {
+        Set<Long> userIds = requests.stream().map(CheckoutRequest::getUserId).collect(Collectors.toSet());
+        // 下單期間這些用戶新加入的商品留在內存，提交後才寫入
+        cartService.lockForCheckout(userIds);
+        Map<Long, User> users = userRepository.findAllById(userIds).stream()
+            .collect(Collectors.toMap(User::getId, user -> user));
+        Map<Long, List<CartItem>> cartsByUser = cartItemRepository.findWithProductByUserIdIn(userIds).stream()
+            .collect(Collectors.groupingBy(item -> item.getUser().getId(), LinkedHashMap::new, Collectors.toList()));
+        
+        Set<Long> productIds = new HashSet<>();
+        cartsByUser.values().forEach(items -> items.forEach(item -> productIds.add(item.getProduct().getId())));
+        productIds.removeIf(flashSaleService::isFlashSale);
+        Map<Long, Integer> stock = inventoryService.lockStock(productIds);
+        
+        List<CheckoutResult> results = new ArrayList<>(requests.size());
+        Map<Long, Integer> totals = new HashMap<>();
+        Map<Integer, Order> accepted = new LinkedHashMap<>();
+        Set<Long> seenUsers = new HashSet<>();
+        for (CheckoutRequest request : requests) {
+            User user = users.get(request.getUserId());
+            List<CartItem> cartItems = cartsByUser.getOrDefault(request.getUserId(), List.of());
+            if (user == null) {
+                results.add(CheckoutResult.rejected("用戶不存在"));
+                continue;
+            }
+            // 同一用戶重複提交時購物車已被前一個請求用掉
+            if (!seenUsers.add(user.getId()) || cartItems.isEmpty()) {
+                results.add(CheckoutResult.rejected("購物車為空"));
+                continue;
+            }
+            
+            Map<Long, Integer> quantities = quantitiesOf(cartItems);
+            Map<Long, Integer> flashSaleQuantities = flashSaleService.splitFlashSaleLines(quantities);
+            List<Long> rejected = quantities.entrySet().stream()
+                .filter(line -> stock.getOrDefault(line.getKey(), 0) < line.getValue())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+            if (rejected.isEmpty()) {
+                rejected = flashSaleService.commit(user.getId(), flashSaleQuantities);
+            }
+            if (!rejected.isEmpty()) {
+                results.add(CheckoutResult.rejected(outOfStockMessage(cartItems, rejected)));
+                continue;
+            }
+            
+            quantities.forEach((productId, quantity) -> {
+                stock.merge(productId, -quantity, Integer::sum);
+                totals.merge(productId, quantity, Integer::sum);
+            });
+            accepted.put(results.size(), buildOrder(user, cartItems, request.getShippingAddress(),
+                request.getPaymentMethod(), request.getNotes()));
+            results.add(null);
+        }
+        
+        // 商品行已鎖定且數量已在內存中核對，合併扣減不應再被拒絕
+        if (!inventoryService.reserve(totals).isEmpty()) {
+            throw new IllegalStateException("批量扣減庫存失敗");
+        }
+        
+        for (Map.Entry<Integer, Order> entry : accepted.entrySet()) {
+            Order order = entry.getValue();
+            results.set(entry.getKey(), CheckoutResult.success(saveOrder(order)));
+        }
+        if (!accepted.isEmpty()) {
+            Set<Long> orderedUserIds = accepted.values().stream()
+                .map(order -> order.getUser().getId())
+                .collect(Collectors.toSet());
+            cartItemRepository.deleteByUserIdIn(orderedUserIds);
+            orderedUserIds.forEach(cartService::evictCart);
+        }
+        return results;
+    }
+    
+    /**
+     * 按購物車建立訂單和訂單項目（未保存）
+     */
+    private Order buildOrder(User user, List<CartItem> cartItems, String shippingAddress,
+                             String paymentMethod, String notes) {
         Order order = new Order();
         order.setUser(user);
         order.setShippingAddress(shippingAddress);
@@ -63,39 +188,46 @@ public class OrderService {
         order.setStatus(Order.OrderStatus.PENDING);
         order.setPaymentStatus(Order.PaymentStatus.PENDING);
         
-        // 添加訂單項目並減少庫存
+        // 添加訂單項目
         for (CartItem cartItem : cartItems) {
-            OrderItem orderItem = OrderItem.fromProduct(cartItem.getProduct(), cartItem.getQuantity());
-            order.addOrderItem(orderItem);
-            
-            // 減少庫存
-            cartItem.getProduct().reduceStock(cartItem.getQuantity());
-            productRepository.save(cartItem.getProduct());
+            order.addOrderItem(OrderItem.fromProduct(cartItem.getProduct(), cartItem.getQuantity()));
         }
         
         // 計算總金額
         order.calculateTotalAmount();
-        
-        // 保存訂單
+        return order;
+    }
+    
+    /**
+     * 保存已扣減庫存的訂單，發布銷量事件並寫入下單事件（活動日誌、統計和確認郵件由發件箱投遞）
+     */
+    private Order saveOrder(Order order) {
         Order savedOrder = orderRepository.save(order);
         
-        // 清空購物車
-        cartItemRepository.deleteByUser(user);
-        
-        // 記錄用戶活動
-        logUserActivity(user, UserActivityLog.ActivityType.PLACE_ORDER, 
-                       "下單訂單編號: " + savedOrder.getOrderNumber());
-        
-        // 發送訂單確認郵件（帶確認收貨連結）
-        try {
-            emailService.sendOrderConfirmationEmail(user, savedOrder);
-        } catch (Exception e) {
-            System.err.println("發送確認郵件失敗: " + e.getMessage());
-        }
+        // 事務提交後更新銷量排行
+        publishSales(savedOrder, 1);
         
+        outboxService.record(OutboxEvent.EventType.ORDER_PLACED, savedOrder);
         return savedOrder;
     }
     
+    private static Map<Long, Integer> quantitiesOf(List<CartItem> cartItems) {
+        Map<Long, Integer> quantities = new HashMap<>();
+        for (CartItem cartItem : cartItems) {
+            quantities.merge(cartItem.getProduct().getId(), cartItem.getQuantity(), Integer::sum);
+        }
+        return quantities;
+    }
+    
+    private static String outOfStockMessage(List<CartItem> cartItems, List<Long> rejected) {
+        String names = cartItems.stream()
+            .filter(item -> rejected.contains(item.getProduct().getId()))
+            .map(item -> item.getProduct().getName())
+            .distinct()
+            .collect(Collectors.joining("、"));
+        return "商品 " + names + " 庫存不足";
+    }
+    
     /**
      * 確認收貨（通過郵件連結）
      */
@@ -111,9 +243,7 @@ public class OrderService {
         // 確認收貨
         order.confirmDelivery();
         
-        // 記錄用戶活動
-        logUserActivity(order.getUser(), UserActivityLog.ActivityType.PLACE_ORDER, 
-                       "確認收貨: " + order.getOrderNumber());
+        outboxService.record(OutboxEvent.EventType.ORDER_DELIVERED, order);
         
         return orderRepository.save(order);
     }
@@ -151,8 +281,7 @@ public class OrderService {
         
         // 如果訂單已發貨，記錄活動
         if (status == Order.OrderStatus.SHIPPED) {
-            logUserActivity(order.getUser(), UserActivityLog.ActivityType.PLACE_ORDER, 
-                           "訂單已發貨: " + order.getOrderNumber());
+            outboxService.record(OutboxEvent.EventType.ORDER_SHIPPED, order);
         }
         
         return orderRepository.save(order);
@@ -170,8 +299,7 @@ public class OrderService {
             order.setStatus(Order.OrderStatus.PROCESSING);
             
             // 記錄支付成功活動
-            logUserActivity(order.getUser(), UserActivityLog.ActivityType.PLACE_ORDER, 
-                           "支付成功: " + order.getOrderNumber());
+            outboxService.record(OutboxEvent.EventType.ORDER_PAID, order);
         }
         
         return orderRepository.save(order);
@@ -189,18 +317,19 @@ public class OrderService {
             throw new IllegalArgumentException("訂單已發貨，無法取消");
         }
         
-        // 恢復庫存
+        // 恢復庫存並扣回銷量
+        Map<Long, Integer> quantities = new HashMap<>();
         for (OrderItem item : order.getOrderItems()) {
-            Product product = item.getProduct();
-            product.increaseStock(item.getQuantity());
-            productRepository.save(product);
+            quantities.merge(item.getProduct().getId(), item.getQuantity(), Integer::sum);
         }
+        flashSaleService.cancel(flashSaleService.splitFlashSaleLines(quantities));
+        inventoryService.release(quantities);
         
         order.setStatus(Order.OrderStatus.CANCELLED);
+        publishSales(order, -1);
         
         // 記錄取消活動
-        logUserActivity(order.getUser(), UserActivityLog.ActivityType.PLACE_ORDER, 
-                       "取消訂單: " + order.getOrderNumber());
+        outboxService.record(OutboxEvent.EventType.ORDER_CANCELLED, order);
         
         return orderRepository.save(order);
     }
@@ -248,14 +377,14 @@ public class OrderService {
     }
     
     /**
-     * 記錄用戶活動
+     * 發布訂單銷量變更事件，sign 為 1 表示下單，-1 表示取消
      */
-    private void logUserActivity(User user, String activityType, String details) {
-        UserActivityLog log = new UserActivityLog();
-        log.setUser(user);
-        log.setActivityType(activityType);
-        log.setActivityDetails(details);
-        userActivityLogRepository.save(log);
+    private void publishSales(Order order, int sign) {
+        Map<Long, Integer> quantities = new HashMap<>();
+        for (OrderItem item : order.getOrderItems()) {
+            quantities.merge(item.getProduct().getId(), sign * item.getQuantity(), Integer::sum);
+        }
+        eventPublisher.publishEvent(new SalesRecordedEvent(quantities, order.getCreatedAt()));
     }
     
     /**
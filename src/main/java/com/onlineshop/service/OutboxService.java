@@ -0,0 +1,314 @@
+package com.onlineshop.service;
+
+import com.onlineshop.config.AsyncConfig;
+import com.onlineshop.config.MonitoredExecutor;
+import com.onlineshop.dto.OrderMailSnapshot;
+import com.onlineshop.model.DailyOrderStats;
+import com.onlineshop.model.Order;
+import com.onlineshop.model.OutboxEvent;
+import com.onlineshop.model.UserActivityLog;
+import com.onlineshop.repository.DailyOrderStatsRepository;
+import com.onlineshop.repository.OrderRepository;
+import com.onlineshop.repository.OutboxEventRepository;
+import com.onlineshop.repository.UserActivityLogRepository;
+import com.onlineshop.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 訂單事件發件箱服務
+ * 下單、付款、發貨、收貨、取消時只在訂單事務中寫入一條事件；
+ * 活動日誌、每日統計和郵件由定時轉發任務分批認領後在發件箱線程池中投遞，應用重啟後未完成的事件繼續投遞。
+ * 數據庫處理器與完成標記在同一事務中寫入，不會重複；郵件發送後才標記，標記失敗時可能重發
+ */
+@Service
+public class OutboxService {
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private UserActivityLogRepository userActivityLogRepository;
+
+    @Autowired
+    private DailyOrderStatsRepository dailyOrderStatsRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private EmailService emailService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${outbox.batch-size:200}")
+    private int batchSize;
+
+    @Value("${outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    /** 每批郵件最長等待時間，逾時的事件稍後重試 */
+    @Value("${outbox.email-timeout-ms:30000}")
+    private long emailTimeoutMillis;
+
+    /** 認領租約時長，應大於一批投遞的最長時間 */
+    @Value("${outbox.claim-lease-ms:300000}")
+    private long claimLeaseMillis;
+
+    @Autowired
+    @Qualifier(AsyncConfig.OUTBOX_EXECUTOR)
+    private MonitoredExecutor outboxExecutor;
+
+    /** 是否已有投遞任務在執行或排隊 */
+    private final AtomicBoolean relaying = new AtomicBoolean();
+
+    /**
+     * 在訂單事務中寫入事件，事務回滾時事件一併撤銷
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(OutboxEvent.EventType eventType, Order order) {
+        outboxEventRepository.save(new OutboxEvent(eventType, order));
+    }
+
+    /**
+     * 待投遞的事件數
+     */
+    public long getPendingCount() {
+        return outboxEventRepository.countByStatus(OutboxEvent.Status.PENDING);
+    }
+
+    /**
+     * 重試次數用盡的事件數
+     */
+    public long getFailedCount() {
+        return outboxEventRepository.countByStatus(OutboxEvent.Status.FAILED);
+    }
+
+    /**
+     * 定時把投遞交給發件箱線程池，等待郵件時不佔用定時任務線程；上一輪尚未結束時跳過
+     */
+    @Scheduled(fixedDelayString = "${outbox.relay-interval-ms:1000}")
+    public void relay() {
+        if (!relaying.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            outboxExecutor.execute(() -> {
+                try {
+                    deliverDue();
+                } catch (RuntimeException e) {
+                    System.err.println("發件箱投遞失敗: " + e.getMessage());
+                } finally {
+                    relaying.set(false);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            relaying.set(false);
+        }
+    }
+
+    /**
+     * 認領並投遞到期的事件，一次一批，取滿時繼續取下一批
+     * @return 本次投遞的事件數
+     */
+    int deliverDue() {
+        int delivered = 0;
+        List<OutboxEvent> events;
+        do {
+            events = claim();
+            if (!events.isEmpty()) {
+                deliver(events);
+                delivered += events.size();
+            }
+        } while (events.size() >= batchSize);
+        return delivered;
+    }
+
+    /**
+     * 在一個事務中認領一批到期事件：寫入本次的認領標記和租約到期時間，再按標記取回。
+     * 多個實例同時認領時只取到各自更新成功的事件，不會重複投遞
+     */
+    private List<OutboxEvent> claim() {
+        String token = UUID.randomUUID().toString();
+        LocalDateTime now = LocalDateTime.now();
+        return transactionTemplate.execute(status -> {
+            List<Long> ids = outboxEventRepository.findDueIds(now, Limit.of(batchSize));
+            if (ids.isEmpty() || outboxEventRepository.claim(ids, token,
+                    now.plus(claimLeaseMillis, ChronoUnit.MILLIS), now) == 0) {
+                return List.<OutboxEvent>of();
+            }
+            return outboxEventRepository.findByClaimTokenOrderById(token);
+        });
+    }
+
+    /**
+     * 投遞一批事件：數據庫處理器整批一個事務，失敗時逐個重試；郵件整批並行發送；最後一次更新投遞狀態
+     */
+    private void deliver(List<OutboxEvent> events) {
+        Map<OutboxEvent, String> failures = new LinkedHashMap<>();
+
+        try {
+            applyInTransaction(events);
+        } catch (RuntimeException e) {
+            for (OutboxEvent event : events) {
+                try {
+                    applyInTransaction(List.of(event));
+                } catch (RuntimeException eventError) {
+                    failures.put(event, eventError.getMessage());
+                }
+            }
+        }
+
+        sendEmails(events, failures);
+
+        LocalDateTime now = LocalDateTime.now();
+        for (OutboxEvent event : events) {
+            event.setClaimToken(null);
+            event.setClaimedUntil(null);
+            String error = failures.get(event);
+            if (error == null && event.isComplete()) {
+                event.setStatus(OutboxEvent.Status.DONE);
+                event.setProcessedAt(now);
+                continue;
+            }
+            // 指數退避：2、4、8 … 秒，最長一小時
+            int attempts = event.getAttempts() + 1;
+            event.setAttempts(attempts);
+            event.setLastError(error == null ? null : error.substring(0, Math.min(error.length(), 1000)));
+            event.setNextAttemptAt(now.plusSeconds(Math.min(1L << Math.min(attempts, 12), 3600)));
+            if (attempts >= maxAttempts) {
+                event.setStatus(OutboxEvent.Status.FAILED);
+                System.err.println("發件箱事件 " + event.getId() + " 投遞失敗，已停止重試: " + error);
+            }
+        }
+        transactionTemplate.executeWithoutResult(status -> outboxEventRepository.saveAll(events));
+    }
+
+    /**
+     * 在一個事務中執行數據庫處理器並寫入完成標記；失敗時還原內存中的標記
+     */
+    private void applyInTransaction(List<OutboxEvent> events) {
+        Map<OutboxEvent, Integer> before = new HashMap<>();
+        events.forEach(event -> before.put(event, event.getHandled()));
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                logActivities(events);
+                updateCounters(events);
+                outboxEventRepository.saveAll(events);
+            });
+        } catch (RuntimeException e) {
+            before.forEach(OutboxEvent::setHandled);
+            throw e;
+        }
+    }
+
+    private void logActivities(List<OutboxEvent> events) {
+        List<UserActivityLog> logs = new ArrayList<>();
+        for (OutboxEvent event : events) {
+            if (!event.needs(OutboxEvent.Handler.ACTIVITY_LOG)) {
+                continue;
+            }
+            UserActivityLog log = new UserActivityLog();
+            log.setUser(userRepository.getReferenceById(event.getUserId()));
+            log.setActivityType(UserActivityLog.ActivityType.PLACE_ORDER);
+            log.setActivityDetails(event.getEventType().getActivityLabel() + event.getOrderNumber());
+            logs.add(log);
+            event.markHandled(OutboxEvent.Handler.ACTIVITY_LOG);
+        }
+        userActivityLogRepository.saveAll(logs);
+    }
+
+    private void updateCounters(List<OutboxEvent> events) {
+        Map<LocalDate, DailyOrderStats> stats = new HashMap<>();
+        for (OutboxEvent event : events) {
+            if (!event.needs(OutboxEvent.Handler.COUNTERS)) {
+                continue;
+            }
+            LocalDate date = event.getOccurredAt().toLocalDate();
+            stats.computeIfAbsent(date, day -> dailyOrderStatsRepository.findById(day)
+                    .orElseGet(() -> new DailyOrderStats(day)))
+                .record(event.getEventType(), event.getOrderAmount());
+            event.markHandled(OutboxEvent.Handler.COUNTERS);
+        }
+        dailyOrderStatsRepository.saveAll(stats.values());
+    }
+
+    /**
+     * 批量載入訂單生成郵件快照，一次交給郵件服務經 SMTP 連接池並行發送，最多等待 emailTimeoutMillis；
+     * 郵件隊列已滿、逾時或發送失敗的事件按退避時間重試，SMTP 中斷時不會在內存中堆積
+     */
+    private void sendEmails(List<OutboxEvent> events, Map<OutboxEvent, String> failures) {
+        List<OutboxEvent> pending = new ArrayList<>();
+        Set<Long> orderIds = new HashSet<>();
+        for (OutboxEvent event : events) {
+            if (!failures.containsKey(event) && event.needs(OutboxEvent.Handler.EMAIL)) {
+                pending.add(event);
+                orderIds.add(event.getOrderId());
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        Map<OrderMailSnapshot, OutboxEvent> mails = new LinkedHashMap<>();
+        Map<OrderMailSnapshot, Exception> errors;
+        try {
+            Map<Long, Order> orders = new HashMap<>();
+            orderRepository.findWithUserAndItemsByIdIn(orderIds).forEach(order -> orders.put(order.getId(), order));
+            for (OutboxEvent event : pending) {
+                Order order = orders.get(event.getOrderId());
+                if (order == null) {
+                    // 訂單已刪除，不再發送
+                    event.markHandled(OutboxEvent.Handler.EMAIL);
+                    continue;
+                }
+                mails.put(OrderMailSnapshot.from(order, mailTypeOf(event.getEventType())), event);
+            }
+            errors = emailService.sendOrderEmails(new ArrayList<>(mails.keySet()), emailTimeoutMillis);
+        } catch (RuntimeException e) {
+            pending.forEach(event -> failures.put(event, "郵件發送失敗: " + e.getMessage()));
+            return;
+        }
+        mails.forEach((mail, event) -> {
+            Exception error = errors.get(mail);
+            if (error == null) {
+                event.markHandled(OutboxEvent.Handler.EMAIL);
+            } else {
+                failures.put(event, "郵件發送失敗: " + error.getMessage());
+            }
+        });
+    }
+
+    private static OrderMailSnapshot.Type mailTypeOf(OutboxEvent.EventType eventType) {
+        switch (eventType) {
+            case ORDER_SHIPPED: return OrderMailSnapshot.Type.SHIPPED;
+            case ORDER_CANCELLED: return OrderMailSnapshot.Type.CANCELLED;
+            default: return OrderMailSnapshot.Type.CONFIRMATION;
+        }
+    }
+}
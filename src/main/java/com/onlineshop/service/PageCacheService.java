@@ -0,0 +1,397 @@
+package com.onlineshop.service;
+
+import com.onlineshop.event.CategoryChangedEvent;
+import com.onlineshop.event.ProductChangedEvent;
+import com.onlineshop.event.ProductsImportedEvent;
+import com.onlineshop.event.SalesRecordedEvent;
+import com.onlineshop.event.StockChangedEvent;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.WebContext;
+import org.thymeleaf.spring6.expression.ThymeleafEvaluationContext;
+import org.thymeleaf.web.servlet.JakartaServletWebApplication;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * 頁面渲染緩存服務
+ * 緩存匿名訪客的完整頁面和共享的頁面片段，每個條目帶有代理鍵（商品ID、分類ID等），
+ * 相關實體變更時按代理鍵精確清除。
+ * 每個代理鍵記錄最近一次清除的時間，渲染開始後其代理鍵被清除過的頁面不寫入緩存，
+ * 避免清除前讀到舊數據的渲染在清除後把舊頁面放回緩存
+ */
+@Service
+public class PageCacheService {
+
+    /** 商品列表頁代理鍵（商品新增、刪除、修改時清除） */
+    public static final String PRODUCT_LIST_KEY = "product-list";
+
+    /** 分類列表代理鍵 */
+    public static final String CATEGORIES_KEY = "categories";
+
+    /** 銷量排行代理鍵 */
+    public static final String RANKING_KEY = "ranking";
+
+    private static final String TAGS_ATTRIBUTE = PageCacheService.class.getName() + ".TAGS";
+
+    private static final String FRAGMENT_PREFIX = "fragment:";
+
+    /** 渲染超過此時間的頁面不寫入緩存，清除記錄也只需保留這麼久 */
+    private static final long MAX_RENDER_NANOS = 60_000_000_000L;
+
+    /** 清除記錄超過此數量時移除過期的記錄 */
+    private static final int PURGE_LOG_PRUNE_THRESHOLD = 4096;
+
+    @Value("${page-cache.max-entries:2000}")
+    private int maxEntries;
+
+    @Value("${page-cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    @Value("${page-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Autowired
+    private TemplateEngine templateEngine;
+
+    @Autowired
+    private ServletContext servletContext;
+    
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    /** 緩存鍵 -> 條目，按訪問順序排列以便淘汰最久未使用的條目 */
+    private final LinkedHashMap<String, CachedPage> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    /** 代理鍵 -> 緩存鍵 */
+    private final Map<String, Set<String>> surrogateIndex = new HashMap<>();
+
+    /** 代理鍵 -> 最近一次清除的時間（System.nanoTime） */
+    private final Map<String, Long> purgedAt = new HashMap<>();
+
+    private long totalBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong purges = new AtomicLong();
+
+    public static String productKey(Long productId) {
+        return "product:" + productId;
+    }
+
+    public static String categoryKey(Long categoryId) {
+        return "category:" + categoryId;
+    }
+
+    /**
+     * 為當前請求的頁面添加代理鍵
+     * 只有添加過代理鍵的頁面才會被 PageCacheFilter 緩存
+     */
+    public void tag(String... surrogateKeys) {
+        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return;
+        }
+        Collections.addAll(requestTags(attributes.getRequest()), surrogateKeys);
+    }
+
+    /**
+     * 為當前請求添加多個代理鍵
+     */
+    public void tagAll(Iterable<String> surrogateKeys) {
+        for (String key : surrogateKeys) {
+            tag(key);
+        }
+    }
+
+    /**
+     * 獲取請求已添加的代理鍵，沒有時返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> getRequestTags(HttpServletRequest request) {
+        return (Set<String>) request.getAttribute(TAGS_ATTRIBUTE);
+    }
+
+    /**
+     * 讀取緩存頁面
+     */
+    public CachedPage getPage(String cacheKey) {
+        CachedPage page = lookup(cacheKey);
+        if (page == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return page;
+    }
+
+    /**
+     * 開始渲染頁面，返回的時間在寫入緩存時傳回 putPage
+     */
+    public long beginRender() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 緩存頁面；渲染開始後任一代理鍵被清除過時不寫入
+     * @param renderStartedAt beginRender 的返回值
+     */
+    public void putPage(String cacheKey, byte[] body, Map<String, List<String>> headers, Set<String> surrogateKeys,
+                        long renderStartedAt) {
+        store(cacheKey, new CachedPage(body, headers, Set.copyOf(surrogateKeys),
+                System.currentTimeMillis() + ttlSeconds * 1000), renderStartedAt);
+    }
+
+    /**
+     * 渲染並緩存頁面片段
+     * 未命中時由 loader 填充模板變量和代理鍵；片段的代理鍵同時加到當前頁面上
+     *
+     * @param cacheKey 片段緩存鍵
+     * @param template 模板名稱
+     * @param selector 模板中的片段選擇器
+     * @param loader   填充模板變量和代理鍵
+     * @return 渲染後的 HTML
+     */
+    public String renderFragment(String cacheKey, String template, String selector,
+                                 BiConsumer<Map<String, Object>, Set<String>> loader) {
+        String key = FRAGMENT_PREFIX + cacheKey;
+        CachedPage cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            tagAll(cached.getSurrogateKeys());
+            return new String(cached.getBody(), StandardCharsets.UTF_8);
+        }
+        misses.incrementAndGet();
+
+        long renderStartedAt = beginRender();
+        Map<String, Object> variables = new HashMap<>();
+        Set<String> surrogateKeys = new LinkedHashSet<>();
+        loader.accept(variables, surrogateKeys);
+        // 與視圖渲染一樣可在模板中用 ${@bean} 引用 Spring bean
+        variables.put(ThymeleafEvaluationContext.THYMELEAF_EVALUATION_CONTEXT_CONTEXT_VARIABLE_NAME,
+                new ThymeleafEvaluationContext(applicationContext, null));
+
+        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.currentRequestAttributes();
+        WebContext context = new WebContext(
+                JakartaServletWebApplication.buildApplication(servletContext)
+                        .buildExchange(attributes.getRequest(), attributes.getResponse()),
+                LocaleContextHolder.getLocale(), variables);
+        String html = templateEngine.process(template, Set.of(selector), context);
+
+        store(key, new CachedPage(html.getBytes(StandardCharsets.UTF_8), Collections.emptyMap(),
+                Set.copyOf(surrogateKeys), System.currentTimeMillis() + ttlSeconds * 1000), renderStartedAt);
+        tagAll(surrogateKeys);
+        return html;
+    }
+
+    /**
+     * 按代理鍵清除緩存
+     */
+    public synchronized void purge(String... surrogateKeys) {
+        long now = System.nanoTime();
+        if (purgedAt.size() > PURGE_LOG_PRUNE_THRESHOLD) {
+            purgedAt.values().removeIf(purged -> now - purged > MAX_RENDER_NANOS);
+        }
+        for (String surrogateKey : surrogateKeys) {
+            purgedAt.put(surrogateKey, now);
+            Set<String> cacheKeys = surrogateIndex.remove(surrogateKey);
+            if (cacheKeys == null) {
+                continue;
+            }
+            for (String cacheKey : cacheKeys) {
+                CachedPage removed = entries.remove(cacheKey);
+                if (removed != null) {
+                    unindex(cacheKey, removed);
+                    purges.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * 商品變更後清除商品詳情、所屬分類和列表頁
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        if (event.getProduct() != null && event.getProduct().getCategory() != null) {
+            purge(productKey(event.getProductId()), categoryKey(event.getProduct().getCategory().getId()),
+                    PRODUCT_LIST_KEY);
+        } else {
+            purge(productKey(event.getProductId()), PRODUCT_LIST_KEY);
+        }
+    }
+
+    /**
+     * 批量匯入後清除列表頁
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductsImported(ProductsImportedEvent event) {
+        purge(PRODUCT_LIST_KEY);
+    }
+
+    /**
+     * 下單或取消訂單改變庫存後，清除展示這些商品的頁面
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSalesRecorded(SalesRecordedEvent event) {
+        purge(event.getQuantitiesByProduct().keySet().stream()
+                .map(PageCacheService::productKey)
+                .toArray(String[]::new));
+    }
+
+    /**
+     * 庫存同步後清除這些商品的頁面；缺貨狀態可能改變，列表頁一併清除
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(StockChangedEvent event) {
+        List<String> keys = new ArrayList<>();
+        keys.add(PRODUCT_LIST_KEY);
+        event.getProductIds().forEach(productId -> keys.add(productKey(productId)));
+        purge(keys.toArray(new String[0]));
+    }
+
+    /**
+     * 分類變更後清除分類導航和該分類的頁面
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCategoryChanged(CategoryChangedEvent event) {
+        purge(categoryKey(event.getCategoryId()), CATEGORIES_KEY);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getPurgeCount() {
+        return purges.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized CachedPage lookup(String cacheKey) {
+        CachedPage page = entries.get(cacheKey);
+        if (page == null) {
+            return null;
+        }
+        if (page.getExpiresAt() <= System.currentTimeMillis()) {
+            entries.remove(cacheKey);
+            unindex(cacheKey, page);
+            return null;
+        }
+        return page;
+    }
+
+    private synchronized void store(String cacheKey, CachedPage page, long renderStartedAt) {
+        if (System.nanoTime() - renderStartedAt > MAX_RENDER_NANOS) {
+            return;
+        }
+        for (String surrogateKey : page.getSurrogateKeys()) {
+            Long purged = purgedAt.get(surrogateKey);
+            if (purged != null && purged - renderStartedAt >= 0) {
+                // 渲染期間數據已變更，頁面可能是舊的
+                return;
+            }
+        }
+        CachedPage previous = entries.put(cacheKey, page);
+        if (previous != null) {
+            unindex(cacheKey, previous);
+        }
+        totalBytes += page.getBody().length;
+        for (String surrogateKey : page.getSurrogateKeys()) {
+            surrogateIndex.computeIfAbsent(surrogateKey, k -> new HashSet<>()).add(cacheKey);
+        }
+
+        // 淘汰最久未使用的條目直到不超過容量
+        Iterator<Map.Entry<String, CachedPage>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || totalBytes > maxBytes) && iterator.hasNext()) {
+            Map.Entry<String, CachedPage> eldest = iterator.next();
+            iterator.remove();
+            unindex(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void unindex(String cacheKey, CachedPage page) {
+        totalBytes -= page.getBody().length;
+        for (String surrogateKey : page.getSurrogateKeys()) {
+            Set<String> cacheKeys = surrogateIndex.get(surrogateKey);
+            if (cacheKeys != null) {
+                cacheKeys.remove(cacheKey);
+                if (cacheKeys.isEmpty()) {
+                    surrogateIndex.remove(surrogateKey);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> requestTags(HttpServletRequest request) {
+        Set<String> tags = (Set<String>) request.getAttribute(TAGS_ATTRIBUTE);
+        if (tags == null) {
+            tags = new LinkedHashSet<>();
+            request.setAttribute(TAGS_ATTRIBUTE, tags);
+        }
+        return tags;
+    }
+
+    /**
+     * 緩存條目：響應體、響應頭和代理鍵
+     */
+    public static class CachedPage {
+        private final byte[] body;
+        private final Map<String, List<String>> headers;
+        private final Set<String> surrogateKeys;
+        private final long expiresAt;
+
+        public CachedPage(byte[] body, Map<String, List<String>> headers, Set<String> surrogateKeys, long expiresAt) {
+            this.body = body;
+            this.headers = headers;
+            this.surrogateKeys = surrogateKeys;
+            this.expiresAt = expiresAt;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        public Set<String> getSurrogateKeys() {
+            return surrogateKeys;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
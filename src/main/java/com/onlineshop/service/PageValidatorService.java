@@ -0,0 +1,160 @@
+package com.onlineshop.service;
+
+import com.onlineshop.event.CategoryChangedEvent;
+import com.onlineshop.event.ProductChangedEvent;
+import com.onlineshop.event.ProductsImportedEvent;
+import com.onlineshop.event.SalesRecordedEvent;
+import com.onlineshop.event.StockChangedEvent;
+import com.onlineshop.repository.ProductRepository;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 頁面驗證器服務
+ * 商品詳情頁的 ETag 和 Last-Modified 從商品和分類的版本號、修改時間按主鍵查詢得出，不載入實體；
+ * 商品列表頁使用目錄版本計數器，商品、庫存、銷量和分類變更時遞增，不掃描商品表。
+ * 計算出的驗證器按目錄版本記住，目錄未改變時條件請求和頁面緩存未命中不再查詢數據庫。
+ * 計數器和頁面緩存一樣由本實例的變更事件維護；驗證器包含應用啟動時間，
+ * 重新部署後模板和靜態資源指紋改變時頁面也視為已改變
+ */
+@Service
+public class PageValidatorService {
+
+    private static final Pattern PRODUCT_PAGE = Pattern.compile("/products/(\\d{1,18})");
+
+    private static final String PRODUCT_LIST_PAGE = "/products";
+
+    /** 記住的驗證器數量上限，超過時清空 */
+    private static final int MAX_REMEMBERED = 10000;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    /** 應用啟動時間（毫秒） */
+    private final long startedAt = System.currentTimeMillis();
+
+    /** 目錄版本，商品列表頁的任何數據改變時遞增 */
+    private final AtomicLong catalogVersion = new AtomicLong();
+
+    /** 目錄最近改變的時間（毫秒） */
+    private volatile long catalogChangedAt = startedAt;
+
+    /** 頁面路徑 -> 按目錄版本計算的驗證器 */
+    private final Map<String, Remembered> remembered = new ConcurrentHashMap<>();
+
+    /**
+     * 頁面的驗證器；不支持的路徑或商品不存在時返回 null
+     * @param path 不含上下文路徑的請求路徑
+     */
+    public Validators getValidators(String path) {
+        long version = catalogVersion.get();
+        Remembered known = remembered.get(path);
+        if (known != null && known.version == version) {
+            return known.validators;
+        }
+        Validators validators = computeValidators(path, version);
+        if (validators != null) {
+            if (remembered.size() >= MAX_REMEMBERED) {
+                remembered.clear();
+            }
+            remembered.put(path, new Remembered(version, validators));
+        }
+        return validators;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        catalogChanged();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(StockChangedEvent event) {
+        catalogChanged();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSalesRecorded(SalesRecordedEvent event) {
+        catalogChanged();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductsImported(ProductsImportedEvent event) {
+        catalogChanged();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCategoryChanged(CategoryChangedEvent event) {
+        catalogChanged();
+    }
+
+    /**
+     * 事務提交後遞增目錄版本，之前記住的驗證器全部失效
+     */
+    private void catalogChanged() {
+        catalogChangedAt = System.currentTimeMillis();
+        catalogVersion.incrementAndGet();
+    }
+
+    private Validators computeValidators(String path, long version) {
+        Matcher matcher = PRODUCT_PAGE.matcher(path);
+        if (matcher.matches()) {
+            Long productId = Long.valueOf(matcher.group(1));
+            List<Object[]> rows = productRepository.findPageVersion(productId);
+            if (rows.isEmpty()) {
+                return null;
+            }
+            Object[] row = rows.get(0);
+            long categoryUpdatedAt = toMillis((LocalDateTime) row[2]);
+            return validators("product-" + productId + "-" + row[0] + "-" + categoryUpdatedAt,
+                    Math.max(toMillis((LocalDateTime) row[1]), categoryUpdatedAt));
+        }
+        if (path.equals(PRODUCT_LIST_PAGE)) {
+            return validators("products-" + version, catalogChangedAt);
+        }
+        return null;
+    }
+
+    /**
+     * 同一數據渲染出的頁面內容相同但不保證逐字節一致，使用弱 ETag
+     */
+    private Validators validators(String version, long lastModified) {
+        return new Validators("W/\"" + version + "-" + Long.toString(startedAt, 36) + "\"",
+                Math.max(lastModified, startedAt));
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time == null ? 0 : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 按目錄版本記住的驗證器
+     */
+    @AllArgsConstructor
+    private static class Remembered {
+        private final long version;
+        private final Validators validators;
+    }
+
+    /**
+     * 頁面驗證器
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Validators {
+        private final String etag;
+        /** 最後修改時間（毫秒） */
+        private final long lastModified;
+    }
+}
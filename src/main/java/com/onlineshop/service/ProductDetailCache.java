@@ -0,0 +1,251 @@
+package com.onlineshop.service;
+
+import com.onlineshop.event.ProductChangedEvent;
+import com.onlineshop.event.SalesRecordedEvent;
+import com.onlineshop.event.StockChangedEvent;
+import com.onlineshop.model.Category;
+import com.onlineshop.model.Product;
+import com.onlineshop.model.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 商品詳情讀取緩存
+ * 有界 LRU 加 TinyLFU 准入：緩存已滿時，新商品的近期訪問頻率必須高於將被淘汰的商品才會寫入，
+ * 少數熱門商品因此不會被大量只訪問一次的商品擠出。
+ * 每個商品有版本號，變更提交後版本遞增；讀取時記下版本，寫入緩存前版本已變則放棄寫入，
+ * 避免並發讀取把舊數據放回緩存。
+ * 緩存保存與持久化上下文無關的快照，每次讀取返回新的副本，
+ * 調用方修改返回的商品不會影響其他請求，也不會觸發延遲載入
+ */
+@Service
+public class ProductDetailCache {
+
+    private final int capacity;
+
+    /** 商品ID -> 商品快照（只含展示需要的欄位，不會共享給調用方） */
+    private final LinkedHashMap<Long, Product> entries;
+
+    private final FrequencySketch sketch;
+
+    /** 商品ID -> 版本號 */
+    private final Map<Long, Long> versions = new ConcurrentHashMap<>();
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private long evictions = 0;
+
+    private long rejections = 0;
+
+    private long invalidations = 0;
+
+    public ProductDetailCache(@Value("${product-cache.max-entries:10000}") int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(Math.min(capacity, 1024), 0.75f, true);
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    /**
+     * 讀取商品的副本，未命中時由 loader 從數據庫載入並嘗試寫入緩存。
+     * loader 需在事務內調用，快照在這裡讀取分類和創建者
+     */
+    public Product get(Long productId, Function<Long, Product> loader) {
+        long version;
+        synchronized (this) {
+            sketch.increment(productId);
+            Product cached = entries.get(productId);
+            if (cached != null) {
+                hits++;
+                return snapshot(cached);
+            }
+            misses++;
+            version = versionOf(productId);
+        }
+
+        Product loaded = snapshot(loader.apply(productId));
+        synchronized (this) {
+            if (versionOf(productId) == version && !entries.containsKey(productId)) {
+                admit(productId, loaded);
+            }
+        }
+        return snapshot(loaded);
+    }
+
+    /**
+     * 使商品緩存失效並遞增版本
+     */
+    public synchronized void invalidate(Long productId) {
+        versions.merge(productId, 1L, Long::sum);
+        if (entries.remove(productId) != null) {
+            invalidations++;
+        }
+    }
+
+    /**
+     * 商品修改、庫存變更或刪除提交後失效
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        invalidate(event.getProductId());
+    }
+
+    /**
+     * 下單或取消訂單改變庫存後失效
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSalesRecorded(SalesRecordedEvent event) {
+        event.getQuantitiesByProduct().keySet().forEach(this::invalidate);
+    }
+
+    /**
+     * 庫存同步批量更新後失效
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(StockChangedEvent event) {
+        event.getProductIds().forEach(this::invalidate);
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(entries.size(), capacity, hits, misses, evictions, rejections, invalidations);
+    }
+
+    /**
+     * 緩存未滿時直接寫入；已滿時與最久未使用的條目比較訪問頻率
+     */
+    private void admit(Long productId, Product product) {
+        if (entries.size() < capacity) {
+            entries.put(productId, product);
+            return;
+        }
+        Iterator<Map.Entry<Long, Product>> iterator = entries.entrySet().iterator();
+        if (!iterator.hasNext()) {
+            return;
+        }
+        Long victim = iterator.next().getKey();
+        if (sketch.frequency(productId) > sketch.frequency(victim)) {
+            iterator.remove();
+            evictions++;
+            entries.put(productId, product);
+        } else {
+            rejections++;
+        }
+    }
+
+    /**
+     * 複製商品的欄位；分類只複製自身和上級分類的欄位，不含子分類和商品集合，
+     * 創建者只保留ID和用戶名
+     */
+    static Product snapshot(Product product) {
+        Product copy = new Product();
+        copy.setId(product.getId());
+        copy.setName(product.getName());
+        copy.setDescription(product.getDescription());
+        copy.setPrice(product.getPrice());
+        copy.setStockQuantity(product.getStockQuantity());
+        copy.setSoldCount(product.getSoldCount());
+        copy.setCategory(snapshot(product.getCategory()));
+        copy.setImageUrl(product.getImageUrl());
+        copy.setSku(product.getSku());
+        copy.setStatus(product.getStatus());
+        if (product.getCreatedBy() != null) {
+            User createdBy = new User();
+            createdBy.setId(product.getCreatedBy().getId());
+            createdBy.setUsername(product.getCreatedBy().getUsername());
+            copy.setCreatedBy(createdBy);
+        }
+        copy.setFlashSale(product.getFlashSale());
+        copy.setVersion(product.getVersion());
+        copy.setCreatedAt(product.getCreatedAt());
+        copy.setUpdatedAt(product.getUpdatedAt());
+        return copy;
+    }
+
+    private static Category snapshot(Category category) {
+        if (category == null) {
+            return null;
+        }
+        Category copy = new Category();
+        copy.setId(category.getId());
+        copy.setName(category.getName());
+        copy.setDescription(category.getDescription());
+        copy.setParent(snapshot(category.getParent()));
+        copy.setCreatedAt(category.getCreatedAt());
+        copy.setUpdatedAt(category.getUpdatedAt());
+        return copy;
+    }
+
+    private long versionOf(Long productId) {
+        return versions.getOrDefault(productId, 0L);
+    }
+
+    /**
+     * 緩存統計快照
+     */
+    public static class CacheStats {
+        private final int size;
+        private final int capacity;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long rejections;
+        private final long invalidations;
+
+        public CacheStats(int size, int capacity, long hits, long misses,
+                          long evictions, long rejections, long invalidations) {
+            this.size = size;
+            this.capacity = capacity;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.rejections = rejections;
+            this.invalidations = invalidations;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        /** 因准入策略被淘汰的條目數 */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /** 訪問頻率不足而未寫入的次數 */
+        public long getRejections() {
+            return rejections;
+        }
+
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        /**
+         * 命中率（0 - 1）
+         */
+        public double getHitRatio() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+    }
+}
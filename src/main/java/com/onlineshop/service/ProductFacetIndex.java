@@ -0,0 +1,533 @@
+package com.onlineshop.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商品分面索引
+ * 每個商品分配一個序號，分類、價格區間、庫存狀態各自維護序號位圖，
+ * 任意篩選組合通過位圖求交集完成，分面計數為交集的基數
+ */
+public class ProductFacetIndex {
+
+    /** 商品ID -> 序號 */
+    private final Map<Long, Integer> ordinals = new HashMap<>();
+
+    /** 序號 -> 商品，已刪除的位置為 null */
+    private final List<FacetDocument> documents = new ArrayList<>();
+
+    /** 有效商品的序號 */
+    private final BitSet live = new BitSet();
+
+    /** 分類ID -> 序號位圖（只含直接屬於該分類的商品） */
+    private final Map<Long, BitSet> byCategory = new HashMap<>();
+
+    private final Map<PriceRange, BitSet> byPrice = newBitSets(PriceRange.class);
+
+    private final Map<StockStatus, BitSet> byStock = newBitSets(StockStatus.class);
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 索引或重新索引商品
+     */
+    public void index(FacetDocument document) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.get(document.getId());
+            if (ordinal == null) {
+                ordinal = documents.size();
+                documents.add(null);
+                ordinals.put(document.getId(), ordinal);
+            } else {
+                clearBits(ordinal);
+            }
+            documents.set(ordinal, document);
+            live.set(ordinal);
+            if (document.getCategoryId() != null) {
+                byCategory.computeIfAbsent(document.getCategoryId(), k -> new BitSet()).set(ordinal);
+            }
+            byPrice.get(PriceRange.of(document.getPrice())).set(ordinal);
+            byStock.get(StockStatus.of(document.getStockQuantity())).set(ordinal);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 從索引中移除商品（序號不回收，全量重建時壓縮）
+     */
+    public void remove(Long productId) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.remove(productId);
+            if (ordinal != null) {
+                clearBits(ordinal);
+                documents.set(ordinal, null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ordinals.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 執行分面查詢
+     * 每個分面的計數套用其他分面的篩選條件，但不套用自身，方便切換同一分面的選項
+     */
+    public FacetResult query(FacetQuery query) {
+        lock.readLock().lock();
+        try {
+            BitSet categorySet = query.getCategoryIds() == null ? null : union(query.getCategoryIds());
+            BitSet priceSet = query.getPriceRange() == null ? null : byPrice.get(query.getPriceRange());
+            BitSet stockSet = query.getStockStatus() == null ? null : byStock.get(query.getStockStatus());
+
+            BitSet categoryBase = intersect(priceSet, stockSet);
+            Map<Long, Long> categoryCounts = new HashMap<>();
+            for (Map.Entry<Long, BitSet> entry : byCategory.entrySet()) {
+                long count = intersectionSize(categoryBase, entry.getValue());
+                if (count > 0) {
+                    categoryCounts.put(entry.getKey(), count);
+                }
+            }
+
+            BitSet priceBase = intersect(categorySet, stockSet);
+            Map<PriceRange, Long> priceCounts = new EnumMap<>(PriceRange.class);
+            for (Map.Entry<PriceRange, BitSet> entry : byPrice.entrySet()) {
+                priceCounts.put(entry.getKey(), intersectionSize(priceBase, entry.getValue()));
+            }
+
+            BitSet stockBase = intersect(categorySet, priceSet);
+            Map<StockStatus, Long> stockCounts = new EnumMap<>(StockStatus.class);
+            for (Map.Entry<StockStatus, BitSet> entry : byStock.entrySet()) {
+                stockCounts.put(entry.getKey(), intersectionSize(stockBase, entry.getValue()));
+            }
+
+            BitSet matches = categoryBase;
+            if (categorySet != null) {
+                matches.and(categorySet);
+            }
+            List<Long> ids = page(matches, query);
+            boolean hasMore = ids.size() > query.getLimit();
+            if (hasMore) {
+                ids = query.isBackward() ? ids.subList(1, ids.size()) : ids.subList(0, query.getLimit());
+            }
+            return new FacetResult(ids, hasMore, matches.cardinality(), categoryCounts, priceCounts, stockCounts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 從匹配集合中取出錨點之後（向後翻頁時為之前）的 limit + 1 個商品，按顯示順序返回
+     */
+    private List<Long> page(BitSet matches, FacetQuery query) {
+        Comparator<FacetDocument> order = displayOrder(query.getSort());
+        Comparator<FacetDocument> scan = query.isBackward() ? order.reversed() : order;
+        int capacity = query.getLimit() + 1;
+
+        // 最大堆保留掃描方向上最靠前的 capacity 個商品
+        PriorityQueue<FacetDocument> heap = new PriorityQueue<>(capacity + 1, scan.reversed());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            FacetDocument document = documents.get(i);
+            if (query.hasAnchor() && compareToAnchor(document, query, scan == order) <= 0) {
+                continue;
+            }
+            heap.offer(document);
+            if (heap.size() > capacity) {
+                heap.poll();
+            }
+        }
+
+        List<FacetDocument> selected = new ArrayList<>(heap);
+        selected.sort(order);
+        List<Long> ids = new ArrayList<>(selected.size());
+        for (FacetDocument document : selected) {
+            ids.add(document.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * 按掃描方向比較商品和錨點，大於 0 表示商品在錨點之後
+     */
+    private int compareToAnchor(FacetDocument document, FacetQuery query, boolean forward) {
+        int cmp = compareKeys(sortKey(document, query.getSort()), query.getAnchorKey());
+        if (cmp == 0) {
+            cmp = Long.compare(document.getId(), query.getAnchorId());
+        }
+        if (query.getSort().isDescending()) {
+            cmp = -cmp;
+        }
+        return forward ? cmp : -cmp;
+    }
+
+    private static Comparator<FacetDocument> displayOrder(CatalogService.SortOption sort) {
+        Comparator<FacetDocument> ascending = (a, b) -> {
+            int cmp = compareKeys(sortKey(a, sort), sortKey(b, sort));
+            return cmp != 0 ? cmp : Long.compare(a.getId(), b.getId());
+        };
+        return sort.isDescending() ? ascending.reversed() : ascending;
+    }
+
+    /**
+     * 比較排序鍵值，null 排在最前
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareKeys(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return ((Comparable) a).compareTo(b);
+    }
+
+    private static Comparable<?> sortKey(FacetDocument document, CatalogService.SortOption sort) {
+        switch (sort) {
+            case NEWEST: return document.getCreatedAt();
+            case POPULAR: return document.getSoldCount();
+            default: return document.getPrice();
+        }
+    }
+
+    private BitSet union(Collection<Long> categoryIds) {
+        BitSet result = new BitSet();
+        for (Long categoryId : categoryIds) {
+            BitSet set = byCategory.get(categoryId);
+            if (set != null) {
+                result.or(set);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 有效商品與給定位圖（null 表示不限）的交集，返回新位圖
+     */
+    private BitSet intersect(BitSet first, BitSet second) {
+        BitSet result = (BitSet) live.clone();
+        if (first != null) {
+            result.and(first);
+        }
+        if (second != null) {
+            result.and(second);
+        }
+        return result;
+    }
+
+    private static long intersectionSize(BitSet base, BitSet other) {
+        BitSet result = (BitSet) base.clone();
+        result.and(other);
+        return result.cardinality();
+    }
+
+    private void clearBits(int ordinal) {
+        live.clear(ordinal);
+        FacetDocument previous = documents.get(ordinal);
+        if (previous == null) {
+            return;
+        }
+        if (previous.getCategoryId() != null) {
+            BitSet set = byCategory.get(previous.getCategoryId());
+            if (set != null) {
+                set.clear(ordinal);
+                if (set.isEmpty()) {
+                    byCategory.remove(previous.getCategoryId());
+                }
+            }
+        }
+        byPrice.get(PriceRange.of(previous.getPrice())).clear(ordinal);
+        byStock.get(StockStatus.of(previous.getStockQuantity())).clear(ordinal);
+    }
+
+    private static <E extends Enum<E>> Map<E, BitSet> newBitSets(Class<E> type) {
+        Map<E, BitSet> sets = new EnumMap<>(type);
+        for (E constant : type.getEnumConstants()) {
+            sets.put(constant, new BitSet());
+        }
+        return sets;
+    }
+
+    /**
+     * 分面索引中的商品（只含篩選和排序需要的欄位）
+     */
+    public static class FacetDocument {
+        private final Long id;
+        private final Long categoryId;
+        private final BigDecimal price;
+        private final int stockQuantity;
+        private final LocalDateTime createdAt;
+        private final int soldCount;
+
+        public FacetDocument(Long id, Long categoryId, BigDecimal price, Integer stockQuantity,
+                             LocalDateTime createdAt, Integer soldCount) {
+            this.id = id;
+            this.categoryId = categoryId;
+            this.price = price;
+            this.stockQuantity = stockQuantity == null ? 0 : stockQuantity;
+            this.createdAt = createdAt;
+            this.soldCount = soldCount == null ? 0 : soldCount;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public Long getCategoryId() {
+            return categoryId;
+        }
+
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        public int getStockQuantity() {
+            return stockQuantity;
+        }
+
+        public LocalDateTime getCreatedAt() {
+            return createdAt;
+        }
+
+        public int getSoldCount() {
+            return soldCount;
+        }
+    }
+
+    /**
+     * 分面查詢條件，null 表示該分面不限
+     */
+    public static class FacetQuery {
+        private final Collection<Long> categoryIds;
+        private final PriceRange priceRange;
+        private final StockStatus stockStatus;
+        private final CatalogService.SortOption sort;
+        private final Object anchorKey;
+        private final Long anchorId;
+        private final boolean backward;
+        private final int limit;
+
+        /**
+         * @param categoryIds 分類ID（通常為整棵子分類樹）
+         * @param anchorKey   翻頁錨點的排序鍵值，第一頁時 anchorId 為 null
+         * @param anchorId    翻頁錨點的商品ID
+         * @param backward    是否取錨點之前的一頁
+         */
+        public FacetQuery(Collection<Long> categoryIds, PriceRange priceRange, StockStatus stockStatus,
+                          CatalogService.SortOption sort, Object anchorKey, Long anchorId,
+                          boolean backward, int limit) {
+            this.categoryIds = categoryIds;
+            this.priceRange = priceRange;
+            this.stockStatus = stockStatus;
+            this.sort = sort;
+            this.anchorKey = anchorKey;
+            this.anchorId = anchorId;
+            this.backward = backward;
+            this.limit = limit;
+        }
+
+        public Collection<Long> getCategoryIds() {
+            return categoryIds;
+        }
+
+        public PriceRange getPriceRange() {
+            return priceRange;
+        }
+
+        public StockStatus getStockStatus() {
+            return stockStatus;
+        }
+
+        public CatalogService.SortOption getSort() {
+            return sort;
+        }
+
+        public Object getAnchorKey() {
+            return anchorKey;
+        }
+
+        public Long getAnchorId() {
+            return anchorId;
+        }
+
+        public boolean hasAnchor() {
+            return anchorId != null;
+        }
+
+        public boolean isBackward() {
+            return backward;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+    }
+
+    /**
+     * 分面查詢結果：當前頁商品ID、匹配總數和各分面計數
+     */
+    public static class FacetResult {
+        private final List<Long> ids;
+        private final boolean hasMore;
+        private final long totalCount;
+        private final Map<Long, Long> categoryCounts;
+        private final Map<PriceRange, Long> priceCounts;
+        private final Map<StockStatus, Long> stockCounts;
+
+        public FacetResult(List<Long> ids, boolean hasMore, long totalCount, Map<Long, Long> categoryCounts,
+                           Map<PriceRange, Long> priceCounts, Map<StockStatus, Long> stockCounts) {
+            this.ids = ids;
+            this.hasMore = hasMore;
+            this.totalCount = totalCount;
+            this.categoryCounts = Collections.unmodifiableMap(categoryCounts);
+            this.priceCounts = Collections.unmodifiableMap(priceCounts);
+            this.stockCounts = Collections.unmodifiableMap(stockCounts);
+        }
+
+        public List<Long> getIds() {
+            return ids;
+        }
+
+        /**
+         * 查詢方向上是否還有更多商品
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * 分類ID -> 直接屬於該分類的匹配商品數
+         */
+        public Map<Long, Long> getCategoryCounts() {
+            return categoryCounts;
+        }
+
+        public Map<PriceRange, Long> getPriceCounts() {
+            return priceCounts;
+        }
+
+        public Map<StockStatus, Long> getStockCounts() {
+            return stockCounts;
+        }
+    }
+
+    /**
+     * 價格區間
+     */
+    public enum PriceRange {
+        UNDER_500(null, new BigDecimal("500"), "$500 以下"),
+        FROM_500_TO_1000(new BigDecimal("500"), new BigDecimal("1000"), "$500 - $1,000"),
+        FROM_1000_TO_5000(new BigDecimal("1000"), new BigDecimal("5000"), "$1,000 - $5,000"),
+        FROM_5000_TO_20000(new BigDecimal("5000"), new BigDecimal("20000"), "$5,000 - $20,000"),
+        OVER_20000(new BigDecimal("20000"), null, "$20,000 以上");
+
+        private final BigDecimal min;
+        private final BigDecimal max;
+        private final String label;
+
+        PriceRange(BigDecimal min, BigDecimal max, String label) {
+            this.min = min;
+            this.max = max;
+            this.label = label;
+        }
+
+        public String getParameter() {
+            return name().toLowerCase();
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * 價格所屬區間（含下限，不含上限），價格為空時歸入最低區間
+         */
+        public static PriceRange of(BigDecimal price) {
+            if (price != null) {
+                for (PriceRange range : values()) {
+                    if ((range.min == null || price.compareTo(range.min) >= 0)
+                            && (range.max == null || price.compareTo(range.max) < 0)) {
+                        return range;
+                    }
+                }
+            }
+            return UNDER_500;
+        }
+
+        /**
+         * 從請求參數解析，無法識別時返回 null（不限）
+         */
+        public static PriceRange fromParameter(String value) {
+            if (value != null) {
+                for (PriceRange range : values()) {
+                    if (range.name().equalsIgnoreCase(value)) {
+                        return range;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 庫存狀態
+     */
+    public enum StockStatus {
+        IN_STOCK("有庫存"),
+        OUT_OF_STOCK("缺貨");
+
+        private final String label;
+
+        StockStatus(String label) {
+            this.label = label;
+        }
+
+        public String getParameter() {
+            return name().toLowerCase();
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public static StockStatus of(int stockQuantity) {
+            return stockQuantity > 0 ? IN_STOCK : OUT_OF_STOCK;
+        }
+
+        /**
+         * 從請求參數解析，無法識別時返回 null（不限）
+         */
+        public static StockStatus fromParameter(String value) {
+            if (value != null) {
+                for (StockStatus status : values()) {
+                    if (status.name().equalsIgnoreCase(value)) {
+                        return status;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
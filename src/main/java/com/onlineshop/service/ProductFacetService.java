@@ -0,0 +1,174 @@
+package com.onlineshop.service;
+
+import com.onlineshop.config.AsyncConfig;
+import com.onlineshop.event.ProductChangedEvent;
+import com.onlineshop.event.ProductsImportedEvent;
+import com.onlineshop.event.SalesRecordedEvent;
+import com.onlineshop.event.StockChangedEvent;
+import com.onlineshop.model.Product;
+import com.onlineshop.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 商品分面篩選服務
+ * 啟動時從數據庫建立分面位圖索引，商品變更和下單改變庫存後增量更新
+ */
+@Service
+public class ProductFacetService {
+
+    /** 增量重新載入時每次查詢的商品數 */
+    private static final int RELOAD_CHUNK_SIZE = 1000;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    private volatile ProductFacetIndex index = new ProductFacetIndex();
+
+    private volatile boolean ready = false;
+
+    private volatile boolean rebuilding = false;
+
+    /** 重建索引期間需要重新載入的商品ID，重建完成後重放 */
+    private final Queue<Long> pendingProductIds = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 應用啟動後建立索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        rebuildIndex();
+    }
+
+    /**
+     * 從數據庫全量重建索引
+     */
+    public synchronized void rebuildIndex() {
+        rebuilding = true;
+        try {
+            ProductFacetIndex fresh = new ProductFacetIndex();
+            for (Object[] row : productRepository.findAllForFacetIndex()) {
+                fresh.index(toDocument(row));
+            }
+            index = fresh;
+            ready = true;
+        } finally {
+            rebuilding = false;
+        }
+
+        Set<Long> productIds = new HashSet<>();
+        Long productId;
+        while ((productId = pendingProductIds.poll()) != null) {
+            productIds.add(productId);
+        }
+        reload(productIds);
+        System.out.println("商品分面索引已建立，共 " + index.size() + " 個商品");
+    }
+
+    /**
+     * 商品變更事務提交後增量更新索引
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        if (rebuilding) {
+            pendingProductIds.add(event.getProductId());
+        }
+        if (event.getChangeType() == ProductChangedEvent.ChangeType.DELETED) {
+            index.remove(event.getProductId());
+            return;
+        }
+        Product product = event.getProduct();
+        index.index(new ProductFacetIndex.FacetDocument(product.getId(),
+                product.getCategory() == null ? null : product.getCategory().getId(),
+                product.getPrice(), product.getStockQuantity(), product.getCreatedAt(), product.getSoldCount()));
+    }
+
+    /**
+     * 下單或取消訂單改變了庫存和銷量，重新載入相關商品
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSalesRecorded(SalesRecordedEvent event) {
+        if (rebuilding) {
+            pendingProductIds.addAll(event.getQuantitiesByProduct().keySet());
+        }
+        reload(event.getQuantitiesByProduct().keySet());
+    }
+
+    /**
+     * 庫存同步後重新載入變更過的商品
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(StockChangedEvent event) {
+        if (rebuilding) {
+            pendingProductIds.addAll(event.getProductIds());
+        }
+        reload(new HashSet<>(event.getProductIds()));
+    }
+
+    /**
+     * 批量匯入後在後台線程池全量重建，不阻塞匯入請求
+     */
+    @Async(AsyncConfig.ANALYTICS_EXECUTOR)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductsImported(ProductsImportedEvent event) {
+        rebuildIndex();
+    }
+
+    /**
+     * 執行分面查詢
+     */
+    public ProductFacetIndex.FacetResult query(ProductFacetIndex.FacetQuery query) {
+        return index.query(query);
+    }
+
+    /**
+     * 索引是否已建立完成
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    private void reload(Set<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(productIds);
+        Set<Long> found = new HashSet<>();
+        // 分段查詢，避免庫存同步等批量變更生成過長的 IN 列表
+        for (int from = 0; from < ids.size(); from += RELOAD_CHUNK_SIZE) {
+            List<Object[]> rows = productRepository.findFacetRowsByIdIn(
+                    ids.subList(from, Math.min(from + RELOAD_CHUNK_SIZE, ids.size())));
+            for (Object[] row : rows) {
+                ProductFacetIndex.FacetDocument document = toDocument(row);
+                index.index(document);
+                found.add(document.getId());
+            }
+        }
+        for (Long productId : productIds) {
+            if (!found.contains(productId)) {
+                index.remove(productId);
+            }
+        }
+    }
+
+    /**
+     * 查詢行（id, categoryId, price, stockQuantity, createdAt, soldCount）轉換為索引文檔
+     */
+    private static ProductFacetIndex.FacetDocument toDocument(Object[] row) {
+        return new ProductFacetIndex.FacetDocument((Long) row[0], (Long) row[1], (BigDecimal) row[2],
+                (Integer) row[3], (LocalDateTime) row[4], (Integer) row[5]);
+    }
+}
@@ -0,0 +1,331 @@
+package com.onlineshop.service;
+
+import com.onlineshop.config.AsyncConfig;
+import com.onlineshop.config.MonitoredExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Queue;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 商品圖片處理服務
+ * 上傳後在圖片線程池中把原圖縮放為固定寬度的變體（縮略圖、卡片、詳情）並重新壓縮，另生成一張極小的模糊佔位圖；
+ * 變體文件名為「原文件名去掉副檔名.變體.副檔名」，如 a1b2.card.jpg，與原圖存放在同一目錄。
+ * 線程池隊列已滿時任務延後重新提交，不在上傳請求的線程中處理；變體生成前圖片控制器返回原圖
+ */
+@Service
+public class ProductImageProcessor {
+
+    /** 可以解碼和重新壓縮的格式，其他格式（GIF、WebP、SVG）只提供原圖 */
+    private static final Set<String> PROCESSABLE = Set.of("jpg", "jpeg", "png");
+
+    @Autowired
+    @Qualifier(AsyncConfig.IMAGE_EXECUTOR)
+    private MonitoredExecutor imageExecutor;
+
+    @Autowired
+    private ImageStore imageStore;
+
+    @Value("${upload.path:src/main/resources/static/images/products}")
+    private String uploadPath;
+
+    /** 變體的 JPEG 壓縮質量（0 - 1） */
+    @Value("${image.variant.jpeg-quality:0.82}")
+    private float jpegQuality;
+
+    /** 線程池已滿而延後處理的圖片 */
+    private final Queue<String> deferred = new ConcurrentLinkedQueue<>();
+
+    /** 已排隊或處理中的圖片，避免重複處理 */
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong processedCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * 圖片變體：名稱和寬度（像素）
+     */
+    public enum Variant {
+        THUMB("thumb", 160),
+        CARD("card", 400),
+        DETAIL("detail", 960),
+        PLACEHOLDER("lqip", 24);
+
+        private final String suffix;
+        private final int width;
+
+        Variant(String suffix, int width) {
+            this.suffix = suffix;
+            this.width = width;
+        }
+
+        public String getSuffix() {
+            return suffix;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+    }
+
+    /**
+     * 啟動後為缺少變體的原圖補做處理（如停機前未處理完或處理功能上線前上傳的圖片）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() throws IOException {
+        Path legacyDirectory = Paths.get(uploadPath);
+        if (Files.isDirectory(legacyDirectory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(legacyDirectory)) {
+                for (Path file : stream) {
+                    String filename = file.getFileName().toString();
+                    if (originalOf(filename) == null) {
+                        submit(filename);
+                    }
+                }
+            }
+        }
+        for (String key : imageStore.listKeys()) {
+            submit(key);
+        }
+    }
+
+    /**
+     * 提交原圖處理；已有變體（如重複上傳的相同圖片）時跳過，線程池已滿時記入延後隊列，由定時任務重新提交
+     */
+    public void submit(String filename) {
+        if (!isProcessable(filename) || hasVariants(filename) || !inProgress.add(filename)) {
+            return;
+        }
+        try {
+            imageExecutor.execute(() -> {
+                try {
+                    process(filename);
+                } finally {
+                    inProgress.remove(filename);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            inProgress.remove(filename);
+            deferred.add(filename);
+        }
+    }
+
+    /**
+     * 重新提交延後的圖片，線程池仍然已滿時停止
+     */
+    @Scheduled(fixedDelayString = "${image.variant.retry-interval-ms:5000}")
+    public void resubmitDeferred() {
+        String filename;
+        while ((filename = deferred.peek()) != null) {
+            if (imageExecutor.getStats().getQueueSize() >= imageExecutor.getStats().getQueueCapacity()) {
+                return;
+            }
+            deferred.poll();
+            submit(filename);
+        }
+    }
+
+    /**
+     * 生成所有變體；無法解碼的圖片只記錄失敗
+     */
+    void process(String filename) {
+        Path path = imageStore.resolve(filename);
+        if (path == null) {
+            return;
+        }
+        try {
+            BufferedImage original = ImageIO.read(path.toFile());
+            if (original == null) {
+                failedCount.incrementAndGet();
+                System.err.println("無法解碼圖片，只提供原圖: " + filename);
+                return;
+            }
+            boolean png = extensionOf(filename).equals("png");
+            boolean alpha = png && original.getColorModel().hasAlpha();
+            for (Variant variant : Variant.values()) {
+                BufferedImage scaled = scale(original, variant.getWidth(), alpha);
+                float quality = variant == Variant.PLACEHOLDER ? 0.3f : jpegQuality;
+                write(scaled, png, quality, path.resolveSibling(variantName(filename, variant)));
+            }
+            processedCount.incrementAndGet();
+        } catch (IOException e) {
+            failedCount.incrementAndGet();
+            System.err.println("圖片處理失敗 " + filename + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 變體的 srcset 屬性值（縮略圖、卡片、詳情），不可處理的圖片返回 null
+     */
+    public String srcset(String filename) {
+        if (filename == null || !isProcessable(filename)) {
+            return null;
+        }
+        StringJoiner srcset = new StringJoiner(", ");
+        for (Variant variant : new Variant[] {Variant.THUMB, Variant.CARD, Variant.DETAIL}) {
+            srcset.add("/images/products/" + variantName(filename, variant) + " " + variant.getWidth() + "w");
+        }
+        return srcset.toString();
+    }
+
+    /**
+     * 指定變體的 URL，不可處理的圖片返回原圖 URL
+     */
+    public String url(String filename, String variant) {
+        if (filename == null || !isProcessable(filename)) {
+            return "/images/products/" + filename;
+        }
+        return "/images/products/" + variantName(filename, Variant.valueOf(variant.toUpperCase()));
+    }
+
+    /**
+     * 佔位圖的 CSS 背景樣式，不可處理的圖片返回 null
+     */
+    public String placeholderStyle(String filename) {
+        if (filename == null || !isProcessable(filename)) {
+            return null;
+        }
+        return "background-image: url(/images/products/" + variantName(filename, Variant.PLACEHOLDER)
+                + "); background-size: cover; background-position: center;";
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public int getDeferredCount() {
+        return deferred.size();
+    }
+
+    /**
+     * 變體文件名對應的原圖文件名，不是變體時返回 null
+     */
+    public static String originalOf(String filename) {
+        int extension = filename.lastIndexOf('.');
+        if (extension <= 0) {
+            return null;
+        }
+        int suffix = filename.lastIndexOf('.', extension - 1);
+        if (suffix <= 0) {
+            return null;
+        }
+        String name = filename.substring(suffix + 1, extension);
+        for (Variant variant : Variant.values()) {
+            if (variant.getSuffix().equals(name)) {
+                return filename.substring(0, suffix) + filename.substring(extension);
+            }
+        }
+        return null;
+    }
+
+    static String variantName(String filename, Variant variant) {
+        int extension = filename.lastIndexOf('.');
+        return filename.substring(0, extension) + "." + variant.getSuffix() + filename.substring(extension);
+    }
+
+    /**
+     * 佔位圖最後生成，存在即表示所有變體都已生成
+     */
+    private boolean hasVariants(String filename) {
+        Path placeholder = imageStore.resolve(variantName(filename, Variant.PLACEHOLDER));
+        return placeholder != null && Files.exists(placeholder);
+    }
+
+    private static boolean isProcessable(String filename) {
+        return filename.lastIndexOf('.') > 0 && PROCESSABLE.contains(extensionOf(filename));
+    }
+
+    private static String extensionOf(String filename) {
+        String extension = filename.substring(filename.lastIndexOf('.') + 1).toLowerCase();
+        return extension.equals("jpeg") ? "jpg" : extension;
+    }
+
+    /**
+     * 縮放到指定寬度（不放大）：先逐次減半再做最後一次雙三次插值，大倍數縮小時比一次縮放清晰
+     */
+    private static BufferedImage scale(BufferedImage source, int targetWidth, boolean keepAlpha) {
+        int type = keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        targetWidth = Math.min(targetWidth, width);
+        int targetHeight = Math.max(1, (int) Math.round((double) height * targetWidth / width));
+
+        BufferedImage current = source;
+        do {
+            int nextWidth = width / 2 >= targetWidth ? width / 2 : targetWidth;
+            int nextHeight = width / 2 >= targetWidth ? Math.max(height / 2, targetHeight) : targetHeight;
+            BufferedImage next = new BufferedImage(nextWidth, nextHeight, type);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                if (!keepAlpha) {
+                    // JPEG 沒有透明通道，透明區域填白色
+                    graphics.setColor(Color.WHITE);
+                    graphics.fillRect(0, 0, nextWidth, nextHeight);
+                }
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                        nextWidth == targetWidth ? RenderingHints.VALUE_INTERPOLATION_BICUBIC
+                                                 : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, nextWidth, nextHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+            width = nextWidth;
+            height = nextHeight;
+        } while (width > targetWidth);
+        return current;
+    }
+
+    /**
+     * 寫入臨時文件後改名，圖片控制器不會讀到寫了一半的文件
+     */
+    private static void write(BufferedImage image, boolean png, float quality, Path target) throws IOException {
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(png ? "png" : "jpeg").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(temporary.toFile())) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (!png) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,208 @@
+package com.onlineshop.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 商品圖片讀取服務
+ * 記住每個圖片文件的大小、修改時間和內容哈希（用作強 ETag），在重新檢查間隔內不再訪問文件系統；
+ * 內容尋址的圖片直接以文件名中的哈希作 ETag，不需要讀取文件計算；熱門圖片的內容保存在堆外內存緩存中，其餘圖片由控制器直接從文件發送
+ */
+@Service
+public class ProductImageService {
+
+    @Autowired
+    private ImageStore imageStore;
+
+    private final long revalidateNanos;
+
+    private final int maxFiles;
+
+    private final ImageCache cache;
+
+    /** 文件名 -> 圖片文件屬性 */
+    private final Map<String, ImageFile> files = new ConcurrentHashMap<>();
+
+    public ProductImageService(@Value("${image.revalidate-interval-ms:2000}") long revalidateIntervalMillis,
+                               @Value("${image.metadata.max-entries:10000}") int maxFiles,
+                               @Value("${image.cache.max-bytes:67108864}") long cacheMaxBytes,
+                               @Value("${image.cache.max-entry-bytes:1048576}") long cacheMaxEntryBytes) {
+        this.revalidateNanos = revalidateIntervalMillis * 1_000_000L;
+        this.maxFiles = maxFiles;
+        this.cache = new ImageCache(cacheMaxBytes, cacheMaxEntryBytes);
+    }
+
+    /**
+     * 查找圖片文件；不存在、不是普通文件或路徑超出圖片目錄時返回 null
+     */
+    public ImageFile getImage(String filename) throws IOException {
+        long now = System.nanoTime();
+        ImageFile known = files.get(filename);
+        if (known != null && now - known.checkedAt < revalidateNanos) {
+            return known;
+        }
+
+        Path path = imageStore.resolve(filename);
+        if (path == null) {
+            return null;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            files.remove(filename);
+            return null;
+        }
+        if (!attributes.isRegularFile()) {
+            files.remove(filename);
+            return null;
+        }
+
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        boolean immutable = ImageStore.isContentAddressed(filename);
+        String etag = ImageStore.contentHashOf(filename);
+        if (etag == null) {
+            etag = known != null && known.size == attributes.size() && known.lastModified == lastModified
+                    ? known.etag
+                    : hash(path);
+        }
+        ImageFile image = new ImageFile(path, attributes.size(), lastModified, etag, contentTypeOf(filename),
+                immutable, now);
+        if (known == null && files.size() >= maxFiles) {
+            evictOne();
+        }
+        files.put(filename, image);
+        return image;
+    }
+
+    /**
+     * 從內存緩存讀取圖片內容；未命中且圖片足夠熱門時讀入緩存空間，否則返回 null 由調用方從文件發送。
+     * 返回的內容發送完後必須關閉
+     */
+    public ImageCache.Content getCachedContent(ImageFile image) throws IOException {
+        ImageCache.Content cached = cache.get(image.etag);
+        if (cached != null) {
+            return cached;
+        }
+        ByteBuffer content = cache.reserve(image.etag, image.size);
+        if (content == null) {
+            return null;
+        }
+
+        boolean loaded = false;
+        try {
+            try (FileChannel channel = FileChannel.open(image.path, StandardOpenOption.READ)) {
+                while (content.hasRemaining() && channel.read(content) >= 0) {
+                    // 讀到文件末尾
+                }
+            }
+            if (content.hasRemaining()) {
+                // 文件在檢查後被截短，下次重新讀取屬性
+                files.values().remove(image);
+                return null;
+            }
+            loaded = true;
+            return cache.commit(image.etag);
+        } finally {
+            if (!loaded) {
+                cache.abort(image.etag);
+            }
+        }
+    }
+
+    public ImageCache.CacheStats getCacheStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * 文件內容的 SHA-256 前 128 位（十六進制）
+     */
+    private static String hash(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest(), 0, 16);
+    }
+
+    /**
+     * 文件屬性表已滿時移除一個條目，被移除的圖片下次訪問時重新讀取屬性
+     */
+    private void evictOne() {
+        Iterator<String> iterator = files.keySet().iterator();
+        if (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 根據檔案副檔名確定 MIME 類型
+     */
+    private static String contentTypeOf(String filename) {
+        String extension = filename.substring(filename.lastIndexOf(".") + 1).toLowerCase();
+
+        switch (extension) {
+            case "jpg":
+            case "jpeg":
+                return "image/jpeg";
+            case "png":
+                return "image/png";
+            case "gif":
+                return "image/gif";
+            case "webp":
+                return "image/webp";
+            case "svg":
+                return "image/svg+xml";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    /**
+     * 圖片文件屬性
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class ImageFile {
+        private final Path path;
+        private final long size;
+        /** 修改時間（毫秒） */
+        private final long lastModified;
+        /** 內容哈希 */
+        private final String etag;
+        private final String contentType;
+        /** 內容尋址的圖片，同一 URL 的內容永不改變 */
+        private final boolean immutable;
+        /** 上次讀取文件屬性的時間（System.nanoTime） */
+        private final long checkedAt;
+    }
+}
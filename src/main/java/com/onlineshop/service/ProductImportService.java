@@ -0,0 +1,328 @@
+package com.onlineshop.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onlineshop.dto.CategoryNode;
+import com.onlineshop.dto.ProductImportResult;
+import com.onlineshop.dto.RowError;
+import com.onlineshop.event.ProductsImportedEvent;
+import com.onlineshop.model.Product;
+import com.onlineshop.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 商品批量匯入服務
+ * 通過 FeedReader 逐行讀取 CSV 或 NDJSON 文件，分類從分類樹快照解析，SKU 按批檢查和生成，
+ * 每批以 JDBC 批量插入寫入，錯誤逐行記錄
+ */
+@Service
+public class ProductImportService {
+
+    /** 每批插入的行數 */
+    private static final int BATCH_SIZE = 1000;
+
+    /** 結果中保留的錯誤明細數 */
+    private static final int MAX_REPORTED_ERRORS = 200;
+
+    private static final String INSERT_SQL = "INSERT INTO products (name, description, price, stock_quantity, "
+            + "sold_count, category_id, image_url, sku, status, created_by, created_at, updated_at) "
+            + "VALUES (?, ?, ?, ?, 0, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private CategoryTreeService categoryTreeService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 匯入商品
+     *
+     * @param input      文件內容（UTF-8）
+     * @param filename   原始文件名，.json / .ndjson / .jsonl 按 NDJSON 解析，其他按 CSV 解析
+     * @param merchantId 商品所屬商家
+     */
+    public ProductImportResult importProducts(InputStream input, String filename, Long merchantId) throws IOException {
+        long start = System.currentTimeMillis();
+        ImportContext context = new ImportContext(merchantId, categoryTreeService.getTree());
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            Iterator<FeedReader.FeedRow> rows = FeedReader.open(reader, filename, objectMapper);
+            while (rows.hasNext()) {
+                FeedReader.FeedRow row = rows.next();
+                context.totalRows++;
+                try {
+                    context.pending.add(toPendingProduct(row, context));
+                } catch (IllegalArgumentException e) {
+                    context.addError(row.getLine(), e.getMessage());
+                }
+                if (context.pending.size() >= BATCH_SIZE) {
+                    flush(context);
+                }
+            }
+        } catch (IllegalStateException e) {
+            // 文件格式損壞（如引號未閉合、JSON 無法解析），已讀取的行照常寫入
+            context.addError(context.totalRows + 1, e.getMessage());
+        }
+        flush(context);
+
+        if (context.imported > 0) {
+            eventPublisher.publishEvent(new ProductsImportedEvent(merchantId, context.imported));
+        }
+        return new ProductImportResult(context.totalRows, context.imported, context.errorCount,
+                context.errors, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 校驗並轉換一行，錯誤以 IllegalArgumentException 報告
+     */
+    private PendingProduct toPendingProduct(FeedReader.FeedRow row, ImportContext context) {
+        if (row.getError() != null) {
+            throw new IllegalArgumentException(row.getError());
+        }
+        String name = row.get("name");
+        if (name == null) {
+            throw new IllegalArgumentException("商品名稱不能為空");
+        }
+        if (name.length() > 200) {
+            throw new IllegalArgumentException("商品名稱不能超過 200 字");
+        }
+
+        BigDecimal price;
+        try {
+            price = new BigDecimal(require(row, "price", "價格"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("價格格式錯誤");
+        }
+        if (price.signum() < 0 || price.scale() > 2 || price.precision() - price.scale() > 8) {
+            throw new IllegalArgumentException("價格必須為非負數，最多兩位小數");
+        }
+
+        int stock;
+        String stockValue = row.get("stock_quantity", "stockquantity", "stock");
+        try {
+            stock = stockValue == null ? 0 : Integer.parseInt(stockValue);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("庫存數量格式錯誤");
+        }
+        if (stock < 0) {
+            throw new IllegalArgumentException("庫存數量不能為負數");
+        }
+
+        Long categoryId = null;
+        String category = row.get("category", "category_id", "categoryid");
+        if (category != null) {
+            CategoryNode node = category.chars().allMatch(Character::isDigit)
+                    ? context.tree.getNode(Long.valueOf(category))
+                    : context.tree.findByName(category);
+            if (node == null) {
+                throw new IllegalArgumentException("分類不存在或名稱不唯一: " + category);
+            }
+            categoryId = node.getId();
+        }
+
+        Product.ProductStatus status;
+        String statusValue = row.get("status");
+        if (statusValue == null) {
+            status = stock > 0 ? Product.ProductStatus.ACTIVE : Product.ProductStatus.OUT_OF_STOCK;
+        } else {
+            try {
+                status = Product.ProductStatus.valueOf(statusValue.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("無效的商品狀態: " + statusValue);
+            }
+        }
+
+        String sku = row.get("sku");
+        if (sku != null) {
+            if (sku.length() > 50) {
+                throw new IllegalArgumentException("SKU 不能超過 50 字");
+            }
+            if (!context.seenSkus.add(sku)) {
+                throw new IllegalArgumentException("SKU 在文件中重複: " + sku);
+            }
+        }
+
+        String imageUrl = row.get("image_url", "imageurl");
+        if (imageUrl != null && imageUrl.length() > 500) {
+            throw new IllegalArgumentException("圖片地址不能超過 500 字");
+        }
+
+        return new PendingProduct(row.getLine(), name, row.get("description"), price, stock,
+                categoryId, imageUrl, sku, status);
+    }
+
+    /**
+     * 寫入當前批次：先一次查出已存在的 SKU，再批量插入
+     */
+    private void flush(ImportContext context) {
+        if (context.pending.isEmpty()) {
+            return;
+        }
+        List<PendingProduct> batch = new ArrayList<>(context.pending);
+        context.pending.clear();
+
+        Set<String> candidateSkus = new HashSet<>();
+        for (PendingProduct product : batch) {
+            if (product.sku == null) {
+                product.sku = generateSku(context);
+            }
+            candidateSkus.add(product.sku);
+        }
+        Set<String> existing = new HashSet<>(productRepository.findExistingSkus(candidateSkus));
+
+        List<PendingProduct> insertable = new ArrayList<>(batch.size());
+        for (PendingProduct product : batch) {
+            if (!existing.contains(product.sku)) {
+                insertable.add(product);
+            } else if (product.generatedSku) {
+                // 生成的 SKU 與已有商品衝突，重新生成（機率極低，不再檢查）
+                product.sku = generateSku(context);
+                insertable.add(product);
+            } else {
+                context.addError(product.line, "SKU 已存在: " + product.sku);
+            }
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            transactionTemplate.executeWithoutResult(status -> insert(insertable, context.merchantId, now));
+            context.imported += insertable.size();
+        } catch (DataAccessException e) {
+            // 批次失敗時逐行重試，定位出錯的行
+            for (PendingProduct product : insertable) {
+                try {
+                    transactionTemplate.executeWithoutResult(
+                            status -> insert(List.of(product), context.merchantId, now));
+                    context.imported++;
+                } catch (DataAccessException rowError) {
+                    context.addError(product.line, "寫入失敗: " + rowError.getMostSpecificCause().getMessage());
+                }
+            }
+        }
+    }
+
+    private void insert(List<PendingProduct> products, Long merchantId, LocalDateTime now) {
+        Timestamp timestamp = Timestamp.valueOf(now);
+        jdbcTemplate.batchUpdate(INSERT_SQL, products, products.size(), (ps, product) -> {
+            ps.setString(1, product.name);
+            ps.setString(2, product.description);
+            ps.setBigDecimal(3, product.price);
+            ps.setInt(4, product.stockQuantity);
+            if (product.categoryId == null) {
+                ps.setNull(5, Types.BIGINT);
+            } else {
+                ps.setLong(5, product.categoryId);
+            }
+            ps.setString(6, product.imageUrl);
+            ps.setString(7, product.sku);
+            ps.setString(8, product.status.name());
+            ps.setLong(9, merchantId);
+            ps.setTimestamp(10, timestamp);
+            ps.setTimestamp(11, timestamp);
+        });
+    }
+
+    private String generateSku(ImportContext context) {
+        String sku;
+        do {
+            sku = "PROD-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        } while (!context.seenSkus.add(sku));
+        return sku;
+    }
+
+    private static String require(FeedReader.FeedRow row, String column, String label) {
+        String value = row.get(column);
+        if (value == null) {
+            throw new IllegalArgumentException(label + "不能為空");
+        }
+        return value;
+    }
+
+    /**
+     * 一次匯入的狀態
+     */
+    private static class ImportContext {
+        private final Long merchantId;
+        private final CategoryTreeService.CategoryTree tree;
+        private final List<PendingProduct> pending = new ArrayList<>(BATCH_SIZE);
+        private final Set<String> seenSkus = new HashSet<>();
+        private final List<RowError> errors = new ArrayList<>();
+        private int totalRows = 0;
+        private int imported = 0;
+        private int errorCount = 0;
+
+        private ImportContext(Long merchantId, CategoryTreeService.CategoryTree tree) {
+            this.merchantId = merchantId;
+            this.tree = tree;
+        }
+
+        private void addError(long line, String message) {
+            errorCount++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new RowError(line, message));
+            }
+        }
+    }
+
+    /**
+     * 校驗通過、等待寫入的商品
+     */
+    private static class PendingProduct {
+        private final long line;
+        private final String name;
+        private final String description;
+        private final BigDecimal price;
+        private final int stockQuantity;
+        private final Long categoryId;
+        private final String imageUrl;
+        private final Product.ProductStatus status;
+        private final boolean generatedSku;
+        private String sku;
+
+        private PendingProduct(long line, String name, String description, BigDecimal price, int stockQuantity,
+                               Long categoryId, String imageUrl, String sku, Product.ProductStatus status) {
+            this.line = line;
+            this.name = name;
+            this.description = description;
+            this.price = price;
+            this.stockQuantity = stockQuantity;
+            this.categoryId = categoryId;
+            this.imageUrl = imageUrl;
+            this.sku = sku;
+            this.generatedSku = sku == null;
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.onlineshop.service;
+
+import com.onlineshop.dto.ProductSummary;
+import com.onlineshop.event.ProductChangedEvent;
+import com.onlineshop.event.SalesRecordedEvent;
+import com.onlineshop.event.StockChangedEvent;
+import com.onlineshop.model.Product;
+import com.onlineshop.model.ProductSubscription;
+import com.onlineshop.repository.ProductRepository;
+import com.onlineshop.repository.ProductSubscriptionRepository;
+import com.onlineshop.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.mail.SendFailedException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 商品到貨和降價通知服務
+ * 庫存或價格變更的事務提交後只把商品ID記入待處理集合，由定時任務在事務外發送：
+ * 每個商品的通知正文只渲染一次，訂閱者按ID分頁讀取，每頁經郵件連接池並行發送，已通知的訂閱隨即刪除
+ */
+@Service
+public class ProductNotificationService {
+
+    @Autowired
+    private ProductSubscriptionRepository subscriptionRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EmailService emailService;
+
+    @Value("${app.base-url:http://localhost:8080}")
+    private String baseUrl;
+
+    /** 每頁讀取和發送的訂閱數 */
+    @Value("${notification.page-size:200}")
+    private int pageSize;
+
+    /** 每頁郵件最多等待的發送時間 */
+    @Value("${notification.send-timeout-ms:120000}")
+    private long sendTimeoutMillis;
+
+    /** 有郵件發送失敗的商品延後重試的時間 */
+    @Value("${notification.retry-delay-ms:60000}")
+    private long retryDelayMillis;
+
+    /** 庫存或價格變更後待檢查的商品ID */
+    private final Set<Long> pendingProductIds = ConcurrentHashMap.newKeySet();
+
+    /** 延後重試的商品ID及最早重試時間 */
+    private final Map<Long, Long> deferredProductIds = new ConcurrentHashMap<>();
+
+    private final Map<ProductSubscription.Type, MailTemplate<ProductSummary>> templates =
+        new EnumMap<>(ProductSubscription.Type.class);
+
+    /**
+     * 編譯通知郵件模板，模板有錯誤時啟動失敗
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        MailTemplate.Binding<ProductSummary> binding = new MailTemplate.Binding<ProductSummary>()
+            .value("productName", ProductSummary::getName)
+            .value("price", product -> product.getPrice().toPlainString())
+            .value("productId", product -> String.valueOf(product.getId()));
+        Map<String, String> constants = Map.of("baseUrl", baseUrl);
+        templates.put(ProductSubscription.Type.BACK_IN_STOCK, compile("back-in-stock", constants, binding));
+        templates.put(ProductSubscription.Type.PRICE_DROP, compile("price-drop", constants, binding));
+    }
+
+    private static MailTemplate<ProductSummary> compile(String name, Map<String, String> constants,
+                                                        MailTemplate.Binding<ProductSummary> binding) throws IOException {
+        String source = new ClassPathResource("mail-templates/" + name + ".html").getContentAsString(StandardCharsets.UTF_8);
+        return MailTemplate.compile(source, constants, binding);
+    }
+
+    /**
+     * 訂閱商品通知；到貨通知只能在缺貨時訂閱，降價通知記錄當前價格
+     */
+    @Transactional
+    public void subscribe(Long userId, Long productId, ProductSubscription.Type type) {
+        Product product = productRepository.findById(productId)
+            .orElseThrow(() -> new IllegalArgumentException("商品不存在"));
+        if (type == ProductSubscription.Type.BACK_IN_STOCK
+                && product.getStatus() == Product.ProductStatus.ACTIVE && product.getStockQuantity() > 0) {
+            throw new IllegalArgumentException("商品目前有庫存，無需訂閱到貨通知");
+        }
+        if (subscriptionRepository.existsByUserIdAndProductIdAndType(userId, productId, type)) {
+            throw new IllegalArgumentException("您已訂閱此通知");
+        }
+        subscriptionRepository.save(new ProductSubscription(userRepository.getReferenceById(userId),
+            productId, type, product.getPrice()));
+    }
+
+    /**
+     * 啟動時檢查所有有訂閱的商品，補發停機期間到貨或降價的通知
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        pendingProductIds.addAll(subscriptionRepository.findSubscribedProductIds());
+    }
+
+    /**
+     * 商品修改（價格、庫存、狀態）或刪除後檢查
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        if (event.getChangeType() != ProductChangedEvent.ChangeType.CREATED) {
+            pendingProductIds.add(event.getProductId());
+        }
+    }
+
+    /**
+     * 庫存增減或同步後檢查
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStockChanged(StockChangedEvent event) {
+        pendingProductIds.addAll(event.getProductIds());
+    }
+
+    /**
+     * 取消訂單退回了庫存（數量為負）時檢查
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSalesRecorded(SalesRecordedEvent event) {
+        event.getQuantitiesByProduct().forEach((productId, quantity) -> {
+            if (quantity < 0) {
+                pendingProductIds.add(productId);
+            }
+        });
+    }
+
+    /**
+     * 定時發送待處理商品的通知
+     */
+    @Scheduled(fixedDelayString = "${notification.dispatch-interval-ms:2000}")
+    public void dispatch() {
+        Set<Long> productIds = new HashSet<>();
+        for (Iterator<Long> iterator = pendingProductIds.iterator(); iterator.hasNext(); ) {
+            productIds.add(iterator.next());
+            iterator.remove();
+        }
+        long now = System.currentTimeMillis();
+        deferredProductIds.entrySet().removeIf(entry -> {
+            if (entry.getValue() > now) {
+                return false;
+            }
+            productIds.add(entry.getKey());
+            return true;
+        });
+        if (productIds.isEmpty()) {
+            return;
+        }
+
+        List<Long> subscribed = subscriptionRepository.findSubscribedProductIdsIn(productIds);
+        if (subscribed.isEmpty()) {
+            return;
+        }
+        Map<Long, ProductSummary> products = new HashMap<>();
+        for (ProductSummary product : productRepository.findSummariesByIdIn(subscribed)) {
+            products.put(product.getId(), product);
+        }
+
+        for (Long productId : subscribed) {
+            ProductSummary product = products.get(productId);
+            if (product == null) {
+                subscriptionRepository.deleteByProductId(productId);
+                continue;
+            }
+            if (product.getStatus() != Product.ProductStatus.ACTIVE || product.getStockQuantity() <= 0) {
+                continue;
+            }
+            boolean complete = fanOut(product, ProductSubscription.Type.BACK_IN_STOCK);
+            complete &= fanOut(product, ProductSubscription.Type.PRICE_DROP);
+            if (!complete) {
+                deferredProductIds.merge(productId, now + retryDelayMillis, Math::min);
+            }
+        }
+    }
+
+    /**
+     * 向一個商品的一類訂閱者發送通知，返回是否全部處理完畢（無需重試）
+     * 收件地址被拒絕的訂閱與已送達的一樣刪除，其他失敗保留以便重試
+     */
+    private boolean fanOut(ProductSummary product, ProductSubscription.Type type) {
+        String html = null;
+        String label = type == ProductSubscription.Type.BACK_IN_STOCK ? "到貨通知" : "降價通知";
+        String subject = label + " - " + product.getName();
+        boolean complete = true;
+        int sent = 0;
+        long afterId = 0;
+        while (true) {
+            List<Object[]> page = type == ProductSubscription.Type.BACK_IN_STOCK
+                ? subscriptionRepository.findBackInStockRecipients(product.getId(), afterId, Limit.of(pageSize))
+                : subscriptionRepository.findPriceDropRecipients(product.getId(), product.getPrice(),
+                    afterId, Limit.of(pageSize));
+            if (page.isEmpty()) {
+                break;
+            }
+            if (html == null) {
+                html = templates.get(type).render(product);
+            }
+
+            List<Long> subscriptionIds = new ArrayList<>(page.size());
+            List<String> recipients = new ArrayList<>(page.size());
+            for (Object[] row : page) {
+                subscriptionIds.add((Long) row[0]);
+                recipients.add((String) row[1]);
+            }
+            List<Exception> results = emailService.sendBulkEmail(recipients, subject, html, sendTimeoutMillis);
+
+            List<Long> finished = new ArrayList<>(page.size());
+            for (int i = 0; i < results.size(); i++) {
+                Exception failure = results.get(i);
+                if (failure == null) {
+                    sent++;
+                    finished.add(subscriptionIds.get(i));
+                } else if (failure instanceof SendFailedException) {
+                    finished.add(subscriptionIds.get(i));
+                } else {
+                    complete = false;
+                }
+            }
+            subscriptionRepository.deleteAllByIdInBatch(finished);
+
+            afterId = subscriptionIds.get(subscriptionIds.size() - 1);
+            if (page.size() < pageSize) {
+                break;
+            }
+        }
+        if (sent > 0) {
+            System.out.println("已發送商品 " + product.getId() + " 的" + label + " " + sent + " 封");
+        }
+        return complete;
+    }
+}
@@ -0,0 +1,257 @@
+package com.onlineshop.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商品倒排索引
+ * 對名稱、描述、SKU 建立詞項到商品ID的倒排表，中日韓文字以單字和二元組切分
+ */
+public class ProductSearchIndex {
+
+    /** 名稱詞項權重 */
+    private static final int NAME_WEIGHT = 3;
+
+    /** SKU 詞項權重 */
+    private static final int SKU_WEIGHT = 5;
+
+    /** 描述詞項權重 */
+    private static final int DESCRIPTION_WEIGHT = 1;
+
+    /** 前綴展開的最大詞項數 */
+    private static final int MAX_PREFIX_EXPANSION = 64;
+
+    /** 詞項 -> (商品ID -> 加權詞頻) */
+    private final TreeMap<String, Map<Long, Integer>> postings = new TreeMap<>();
+
+    /** 商品ID -> (詞項 -> 加權詞頻)，用於刪除和更新時撤銷舊詞項 */
+    private final Map<Long, Map<String, Integer>> documents = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 索引或重新索引商品
+     */
+    public void index(Long productId, String name, String description, String sku) {
+        Map<String, Integer> terms = new HashMap<>();
+        addTerms(terms, name, NAME_WEIGHT);
+        addTerms(terms, description, DESCRIPTION_WEIGHT);
+        addTerms(terms, sku, SKU_WEIGHT);
+
+        lock.writeLock().lock();
+        try {
+            removeInternal(productId);
+            for (Map.Entry<String, Integer> term : terms.entrySet()) {
+                postings.computeIfAbsent(term.getKey(), k -> new HashMap<>())
+                        .put(productId, term.getValue());
+            }
+            documents.put(productId, terms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 從索引中移除商品
+     */
+    public void remove(Long productId) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 搜索商品，返回按相關度排序的商品ID
+     * 所有查詢詞項都必須命中（AND 語義），英數詞項支持前綴匹配
+     */
+    public List<Long> search(String query, int limit) {
+        List<String> queryTerms = new ArrayList<>(new LinkedHashSet<>(tokenize(query, true)));
+        if (queryTerms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            int totalDocuments = documents.size();
+            List<Map<Long, Double>> termScores = new ArrayList<>(queryTerms.size());
+            for (String term : queryTerms) {
+                Map<Long, Double> scores = scoreTerm(term, totalDocuments);
+                if (scores.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                termScores.add(scores);
+            }
+
+            // 從最短的倒排表開始求交集
+            termScores.sort((a, b) -> Integer.compare(a.size(), b.size()));
+            Map<Long, Double> smallest = termScores.get(0);
+            PriorityQueue<Map.Entry<Long, Double>> top = new PriorityQueue<>(
+                    (a, b) -> {
+                        int cmp = Double.compare(a.getValue(), b.getValue());
+                        return cmp != 0 ? cmp : Long.compare(a.getKey(), b.getKey());
+                    });
+
+            for (Map.Entry<Long, Double> candidate : smallest.entrySet()) {
+                double score = candidate.getValue();
+                boolean matchesAll = true;
+                for (int i = 1; i < termScores.size(); i++) {
+                    Double other = termScores.get(i).get(candidate.getKey());
+                    if (other == null) {
+                        matchesAll = false;
+                        break;
+                    }
+                    score += other;
+                }
+                if (!matchesAll) {
+                    continue;
+                }
+                top.offer(Map.entry(candidate.getKey(), score));
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+
+            List<Long> result = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                result.add(top.poll().getKey());
+            }
+            Collections.reverse(result);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 已索引的商品數
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 計算單個查詢詞項對各商品的得分（加權詞頻 × IDF），英數詞項合併前綴命中
+     */
+    private Map<Long, Double> scoreTerm(String term, int totalDocuments) {
+        Map<Long, Double> scores = new HashMap<>();
+        if (isCjk(term.charAt(0)) || term.length() < 2) {
+            accumulate(scores, postings.get(term), totalDocuments);
+            return scores;
+        }
+
+        SortedMap<String, Map<Long, Integer>> prefixed = postings.subMap(term, term + Character.MAX_VALUE);
+        int expanded = 0;
+        for (Map.Entry<String, Map<Long, Integer>> entry : prefixed.entrySet()) {
+            if (expanded++ >= MAX_PREFIX_EXPANSION) {
+                break;
+            }
+            accumulate(scores, entry.getValue(), totalDocuments);
+        }
+        return scores;
+    }
+
+    private void accumulate(Map<Long, Double> scores, Map<Long, Integer> posting, int totalDocuments) {
+        if (posting == null || posting.isEmpty()) {
+            return;
+        }
+        double idf = Math.log(1.0 + (double) totalDocuments / posting.size());
+        for (Map.Entry<Long, Integer> entry : posting.entrySet()) {
+            scores.merge(entry.getKey(), entry.getValue() * idf, Math::max);
+        }
+    }
+
+    private void removeInternal(Long productId) {
+        Map<String, Integer> previous = documents.remove(productId);
+        if (previous == null) {
+            return;
+        }
+        for (String term : previous.keySet()) {
+            Map<Long, Integer> posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(productId);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    private void addTerms(Map<String, Integer> terms, String text, int weight) {
+        for (String term : tokenize(text, false)) {
+            terms.merge(term, weight, Integer::sum);
+        }
+    }
+
+    /**
+     * 分詞
+     * 英數字以連續字元為一個詞項；中日韓文字索引時產生單字和二元組，
+     * 查詢時長度大於1的片段只產生二元組，以減少候選集合
+     */
+    static List<String> tokenize(String text, boolean forQuery) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String lower = text.toLowerCase();
+        int length = lower.length();
+        int i = 0;
+        while (i < length) {
+            char c = lower.charAt(i);
+            if (isCjk(c)) {
+                int start = i;
+                while (i < length && isCjk(lower.charAt(i))) {
+                    i++;
+                }
+                addCjkTokens(tokens, lower.substring(start, i), forQuery);
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < length && Character.isLetterOrDigit(lower.charAt(i)) && !isCjk(lower.charAt(i))) {
+                    i++;
+                }
+                tokens.add(lower.substring(start, i));
+            } else {
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private static void addCjkTokens(List<String> tokens, String run, boolean forQuery) {
+        if (run.length() == 1) {
+            tokens.add(run);
+            return;
+        }
+        if (!forQuery) {
+            for (int i = 0; i < run.length(); i++) {
+                tokens.add(run.substring(i, i + 1));
+            }
+        }
+        for (int i = 0; i + 1 < run.length(); i++) {
+            tokens.add(run.substring(i, i + 2));
+        }
+    }
+
+    private static boolean isCjk(char c) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
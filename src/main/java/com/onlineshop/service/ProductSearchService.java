@@ -0,0 +1,111 @@
+package com.onlineshop.service;
+
+import com.onlineshop.config.AsyncConfig;
+import com.onlineshop.event.ProductChangedEvent;
+import com.onlineshop.event.ProductsImportedEvent;
+import com.onlineshop.model.Product;
+import com.onlineshop.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 商品搜索服務
+ * 啟動時從數據庫建立內存倒排索引，商品變更提交後增量更新
+ */
+@Service
+public class ProductSearchService {
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    private volatile ProductSearchIndex index = new ProductSearchIndex();
+
+    private volatile boolean ready = false;
+
+    private volatile boolean rebuilding = false;
+
+    /** 重建索引期間收到的變更，重建完成後重放 */
+    private final Queue<ProductChangedEvent> pendingEvents = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 應用啟動後建立索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        rebuildIndex();
+    }
+
+    /**
+     * 從數據庫全量重建索引
+     */
+    public synchronized void rebuildIndex() {
+        rebuilding = true;
+        try {
+            ProductSearchIndex fresh = new ProductSearchIndex();
+            for (Object[] row : productRepository.findAllForSearchIndex()) {
+                fresh.index((Long) row[0], (String) row[1], (String) row[2], (String) row[3]);
+            }
+            index = fresh;
+            ready = true;
+        } finally {
+            rebuilding = false;
+        }
+
+        ProductChangedEvent event;
+        while ((event = pendingEvents.poll()) != null) {
+            apply(event);
+        }
+        System.out.println("商品搜索索引已建立，共 " + index.size() + " 個商品");
+    }
+
+    /**
+     * 商品變更事務提交後增量更新索引
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        if (rebuilding) {
+            pendingEvents.add(event);
+        }
+        apply(event);
+    }
+
+    /**
+     * 批量匯入後在後台線程池全量重建，不阻塞匯入請求
+     */
+    @Async(AsyncConfig.ANALYTICS_EXECUTOR)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductsImported(ProductsImportedEvent event) {
+        rebuildIndex();
+    }
+
+    /**
+     * 搜索商品ID，按相關度排序
+     */
+    public List<Long> search(String keyword, int limit) {
+        return index.search(keyword, limit);
+    }
+
+    /**
+     * 索引是否已建立完成
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    private void apply(ProductChangedEvent event) {
+        if (event.getChangeType() == ProductChangedEvent.ChangeType.DELETED) {
+            index.remove(event.getProductId());
+            return;
+        }
+        Product product = event.getProduct();
+        index.index(product.getId(), product.getName(), product.getDescription(), product.getSku());
+    }
+}
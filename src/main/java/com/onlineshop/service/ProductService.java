@@ -1,5 +1,7 @@
 package com.onlineshop.service;
 
+import com.onlineshop.dto.ProductSummary;
+import com.onlineshop.event.ProductChangedEvent;
 import com.onlineshop.model.Product;
 import com.onlineshop.model.Category;
 import com.onlineshop.model.User;
@@ -7,6 +9,8 @@ import com.onlineshop.repository.ProductRepository;
 import com.onlineshop.repository.CategoryRepository;
 import com.onlineshop.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
@@ -14,10 +18,13 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -36,7 +43,26 @@ public class ProductService {
     @Autowired
     private UserRepository userRepository;
     
-    private final String UPLOAD_DIR = "uploads/products/";
+    @Autowired
+    private ProductSearchService productSearchService;
+    
+    @Autowired
+    private SalesRankingService salesRankingService;
+    
+    @Autowired
+    private ProductDetailCache productDetailCache;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private ImageStore imageStore;
+    
+    /** 單次搜索返回的最大結果數 */
+    private static final int MAX_SEARCH_RESULTS = 1000;
+    
+    /** 首頁展示的熱銷商品數 */
+    private static final int HOME_TOP_PRODUCTS = 12;
     
     /**
      * 創建新商品
@@ -54,7 +80,9 @@ public class ProductService {
             product.setSku(generateSku());
         }
         
-        return productRepository.save(product);
+        Product saved = productRepository.save(product);
+        publishChange(saved, ProductChangedEvent.ChangeType.CREATED);
+        return saved;
     }
     
     /**
@@ -87,7 +115,9 @@ public class ProductService {
             existingProduct.setCategory(category);
         }
         
-        return productRepository.save(existingProduct);
+        Product saved = productRepository.save(existingProduct);
+        publishChange(saved, ProductChangedEvent.ChangeType.UPDATED);
+        return saved;
     }
     
     /**
@@ -98,6 +128,15 @@ public class ProductService {
             .orElseThrow(() -> new IllegalArgumentException("商品不存在"));
     }
     
+    /**
+     * 獲取用於展示的商品（經過商品詳情緩存）
+     * 返回與持久化上下文無關的副本，修改它不會寫入數據庫，修改商品請使用 getProductById
+     */
+    @Transactional(readOnly = true)
+    public Product getProductForDisplay(Long id) {
+        return productDetailCache.get(id, this::getProductById);
+    }
+    
     /**
      * 獲取所有商品
      */
@@ -105,11 +144,44 @@ public class ProductService {
         return productRepository.findAll();
     }
     
+    /**
+     * 根據ID列表批量獲取商品，保持傳入的順序
+     */
+    public List<Product> getProductsByIdsInOrder(List<Long> ids) {
+        Map<Long, Integer> rank = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            rank.put(ids.get(i), i);
+        }
+        List<Product> products = productRepository.findAllById(ids);
+        products.sort(Comparator.comparingInt(p -> rank.get(p.getId())));
+        return products;
+    }
+    
+    /**
+     * 根據ID列表批量獲取商品列表視圖，保持傳入的順序
+     */
+    public List<ProductSummary> getSummariesByIdsInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, Integer> rank = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            rank.put(ids.get(i), i);
+        }
+        List<ProductSummary> products = new ArrayList<>(productRepository.findSummariesByIdIn(ids));
+        products.sort(Comparator.comparingInt(p -> rank.get(p.getId())));
+        return products;
+    }
+    
     /**
      * 搜索商品
+     * 索引就緒時使用內存倒排索引，否則退回數據庫模糊查詢
      */
-    public List<Product> searchProducts(String keyword) {
-        return productRepository.searchProducts(keyword);
+    public List<ProductSummary> searchProducts(String keyword) {
+        if (!productSearchService.isReady()) {
+            return productRepository.searchSummaries(keyword);
+        }
+        return getSummariesByIdsInOrder(productSearchService.search(keyword, MAX_SEARCH_RESULTS));
     }
     
     /**
@@ -122,10 +194,32 @@ public class ProductService {
     }
     
     /**
-     * 獲取熱銷商品
+     * 獲取熱銷商品（首頁）
+     */
+    public List<ProductSummary> getTopSellingProducts() {
+        return getTopSellingProducts(SalesRankingService.RankingWindow.ALL_TIME, HOME_TOP_PRODUCTS);
+    }
+    
+    /**
+     * 獲取指定時間窗口的熱銷商品
+     * 排行來自內存快照，銷量不足 limit 個時以最新上架商品補足
      */
-    public List<Product> getTopSellingProducts() {
-        return productRepository.findTopSellingProducts();
+    public List<ProductSummary> getTopSellingProducts(SalesRankingService.RankingWindow window, int limit) {
+        List<ProductSummary> products = new ArrayList<>(
+            getSummariesByIdsInOrder(salesRankingService.getTopProductIds(window, limit)));
+        if (products.size() < limit) {
+            Set<Long> included = new HashSet<>();
+            products.forEach(p -> included.add(p.getId()));
+            for (ProductSummary product : productRepository.findNewestSummaries(Limit.of(limit))) {
+                if (products.size() >= limit) {
+                    break;
+                }
+                if (included.add(product.getId())) {
+                    products.add(product);
+                }
+            }
+        }
+        return products;
     }
     
     /**
@@ -135,34 +229,31 @@ public class ProductService {
         return productRepository.findLowStockProducts(threshold);
     }
     
+    /**
+     * 開啟或關閉搶購模式，提交後由 FlashSaleService 建立或回收內存賬本
+     */
+    public Product setFlashSale(Long productId, boolean enabled) {
+        Product product = getProductById(productId);
+        product.setFlashSale(enabled);
+        Product saved = productRepository.save(product);
+        publishChange(saved, ProductChangedEvent.ChangeType.UPDATED);
+        return saved;
+    }
+    
     /**
      * 刪除商品
      */
     public void deleteProduct(Long id) {
-        if (!productRepository.existsById(id)) {
-            throw new IllegalArgumentException("商品不存在");
-        }
-        productRepository.deleteById(id);
+        Product product = getProductById(id);
+        productRepository.delete(product);
+        publishChange(product, ProductChangedEvent.ChangeType.DELETED);
     }
     
     /**
      * 上傳商品圖片
      */
     public String uploadProductImage(MultipartFile file) throws IOException {
-        // 創建上傳目錄
-        Path uploadPath = Paths.get(UPLOAD_DIR);
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
-        }
-        
-        // 生成唯一文件名
-        String fileName = UUID.randomUUID().toString() + "_" + file.getOriginalFilename();
-        Path filePath = uploadPath.resolve(fileName);
-        
-        // 保存文件
-        Files.copy(file.getInputStream(), filePath);
-        
-        return "/" + UPLOAD_DIR + fileName;
+        return imageStore.store(file.getInputStream(), file.getOriginalFilename());
     }
     
     /**
@@ -179,7 +270,9 @@ public class ProductService {
             product.setStatus(Product.ProductStatus.ACTIVE);
         }
         
-        return productRepository.save(product);
+        Product saved = productRepository.save(product);
+        publishChange(saved, ProductChangedEvent.ChangeType.UPDATED);
+        return saved;
     }
     
     /**
@@ -188,7 +281,9 @@ public class ProductService {
     public Product reduceStock(Long productId, int quantity) {
         Product product = getProductById(productId);
         product.reduceStock(quantity);
-        return productRepository.save(product);
+        Product saved = productRepository.save(product);
+        publishChange(saved, ProductChangedEvent.ChangeType.UPDATED);
+        return saved;
     }
     
     /**
@@ -197,7 +292,16 @@ public class ProductService {
     public Product increaseStock(Long productId, int quantity) {
         Product product = getProductById(productId);
         product.increaseStock(quantity);
-        return productRepository.save(product);
+        Product saved = productRepository.save(product);
+        publishChange(saved, ProductChangedEvent.ChangeType.UPDATED);
+        return saved;
+    }
+    
+    /**
+     * 發布商品變更事件
+     */
+    private void publishChange(Product product, ProductChangedEvent.ChangeType changeType) {
+        eventPublisher.publishEvent(new ProductChangedEvent(product.getId(), changeType, product));
     }
     
     /**
@@ -210,8 +314,8 @@ public class ProductService {
     /**
      * 獲取商家的所有商品
      */
-    public List<Product> getProductsByMerchant(Long userId) {
-        return productRepository.findByCreatedById(userId);
+    public List<ProductSummary> getProductsByMerchant(Long userId) {
+        return productRepository.findSummariesByCreatedById(userId);
     }
     
     /**
@@ -0,0 +1,227 @@
+package com.onlineshop.service;
+
+import com.onlineshop.event.ProductChangedEvent;
+import com.onlineshop.event.SalesRecordedEvent;
+import com.onlineshop.repository.OrderRepository;
+import com.onlineshop.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * 商品銷量排行服務
+ * 在內存中維護每個商品按小時分桶的近期銷量，累計銷量以商品表的 sold_count 為準（按索引讀取前 N 名），
+ * 定時生成各時間窗口的前 N 名快照，讀取排行時不需訪問訂單表
+ */
+@Service
+public class SalesRankingService {
+
+    /** 每個窗口保留的排行數量 */
+    public static final int RANKING_CAPACITY = 100;
+
+    /** 小時桶數量，覆蓋最長的 7 天窗口 */
+    private static final int HOUR_BUCKETS = 7 * 24;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private PageCacheService pageCacheService;
+
+    /** 小時桶：商品ID -> 該小時銷量 */
+    private final Map<Long, Long>[] hourlySales = newBuckets();
+
+    /** 每個桶對應的紀元小時，用於判斷桶是否過期 */
+    private final long[] bucketHours = new long[HOUR_BUCKETS];
+
+    /** 各窗口的排行快照（不可變） */
+    private volatile Map<RankingWindow, List<Long>> snapshots = emptySnapshots();
+
+    private boolean dirty = false;
+
+    private long snapshotHour = -1;
+
+    /**
+     * 應用啟動後從訂單歷史載入一次近期銷量
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        LocalDateTime since = LocalDateTime.now().minusHours(HOUR_BUCKETS);
+        synchronized (this) {
+            for (Map<Long, Long> bucket : hourlySales) {
+                bucket.clear();
+            }
+            for (Object[] row : orderRepository.findSoldQuantitiesSince(since)) {
+                addToBucket((Long) row[0], toEpochHour((LocalDateTime) row[1]), ((Number) row[2]).longValue());
+            }
+            dirty = true;
+        }
+        refreshSnapshots();
+    }
+
+    /**
+     * 訂單事務提交後更新銷量
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onSalesRecorded(SalesRecordedEvent event) {
+        long hour = toEpochHour(event.getOrderCreatedAt());
+        for (Map.Entry<Long, Integer> entry : event.getQuantitiesByProduct().entrySet()) {
+            addToBucket(entry.getKey(), hour, entry.getValue());
+        }
+        dirty = true;
+    }
+
+    /**
+     * 商品刪除後從排行中移除
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onProductChanged(ProductChangedEvent event) {
+        if (event.getChangeType() != ProductChangedEvent.ChangeType.DELETED) {
+            return;
+        }
+        for (Map<Long, Long> bucket : hourlySales) {
+            bucket.remove(event.getProductId());
+        }
+        dirty = true;
+    }
+
+    /**
+     * 重新生成排行快照（有新銷量或跨越小時邊界時）
+     */
+    @Scheduled(fixedDelayString = "${ranking.refresh-interval-ms:30000}")
+    public void refreshSnapshots() {
+        long currentHour = toEpochHour(LocalDateTime.now());
+        Map<RankingWindow, List<Long>> fresh = new EnumMap<>(RankingWindow.class);
+        synchronized (this) {
+            if (!dirty && currentHour == snapshotHour) {
+                return;
+            }
+            fresh.put(RankingWindow.LAST_7_DAYS, topN(sumBuckets(currentHour, HOUR_BUCKETS)));
+            fresh.put(RankingWindow.LAST_24_HOURS, topN(sumBuckets(currentHour, 24)));
+            dirty = false;
+            snapshotHour = currentHour;
+        }
+        // 下單和取消訂單在同一事務中更新 sold_count，銷量事件在提交後到達，這裡讀到的已是最新值
+        fresh.put(RankingWindow.ALL_TIME,
+                List.copyOf(productRepository.findTopSoldProductIds(Limit.of(RANKING_CAPACITY))));
+        Map<RankingWindow, List<Long>> previous = snapshots;
+        snapshots = Collections.unmodifiableMap(fresh);
+        if (!fresh.equals(previous)) {
+            pageCacheService.purge(PageCacheService.RANKING_KEY);
+        }
+    }
+
+    /**
+     * 獲取排行前 limit 名的商品ID
+     */
+    public List<Long> getTopProductIds(RankingWindow window, int limit) {
+        List<Long> ranking = snapshots.get(window);
+        return ranking.subList(0, Math.min(limit, ranking.size()));
+    }
+
+    private void addToBucket(Long productId, long epochHour, long delta) {
+        int index = (int) Math.floorMod(epochHour, (long) HOUR_BUCKETS);
+        if (bucketHours[index] != epochHour) {
+            if (bucketHours[index] > epochHour) {
+                // 已超出最長窗口的舊訂單（例如取消一週前的訂單）
+                return;
+            }
+            hourlySales[index].clear();
+            bucketHours[index] = epochHour;
+        }
+        addClamped(hourlySales[index], productId, delta);
+    }
+
+    /**
+     * 累加銷量，結果不小於 0
+     */
+    private static void addClamped(Map<Long, Long> sales, Long productId, long delta) {
+        long updated = Math.max(0, sales.getOrDefault(productId, 0L) + delta);
+        if (updated == 0) {
+            sales.remove(productId);
+        } else {
+            sales.put(productId, updated);
+        }
+    }
+
+    private Map<Long, Long> sumBuckets(long currentHour, int hours) {
+        Map<Long, Long> totals = new HashMap<>();
+        for (long hour = currentHour - hours + 1; hour <= currentHour; hour++) {
+            int index = (int) Math.floorMod(hour, (long) HOUR_BUCKETS);
+            if (bucketHours[index] == hour) {
+                hourlySales[index].forEach((productId, quantity) -> totals.merge(productId, quantity, Long::sum));
+            }
+        }
+        return totals;
+    }
+
+    private List<Long> topN(Map<Long, Long> sales) {
+        PriorityQueue<Map.Entry<Long, Long>> heap = new PriorityQueue<>(
+                (a, b) -> {
+                    int cmp = Long.compare(a.getValue(), b.getValue());
+                    return cmp != 0 ? cmp : Long.compare(b.getKey(), a.getKey());
+                });
+        for (Map.Entry<Long, Long> entry : sales.entrySet()) {
+            if (entry.getValue() <= 0) {
+                continue;
+            }
+            heap.offer(Map.entry(entry.getKey(), entry.getValue()));
+            if (heap.size() > RANKING_CAPACITY) {
+                heap.poll();
+            }
+        }
+        List<Long> ranking = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            ranking.add(heap.poll().getKey());
+        }
+        Collections.reverse(ranking);
+        return Collections.unmodifiableList(ranking);
+    }
+
+    private static long toEpochHour(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toEpochSecond() / 3600;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Long, Long>[] newBuckets() {
+        Map<Long, Long>[] buckets = (Map<Long, Long>[]) new Map<?, ?>[HOUR_BUCKETS];
+        for (int i = 0; i < HOUR_BUCKETS; i++) {
+            buckets[i] = new HashMap<>();
+        }
+        return buckets;
+    }
+
+    private static Map<RankingWindow, List<Long>> emptySnapshots() {
+        Map<RankingWindow, List<Long>> empty = new EnumMap<>(RankingWindow.class);
+        for (RankingWindow window : RankingWindow.values()) {
+            empty.put(window, Collections.emptyList());
+        }
+        return Collections.unmodifiableMap(empty);
+    }
+
+    /**
+     * 排行時間窗口枚舉
+     */
+    public enum RankingWindow {
+        LAST_24_HOURS,  // 最近 24 小時
+        LAST_7_DAYS,    // 最近 7 天
+        ALL_TIME        // 全部時間
+    }
+}
@@ -0,0 +1,251 @@
+package com.onlineshop.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 靜態資源指紋服務
+ * 啟動時讀取 css、js、vendor、fonts 下的靜態資源，按內容哈希生成帶指紋的 URL（/assets/css/style-哈希.css），
+ * 改寫 CSS 中引用的字體和圖片為指紋 URL，並預先壓縮文本資源的 gzip 版本；
+ * 內容改變時 URL 隨之改變，所以指紋 URL 可以讓瀏覽器永久緩存而不需要重新驗證
+ */
+@Service
+public class StaticAssetService {
+
+    /** 指紋 URL 前綴 */
+    public static final String PREFIX = "/assets";
+
+    /** 需要加指紋的靜態資源目錄 */
+    private static final Set<String> DIRECTORIES = Set.of("css", "js", "vendor", "fonts");
+
+    /** 預先壓縮的文本類型 */
+    private static final Set<String> COMPRESSIBLE = Set.of("css", "js", "svg", "json", "txt", "map", "ttf", "eot");
+
+    /** 小於此大小的文件壓縮後節省不了一個網絡包，不壓縮 */
+    private static final int MIN_COMPRESS_BYTES = 1024;
+
+    /** CSS 中的 url(...) 引用 */
+    private static final Pattern CSS_URL = Pattern.compile("url\\(\\s*(['\"]?)([^'\")]+)\\1\\s*\\)");
+
+    /** 原路徑（/css/style.css） -> 指紋路徑（/assets/css/style-哈希.css） */
+    private final Map<String, String> urls = new HashMap<>();
+
+    /** 指紋路徑 -> 資源 */
+    private final Map<String, Asset> assets = new HashMap<>();
+
+    public StaticAssetService() throws IOException {
+        PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        String root = resolver.getResource("classpath:/static/").getURL().toString();
+        Map<String, byte[]> contents = new HashMap<>();
+        for (Resource resource : resolver.getResources("classpath:/static/**/*.*")) {
+            String path = resource.getURL().toString().substring(root.length());
+            if (resource.isReadable() && DIRECTORIES.contains(path.substring(0, Math.max(path.indexOf('/'), 0)))) {
+                try (InputStream in = resource.getInputStream()) {
+                    contents.put("/" + path, in.readAllBytes());
+                }
+            }
+        }
+
+        // 先處理被引用的字體和圖片，CSS 改寫引用時需要它們的指紋路徑
+        List<String> stylesheets = new ArrayList<>();
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            if (extensionOf(entry.getKey()).equals("css")) {
+                stylesheets.add(entry.getKey());
+            } else {
+                register(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String path : stylesheets) {
+            register(path, rewriteCss(path, new String(contents.get(path), StandardCharsets.UTF_8))
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        System.out.println("靜態資源指紋: " + assets.size() + " 個文件");
+    }
+
+    /**
+     * 靜態資源的指紋 URL，不在指紋目錄中的路徑原樣返回
+     * @param path 原路徑，如 /css/style.css
+     */
+    public String url(String path) {
+        return urls.getOrDefault(path, path);
+    }
+
+    /**
+     * 按指紋路徑查找資源，不存在時返回 null
+     */
+    public Asset getAsset(String path) {
+        return assets.get(path);
+    }
+
+    private void register(String path, byte[] content) throws IOException {
+        String hash = hash(content);
+        int dot = path.lastIndexOf('.');
+        String fingerprinted = PREFIX + path.substring(0, dot) + "-" + hash + path.substring(dot);
+        byte[] gzipContent = null;
+        if (COMPRESSIBLE.contains(extensionOf(path)) && content.length >= MIN_COMPRESS_BYTES) {
+            gzipContent = gzip(content);
+            if (gzipContent.length >= content.length) {
+                gzipContent = null;
+            }
+        }
+        urls.put(path, fingerprinted);
+        assets.put(fingerprinted, new Asset(content, gzipContent, contentTypeOf(path), hash));
+    }
+
+    /**
+     * 把 CSS 中的相對引用改為同一目錄結構下的指紋文件名，data: 和外部 URL 不變
+     */
+    private String rewriteCss(String path, String css) {
+        String directory = path.substring(0, path.lastIndexOf('/') + 1);
+        Matcher matcher = CSS_URL.matcher(css);
+        StringBuilder rewritten = new StringBuilder(css.length());
+        while (matcher.find()) {
+            String reference = matcher.group(2).trim();
+            String replacement = matcher.group();
+            int suffix = indexOfSuffix(reference);
+            String target = reference.substring(0, suffix);
+            if (!target.isEmpty() && !target.contains(":") && !target.startsWith("/") && !target.startsWith("#")) {
+                String fingerprinted = urls.get(normalize(directory + target));
+                if (fingerprinted != null) {
+                    String name = fingerprinted.substring(fingerprinted.lastIndexOf('/') + 1);
+                    replacement = "url(" + target.substring(0, target.lastIndexOf('/') + 1) + name
+                            + reference.substring(suffix) + ")";
+                }
+            }
+            matcher.appendReplacement(rewritten, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(rewritten);
+        return rewritten.toString();
+    }
+
+    /**
+     * 引用中查詢參數或片段（如 font.svg#icon）開始的位置
+     */
+    private static int indexOfSuffix(String reference) {
+        for (int i = 0; i < reference.length(); i++) {
+            if (reference.charAt(i) == '?' || reference.charAt(i) == '#') {
+                return i;
+            }
+        }
+        return reference.length();
+    }
+
+    /**
+     * 處理路徑中的 . 和 ..
+     */
+    private static String normalize(String path) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (segment.equals("..")) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+            } else if (!segment.isEmpty() && !segment.equals(".")) {
+                segments.add(segment);
+            }
+        }
+        return "/" + String.join("/", segments);
+    }
+
+    /**
+     * 內容 SHA-256 的前 64 位（十六進制）
+     */
+    private static String hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    private static String extensionOf(String path) {
+        return path.substring(path.lastIndexOf('.') + 1).toLowerCase();
+    }
+
+    /**
+     * 根據副檔名確定 MIME 類型
+     */
+    private static String contentTypeOf(String path) {
+        switch (extensionOf(path)) {
+            case "css":
+                return "text/css;charset=UTF-8";
+            case "js":
+                return "text/javascript;charset=UTF-8";
+            case "json":
+            case "map":
+                return "application/json";
+            case "txt":
+                return "text/plain;charset=UTF-8";
+            case "svg":
+                return "image/svg+xml";
+            case "png":
+                return "image/png";
+            case "jpg":
+            case "jpeg":
+                return "image/jpeg";
+            case "gif":
+                return "image/gif";
+            case "webp":
+                return "image/webp";
+            case "ico":
+                return "image/x-icon";
+            case "woff2":
+                return "font/woff2";
+            case "woff":
+                return "font/woff";
+            case "ttf":
+                return "font/ttf";
+            case "eot":
+                return "application/vnd.ms-fontobject";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    /**
+     * 帶指紋的靜態資源
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Asset {
+        private final byte[] content;
+        /** 預先壓縮的 gzip 內容，不值得壓縮時為 null */
+        private final byte[] gzipContent;
+        private final String contentType;
+        /** 內容哈希，同時用作 ETag */
+        private final String etag;
+    }
+}
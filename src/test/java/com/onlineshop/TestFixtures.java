@@ -0,0 +1,50 @@
+package com.onlineshop;
+
+import com.onlineshop.model.User;
+import com.onlineshop.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestComponent;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * 測試數據：商品直接用 SQL 插入（不經過服務和緩存），用戶經 UserRepository 保存
+ */
+@TestComponent
+public class TestFixtures {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    /**
+     * 插入以 SKU 為名稱、單價 10 的商品，返回商品ID
+     */
+    public long createProduct(String sku, int stock) {
+        return createProduct(sku, sku, 10, stock);
+    }
+
+    /**
+     * 插入商品，庫存為 0 時狀態為缺貨，返回商品ID
+     */
+    public long createProduct(String name, String sku, int price, int stock) {
+        jdbcTemplate.update("INSERT INTO products (name, price, stock_quantity, sold_count, sku, status, version, "
+                + "flash_sale, created_at, updated_at) VALUES (?, ?, ?, 0, ?, ?, 0, FALSE, "
+                + "CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)", name, price, stock, sku, stock > 0 ? "ACTIVE" : "OUT_OF_STOCK");
+        return jdbcTemplate.queryForObject("SELECT id FROM products WHERE sku = ?", Long.class, sku);
+    }
+
+    /**
+     * 保存用戶，郵箱為 用戶名@example.com，返回用戶ID
+     */
+    public Long createUser(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setEmail(username + "@example.com");
+        user.setPassword("password");
+        user.setFirstName("Test");
+        user.setLastName(username);
+        return userRepository.save(user).getId();
+    }
+}
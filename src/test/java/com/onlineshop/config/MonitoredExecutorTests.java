@@ -0,0 +1,82 @@
+package com.onlineshop.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 有界線程池測試：隊列滿時按策略拒絕，統計排隊數和拒絕數
+ */
+class MonitoredExecutorTests {
+
+    private static MonitoredExecutor start(MonitoredExecutor.RejectionPolicy policy) {
+        MonitoredExecutor executor = new MonitoredExecutor("test", 1, 1, 2, policy);
+        executor.initialize();
+        return executor;
+    }
+
+    @Test
+    void fullQueueRejectsInsteadOfGrowing() throws Exception {
+        MonitoredExecutor executor = start(MonitoredExecutor.RejectionPolicy.ABORT);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        };
+
+        // 一個執行中，兩個排隊，第四個被拒絕
+        for (int i = 0; i < 3; i++) {
+            executor.execute(blocked);
+        }
+        assertThrows(TaskRejectedException.class, () -> executor.execute(blocked));
+
+        MonitoredExecutor.ExecutorStats stats = executor.getStats();
+        assertEquals(2, stats.getQueueSize());
+        assertEquals(1, stats.getRejectedCount());
+
+        Thread.sleep(20);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        stats = executor.getStats();
+        assertEquals(3, stats.getCompletedCount());
+        assertEquals(0, stats.getQueueSize());
+        assertTrue(stats.getMaxWaitMillis() >= 20, "排隊的任務應記錄等待時間");
+    }
+
+    @Test
+    void callerRunsSlowsDownTheSubmitter() throws Exception {
+        MonitoredExecutor executor = start(MonitoredExecutor.RejectionPolicy.CALLER_RUNS);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        executor.execute(() -> ranOn.set(Thread.currentThread()));
+        assertEquals(Thread.currentThread(), ranOn.get());
+        assertEquals(1, executor.getStats().getRejectedCount());
+
+        release.countDown();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,180 @@
+package com.onlineshop.config;
+
+import com.onlineshop.H2SpringBootTest;
+import com.onlineshop.model.Category;
+import com.onlineshop.model.Product;
+import com.onlineshop.repository.CategoryRepository;
+import com.onlineshop.service.PageCacheService;
+import com.onlineshop.service.ProductDetailCache;
+import com.onlineshop.service.ProductService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * 頁面條件請求測試：商品詳情和列表頁的驗證器由版本查詢得出，未改變時在渲染前返回 304
+ */
+@AutoConfigureMockMvc
+@H2SpringBootTest
+class PageCacheFilterTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductDetailCache productDetailCache;
+
+    @Autowired
+    private CategoryRepository categoryRepository;
+
+    @Autowired
+    private PageCacheService pageCacheService;
+
+    private Product createProduct(String name) {
+        Product product = new Product();
+        product.setName(name);
+        product.setPrice(new BigDecimal("30"));
+        product.setStockQuantity(5);
+        return productService.createProduct(product, null);
+    }
+
+    private long detailReads() {
+        ProductDetailCache.CacheStats stats = productDetailCache.getStats();
+        return stats.getHits() + stats.getMisses();
+    }
+
+    @Test
+    void productPageAnswersNotModifiedUntilProductChanges() throws Exception {
+        Product product = createProduct("條件請求商品");
+        String url = "/products/" + product.getId();
+
+        String etag = mockMvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"))
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+
+        // 頁面緩存命中時驗證頭不重複
+        assertEquals(1, mockMvc.perform(get(url)).andReturn().getResponse().getHeaders(HttpHeaders.ETAG).size());
+
+        long reads = detailReads();
+        mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        assertEquals(reads, detailReads(), "304 不應載入商品");
+
+        Product changes = new Product();
+        changes.setName("條件請求商品（改名）");
+        changes.setPrice(new BigDecimal("28"));
+        changes.setStockQuantity(5);
+        productService.updateProduct(product.getId(), changes, null);
+
+        String changed = mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("條件請求商品（改名）")))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, changed);
+        assertEquals(1, mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andReturn().getResponse().getHeaders(HttpHeaders.ETAG).size());
+        mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, changed))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void productListValidatorChangesWhenAnyProductChanges() throws Exception {
+        createProduct("列表商品");
+        String etag = mockMvc.perform(get("/products"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/products").param("sort", "price_asc").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        Product added = createProduct("新上架商品");
+        mockMvc.perform(get("/products").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("新上架商品")));
+
+        String current = mockMvc.perform(get("/products"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        productService.updateStock(added.getId(), 0);
+        mockMvc.perform(get("/products").header(HttpHeaders.IF_NONE_MATCH, current))
+                .andExpect(status().isOk());
+
+        // 目錄未改變時驗證器不變，分類變更同樣改變列表頁
+        current = mockMvc.perform(get("/products"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/products").header(HttpHeaders.IF_NONE_MATCH, current))
+                .andExpect(status().isNotModified());
+        Category category = new Category();
+        category.setName("驗證器分類");
+        categoryRepository.save(category);
+        mockMvc.perform(get("/products").header(HttpHeaders.IF_NONE_MATCH, current))
+                .andExpect(status().isOk());
+
+        // 不存在的商品和首頁不加驗證器
+        mockMvc.perform(get("/products/999999").header(HttpHeaders.IF_NONE_MATCH, current))
+                .andExpect(status().is3xxRedirection());
+    }
+
+    @Test
+    void pageRenderedBeforePurgeIsNotStored() {
+        byte[] body = "舊頁面".getBytes(StandardCharsets.UTF_8);
+        String productKey = PageCacheService.productKey(424242L);
+
+        long renderStartedAt = pageCacheService.beginRender();
+        pageCacheService.purge(productKey);
+        pageCacheService.putPage("page:/stale", body, Map.of(), Set.of(productKey), renderStartedAt);
+        assertNull(pageCacheService.getPage("page:/stale"), "渲染期間被清除的頁面不應寫入緩存");
+
+        pageCacheService.putPage("page:/fresh", body, Map.of(), Set.of(productKey), pageCacheService.beginRender());
+        assertNotNull(pageCacheService.getPage("page:/fresh"));
+        pageCacheService.purge(productKey);
+    }
+
+    @Test
+    void cachedPageFromAnotherVersionIsNotServedWithCurrentValidators() throws Exception {
+        Product product = createProduct("版本不符商品");
+        String url = "/products/" + product.getId();
+        String etag = mockMvc.perform(get(url)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // 模擬緩存中留下了舊版本渲染的頁面
+        pageCacheService.putPage(url, "舊版本頁面".getBytes(StandardCharsets.UTF_8),
+                Map.of(HttpHeaders.ETAG, List.of("W/\"old\"")), Set.of(PageCacheService.productKey(product.getId())),
+                pageCacheService.beginRender());
+
+        mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, "W/\"old\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(header().doesNotExist("X-Page-Cache"))
+                .andExpect(content().string(not(containsString("舊版本頁面"))))
+                .andExpect(content().string(containsString("版本不符商品")));
+
+        // 重新渲染的頁面替換了舊條目
+        mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, "W/\"old\""))
+                .andExpect(header().string("X-Page-Cache", "HIT"))
+                .andExpect(content().string(containsString("版本不符商品")));
+    }
+}
@@ -0,0 +1,97 @@
+package com.onlineshop.config;
+
+import com.onlineshop.H2SpringBootTest;
+import com.onlineshop.service.StaticAssetService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * 指紋靜態資源測試：模板引用指紋 URL，預壓縮 gzip 協商，不可變緩存，CSS 中的字體引用改寫為指紋 URL
+ */
+@AutoConfigureMockMvc
+@H2SpringBootTest
+class StaticAssetFilterTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private StaticAssetService staticAssetService;
+
+    @Test
+    void servesFingerprintedAssetsPrecompressedAndImmutable() throws Exception {
+        String url = staticAssetService.url("/vendor/bootstrap/css/bootstrap.min.css");
+        assertTrue(url.matches("/assets/vendor/bootstrap/css/bootstrap\\.min-[0-9a-f]{16}\\.css"), url);
+        mockMvc.perform(get("/"))
+                .andExpect(content().string(containsString("href=\"" + url + "\"")))
+                .andExpect(content().string(containsString("src=\"" + staticAssetService.url("/js/main.js") + "\"")));
+
+        byte[] original = new ClassPathResource("static/vendor/bootstrap/css/bootstrap.min.css").getContentAsByteArray();
+        MvcResult gzipped = mockMvc.perform(get(url).header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate, br"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=31536000, public, immutable"))
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "text/css;charset=UTF-8"))
+                .andReturn();
+        byte[] compressed = gzipped.getResponse().getContentAsByteArray();
+        assertTrue(compressed.length < original.length / 3);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(original, in.readAllBytes());
+        }
+
+        MvcResult identity = mockMvc.perform(get(url).header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, identity"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(original))
+                .andReturn();
+        assertFalse(identity.getResponse().containsHeader(HttpHeaders.CONTENT_ENCODING));
+
+        mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, gzipped.getResponse().getHeader(HttpHeaders.ETAG)))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/assets/vendor/bootstrap/css/bootstrap.min-0000000000000000.css"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void rewritesStylesheetReferencesToFingerprintedFonts() throws Exception {
+        String css = mockMvc.perform(get(staticAssetService.url("/vendor/fontawesome/css/all.min.css")))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+        assertFalse(css.contains("fa-solid-900.woff2"));
+
+        Matcher matcher = Pattern.compile("url\\((\\.\\./webfonts/fa-solid-900-[0-9a-f]{16}\\.woff2)\\)").matcher(css);
+        assertTrue(matcher.find(), "字體引用應改寫為指紋文件名");
+        String font = "/assets/vendor/fontawesome/" + matcher.group(1).substring(3);
+        assertEquals(font, staticAssetService.url("/vendor/fontawesome/webfonts/fa-solid-900.woff2"));
+        mockMvc.perform(get(font).header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "font/woff2"))
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")));
+
+        assertTrue(StaticAssetFilter.acceptsGzip("deflate, gzip;q=0.8"));
+        assertFalse(StaticAssetFilter.acceptsGzip("gzip; q=0"));
+        assertFalse(StaticAssetFilter.acceptsGzip(null));
+    }
+}
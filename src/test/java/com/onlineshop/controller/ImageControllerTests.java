@@ -0,0 +1,140 @@
+package com.onlineshop.controller;
+
+import com.onlineshop.H2SpringBootTest;
+import com.onlineshop.service.ImageStore;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * 商品圖片發送測試：強 ETag 條件請求、範圍請求、內存緩存和內容尋址圖片的不可變緩存
+ */
+@AutoConfigureMockMvc
+@H2SpringBootTest(properties = {
+        "image.cache.max-entry-bytes=4096"
+})
+class ImageControllerTests {
+
+    private static Path uploadDirectory;
+
+    private static Path storeDirectory;
+
+    private static final byte[] SMALL = new byte[1000];
+
+    private static final byte[] LARGE = new byte[10000];
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ImageStore imageStore;
+
+    @DynamicPropertySource
+    static void uploadPath(DynamicPropertyRegistry registry) {
+        registry.add("upload.path", () -> uploadDirectory.toString());
+        registry.add("image.store.path", () -> storeDirectory.toString());
+    }
+
+    @BeforeAll
+    static void createImages() throws Exception {
+        uploadDirectory = Files.createTempDirectory("images");
+        storeDirectory = Files.createTempDirectory("image-store");
+        for (int i = 0; i < LARGE.length; i++) {
+            LARGE[i] = (byte) i;
+            if (i < SMALL.length) {
+                SMALL[i] = (byte) (i * 7);
+            }
+        }
+        Files.write(uploadDirectory.resolve("small.png"), SMALL);
+        Files.write(uploadDirectory.resolve("large.jpg"), LARGE);
+        Files.write(uploadDirectory.resolve("copy.jpg"), LARGE);
+    }
+
+    @Test
+    void servesImagesWithContentHashValidators() throws Exception {
+        MvcResult first = mockMvc.perform(get("/images/products/large.jpg"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/jpeg"))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, LARGE.length))
+                .andExpect(content().bytes(LARGE))
+                .andReturn();
+        String etag = first.getResponse().getHeader(HttpHeaders.ETAG);
+
+        // 內容相同的文件 ETag 相同
+        mockMvc.perform(get("/images/products/copy.jpg"))
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+        mockMvc.perform(get("/images/products/large.jpg").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/images/products/large.jpg").header(HttpHeaders.IF_MODIFIED_SINCE,
+                        first.getResponse().getHeader(HttpHeaders.LAST_MODIFIED)))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/images/products/large.jpg").header(HttpHeaders.IF_NONE_MATCH, "\"other\""))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/images/products/missing.jpg"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/images/products/..%2Fsecret.jpg"))
+                .andExpect(status().is4xxClientError());
+    }
+
+    @Test
+    void servesSingleRangesFromFileAndMemory() throws Exception {
+        mockMvc.perform(get("/images/products/large.jpg").header(HttpHeaders.RANGE, "bytes=100-199"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 100-199/" + LARGE.length))
+                .andExpect(content().bytes(Arrays.copyOfRange(LARGE, 100, 200)));
+        mockMvc.perform(get("/images/products/large.jpg").header(HttpHeaders.RANGE, "bytes=20000-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */" + LARGE.length));
+        // If-Range 不匹配時返回完整圖片
+        mockMvc.perform(get("/images/products/large.jpg").header(HttpHeaders.RANGE, "bytes=0-9")
+                        .header(HttpHeaders.IF_RANGE, "\"stale\""))
+                .andExpect(status().isOk());
+
+        // 小圖片讀入內存後，範圍和完整內容都從緩存發送
+        for (int i = 0; i < 3; i++) {
+            MvcResult result = mockMvc.perform(get("/images/products/small.png"))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            assertArrayEquals(SMALL, result.getResponse().getContentAsByteArray());
+        }
+        mockMvc.perform(get("/images/products/small.png").header(HttpHeaders.RANGE, "bytes=-10"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().bytes(Arrays.copyOfRange(SMALL, SMALL.length - 10, SMALL.length)));
+    }
+
+    @Test
+    void servesContentAddressedImagesAsImmutable() throws Exception {
+        String key = imageStore.store(new ByteArrayInputStream(SMALL), "upload.PNG");
+        String hash = key.substring(0, key.indexOf('.'));
+
+        mockMvc.perform(get("/images/products/" + key))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + hash + "\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("max-age=31536000")))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")))
+                .andExpect(content().bytes(SMALL));
+        // 舊文件名仍按一小時緩存
+        mockMvc.perform(get("/images/products/small.png"))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=3600, public"));
+    }
+}
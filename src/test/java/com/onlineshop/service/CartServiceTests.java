@@ -0,0 +1,232 @@
+package com.onlineshop.service;
+
+import com.onlineshop.H2SpringBootTest;
+import com.onlineshop.TestFixtures;
+import com.onlineshop.dto.CartLine;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 購物車寫後回寫測試（H2 內存數據庫），定時寫入關閉，由測試手動觸發
+ */
+@H2SpringBootTest(properties = {
+        "cart.flush-interval-ms=3600000"
+})
+class CartServiceTests {
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private OrderService orderService;
+
+    private int storedQuantity(Long userId, long productId) {
+        return jdbcTemplate.queryForObject("SELECT COALESCE(SUM(quantity), 0) FROM cart_items "
+                + "WHERE user_id = ? AND product_id = ?", Integer.class, userId, productId);
+    }
+
+    private int journalCount(Long userId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM cart_journal WHERE user_id = ?", Integer.class, userId);
+    }
+
+    @Test
+    void acknowledgedChangesSurviveCrashThroughJournal() {
+        long productId = fixtures.createProduct("CART-JOURNAL", 100);
+        Long buyer = fixtures.createUser("cart-journal");
+
+        // 修改返回前已寫入日誌，寫入 cart_items 時一併刪除
+        cartService.addToCart(buyer, productId, 2);
+        assertEquals(1, journalCount(buyer));
+        assertEquals(0, storedQuantity(buyer, productId));
+        cartService.flushPendingCarts();
+        assertEquals(0, journalCount(buyer));
+        assertEquals(2, storedQuantity(buyer, productId));
+
+        // 模擬異常終止：上一個實例留下未寫入的日誌，購物車下次載入時重做
+        Long restarted = fixtures.createUser("cart-restarted");
+        jdbcTemplate.update("INSERT INTO cart_items (user_id, product_id, quantity, added_at) "
+                + "VALUES (?, ?, 1, CURRENT_TIMESTAMP)", restarted, productId);
+        jdbcTemplate.update("INSERT INTO cart_journal (user_id, product_id, operation, quantity, total, created_at) "
+                + "VALUES (?, ?, 'ADD', 3, 4, CURRENT_TIMESTAMP)", restarted, productId);
+        jdbcTemplate.update("INSERT INTO cart_journal (user_id, product_id, operation, quantity, total, created_at) "
+                + "VALUES (?, ?, 'ADD', 2, 6, CURRENT_TIMESTAMP)", restarted, productId);
+        List<CartLine> lines = cartService.getCartItems(restarted);
+        assertEquals(1, lines.size());
+        assertEquals(6, lines.get(0).getQuantity());
+
+        cartService.flushPendingCarts();
+        assertEquals(6, storedQuantity(restarted, productId));
+        assertEquals(0, journalCount(restarted));
+    }
+
+    @Test
+    void h2MergeStatementsAccumulateAndOverwrite() {
+        // 測試使用 H2，寫入語句為 MERGE 寫法
+        assertTrue(((String) ReflectionTestUtils.getField(cartService, "addSql")).startsWith("MERGE"));
+        assertTrue(((String) ReflectionTestUtils.getField(cartService, "setSql")).startsWith("MERGE"));
+        long existing = fixtures.createProduct("CART-MERGE-1", 100);
+        long added = fixtures.createProduct("CART-MERGE-2", 100);
+        Long buyer = fixtures.createUser("cart-merge");
+        jdbcTemplate.update("INSERT INTO cart_items (user_id, product_id, quantity, added_at) "
+                + "VALUES (?, ?, 2, CURRENT_TIMESTAMP)", buyer, existing);
+
+        // 已存在的行累加，不存在的行插入
+        cartService.addToCart(buyer, existing, 3);
+        cartService.addToCart(buyer, added, 1);
+        cartService.flushPendingCarts();
+        assertEquals(5, storedQuantity(buyer, existing));
+        assertEquals(1, storedQuantity(buyer, added));
+
+        // 設置數量覆蓋已存在的行
+        cartService.updateCartItemQuantity(buyer, existing, 4);
+        cartService.flushPendingCarts();
+        assertEquals(4, storedQuantity(buyer, existing));
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM cart_items WHERE user_id = ? "
+                + "AND product_id = ?", Integer.class, buyer, existing));
+    }
+
+    @Test
+    void concurrentAddsForSameProductAreSummedInDatabase() throws Exception {
+        long productId = fixtures.createProduct("CART-CONCURRENT", 10000);
+        Long buyer = fixtures.createUser("cart-concurrent");
+        int threads = 8;
+        int addsPerThread = 50;
+
+        // 多個線程同時累加同一商品，期間定時寫入不斷執行
+        AtomicBoolean adding = new AtomicBoolean(true);
+        CompletableFuture<Void> flusher = CompletableFuture.runAsync(() -> {
+            while (adding.get()) {
+                cartService.flushPendingCarts();
+            }
+        });
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Void>> adders = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            adders.add(CompletableFuture.runAsync(() -> {
+                try {
+                    start.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int j = 0; j < addsPerThread; j++) {
+                    cartService.addToCart(buyer, productId, 1);
+                }
+            }));
+        }
+        start.countDown();
+        CompletableFuture.allOf(adders.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        adding.set(false);
+        flusher.get(30, TimeUnit.SECONDS);
+
+        // 另一個實例在兩次寫入之間累加的數量不被覆蓋
+        jdbcTemplate.update("UPDATE cart_items SET quantity = quantity + 5 WHERE user_id = ? AND product_id = ?",
+                buyer, productId);
+        cartService.addToCart(buyer, productId, 2);
+        cartService.flushPendingCarts();
+
+        assertEquals(threads * addsPerThread + 5 + 2, storedQuantity(buyer, productId));
+        assertEquals(0, journalCount(buyer));
+    }
+
+    @Test
+    void writeRejectedForStockReloadsCartFromDatabase() {
+        long productId = fixtures.createProduct("CART-REJECTED", 10);
+        Long buyer = fixtures.createUser("cart-rejected");
+        cartService.addToCart(buyer, productId, 2);
+        cartService.flushPendingCarts();
+        cartService.addToCart(buyer, productId, 3);
+
+        // 寫入前庫存被其他訂單買走，寫入語句不影響任何行
+        jdbcTemplate.update("UPDATE products SET stock_quantity = 3 WHERE id = ?", productId);
+        cartService.flushPendingCarts();
+        assertEquals(2, storedQuantity(buyer, productId));
+        assertEquals(0, journalCount(buyer));
+
+        // 內存中的購物車被丟棄，下次訪問按數據庫重新載入
+        List<CartLine> lines = cartService.getCartItems(buyer);
+        assertEquals(1, lines.size());
+        assertEquals(2, lines.get(0).getQuantity());
+    }
+
+    @Test
+    void scheduledFlushDoesNotWaitForAnotherUsersCheckout() throws Exception {
+        long productId = fixtures.createProduct("CART-LOCK", 100);
+        Long buyer = fixtures.createUser("cart-buyer");
+        Long other = fixtures.createUser("cart-other");
+        cartService.addToCart(buyer, productId, 1);
+
+        // 下單事務寫入購物車後保持未提交
+        CountDownLatch flushed = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> checkout = CompletableFuture.runAsync(() ->
+                transactionTemplate.executeWithoutResult(status -> {
+                    cartService.flushCart(buyer);
+                    flushed.countDown();
+                    try {
+                        release.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+        assertTrue(flushed.await(30, TimeUnit.SECONDS));
+
+        cartService.addToCart(buyer, productId, 2);
+        cartService.addToCart(other, productId, 4);
+        CompletableFuture.runAsync(cartService::flushPendingCarts).get(10, TimeUnit.SECONDS);
+        assertEquals(4, storedQuantity(other, productId));
+
+        release.countDown();
+        checkout.get(30, TimeUnit.SECONDS);
+        assertEquals(1, storedQuantity(buyer, productId));
+
+        // 下單期間跳過的變更在下一輪寫入
+        cartService.flushPendingCarts();
+        assertEquals(3, storedQuantity(buyer, productId));
+    }
+
+    @Test
+    void itemAddedDuringCheckoutSurvivesCartEviction() throws Exception {
+        long ordered = fixtures.createProduct("CART-ORDERED", 100);
+        long later = fixtures.createProduct("CART-LATER", 100);
+        Long buyer = fixtures.createUser("cart-late-adder");
+        cartService.addToCart(buyer, ordered, 2);
+        cartService.addToCart(buyer, later, 1);
+
+        // 下單讀取購物車之後、提交之前再加入商品
+        transactionTemplate.executeWithoutResult(status -> {
+            orderService.createOrder(buyer, "地址", "CREDIT_CARD", null);
+            CompletableFuture.runAsync(() -> cartService.addToCart(buyer, later, 3)).join();
+        });
+
+        List<CartLine> lines = cartService.getCartItems(buyer);
+        assertEquals(1, lines.size());
+        assertEquals(later, lines.get(0).getProduct().getId());
+        assertEquals(3, lines.get(0).getQuantity());
+
+        cartService.flushPendingCarts();
+        assertEquals(0, storedQuantity(buyer, ordered));
+        assertEquals(3, storedQuantity(buyer, later));
+    }
+}
@@ -0,0 +1,53 @@
+package com.onlineshop.service;
+
+import com.onlineshop.dto.CategoryNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 分類樹快照測試
+ */
+class CategoryTreeTests {
+
+    @Test
+    void buildsPathsAndSubtreeCounts() {
+        List<Object[]> rows = List.of(
+                new Object[]{1L, "電子產品", null},
+                new Object[]{2L, "手機", 1L},
+                new Object[]{3L, "配件", 2L},
+                new Object[]{4L, "書籍", null});
+        CategoryTreeService.CategoryTree tree = CategoryTreeService.CategoryTree.build(
+                rows, Map.of(1L, 1L, 2L, 3L, 3L, 5L, 4L, 2L), 12);
+
+        assertEquals(2, tree.getRoots().size());
+        assertEquals(List.of(1L, 2L, 3L, 4L), tree.getNodes().stream().map(CategoryNode::getId).toList());
+
+        CategoryNode accessories = tree.getNode(3L);
+        assertEquals(2, accessories.getDepth());
+        assertEquals(List.of(1L, 2L, 3L), accessories.getPath());
+        assertEquals("電子產品 / 手機 / 配件", accessories.getPathName());
+
+        CategoryNode electronics = tree.getNode(1L);
+        assertEquals(9, electronics.getSubtreeProductCount());
+        assertEquals(List.of(1L, 2L, 3L), electronics.getSubtreeIds());
+        assertEquals(12, tree.getTotalProductCount());
+        assertNull(tree.getNode(99L));
+    }
+
+    @Test
+    void ignoresCyclesAndTreatsOrphansAsRoots() {
+        List<Object[]> rows = List.of(
+                new Object[]{1L, "A", null},
+                new Object[]{2L, "B", 1L},
+                new Object[]{3L, "C", 42L});
+        CategoryTreeService.CategoryTree tree = CategoryTreeService.CategoryTree.build(rows, Map.of(), 0);
+
+        assertEquals(List.of(1L, 3L), tree.getRoots().stream().map(CategoryNode::getId).toList());
+        assertEquals(0, tree.getNode(1L).getSubtreeProductCount());
+    }
+}
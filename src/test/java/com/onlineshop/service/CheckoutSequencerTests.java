@@ -0,0 +1,90 @@
+package com.onlineshop.service;
+
+import com.onlineshop.H2SpringBootTest;
+import com.onlineshop.TestFixtures;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 下單排序器測試（H2 內存數據庫），所有訂單都經由排序器批量寫入
+ */
+@H2SpringBootTest(properties = {
+        "checkout.sequencer.hot-threshold=0"
+})
+class CheckoutSequencerTests {
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    private static final int BUYERS = 40;
+
+    @Autowired
+    private CheckoutSequencer checkoutSequencer;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private int queryInt(String sql, Object... args) {
+        return jdbcTemplate.queryForObject(sql, Integer.class, args);
+    }
+
+    @Test
+    void concurrentCheckoutsOfHotProductAreGroupCommitted() throws Exception {
+        long hot = fixtures.createProduct("SEQ-HOT", 50);
+        long regular = fixtures.createProduct("SEQ-REGULAR", 1000);
+        List<Long> buyers = new ArrayList<>();
+        for (int i = 0; i < BUYERS; i++) {
+            Long userId = fixtures.createUser("buyer" + i);
+            cartService.addToCart(userId, hot, 2);
+            cartService.addToCart(userId, regular, 1);
+            buyers.add(userId);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(BUYERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (Long userId : buyers) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                try {
+                    checkoutSequencer.placeOrder(userId, "地址", "CREDIT_CARD", null);
+                    return true;
+                } catch (IllegalArgumentException e) {
+                    assertTrue(e.getMessage().contains("庫存不足"), e.getMessage());
+                    return false;
+                }
+            }));
+        }
+        start.countDown();
+        int placed = 0;
+        for (Future<Boolean> future : futures) {
+            if (future.get(2, TimeUnit.MINUTES)) {
+                placed++;
+            }
+        }
+        pool.shutdown();
+
+        // 熱門商品剛好賣完，失敗的訂單不扣減其他商品，也不清空購物車
+        assertEquals(25, placed);
+        assertEquals(0, queryInt("SELECT stock_quantity FROM products WHERE id = ?", hot));
+        assertEquals(50, queryInt("SELECT sold_count FROM products WHERE id = ?", hot));
+        assertEquals(1000 - placed, queryInt("SELECT stock_quantity FROM products WHERE id = ?", regular));
+        assertEquals(placed, queryInt("SELECT COUNT(*) FROM orders"));
+        assertEquals((BUYERS - placed) * 2, queryInt("SELECT COUNT(*) FROM cart_items"));
+    }
+}
@@ -0,0 +1,88 @@
+package com.onlineshop.service;
+
+import com.onlineshop.H2SpringBootTest;
+import com.onlineshop.TestFixtures;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+
+/**
+ * 下單排序器逾時測試：單一分片，寫入線程被前一批卡住時，逾時的請求作廢且不再寫入
+ */
+@H2SpringBootTest(properties = {
+        "checkout.sequencer.hot-threshold=0",
+        "checkout.sequencer.shards=1",
+        "checkout.sequencer.timeout-ms=1000"
+})
+class CheckoutSequencerTimeoutTests {
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Autowired
+    private CheckoutSequencer checkoutSequencer;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @SpyBean
+    private OrderService orderService;
+
+    private int ordersOf(Long userId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM orders WHERE user_id = ?", Integer.class, userId);
+    }
+
+    @Test
+    void timedOutQueuedCheckoutIsNeverWritten() throws Exception {
+        long productId = fixtures.createProduct("逾時商品", "SEQ-TIMEOUT", 10, 100);
+        Long first = fixtures.createUser("timeout-first");
+        Long second = fixtures.createUser("timeout-second");
+        cartService.addToCart(first, productId, 1);
+        cartService.addToCart(second, productId, 1);
+
+        // 第一批在寫入線程中卡住，第二個請求只能在隊列中等待
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean blockOnce = new AtomicBoolean(true);
+        doAnswer(invocation -> {
+            if (blockOnce.getAndSet(false)) {
+                writing.countDown();
+                release.await(30, TimeUnit.SECONDS);
+            }
+            return invocation.callRealMethod();
+        }).when(orderService).createOrders(anyList());
+
+        CompletableFuture<Void> firstCheckout = CompletableFuture.runAsync(() ->
+                checkoutSequencer.placeOrder(first, "地址", "CREDIT_CARD", null));
+        assertTrue(writing.await(30, TimeUnit.SECONDS));
+
+        IllegalArgumentException timeout = assertThrows(IllegalArgumentException.class,
+                () -> checkoutSequencer.placeOrder(second, "地址", "CREDIT_CARD", null));
+        assertTrue(timeout.getMessage().contains("訂單未建立"), timeout.getMessage());
+
+        // 已在寫入中的請求逾時後繼續等待結果
+        release.countDown();
+        firstCheckout.get(30, TimeUnit.SECONDS);
+        assertEquals(1, ordersOf(first));
+        assertEquals(0, ordersOf(second), "作廢的請求不應被寫入");
+
+        // 重試只建立一筆訂單
+        checkoutSequencer.placeOrder(second, "地址", "CREDIT_CARD", null);
+        assertEquals(1, ordersOf(second));
+    }
+}
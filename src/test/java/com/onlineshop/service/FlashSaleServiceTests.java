@@ -0,0 +1,172 @@
+package com.onlineshop.service;
+
+import com.onlineshop.H2SpringBootTest;
+import com.onlineshop.TestFixtures;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 搶購賬本測試（H2 內存數據庫）：保留立即過期，過期清理只手動觸發
+ */
+@H2SpringBootTest(properties = {
+        "flash-sale.hold-ttl-seconds=0",
+        "flash-sale.hold-sweep-interval-ms=3600000"
+})
+class FlashSaleServiceTests {
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    private static final int THREADS = 32;
+
+    @Autowired
+    private FlashSaleService flashSaleService;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private long createFlashSaleProduct(String sku, int stock) {
+        long productId = fixtures.createProduct(sku, stock);
+        productService.setFlashSale(productId, true);
+        return productId;
+    }
+
+    private Map<String, Object> rowOf(long productId) {
+        return jdbcTemplate.queryForMap("SELECT stock_quantity, sold_count, status FROM products WHERE id = ?",
+                productId);
+    }
+
+    @Test
+    void concurrentReservationsNeverOversell() throws Exception {
+        int initialStock = 2000;
+        long productId = createFlashSaleProduct("FLASH-SINGLE", initialStock);
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            long userId = 1000 + i;
+            futures.add(pool.submit(() -> {
+                start.await();
+                long sold = 0;
+                long attempts = 0;
+                int failures = 0;
+                while (failures < 1000) {
+                    attempts++;
+                    if (flashSaleService.commit(userId, Map.of(productId, 1)).isEmpty()) {
+                        sold++;
+                    } else {
+                        failures++;
+                    }
+                }
+                return new long[] {sold, attempts};
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        long sold = 0;
+        long attempts = 0;
+        for (Future<long[]> future : futures) {
+            long[] result = future.get(2, TimeUnit.MINUTES);
+            sold += result[0];
+            attempts += result[1];
+        }
+        long elapsedNanos = System.nanoTime() - begin;
+        pool.shutdown();
+        System.out.println("搶購扣減 " + attempts + " 次，每秒 "
+                + attempts * 1_000_000_000L / Math.max(1, elapsedNanos) + " 次");
+
+        assertEquals(initialStock, sold, "成交數量必須等於庫存");
+        assertEquals(0, flashSaleService.getAvailableByProduct().get(productId));
+
+        flashSaleService.reconcile();
+        Map<String, Object> row = rowOf(productId);
+        assertEquals(0, ((Number) row.get("STOCK_QUANTITY")).intValue());
+        assertEquals(initialStock, ((Number) row.get("SOLD_COUNT")).intValue());
+        assertEquals("OUT_OF_STOCK", row.get("STATUS"));
+    }
+
+    @Test
+    void holdsExpireAndCancellationsReturnStock() {
+        long productId = createFlashSaleProduct("FLASH-HOLD", 10);
+
+        assertTrue(flashSaleService.hold(1L, Map.of(productId, 6)).isEmpty());
+        assertEquals(List.of(productId), flashSaleService.hold(2L, Map.of(productId, 6)));
+        assertEquals(4, flashSaleService.getAvailableByProduct().get(productId));
+
+        // 有保留的用戶用保留下單，不再佔用可售庫存
+        assertTrue(flashSaleService.commit(1L, Map.of(productId, 6)).isEmpty());
+        assertEquals(4, flashSaleService.getAvailableByProduct().get(productId));
+
+        // 過期的保留歸還可售庫存
+        assertTrue(flashSaleService.hold(2L, Map.of(productId, 3)).isEmpty());
+        assertEquals(1, flashSaleService.getAvailableByProduct().get(productId));
+        flashSaleService.expireHolds();
+        assertEquals(4, flashSaleService.getAvailableByProduct().get(productId));
+
+        // 取消訂單歸還庫存，回寫淨成交數量
+        flashSaleService.cancel(Map.of(productId, 2));
+        assertEquals(6, flashSaleService.getAvailableByProduct().get(productId));
+        flashSaleService.reconcile();
+        Map<String, Object> row = rowOf(productId);
+        assertEquals(6, ((Number) row.get("STOCK_QUANTITY")).intValue());
+        assertEquals(4, ((Number) row.get("SOLD_COUNT")).intValue());
+
+        // 商家補貨後賬本與數據庫對齊
+        productService.updateStock(productId, 16);
+        assertEquals(16, flashSaleService.getAvailableByProduct().get(productId));
+
+        // 結束搶購後回到數據庫條件扣減
+        productService.setFlashSale(productId, false);
+        assertTrue(!flashSaleService.isFlashSale(productId));
+    }
+
+    private int journalTotal(long productId) {
+        return jdbcTemplate.queryForObject("SELECT COALESCE(SUM(quantity), 0) FROM flash_sale_journal "
+                + "WHERE product_id = ?", Integer.class, productId);
+    }
+
+    @Test
+    void unreconciledSalesSurviveCrashThroughJournal() {
+        long productId = createFlashSaleProduct("FLASH-JOURNAL", 10);
+
+        // 成交與日誌一起寫入，回寫後刪除
+        assertTrue(flashSaleService.commit(7L, Map.of(productId, 3)).isEmpty());
+        assertEquals(3, journalTotal(productId));
+        flashSaleService.reconcile();
+        assertEquals(0, journalTotal(productId));
+        assertEquals(7, ((Number) rowOf(productId).get("STOCK_QUANTITY")).intValue());
+
+        // 模擬異常終止：上一個實例留下未回寫的成交日誌，重新開啟搶購時不能按偏高的庫存開賣
+        productService.setFlashSale(productId, false);
+        flashSaleService.reconcile();
+        jdbcTemplate.update("INSERT INTO flash_sale_journal (product_id, quantity, created_at) "
+                + "VALUES (?, 4, CURRENT_TIMESTAMP)", productId);
+        productService.setFlashSale(productId, true);
+        assertEquals(3, flashSaleService.getAvailableByProduct().get(productId));
+
+        // 啟動時補寫剩餘日誌
+        productService.setFlashSale(productId, false);
+        assertEquals(1, flashSaleService.recoverJournal());
+        assertEquals(0, journalTotal(productId));
+        Map<String, Object> row = rowOf(productId);
+        assertEquals(3, ((Number) row.get("STOCK_QUANTITY")).intValue());
+        assertEquals(7, ((Number) row.get("SOLD_COUNT")).intValue());
+    }
+}
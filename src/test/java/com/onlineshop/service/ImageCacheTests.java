@@ -0,0 +1,117 @@
+package com.onlineshop.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 圖片內存緩存測試：總字節數上限、TinyLFU 准入和發送中圖片的空間重用
+ */
+class ImageCacheTests {
+
+    /**
+     * 分配空間並以 fill 填滿後加入緩存；准入策略拒絕時返回 false
+     */
+    private static boolean load(ImageCache cache, String key, int size, byte fill) {
+        ByteBuffer buffer = cache.reserve(key, size);
+        if (buffer == null) {
+            return false;
+        }
+        while (buffer.hasRemaining()) {
+            buffer.put(fill);
+        }
+        cache.commit(key).close();
+        return true;
+    }
+
+    private static boolean cached(ImageCache cache, String key) {
+        try (ImageCache.Content content = cache.get(key)) {
+            return content != null;
+        }
+    }
+
+    @Test
+    void oneOffImagesDoNotEvictHotOnes() {
+        ImageCache cache = new ImageCache(300, 200);
+        for (int i = 0; i < 5; i++) {
+            cached(cache, "hot");
+        }
+        cached(cache, "warm");
+        cached(cache, "warm");
+        assertTrue(load(cache, "hot", 150, (byte) 1));
+        assertTrue(load(cache, "warm", 150, (byte) 2));
+        cached(cache, "hot");
+        assertFalse(load(cache, "too-large", 250, (byte) 3));
+
+        // 只訪問一次的圖片不擠出已緩存的圖片
+        cached(cache, "once");
+        assertFalse(load(cache, "once", 100, (byte) 4));
+        assertFalse(cached(cache, "once"));
+
+        // 訪問頻率高於最久未使用的圖片時淘汰它
+        for (int i = 0; i < 3; i++) {
+            cached(cache, "rising");
+        }
+        assertTrue(load(cache, "rising", 100, (byte) 5));
+        assertTrue(cached(cache, "rising"));
+        assertTrue(cached(cache, "hot"));
+        assertFalse(cached(cache, "warm"));
+
+        ImageCache.CacheStats stats = cache.getStats();
+        assertEquals(250, stats.getUsedBytes());
+        assertEquals(1, stats.getEvictions());
+        assertEquals(1, stats.getRejections());
+    }
+
+    @Test
+    void returnedBuffersHaveIndependentPositions() {
+        ImageCache cache = new ImageCache(1000, 1000);
+        load(cache, "image", 100, (byte) 1);
+        try (ImageCache.Content content = cache.get("image")) {
+            ByteBuffer first = content.getBuffer();
+            first.position(50);
+            assertEquals(100, content.getBuffer().remaining());
+            assertTrue(first.isReadOnly());
+        }
+    }
+
+    @Test
+    void imageBeingSentIsNotOverwritten() {
+        ImageCache cache = new ImageCache(200, 200);
+        assertTrue(load(cache, "sending", 200, (byte) 7));
+        for (int i = 0; i < 5; i++) {
+            cached(cache, "popular");
+        }
+
+        // 發送中的圖片不淘汰，空間不足時新圖片不寫入，堆外內存不超過上限
+        ImageCache.Content sending = cache.get("sending");
+        assertNotNull(sending);
+        assertNull(cache.reserve("popular", 200));
+        assertEquals(200, cache.getStats().getUsedBytes());
+        assertEquals(7, sending.getBuffer().get(199));
+
+        // 發送完後空間重用
+        sending.close();
+        assertTrue(load(cache, "popular", 200, (byte) 9));
+        assertFalse(cached(cache, "sending"));
+        assertEquals(200, cache.getStats().getUsedBytes());
+        try (ImageCache.Content popular = cache.get("popular")) {
+            assertEquals(9, popular.getBuffer().get(0));
+        }
+
+        // 同一張圖片正在讀入時不重複分配
+        ImageCache small = new ImageCache(1000, 1000);
+        assertNotNull(small.reserve("loading", 100));
+        assertNull(small.reserve("loading", 100));
+        small.abort("loading");
+        assertEquals(0, small.getStats().getUsedBytes());
+        assertThrows(IllegalStateException.class, () -> small.commit("loading"));
+    }
+}
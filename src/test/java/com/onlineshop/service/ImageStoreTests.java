@@ -0,0 +1,106 @@
+package com.onlineshop.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 內容尋址圖片存儲測試：分片路徑、相同內容去重和孤立圖片清理
+ */
+class ImageStoreTests {
+
+    @TempDir
+    Path storeDirectory;
+
+    @TempDir
+    Path legacyDirectory;
+
+    private ImageStore newStore() {
+        return new ImageStore(storeDirectory.toString(), legacyDirectory.toString(), 1);
+    }
+
+    private static ByteArrayInputStream content(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long countFiles() throws Exception {
+        try (Stream<Path> files = Files.walk(storeDirectory)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    void storesIdenticalContentOnceUnderShardedPath() throws Exception {
+        ImageStore store = newStore();
+        String key = store.store(content("same image"), "a.JPEG");
+        String again = store.store(content("same image"), "b.jpg");
+        String other = store.store(content("other image"), "c.png");
+
+        assertEquals(key, again);
+        assertNotEquals(key, other);
+        assertTrue(key.matches("[0-9a-f]{64}\\.jpg"), key);
+        Path path = store.resolve(key);
+        assertEquals(storeDirectory.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key), path);
+        assertEquals("same image", Files.readString(path));
+        assertEquals(2, countFiles(), "臨時文件應已刪除");
+        assertEquals(2, store.getStoredCount());
+        assertEquals(1, store.getDeduplicatedCount());
+        assertEquals(List.of(key), store.listKeys().stream().filter(key::equals).toList());
+
+        // 變體與原圖在同一分片目錄，舊文件名在舊上傳目錄
+        assertEquals(path.resolveSibling(key.replace(".jpg", ".card.jpg")),
+                store.resolve(key.replace(".jpg", ".card.jpg")));
+        assertEquals(key.substring(0, 64), ImageStore.contentHashOf(key));
+        assertNull(ImageStore.contentHashOf(key.replace(".jpg", ".card.jpg")));
+        assertTrue(ImageStore.isContentAddressed(key.replace(".jpg", ".card.jpg")));
+        assertFalse(ImageStore.isContentAddressed("3f2a.jpg"));
+        assertEquals(legacyDirectory.resolve("3f2a.jpg"), store.resolve("3f2a.jpg"));
+        assertNull(store.resolve("../secret.jpg"));
+
+        assertThrows(IllegalArgumentException.class, () -> store.store(content("x"), "script.html"));
+        assertEquals(2, countFiles());
+    }
+
+    @Test
+    void sweepDeletesOnlyOldUnreferencedImages() throws Exception {
+        ImageStore store = newStore();
+        String referenced = store.store(content("referenced"), "a.jpg");
+        String orphan = store.store(content("orphan"), "b.jpg");
+        String young = store.store(content("young"), "c.jpg");
+        Path referencedVariant = store.resolve(referenced.replace(".jpg", ".thumb.jpg"));
+        Path orphanVariant = store.resolve(orphan.replace(".jpg", ".thumb.jpg"));
+        Files.writeString(referencedVariant, "thumb");
+        Files.writeString(orphanVariant, "thumb");
+        Path abandoned = storeDirectory.resolve("tmp").resolve("upload-1.tmp");
+        Files.writeString(abandoned, "partial");
+
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 2 * 3600_000L);
+        for (Path path : List.of(store.resolve(referenced), store.resolve(orphan), referencedVariant,
+                orphanVariant, abandoned)) {
+            Files.setLastModifiedTime(path, old);
+        }
+
+        assertEquals(3, store.sweep(Set.of(referenced)));
+        assertTrue(Files.exists(store.resolve(referenced)));
+        assertTrue(Files.exists(referencedVariant));
+        assertTrue(Files.exists(store.resolve(young)), "寬限期內的圖片不應被清理");
+        assertFalse(Files.exists(store.resolve(orphan)));
+        assertFalse(Files.exists(orphanVariant));
+        assertFalse(Files.exists(abandoned));
+    }
+}
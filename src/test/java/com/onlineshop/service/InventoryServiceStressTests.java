@@ -0,0 +1,147 @@
+package com.onlineshop.service;
+
+import com.onlineshop.H2SpringBootTest;
+import com.onlineshop.TestFixtures;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 庫存條件扣減並發測試（H2 內存數據庫）
+ */
+@H2SpringBootTest
+class InventoryServiceStressTests {
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    private static final int THREADS = 32;
+
+    @Autowired
+    private InventoryService inventoryService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private int stockOf(long productId) {
+        return jdbcTemplate.queryForObject("SELECT stock_quantity FROM products WHERE id = ?", Integer.class, productId);
+    }
+
+    /**
+     * 在事務中扣減，有商品不足時回滾整個訂單
+     */
+    private boolean placeOrder(Map<Long, Integer> quantities) {
+        try {
+            return transactionTemplate.execute(status -> {
+                if (!inventoryService.reserve(quantities).isEmpty()) {
+                    status.setRollbackOnly();
+                    return false;
+                }
+                return true;
+            });
+        } catch (RuntimeException e) {
+            // 鎖等待超時等數據庫錯誤視為下單失敗
+            return false;
+        }
+    }
+
+    private static <T> List<T> runConcurrently(int threads, java.util.concurrent.Callable<T> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get(2, TimeUnit.MINUTES));
+        }
+        pool.shutdown();
+        return results;
+    }
+
+    @Test
+    void concurrentCheckoutsNeverOversell() throws Exception {
+        int initialStock = 500;
+        long productId = fixtures.createProduct("STRESS-SINGLE", initialStock);
+
+        List<Integer> soldPerThread = runConcurrently(THREADS, () -> {
+            int sold = 0;
+            int failures = 0;
+            while (failures < 20) {
+                int quantity = ThreadLocalRandom.current().nextInt(1, 4);
+                if (placeOrder(Map.of(productId, quantity))) {
+                    sold += quantity;
+                } else {
+                    failures++;
+                }
+            }
+            return sold;
+        });
+
+        int sold = soldPerThread.stream().mapToInt(Integer::intValue).sum();
+        int remaining = stockOf(productId);
+        assertTrue(remaining >= 0, "庫存不能為負數");
+        assertEquals(initialStock, sold + remaining, "成功扣減的數量必須與庫存減少量一致");
+        assertTrue(remaining < 3, "只剩不足以滿足任何訂單的庫存");
+        assertEquals(sold, jdbcTemplate.queryForObject(
+                "SELECT sold_count FROM products WHERE id = ?", Integer.class, productId));
+        if (remaining == 0) {
+            assertEquals("OUT_OF_STOCK", jdbcTemplate.queryForObject(
+                    "SELECT status FROM products WHERE id = ?", String.class, productId));
+        }
+    }
+
+    @Test
+    void multiProductOrdersAreAllOrNothing() throws Exception {
+        long first = fixtures.createProduct("STRESS-A", 300);
+        long second = fixtures.createProduct("STRESS-B", 100);
+        AtomicInteger orders = new AtomicInteger();
+
+        runConcurrently(THREADS, () -> {
+            for (int i = 0; i < 40; i++) {
+                // 不同訂單以不同順序列出商品，扣減時統一排序加鎖
+                Map<Long, Integer> quantities = new LinkedHashMap<>();
+                if (ThreadLocalRandom.current().nextBoolean()) {
+                    quantities.put(first, 2);
+                    quantities.put(second, 1);
+                } else {
+                    quantities.put(second, 1);
+                    quantities.put(first, 2);
+                }
+                if (placeOrder(quantities)) {
+                    orders.incrementAndGet();
+                }
+            }
+            return null;
+        });
+
+        // 第二個商品先賣完，失敗的訂單不能扣減第一個商品
+        assertEquals(100, orders.get());
+        assertEquals(0, stockOf(second));
+        assertEquals(300 - 2 * orders.get(), stockOf(first));
+    }
+}
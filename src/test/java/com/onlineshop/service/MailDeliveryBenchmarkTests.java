@@ -0,0 +1,220 @@
+package com.onlineshop.service;
+
+import com.onlineshop.H2SpringBootTest;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 郵件投遞吞吐量測試：對本地 SMTP 替身比較每封郵件新建連接與連接池批量發送
+ */
+@H2SpringBootTest(properties = {
+        "spring.mail.host=localhost",
+        "spring.mail.username=bench@example.com",
+        "spring.mail.password=secret",
+        "mail.rate-limit-per-second=0"
+})
+class MailDeliveryBenchmarkTests {
+
+    private static final int MESSAGES = 100;
+
+    /** 模擬建立連接（TCP、TLS）和認證各需要的往返時間 */
+    private static final int HANDSHAKE_DELAY_MS = 5;
+
+    private static final LocalSmtpServer SMTP = LocalSmtpServer.start(HANDSHAKE_DELAY_MS);
+
+    @Autowired
+    private JavaMailSender mailSender;
+
+    @Autowired
+    private MailDeliveryService mailDeliveryService;
+
+    @DynamicPropertySource
+    static void smtpProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.mail.port", SMTP::getPort);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        SMTP.stop();
+    }
+
+    private List<MimeMessage> createMessages() throws Exception {
+        List<MimeMessage> messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            MimeMessage message = mailDeliveryService.createMimeMessage();
+            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
+            helper.setFrom("bench@example.com");
+            helper.setTo("buyer" + i + "@example.com");
+            helper.setSubject("訂單確認 - " + i);
+            helper.setText("<html><body><p>感謝您的訂購！</p></body></html>", true);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    @Test
+    void pooledDeliveryReusesConnections() throws Exception {
+        // 對照：每封郵件一次 JavaMailSender.send，各自連接和認證
+        List<MimeMessage> messages = createMessages();
+        long start = System.nanoTime();
+        for (MimeMessage message : messages) {
+            mailSender.send(message);
+        }
+        long perMessageNanos = System.nanoTime() - start;
+        int perMessageConnections = SMTP.connections.getAndSet(0);
+        SMTP.delivered.set(0);
+
+        messages = createMessages();
+        long connectionsBefore = mailDeliveryService.getConnectionsOpened();
+        start = System.nanoTime();
+        List<Exception> failures = mailDeliveryService.sendAll(messages, 60000);
+        long pooledNanos = System.nanoTime() - start;
+
+        assertTrue(failures.stream().allMatch(failure -> failure == null), "所有郵件都應送達: " + failures);
+        assertEquals(MESSAGES, SMTP.delivered.get());
+        assertEquals(MESSAGES, perMessageConnections);
+        long pooledConnections = mailDeliveryService.getConnectionsOpened() - connectionsBefore;
+        assertTrue(pooledConnections <= 4, "連接池最多建立 mail.pool.size 個連接，實際 " + pooledConnections);
+
+        double perMessageRate = MESSAGES / (perMessageNanos / 1e9);
+        double pooledRate = MESSAGES / (pooledNanos / 1e9);
+        System.out.printf("每封新建連接: %.0f 封/秒（%d 個連接）；連接池: %.0f 封/秒（%d 個連接）%n",
+                perMessageRate, perMessageConnections, pooledRate, pooledConnections);
+        assertTrue(pooledRate > perMessageRate * 3, "連接池發送應明顯快於每封新建連接");
+    }
+
+    /**
+     * 最小的 SMTP 服務器替身：接受任何認證和郵件，只計數；問候和認證前等待 handshakeDelayMs
+     */
+    static class LocalSmtpServer {
+
+        private final ServerSocket serverSocket;
+
+        private final int handshakeDelayMs;
+
+        final AtomicInteger connections = new AtomicInteger();
+
+        final AtomicInteger delivered = new AtomicInteger();
+
+        private LocalSmtpServer(ServerSocket serverSocket, int handshakeDelayMs) {
+            this.serverSocket = serverSocket;
+            this.handshakeDelayMs = handshakeDelayMs;
+        }
+
+        static LocalSmtpServer start(int handshakeDelayMs) {
+            try {
+                LocalSmtpServer server = new LocalSmtpServer(new ServerSocket(0), handshakeDelayMs);
+                Thread acceptor = new Thread(server::accept, "local-smtp");
+                acceptor.setDaemon(true);
+                acceptor.start();
+                return server;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        void stop() {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                // 已關閉
+            }
+        }
+
+        private void accept() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread session = new Thread(() -> serve(socket), "local-smtp-session");
+                    session.setDaemon(true);
+                    session.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (socket) {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream out = socket.getOutputStream();
+                pause();
+                reply(out, "220 localhost ESMTP");
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String command = line.toUpperCase();
+                    if (command.startsWith("EHLO")) {
+                        reply(out, "250-localhost\r\n250-AUTH PLAIN LOGIN\r\n250 8BITMIME");
+                    } else if (command.startsWith("AUTH LOGIN")) {
+                        reply(out, "334 VXNlcm5hbWU6");
+                        in.readLine();
+                        reply(out, "334 UGFzc3dvcmQ6");
+                        in.readLine();
+                        pause();
+                        reply(out, "235 2.7.0 Authentication successful");
+                    } else if (command.startsWith("AUTH PLAIN")) {
+                        if (command.trim().equals("AUTH PLAIN")) {
+                            reply(out, "334 ");
+                            in.readLine();
+                        }
+                        pause();
+                        reply(out, "235 2.7.0 Authentication successful");
+                    } else if (command.startsWith("DATA")) {
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        while ((line = in.readLine()) != null && !line.equals(".")) {
+                            // 丟棄郵件內容
+                        }
+                        delivered.incrementAndGet();
+                        reply(out, "250 2.0.0 Ok: queued");
+                    } else if (command.startsWith("QUIT")) {
+                        reply(out, "221 2.0.0 Bye");
+                        return;
+                    } else {
+                        // MAIL FROM、RCPT TO、RSET、NOOP
+                        reply(out, "250 2.0.0 Ok");
+                    }
+                }
+            } catch (SocketException e) {
+                // 客戶端斷開
+            } catch (IOException | InterruptedException e) {
+                // 測試結束
+            }
+        }
+
+        private void pause() throws InterruptedException {
+            Thread.sleep(handshakeDelayMs);
+        }
+
+        private static void reply(OutputStream out, String response) throws IOException {
+            out.write((response + "\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.onlineshop.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 預編譯郵件模板測試
+ */
+class MailTemplateTests {
+
+    private record Item(String name, String quantity) {
+    }
+
+    private record Mail(String customer, String address, List<Item> items) {
+    }
+
+    private static final MailTemplate.Binding<Mail> BINDING = new MailTemplate.Binding<Mail>()
+            .value("customer", Mail::customer)
+            .multiline("address", Mail::address)
+            .section("items", Mail::items, new MailTemplate.Binding<Item>()
+                    .value("name", Item::name)
+                    .value("quantity", Item::quantity));
+
+    @Test
+    void rendersValuesSectionsAndConstants() {
+        MailTemplate<Mail> template = MailTemplate.compile(
+                "<p>{{customer}}</p><p>{{address}}</p><ul>{{#items}}<li>{{name}} x{{quantity}}</li>{{/items}}</ul>"
+                        + "<a href='{{baseUrl}}/orders'>",
+                Map.of("baseUrl", "https://shop.example.com"), BINDING);
+
+        Mail mail = new Mail("<b>王</b> & 李", "台北市\n信義區",
+                List.of(new Item("筆記本", "2"), new Item("\"筆\"", "1")));
+
+        assertEquals("<p>&lt;b&gt;王&lt;/b&gt; &amp; 李</p><p>台北市<br>信義區</p>"
+                + "<ul><li>筆記本 x2</li><li>&quot;筆&quot; x1</li></ul>"
+                + "<a href='https://shop.example.com/orders'>", template.render(mail));
+        // 同一個模板重複渲染結果相同
+        assertEquals(template.render(mail), template.render(mail));
+        assertEquals("<p></p><p></p><ul></ul><a href='https://shop.example.com/orders'>",
+                template.render(new Mail(null, null, List.of())));
+    }
+
+    @Test
+    void unknownPlaceholdersFailAtCompileTime() {
+        assertThrows(IllegalStateException.class,
+                () -> MailTemplate.compile("{{missing}}", Map.of(), BINDING));
+        assertThrows(IllegalStateException.class,
+                () -> MailTemplate.compile("{{#items}}{{name}}", Map.of(), BINDING));
+        assertThrows(IllegalStateException.class,
+                () -> MailTemplate.compile("{{customer", Map.of(), BINDING));
+    }
+}
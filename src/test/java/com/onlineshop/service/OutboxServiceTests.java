@@ -0,0 +1,165 @@
+package com.onlineshop.service;
+
+import com.onlineshop.H2SpringBootTest;
+import com.onlineshop.TestFixtures;
+import com.onlineshop.dto.OrderMailSnapshot;
+import com.onlineshop.model.DailyOrderStats;
+import com.onlineshop.model.Order;
+import com.onlineshop.model.OutboxEvent;
+import com.onlineshop.repository.DailyOrderStatsRepository;
+import com.onlineshop.repository.OutboxEventRepository;
+import jakarta.mail.MessagingException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 訂單事件發件箱測試（H2 內存數據庫），定時轉發關閉，由測試手動觸發
+ */
+@H2SpringBootTest(properties = {
+        "outbox.relay-interval-ms=3600000"
+})
+class OutboxServiceTests {
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private DailyOrderStatsRepository dailyOrderStatsRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockBean
+    private EmailService emailService;
+
+    @Test
+    void failedEmailIsRetriedWithoutRepeatingOtherHandlers() throws Exception {
+        DailyOrderStats before = todayStats();
+        Order order = placeOrder("outbox-buyer", "OUTBOX-1");
+
+        // 下單事務只寫入事件，副作用尚未執行
+        assertEquals(1, eventsOf(order).size());
+        assertEquals(0, activityCount(order));
+        verify(emailService, times(0)).sendOrderEmails(any(), anyLong());
+
+        // 第一次投遞：郵件失敗，活動日誌和統計已完成
+        when(emailService.sendOrderEmails(any(), anyLong())).thenAnswer(invocation -> {
+            List<OrderMailSnapshot> mails = invocation.getArgument(0);
+            return Map.of(mails.get(0), new MessagingException("SMTP 不可用"));
+        });
+        outboxService.deliverDue();
+        OutboxEvent event = eventsOf(order).get(0);
+        assertEquals(OutboxEvent.Status.PENDING, event.getStatus());
+        assertEquals(1, event.getAttempts());
+        assertEquals(1, activityCount(order));
+        assertEquals(before.getPlacedCount() + 1, todayStats().getPlacedCount());
+
+        // 到期重試：只重發郵件
+        doReturn(Map.of()).when(emailService).sendOrderEmails(any(), anyLong());
+        event.setNextAttemptAt(LocalDateTime.now().minusSeconds(1));
+        outboxEventRepository.save(event);
+        outboxService.deliverDue();
+        event = eventsOf(order).get(0);
+        assertEquals(OutboxEvent.Status.DONE, event.getStatus());
+        assertEquals(1, activityCount(order));
+        assertEquals(before.getPlacedCount() + 1, todayStats().getPlacedCount());
+        assertEquals(0, todayStats().getPlacedAmount().compareTo(before.getPlacedAmount().add(order.getTotalAmount())));
+        verify(emailService, times(2)).sendOrderEmails(any(), anyLong());
+
+        // 取消訂單同樣經由發件箱
+        orderService.cancelOrder(order.getId());
+        outboxService.deliverDue();
+        List<OutboxEvent> events = eventsOf(order);
+        assertEquals(2, events.size());
+        assertEquals(OutboxEvent.Status.DONE, events.get(1).getStatus());
+        assertEquals(before.getCancelledCount() + 1, todayStats().getCancelledCount());
+        assertEquals(0, todayStats().getPlacedAmount().compareTo(before.getPlacedAmount()));
+        verify(emailService).sendOrderEmails(argThat(mails -> mails.size() == 1
+                && mails.get(0).getType() == OrderMailSnapshot.Type.CANCELLED), anyLong());
+    }
+
+    @Test
+    void claimedEventsAreNotDeliveredTwice() throws Exception {
+        Order order = placeOrder("outbox-claimer", "OUTBOX-CLAIM");
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(emailService.sendOrderEmails(any(), anyLong())).thenAnswer(invocation -> {
+            sending.countDown();
+            release.await(30, TimeUnit.SECONDS);
+            return Map.of();
+        });
+
+        // 定時任務只提交投遞，郵件卡住時不佔用定時任務線程
+        outboxService.relay();
+        assertTrue(sending.await(30, TimeUnit.SECONDS));
+
+        // 另一個轉發者（如另一個實例）同時投遞，已認領的事件不會重複取到
+        assertEquals(0, outboxService.deliverDue());
+
+        release.countDown();
+        for (int i = 0; i < 300 && outboxEventRepository.countByStatus(OutboxEvent.Status.PENDING) > 0; i++) {
+            Thread.sleep(100);
+        }
+        OutboxEvent event = eventsOf(order).get(0);
+        assertEquals(OutboxEvent.Status.DONE, event.getStatus());
+        assertNull(event.getClaimToken());
+        verify(emailService, times(1)).sendOrderEmails(any(), anyLong());
+    }
+
+    private Order placeOrder(String username, String sku) {
+        Long userId = fixtures.createUser(username);
+        long productId = fixtures.createProduct("商品", sku, 25, 10);
+
+        cartService.addToCart(userId, productId, 2);
+        return orderService.createOrder(userId, "地址", "CREDIT_CARD", null);
+    }
+
+    private List<OutboxEvent> eventsOf(Order order) {
+        return outboxEventRepository.findAll().stream()
+                .filter(event -> event.getOrderId().equals(order.getId()))
+                .sorted(Comparator.comparing(OutboxEvent::getId))
+                .toList();
+    }
+
+    private int activityCount(Order order) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_activity_logs WHERE activity_details = ?",
+                Integer.class, "下單訂單編號: " + order.getOrderNumber());
+    }
+
+    private DailyOrderStats todayStats() {
+        return dailyOrderStatsRepository.findById(LocalDate.now()).orElseGet(() -> new DailyOrderStats(LocalDate.now()));
+    }
+}
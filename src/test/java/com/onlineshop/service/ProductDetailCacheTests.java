@@ -0,0 +1,91 @@
+package com.onlineshop.service;
+
+import com.onlineshop.model.Category;
+import com.onlineshop.model.Product;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 商品詳情緩存測試
+ */
+class ProductDetailCacheTests {
+
+    private static Product product(Long id) {
+        Product product = new Product();
+        product.setId(id);
+        return product;
+    }
+
+    @Test
+    void hotProductsSurviveScanOfOneOffReads() {
+        ProductDetailCache cache = new ProductDetailCache(10);
+        AtomicInteger loads = new AtomicInteger();
+        for (int round = 0; round < 5; round++) {
+            for (long id = 1; id <= 10; id++) {
+                cache.get(id, i -> { loads.incrementAndGet(); return product(i); });
+            }
+        }
+        // 熱門商品持續被訪問時，大量只訪問一次的商品不應把它們擠出
+        for (long id = 1000; id < 2000; id++) {
+            cache.get(id, ProductDetailCacheTests::product);
+            if (id % 20 == 0) {
+                for (long hot = 1; hot <= 10; hot++) {
+                    cache.get(hot, ProductDetailCacheTests::product);
+                }
+            }
+        }
+        loads.set(0);
+        for (long id = 1; id <= 10; id++) {
+            cache.get(id, i -> { loads.incrementAndGet(); return product(i); });
+        }
+        assertEquals(0, loads.get());
+        assertTrue(cache.getStats().getRejections() > 0);
+    }
+
+    @Test
+    void invalidationDuringLoadPreventsStaleInsert() {
+        ProductDetailCache cache = new ProductDetailCache(10);
+        cache.get(1L, id -> {
+            // 讀取過程中商品被修改
+            cache.invalidate(id);
+            return product(id);
+        });
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(1L, id -> { loads.incrementAndGet(); return product(id); });
+        assertEquals(1, loads.get());
+
+        cache.get(1L, ProductDetailCacheTests::product);
+        ProductDetailCache.CacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+    }
+
+    @Test
+    void readersGetIndependentCopies() {
+        ProductDetailCache cache = new ProductDetailCache(10);
+        Category category = new Category();
+        category.setId(7L);
+        category.setName("分類");
+        Product loaded = product(1L);
+        loaded.setName("原名");
+        loaded.setCategory(category);
+
+        Product first = cache.get(1L, id -> loaded);
+        assertNotSame(loaded, first);
+        first.setName("被調用方修改");
+        first.getCategory().setName("被調用方修改");
+        loaded.setName("載入後修改");
+
+        Product second = cache.get(1L, ProductDetailCacheTests::product);
+        assertNotSame(first, second);
+        assertEquals("原名", second.getName());
+        assertEquals("分類", second.getCategory().getName());
+        assertTrue(second.getCategory().getChildren().isEmpty());
+        assertEquals(1, cache.getStats().getHits());
+    }
+}
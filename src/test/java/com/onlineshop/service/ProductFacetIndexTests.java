@@ -0,0 +1,107 @@
+package com.onlineshop.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 商品分面索引測試
+ */
+class ProductFacetIndexTests {
+
+    private static final LocalDateTime BASE_TIME = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private ProductFacetIndex buildIndex() {
+        ProductFacetIndex index = new ProductFacetIndex();
+        // 分類 1：價格 100..1000，偶數ID缺貨；分類 2：價格 2000..
+        for (long id = 1; id <= 10; id++) {
+            index.index(new ProductFacetIndex.FacetDocument(id, 1L, BigDecimal.valueOf(id * 100),
+                    id % 2 == 0 ? 0 : 5, BASE_TIME.plusHours(id), (int) id));
+        }
+        for (long id = 11; id <= 15; id++) {
+            index.index(new ProductFacetIndex.FacetDocument(id, 2L, BigDecimal.valueOf(id * 200),
+                    3, BASE_TIME.plusHours(id), 0));
+        }
+        return index;
+    }
+
+    private ProductFacetIndex.FacetQuery query(List<Long> categoryIds, ProductFacetIndex.PriceRange price,
+                                               ProductFacetIndex.StockStatus stock, CatalogService.SortOption sort,
+                                               Object anchorKey, Long anchorId, boolean backward, int limit) {
+        return new ProductFacetIndex.FacetQuery(categoryIds, price, stock, sort, anchorKey, anchorId, backward, limit);
+    }
+
+    @Test
+    void combinesFiltersAndCountsOtherFacets() {
+        ProductFacetIndex.FacetResult result = buildIndex().query(query(List.of(1L),
+                ProductFacetIndex.PriceRange.UNDER_500, ProductFacetIndex.StockStatus.IN_STOCK,
+                CatalogService.SortOption.PRICE_ASC, null, null, false, 10));
+
+        // 價格 100, 300 有庫存（500 不在 500 以下區間）
+        assertEquals(List.of(1L, 3L), result.getIds());
+        assertEquals(2, result.getTotalCount());
+        // 價格分面不套用自身：分類 1 有庫存的 1,3,5,7,9
+        assertEquals(2L, result.getPriceCounts().get(ProductFacetIndex.PriceRange.UNDER_500));
+        assertEquals(3L, result.getPriceCounts().get(ProductFacetIndex.PriceRange.FROM_500_TO_1000));
+        // 庫存分面不套用自身：分類 1 價格 500 以下的 1..4
+        assertEquals(2L, result.getStockCounts().get(ProductFacetIndex.StockStatus.OUT_OF_STOCK));
+        // 分類分面不套用分類條件
+        assertEquals(2L, result.getCategoryCounts().get(1L));
+        assertFalse(result.getCategoryCounts().containsKey(2L));
+    }
+
+    @Test
+    void pagesForwardAndBackwardAroundAnchor() {
+        ProductFacetIndex index = buildIndex();
+        ProductFacetIndex.FacetResult first = index.query(query(null, null, null,
+                CatalogService.SortOption.NEWEST, null, null, false, 4));
+        assertEquals(List.of(15L, 14L, 13L, 12L), first.getIds());
+        assertTrue(first.hasMore());
+
+        ProductFacetIndex.FacetResult second = index.query(query(null, null, null,
+                CatalogService.SortOption.NEWEST, BASE_TIME.plusHours(12), 12L, false, 4));
+        assertEquals(List.of(11L, 10L, 9L, 8L), second.getIds());
+
+        ProductFacetIndex.FacetResult back = index.query(query(null, null, null,
+                CatalogService.SortOption.NEWEST, BASE_TIME.plusHours(11), 11L, true, 4));
+        assertEquals(List.of(15L, 14L, 13L, 12L), back.getIds());
+        assertFalse(back.hasMore());
+    }
+
+    @Test
+    void reindexMovesProductBetweenFacets() {
+        ProductFacetIndex index = buildIndex();
+        index.index(new ProductFacetIndex.FacetDocument(2L, 2L, BigDecimal.valueOf(200), 7, BASE_TIME, 0));
+        index.remove(15L);
+
+        ProductFacetIndex.FacetResult result = index.query(query(List.of(2L), null,
+                ProductFacetIndex.StockStatus.IN_STOCK, CatalogService.SortOption.PRICE_ASC, null, null, false, 10));
+        assertEquals(List.of(2L, 11L, 12L, 13L, 14L), result.getIds());
+        assertEquals(14, index.size());
+    }
+
+    @Test
+    void filtersLargeCatalog() {
+        ProductFacetIndex index = new ProductFacetIndex();
+        for (long id = 1; id <= 200_000; id++) {
+            index.index(new ProductFacetIndex.FacetDocument(id, id % 50, BigDecimal.valueOf(id % 30_000),
+                    (int) (id % 7), BASE_TIME.plusMinutes(id), (int) (id % 1000)));
+        }
+        List<Long> categories = new ArrayList<>();
+        for (long c = 0; c < 10; c++) {
+            categories.add(c);
+        }
+        ProductFacetIndex.FacetResult result = index.query(query(categories,
+                ProductFacetIndex.PriceRange.FROM_1000_TO_5000, ProductFacetIndex.StockStatus.IN_STOCK,
+                CatalogService.SortOption.POPULAR, null, null, false, 24));
+        assertEquals(24, result.getIds().size());
+        assertTrue(result.getTotalCount() > 0);
+    }
+}
@@ -0,0 +1,111 @@
+package com.onlineshop.service;
+
+import com.onlineshop.H2SpringBootTest;
+import com.onlineshop.model.Product;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+
+/**
+ * 商品圖片變體測試：啟動時為缺少變體的原圖在圖片線程池中生成縮略圖，模板輸出 srcset
+ */
+@AutoConfigureMockMvc
+@H2SpringBootTest
+class ProductImageProcessorTests {
+
+    private static Path uploadDirectory;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ProductService productService;
+
+    @DynamicPropertySource
+    static void uploadPath(DynamicPropertyRegistry registry) {
+        registry.add("upload.path", () -> uploadDirectory.toString());
+    }
+
+    @BeforeAll
+    static void createImages() throws Exception {
+        uploadDirectory = Files.createTempDirectory("variants");
+
+        BufferedImage photo = new BufferedImage(1600, 1200, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < photo.getHeight(); y++) {
+            for (int x = 0; x < photo.getWidth(); x++) {
+                photo.setRGB(x, y, (x * 7 + y * 13) ^ (x * y));
+            }
+        }
+        ImageIO.write(photo, "jpeg", uploadDirectory.resolve("photo.jpg").toFile());
+
+        BufferedImage logo = new BufferedImage(800, 400, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = logo.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillOval(100, 50, 600, 300);
+        graphics.dispose();
+        ImageIO.write(logo, "png", uploadDirectory.resolve("logo.png").toFile());
+    }
+
+    private static BufferedImage awaitVariant(String filename) throws Exception {
+        Path path = uploadDirectory.resolve(filename);
+        for (int i = 0; i < 200 && !Files.exists(path); i++) {
+            Thread.sleep(50);
+        }
+        return ImageIO.read(path.toFile());
+    }
+
+    @Test
+    void originalsGetResizedVariantsAndSrcset() throws Exception {
+        BufferedImage card = awaitVariant("photo.card.jpg");
+        assertEquals(400, card.getWidth());
+        assertEquals(300, card.getHeight());
+        assertEquals(160, awaitVariant("photo.thumb.jpg").getWidth());
+        assertEquals(960, awaitVariant("photo.detail.jpg").getWidth());
+        assertEquals(24, awaitVariant("photo.lqip.jpg").getWidth());
+        assertTrue(Files.size(uploadDirectory.resolve("photo.card.jpg")) < Files.size(uploadDirectory.resolve("photo.jpg")));
+        assertTrue(Files.size(uploadDirectory.resolve("photo.lqip.jpg")) < 2048, "佔位圖應只有幾百字節");
+
+        // PNG 變體保留透明通道
+        BufferedImage logoCard = awaitVariant("logo.card.png");
+        assertEquals(400, logoCard.getWidth());
+        assertTrue(logoCard.getColorModel().hasAlpha());
+
+        assertEquals("photo.jpg", ProductImageProcessor.originalOf("photo.card.jpg"));
+        assertNull(ProductImageProcessor.originalOf("photo.jpg"));
+        assertNull(ProductImageProcessor.originalOf("3f2a.5c.jpg"));
+
+        Product product = new Product();
+        product.setName("圖片商品");
+        product.setPrice(new BigDecimal("25"));
+        product.setStockQuantity(10);
+        product.setImageUrl("photo.jpg");
+        Long productId = productService.createProduct(product, null).getId();
+        mockMvc.perform(get("/products/" + productId))
+                .andExpect(content().string(containsString("src=\"/images/products/photo.detail.jpg\"")))
+                .andExpect(content().string(containsString(
+                        "/images/products/photo.thumb.jpg 160w, /images/products/photo.card.jpg 400w, "
+                        + "/images/products/photo.detail.jpg 960w")))
+                .andExpect(content().string(containsString("url(/images/products/photo.lqip.jpg)")));
+        mockMvc.perform(get("/products"))
+                .andExpect(content().string(containsString("src=\"/images/products/photo.card.jpg\"")));
+    }
+}
@@ -0,0 +1,132 @@
+package com.onlineshop.service;
+
+import com.onlineshop.H2SpringBootTest;
+import com.onlineshop.TestFixtures;
+import com.onlineshop.model.ProductSubscription;
+import com.onlineshop.repository.ProductSubscriptionRepository;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 到貨和降價通知測試（H2 內存數據庫），發送任務只手動觸發
+ */
+@H2SpringBootTest(properties = {
+        "notification.dispatch-interval-ms=3600000",
+        "notification.page-size=2"
+})
+class ProductNotificationServiceTests {
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Autowired
+    private ProductNotificationService notificationService;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductSubscriptionRepository subscriptionRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockBean
+    private EmailService emailService;
+
+    @Test
+    void restockNotifiesSubscribersInPagesOutsideTheStockTransaction() {
+        Long productId = fixtures.createProduct("通知商品", "NOTIFY-1", 50, 0);
+        List<Long> userIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Long userId = fixtures.createUser("restock-" + i);
+            notificationService.subscribe(userId, productId, ProductSubscription.Type.BACK_IN_STOCK);
+            userIds.add(userId);
+        }
+        assertThrows(IllegalArgumentException.class, () ->
+                notificationService.subscribe(userIds.get(0), productId, ProductSubscription.Type.BACK_IN_STOCK));
+        when(emailService.sendBulkEmail(anyList(), anyString(), anyString(), anyLong()))
+                .thenAnswer(invocation -> {
+                    List<String> recipients = invocation.getArgument(0);
+                    List<Exception> results = new ArrayList<>();
+                    for (String recipient : recipients) {
+                        results.add(recipient.startsWith("restock-4") ? new SendFailedException("拒收") : null);
+                    }
+                    return results;
+                });
+
+        productService.increaseStock(productId, 3);
+        // 庫存事務中不發送郵件
+        verify(emailService, never()).sendBulkEmail(anyList(), anyString(), anyString(), anyLong());
+
+        notificationService.dispatch();
+
+        // 5 個訂閱分 3 頁發送，同一正文
+        verify(emailService, times(3)).sendBulkEmail(anyList(), eq("到貨通知 - 通知商品"),
+                argThat(html -> html.contains("/products/" + productId)), anyLong());
+        // 送達和被拒收的訂閱都刪除
+        assertTrue(subscriptionRepository.findSubscribedProductIdsIn(List.of(productId)).isEmpty());
+    }
+
+    @Test
+    void failedPriceDropNotificationIsKeptForRetry() {
+        Long productId = fixtures.createProduct("通知商品", "NOTIFY-2", 50, 10);
+        Long userId = fixtures.createUser("price-drop");
+        assertThrows(IllegalArgumentException.class, () ->
+                notificationService.subscribe(userId, productId, ProductSubscription.Type.BACK_IN_STOCK));
+        notificationService.subscribe(userId, productId, ProductSubscription.Type.PRICE_DROP);
+        when(emailService.sendBulkEmail(anyList(), anyString(), anyString(), anyLong()))
+                .thenReturn(List.of(new MessagingException("連接失敗")));
+
+        // 庫存變化但價格未降，不發送
+        productService.increaseStock(productId, 1);
+        notificationService.dispatch();
+        verify(emailService, never()).sendBulkEmail(anyList(), anyString(), anyString(), anyLong());
+
+        jdbcTemplate.update("UPDATE products SET price = 40 WHERE id = ?", productId);
+        productService.increaseStock(productId, 1);
+        notificationService.dispatch();
+
+        verify(emailService).sendBulkEmail(eq(List.of("price-drop@example.com")), eq("降價通知 - 通知商品"),
+                argThat(html -> html.contains("40")), anyLong());
+        assertEquals(List.of(productId), subscriptionRepository.findSubscribedProductIdsIn(List.of(productId)));
+    }
+
+    @Test
+    void subscriptionsAreKeptWhenMailIsUnavailable() {
+        Long productId = fixtures.createProduct("通知商品", "NOTIFY-3", 50, 0);
+        Long userId = fixtures.createUser("mail-down");
+        notificationService.subscribe(userId, productId, ProductSubscription.Type.BACK_IN_STOCK);
+        // 未配置郵件服務的 EmailService 的實際返回結果
+        EmailService unconfigured = new EmailService();
+        when(emailService.sendBulkEmail(anyList(), anyString(), anyString(), anyLong()))
+                .thenAnswer(invocation -> unconfigured.sendBulkEmail(invocation.getArgument(0),
+                        invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3)));
+
+        productService.increaseStock(productId, 2);
+        notificationService.dispatch();
+
+        verify(emailService).sendBulkEmail(eq(List.of("mail-down@example.com")), anyString(), anyString(), anyLong());
+        assertEquals(List.of(productId), subscriptionRepository.findSubscribedProductIdsIn(List.of(productId)));
+    }
+}
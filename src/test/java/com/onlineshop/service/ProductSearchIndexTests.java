@@ -0,0 +1,51 @@
+package com.onlineshop.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 商品倒排索引測試類
+ */
+class ProductSearchIndexTests {
+
+    @Test
+    void searchMatchesChineseBigramsAndPrefixes() {
+        ProductSearchIndex index = new ProductSearchIndex();
+        index.index(1L, "蘋果手機殼", "iPhone 15 保護殼", "PROD-AAA1");
+        index.index(2L, "無線耳機", "藍牙耳機", "PROD-BBB2");
+
+        assertEquals(List.of(1L), index.search("手機", 10));
+        assertEquals(List.of(1L), index.search("iph", 10));
+        assertEquals(List.of(2L), index.search("耳", 10));
+        assertEquals(List.of(2L), index.search("prod-bbb2", 10));
+        assertTrue(index.search("手機 耳機", 10).isEmpty());
+    }
+
+    @Test
+    void nameMatchesRankAboveDescriptionMatches() {
+        ProductSearchIndex index = new ProductSearchIndex();
+        index.index(1L, "Cable organizer", "Keeps your laptop charger tidy", "SKU-1");
+        index.index(2L, "Laptop stand", "Aluminium stand", "SKU-2");
+
+        assertEquals(List.of(2L, 1L), index.search("laptop", 10));
+        assertEquals(List.of(2L), index.search("laptop", 1));
+    }
+
+    @Test
+    void reindexAndRemoveReplaceOldTerms() {
+        ProductSearchIndex index = new ProductSearchIndex();
+        index.index(1L, "Red shirt", null, "SKU-1");
+        index.index(1L, "Blue shirt", null, "SKU-1");
+
+        assertTrue(index.search("red", 10).isEmpty());
+        assertEquals(List.of(1L), index.search("blue", 10));
+
+        index.remove(1L);
+        assertTrue(index.search("shirt", 10).isEmpty());
+        assertEquals(0, index.size());
+    }
+}